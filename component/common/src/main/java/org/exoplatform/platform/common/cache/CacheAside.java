@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2019 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.platform.common.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.exoplatform.services.cache.ExoCache;
+
+/**
+ * Cache-aside access to an {@link ExoCache}: a value missing from the cache is
+ * loaded then cached, unless the cache was invalidated while it was loaded, so
+ * that a value read before a change isn't cached after the change.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class CacheAside<K extends Serializable, V> {
+
+  private final ExoCache<K, V> cache;
+
+  // incremented on each invalidation, so that a value loaded meanwhile isn't cached
+  private final AtomicLong     invalidations = new AtomicLong();
+
+  public CacheAside(ExoCache<K, V> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Get a value from the cache, or load it and cache it if it is missing.
+   *
+   * @param key key of the value
+   * @param loader loads the value if it is missing
+   * @return the value, or null if it is missing and the loader returns null
+   * @throws E if the value can't be loaded
+   */
+  public <E extends Exception> V get(K key, Loader<V, E> loader) throws E {
+    V value = cache.get(key);
+    if (value == null) {
+      long invalidation = invalidations.get();
+      value = loader.load();
+      if (value != null && invalidation == invalidations.get()) {
+        cache.put(key, value);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Remove a value from the cache.
+   *
+   * @param key key of the value
+   */
+  public void remove(K key) {
+    invalidations.incrementAndGet();
+    cache.remove(key);
+  }
+
+  /**
+   * Remove all the values from the cache.
+   */
+  public void clear() {
+    invalidations.incrementAndGet();
+    cache.clearCache();
+  }
+
+  /**
+   * Loads a value missing from the cache.
+   *
+   * @param <V> type of the value
+   * @param <E> type of the exception thrown when the value can't be loaded
+   */
+  public interface Loader<V, E extends Exception> {
+    V load() throws E;
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2019 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.platform.common.navigation;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.exoplatform.platform.common.cache.CacheAside;
+import org.exoplatform.platform.common.service.MenuConfiguratorService;
+import org.exoplatform.portal.config.UserACL;
+import org.exoplatform.portal.mop.SiteKey;
+import org.exoplatform.portal.mop.SiteType;
+import org.exoplatform.portal.mop.navigation.Scope;
+import org.exoplatform.portal.mop.user.UserNavigation;
+import org.exoplatform.portal.mop.user.UserNode;
+import org.exoplatform.portal.mop.user.UserPortal;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.listener.ListenerService;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.security.Identity;
+import org.exoplatform.services.security.MembershipEntry;
+import org.picocontainer.Startable;
+
+/**
+ * Computes the group navigation nodes to display in the left menu, the ones
+ * not in the setup menu, and caches them by set of memberships since users
+ * having the same memberships see the same nodes. Only the first two levels of
+ * the navigations are loaded. The cache is cleared when a group navigation or
+ * a group page is created, updated or deleted.
+ */
+public class GroupNavigationService implements Startable {
+
+  private static final Log                          LOG                 = ExoLogger.getLogger(GroupNavigationService.class);
+
+  public static final String                        CACHE_NAME          = "platform.GroupNavigationTree";
+
+  private static final String                       SPACE_GROUP_PATTERN = "spaces";
+
+  private final MenuConfiguratorService             menuConfiguratorService;
+
+  private final ListenerService                     listenerService;
+
+  private final UserACL                             userACL;
+
+  private final CacheAside<String, GroupNavigationTree> treeCache;
+
+  private final AtomicLong                          versions            = new AtomicLong(System.currentTimeMillis());
+
+  private Set<String>                               setupMenuPageReferences = Collections.emptySet();
+
+  public GroupNavigationService(MenuConfiguratorService menuConfiguratorService,
+                                CacheService cacheService,
+                                ListenerService listenerService,
+                                UserACL userACL) {
+    this.menuConfiguratorService = menuConfiguratorService;
+    this.listenerService = listenerService;
+    this.userACL = userACL;
+    this.treeCache = new CacheAside<String, GroupNavigationTree>(cacheService.getCacheInstance(CACHE_NAME));
+  }
+
+  @Override
+  public void start() {
+    setupMenuPageReferences = new HashSet<String>(menuConfiguratorService.getSetupMenuPageReferences());
+    new GroupSiteChangeListener().registerSiteEvents(listenerService);
+  }
+
+  @Override
+  public void stop() {
+  }
+
+  /**
+   * Get the group navigation nodes to display to a user.
+   *
+   * @param userPortal user portal of the user, used if the nodes aren't cached
+   * @param identity identity of the user
+   * @return the group navigation tree of the user memberships
+   */
+  public GroupNavigationTree getGroupNavigationTree(UserPortal userPortal, Identity identity) {
+    return treeCache.get(getMembershipsKey(identity), () -> buildGroupNavigationTree(userPortal));
+  }
+
+  /**
+   * Load the first two levels of a group navigation, with the nodes the user
+   * can see.
+   *
+   * @param userPortal user portal of the user
+   * @param navigation group navigation
+   * @return root node of the navigation
+   */
+  public UserNode loadGroupNavigation(UserPortal userPortal, UserNavigation navigation) {
+    return userPortal.getNode(navigation, Scope.GRANDCHILDREN, menuConfiguratorService.getMyGroupsFilterConfig(), null);
+  }
+
+  /**
+   * @param userNode a navigation node with a page reference
+   * @return true if the page of the node is in the setup menu
+   */
+  public boolean isUserNodeInSetupMenu(UserNode userNode) {
+    String pageReference = userNode.getPageRef().format();
+    if (pageReference != null && !pageReference.isEmpty()) {
+      return setupMenuPageReferences.contains(pageReference);
+    }
+    return false;
+  }
+
+  /**
+   * Clear the cached group navigation trees.
+   */
+  public void invalidate() {
+    treeCache.clear();
+  }
+
+  private GroupNavigationTree buildGroupNavigationTree(UserPortal userPortal) {
+    GroupNavigationTree tree = new GroupNavigationTree(versions.incrementAndGet());
+    for (UserNavigation navigation : userPortal.getNavigations()) {
+      if ((navigation.getKey().getTypeName().equals(SiteType.GROUP.getName()))
+          && (navigation.getKey().getName().indexOf(SPACE_GROUP_PATTERN) < 0)) {
+        UserNode rootNode = loadGroupNavigation(userPortal, navigation);
+        List<String> validNodeIds = loadNodesNotInSetupMenu(tree, rootNode.getChildren(), 0);
+        if (validNodeIds == null || validNodeIds.isEmpty()) {
+          continue;
+        }
+        tree.addNavigation(navigation.getKey().getName(), validNodeIds);
+      }
+    }
+    return tree;
+  }
+
+  private List<String> loadNodesNotInSetupMenu(GroupNavigationTree tree, Collection<UserNode> userNodes, int childLevel) {
+    childLevel++;
+    if (userNodes == null || userNodes.isEmpty() || childLevel > 2) {
+      return null;
+    }
+    List<String> validNodeIds = new ArrayList<String>();
+    for (UserNode userNode : userNodes) {
+      // Compute the valid child nodes of all nodes recursively, to keep them in the tree
+      List<String> validChildIds = loadNodesNotInSetupMenu(tree, userNode.getChildren(), childLevel);
+      if (validChildIds != null && !validChildIds.isEmpty()) {
+        tree.addValidChildren(userNode.getId(), validChildIds);
+      }
+      // Test if this node have a "page reference" not set in 'Setup Menu'
+      if (userNode.getPageRef() != null && !isUserNodeInSetupMenu(userNode)) {
+        validNodeIds.add(userNode.getId());
+        continue;
+      }
+      // Test if one node's child have a "page reference" not set in 'Setup Menu'
+      if (validChildIds != null && !validChildIds.isEmpty()) {
+        validNodeIds.add(userNode.getId());
+      }
+    }
+    return validNodeIds;
+  }
+
+  /**
+   * The nodes a user can see depend only on the user memberships, except for
+   * the super user who can see all of them.
+   */
+  private String getMembershipsKey(Identity identity) {
+    if (identity == null) {
+      return "";
+    }
+    if (identity.getUserId() != null && identity.getUserId().equals(userACL.getSuperUser())) {
+      return "superuser:" + identity.getUserId();
+    }
+    Set<String> memberships = new TreeSet<String>();
+    for (MembershipEntry membership : identity.getMemberships()) {
+      memberships.add(membership.toString());
+    }
+    return memberships.toString();
+  }
+
+  /**
+   * Clears the cached trees when the navigation or a page of a group site
+   * changes.
+   */
+  private class GroupSiteChangeListener extends SiteChangeListener {
+    @Override
+    protected void onSiteChange(SiteKey siteKey) {
+      if (siteKey == null || siteKey.getType() == SiteType.GROUP) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Group navigation trees invalidated by a change of site " + siteKey);
+        }
+        invalidate();
+      }
+    }
+  }
+}
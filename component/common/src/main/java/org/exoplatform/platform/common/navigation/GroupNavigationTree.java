@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2019 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.platform.common.navigation;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Group navigation nodes to display in the left menu for a set of
+ * memberships: the group navigations with at least one node not in the setup
+ * menu, and for each of them the ids of the nodes to display on two levels.
+ * The version changes each time a tree is built, so that users holding the
+ * nodes of a tree know when they have to load them again.
+ */
+public class GroupNavigationTree implements Serializable {
+  private static final long               serialVersionUID = 1L;
+
+  private final long                      version;
+
+  private final List<String>              navigationNames  = new ArrayList<String>();
+
+  // first level of valid node ids <group navigation name, list of valid node ids>
+  private final Map<String, List<String>> validNodeIds     = new HashMap<String, List<String>>();
+
+  // valid children ids of a node <node id, list of valid children ids>
+  private final Map<String, List<String>> validChildrenIds = new HashMap<String, List<String>>();
+
+  public GroupNavigationTree(long version) {
+    this.version = version;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return names of the group navigations to display, in the user portal order
+   */
+  public List<String> getNavigationNames() {
+    return Collections.unmodifiableList(navigationNames);
+  }
+
+  /**
+   * @param navigationName name of a group navigation
+   * @return ids of the first level nodes to display, or null if the navigation
+   *         isn't displayed
+   */
+  public List<String> getValidNodeIds(String navigationName) {
+    return validNodeIds.get(navigationName);
+  }
+
+  /**
+   * @param nodeId id of a displayed node
+   * @return ids of the children nodes to display, or null if it has none
+   */
+  public List<String> getValidChildrenIds(String nodeId) {
+    return validChildrenIds.get(nodeId);
+  }
+
+  void addNavigation(String navigationName, List<String> nodeIds) {
+    navigationNames.add(navigationName);
+    validNodeIds.put(navigationName, nodeIds);
+  }
+
+  void addValidChildren(String nodeId, List<String> childrenIds) {
+    validChildrenIds.put(nodeId, childrenIds);
+  }
+}
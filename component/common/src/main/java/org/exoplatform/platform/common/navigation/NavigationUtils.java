@@ -34,11 +34,24 @@ public class NavigationUtils {
     private NavigationUtils(){}
 
     public static PageNavigation loadPageNavigation(String userId, NavigationService navigationService, DescriptionService descriptionService)
+    {
+        return loadPageNavigation(userId, navigationService, descriptionService, -1);
+    }
+
+    /**
+     * Load the navigation of a user site, with only the nodes down to a given
+     * depth, so that the labels of the deeper nodes are not looked up either.
+     *
+     * @param depth number of levels of nodes loaded under the root node, or -1
+     *          to load all the nodes
+     */
+    public static PageNavigation loadPageNavigation(String userId, NavigationService navigationService,
+                                                    DescriptionService descriptionService, int depth)
     {
         NavigationContext navigation = navigationService.loadNavigation(SiteKey.user(userId));
         if (navigation == null) return null;
 
-        NodeContext<NodeContext<?>> node = loadNode(navigationService, navigation, null);
+        NodeContext<NodeContext<?>> node = loadNode(navigationService, navigation, depth);
         if (node == null) return null;
 
 
@@ -67,6 +80,21 @@ public class NavigationUtils {
         }
     }
 
+    /**
+     * Load the nodes of a navigation down to a given depth.
+     *
+     * @param depth number of levels of nodes loaded under the root node, or -1
+     *          to load all the nodes
+     */
+    public static NodeContext<NodeContext<?>> loadNode(NavigationService navigationService, NavigationContext navigation,
+                                                       int depth) {
+        if (navigation == null)
+            return null;
+
+        Scope scope = depth < 0 ? Scope.ALL : GenericScope.treeShape(depth);
+        return navigationService.loadNode(NodeModel.SELF_MODEL, navigation, scope, null);
+    }
+
     public static PageNavigation createPageNavigation(DescriptionService service, NavigationContext navigation, NodeContext<NodeContext<?>> node) {
         PageNavigation pageNavigation = new PageNavigation();
         pageNavigation.setPriority(navigation.getState().getPriority());
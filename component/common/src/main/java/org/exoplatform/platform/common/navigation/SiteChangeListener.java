@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2019 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.platform.common.navigation;
+
+import org.exoplatform.portal.mop.EventType;
+import org.exoplatform.portal.mop.SiteKey;
+import org.exoplatform.portal.mop.page.PageContext;
+import org.exoplatform.portal.mop.page.PageKey;
+import org.exoplatform.services.listener.Event;
+import org.exoplatform.services.listener.Listener;
+import org.exoplatform.services.listener.ListenerService;
+
+/**
+ * Listener of the changes of the navigation or of the pages of the portal
+ * sites, giving the key of the changed site to {@link #onSiteChange(SiteKey)}.
+ */
+public abstract class SiteChangeListener extends Listener<Object, Object> {
+
+  private static final String[] NAVIGATION_EVENTS = { EventType.NAVIGATION_CREATED, EventType.NAVIGATION_UPDATED,
+      EventType.NAVIGATION_DESTROYED };
+
+  private static final String[] PAGE_EVENTS       = { EventType.PAGE_CREATED, EventType.PAGE_UPDATED,
+      EventType.PAGE_DESTROYED };
+
+  /**
+   * Listen to the changes of the navigation of the sites.
+   *
+   * @param listenerService service broadcasting the events
+   */
+  public void registerNavigationEvents(ListenerService listenerService) {
+    for (String event : NAVIGATION_EVENTS) {
+      listenerService.addListener(event, this);
+    }
+  }
+
+  /**
+   * Listen to the changes of the navigation and of the pages of the sites.
+   *
+   * @param listenerService service broadcasting the events
+   */
+  public void registerSiteEvents(ListenerService listenerService) {
+    registerNavigationEvents(listenerService);
+    for (String event : PAGE_EVENTS) {
+      listenerService.addListener(event, this);
+    }
+  }
+
+  @Override
+  public void onEvent(Event<Object, Object> event) throws Exception {
+    onSiteChange(getSiteKey(event.getData()));
+  }
+
+  /**
+   * Called when the navigation or a page of a site changes.
+   *
+   * @param siteKey key of the site, or null if the event doesn't tell it
+   * @throws Exception if the change can't be handled
+   */
+  protected abstract void onSiteChange(SiteKey siteKey) throws Exception;
+
+  /**
+   * @param data data of a navigation or page event
+   * @return key of the site of the navigation or of the page, or null if the
+   *         data isn't a site, page key or page
+   */
+  public static SiteKey getSiteKey(Object data) {
+    if (data instanceof SiteKey) {
+      return (SiteKey) data;
+    } else if (data instanceof PageKey) {
+      return ((PageKey) data).getSite();
+    } else if (data instanceof PageContext) {
+      return ((PageContext) data).getKey().getSite();
+    }
+    return null;
+  }
+}
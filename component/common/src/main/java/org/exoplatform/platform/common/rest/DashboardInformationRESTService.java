@@ -5,17 +5,24 @@ import org.exoplatform.application.gadget.GadgetRegistryService;
 import org.exoplatform.common.http.HTTPStatus;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.platform.common.cache.CacheAside;
 import org.exoplatform.platform.common.navigation.NavigationUtils;
+import org.exoplatform.platform.common.navigation.SiteChangeListener;
 import org.exoplatform.portal.config.DataStorage;
 import org.exoplatform.portal.config.model.Application;
 import org.exoplatform.portal.config.model.*;
+import org.exoplatform.portal.mop.SiteKey;
+import org.exoplatform.portal.mop.SiteType;
 import org.exoplatform.portal.mop.description.DescriptionService;
 import org.exoplatform.portal.mop.navigation.NavigationService;
 import org.exoplatform.portal.pom.spi.portlet.Portlet;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.listener.ListenerService;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.rest.resource.ResourceContainer;
 import org.exoplatform.services.security.ConversationState;
+import org.picocontainer.Startable;
 
 import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.GET;
@@ -23,9 +30,13 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.*;
+import java.io.Serializable;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * WS REST which permit to access to all user's dashboards
@@ -36,31 +47,57 @@ import java.util.List;
  * <li>/dashboards to access to all dashboards</li>
  * <li>dashboards/{userName}/{dashboardName} to access to all gadgets from a dashboard</li>
  * </ul>
+ * <p>
+ * The dashboard pages of each user are cached, and removed from the cache when
+ * the navigation or a page of the user site changes. The gadgets of each
+ * dashboard are cached by dashboard storage id for a short time only, since
+ * the dashboards saved by the portal don't notify any change.
+ * The endpoints keep no state between requests.
  * 
  * @author Clement
  *
  */
 @Path(DashboardInformationRESTService.WS_ROOT_PATH)
-public class DashboardInformationRESTService implements ResourceContainer {
+public class DashboardInformationRESTService implements ResourceContainer, Startable {
 
   private static final Log LOG = ExoLogger.getLogger(DashboardInformationRESTService.class);
 
   protected final static String WS_ROOT_PATH = "/dashboards";
   protected final static String STANDALONE_ROOT_PATH = "/standalone";
 
+  public static final String DASHBOARD_PAGES_CACHE_NAME = "platform.UserDashboardPages";
+
+  public static final String DASHBOARD_GADGETS_CACHE_NAME = "platform.DashboardGadgets";
+
   private final DataStorage dataStorageService;
   private final GadgetRegistryService gadgetRegistryService;
-  
-  private List<JsonGadgetInfo> gadgetsInfo;
+
     private NavigationService navigationService_;
     private DescriptionService descriptionService_;
-    private PageNavigation navigation;
+    private final ListenerService listenerService;
+    // dashboard pages by user
+    private final CacheAside<String, ArrayList<DashboardPage>> dashboardPagesCache;
+    // gadgets by dashboard storage id
+    private final CacheAside<String, ArrayList<JsonGadgetInfo>> dashboardGadgetsCache;
 
-    public DashboardInformationRESTService(DataStorage dataStorageService, GadgetRegistryService gadgetRegistryService,DescriptionService descriptionService,NavigationService navigationService) {
+    public DashboardInformationRESTService(DataStorage dataStorageService, GadgetRegistryService gadgetRegistryService,DescriptionService descriptionService,NavigationService navigationService,
+                                           CacheService cacheService, ListenerService listenerService) {
    this.dataStorageService = dataStorageService;
     this.gadgetRegistryService = gadgetRegistryService;
       this.navigationService_= navigationService;
       this.descriptionService_= descriptionService;
+      this.listenerService = listenerService;
+      this.dashboardPagesCache = new CacheAside<String, ArrayList<DashboardPage>>(cacheService.getCacheInstance(DASHBOARD_PAGES_CACHE_NAME));
+      this.dashboardGadgetsCache = new CacheAside<String, ArrayList<JsonGadgetInfo>>(cacheService.getCacheInstance(DASHBOARD_GADGETS_CACHE_NAME));
+  }
+
+  @Override
+  public void start() {
+    new UserSiteChangeListener().registerSiteEvents(listenerService);
+  }
+
+  @Override
+  public void stop() {
   }
 
 
@@ -81,48 +118,28 @@ public class DashboardInformationRESTService implements ResourceContainer {
           LinkedList<JsonDashboardInfo> list = new LinkedList<JsonDashboardInfo>();
           // Try to get all user nodes which corresponds to dashboards
           String userId = ConversationState.getCurrent().getIdentity().getUserId();
-          //Loading User Navigation only
-          navigation = NavigationUtils.loadPageNavigation(userId,navigationService_, descriptionService_);
-
-      // --- There is at least one user navigation
-      if (navigation != null) {
-          //Get navigations
-          List<NavigationFragment> fragments = navigation.getFragments() ;
-          //Get dashboard tabs
-          for (NavigationFragment frag:fragments) {
-              List<PageNode> pagesNode=frag.getNodes();
-              // Fetch all nodes to add dashboards to the final list
-              String wsSubPath = "";
-              String dashboardSubPath = "";
-              URI wsURI = null;
-              URI dashboardURI = null;
-              for (PageNode pageNode:pagesNode){
-                  Application<Portlet> appDashboard = (Application<Portlet>) extractDashboard(dataStorageService.getPage(pageNode.getPageReference()));
-                  if(appDashboard == null) {
-                    continue;
-                  }
-                  // Dashboard only into TransientApplication
-                  if(appDashboard.getState() instanceof TransientApplicationState) {
-                      JsonDashboardInfo info = new JsonDashboardInfo();
-                      info.setId(pageNode.getName());
-                      info.setLabel(pageNode.getLabel());
-                      // Create URI to WS REST
-                      wsSubPath = PortalContainer.getCurrentRestContextName() + "/private" + WS_ROOT_PATH + "/" + userId + "/" + getPageName(pageNode.getPageReference());
-                      wsURI = uriInfo.getBaseUriBuilder().replaceMatrix(wsSubPath).build();
-                      // Create URI to dashboard into portal
-                      dashboardSubPath = PortalContainer.getCurrentPortalContainerName() + "/u/" + userId + "/" + pageNode.getName();
-                      dashboardURI = uriInfo.getBaseUriBuilder().replaceMatrix(dashboardSubPath).build();
-
-                      info.setLink(wsURI.toString());
-                      info.setHtml(dashboardURI.toString());
-                      list.add(info);
-                  }
-              }
+          String wsSubPath = "";
+          String dashboardSubPath = "";
+          URI wsURI = null;
+          URI dashboardURI = null;
+          for (DashboardPage dashboardPage : getDashboardPages(userId)) {
+              JsonDashboardInfo info = new JsonDashboardInfo();
+              info.setId(dashboardPage.getName());
+              info.setLabel(dashboardPage.getLabel());
+              // Create URI to WS REST
+              wsSubPath = PortalContainer.getCurrentRestContextName() + "/private" + WS_ROOT_PATH + "/" + userId + "/" + getPageName(dashboardPage.getPageReference());
+              wsURI = uriInfo.getBaseUriBuilder().replaceMatrix(wsSubPath).build();
+              // Create URI to dashboard into portal
+              dashboardSubPath = PortalContainer.getCurrentPortalContainerName() + "/u/" + userId + "/" + dashboardPage.getName();
+              dashboardURI = uriInfo.getBaseUriBuilder().replaceMatrix(dashboardSubPath).build();
+
+              info.setLink(wsURI.toString());
+              info.setHtml(dashboardURI.toString());
+              list.add(info);
           }
           if (LOG.isDebugEnabled()) {
               LOG.debug("Getting Dashboards Information");
           }
-      }
       // Response to client
       return Response.ok(list, MediaType.APPLICATION_JSON).cacheControl(cacheControl).build();
     } catch (Exception e) {
@@ -140,9 +157,6 @@ public class DashboardInformationRESTService implements ResourceContainer {
                                        @PathParam("dashboardName") String dashboardName,
                                        @Context UriInfo uriInfo) {
     
-    // Initialize gadgetInfo list
-    gadgetsInfo = new LinkedList<JsonGadgetInfo>();
-    
     RequestLifeCycle.begin(PortalContainer.getInstance());
 
     CacheControl cacheControl = new CacheControl();
@@ -153,24 +167,19 @@ public class DashboardInformationRESTService implements ResourceContainer {
         LOG.debug("Getting Gadgets Information");
       }
       
+      List<JsonGadgetInfo> gadgetsInfo = new LinkedList<JsonGadgetInfo>();
       Page page = dataStorageService.getPage("user::" + userName + "::" + dashboardName);
       if(page != null && page.getChildren() != null && page.getChildren().size() > 0) {
         Application<Portlet> appDashboard = (Application<Portlet>) extractDashboard(page);
         
         if(appDashboard != null) { 
-          // Get gadgets from dashboard and fill it to the list
-          Dashboard dashboard = dataStorageService.loadDashboard(appDashboard.getStorageId());
-          
-          // Extract all gadgets from dashboard
-          extractGadgets(dashboard);
-          
-          // For each url into jsonObjects, modify some informations
-          int i = 0;
+          // For each gadget of the dashboard, modify some informations of a copy
           String standaloneSubPath = "";
           URI standaloneURI = null;
           String iconSubPath = "";
           URI iconURI = null;
-          for(JsonGadgetInfo info : gadgetsInfo) {
+          for(JsonGadgetInfo dashboardGadget : getDashboardGadgets(appDashboard.getStorageId())) {
+            JsonGadgetInfo info = new JsonGadgetInfo(dashboardGadget);
             standaloneSubPath = info.getGadgetUrl();
             standaloneURI = uriInfo.getBaseUriBuilder().replaceMatrix(standaloneSubPath).build();
             info.setGadgetUrl(standaloneURI.toString());
@@ -182,7 +191,7 @@ public class DashboardInformationRESTService implements ResourceContainer {
               info.setGadgetIcon(iconURI.toString());
             }
             
-            gadgetsInfo.set(i++, info);
+            gadgetsInfo.add(info);
           }
         }
       }
@@ -209,12 +218,98 @@ public class DashboardInformationRESTService implements ResourceContainer {
    * Private methods and classes
    *======================================================================*/
 
+  /**
+   * Get the dashboard pages of a user, from the cache or from the first level
+   * nodes of the user site, which are the dashboard tabs.
+   */
+  private List<DashboardPage> getDashboardPages(String userId) throws Exception {
+    return dashboardPagesCache.get(userId, () -> loadDashboardPages(userId));
+  }
+
+  @SuppressWarnings("unchecked")
+  private ArrayList<DashboardPage> loadDashboardPages(String userId) throws Exception {
+    ArrayList<DashboardPage> dashboardPages = new ArrayList<DashboardPage>();
+    //Loading User Navigation only, with the dashboard tabs
+    PageNavigation navigation = NavigationUtils.loadPageNavigation(userId, navigationService_, descriptionService_, 1);
+    // --- There is at least one user navigation
+    if (navigation != null) {
+      for (NavigationFragment frag : navigation.getFragments()) {
+        for (PageNode pageNode : frag.getNodes()) {
+          if (pageNode.getPageReference() == null) {
+            continue;
+          }
+          Application<Portlet> appDashboard = (Application<Portlet>) extractDashboard(dataStorageService.getPage(pageNode.getPageReference()));
+          // Dashboard only into TransientApplication
+          if (appDashboard != null && appDashboard.getState() instanceof TransientApplicationState) {
+            dashboardPages.add(new DashboardPage(pageNode.getName(), pageNode.getLabel(), pageNode.getPageReference()));
+          }
+        }
+      }
+    }
+    return dashboardPages;
+  }
+
+  /**
+   * Dashboard page of a user, as cached
+   */
+  private static class DashboardPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final String label;
+    private final String pageReference;
+
+    DashboardPage(String name, String label, String pageReference) {
+      this.name = name;
+      this.label = label;
+      this.pageReference = pageReference;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    String getLabel() {
+      return label;
+    }
+
+    String getPageReference() {
+      return pageReference;
+    }
+  }
+
+  /**
+   * Removes from the cache the dashboard pages of a user whose site navigation
+   * or pages change.
+   */
+  private class UserSiteChangeListener extends SiteChangeListener {
+    @Override
+    protected void onSiteChange(SiteKey siteKey) {
+      if (siteKey != null && siteKey.getType() == SiteType.USER) {
+        dashboardPagesCache.remove(siteKey.getName());
+      }
+    }
+  }
+
+  /**
+   * Get the gadgets of a dashboard, from the cache or from the dashboard
+   */
+  private List<JsonGadgetInfo> getDashboardGadgets(String dashboardId) throws Exception {
+    return dashboardGadgetsCache.get(dashboardId, () -> {
+      ArrayList<JsonGadgetInfo> gadgetsInfo = new ArrayList<JsonGadgetInfo>();
+      // Extract all gadgets from dashboard
+      extractGadgets(dataStorageService.loadDashboard(dashboardId), gadgetsInfo, new HashMap<String, Gadget>());
+      return gadgetsInfo;
+    });
+  }
+
   /**
    * This recursive method extract all gadgets information from a container Tree to DTO
+   * @param gadgets gadgets already read from the registry, by name
    * @throws Exception 
    */
   @SuppressWarnings({ "rawtypes", "unchecked" })
-  private void extractGadgets(Container container) throws Exception {
+  private void extractGadgets(Container container, List<JsonGadgetInfo> gadgetsInfo, Map<String, Gadget> gadgets) throws Exception {
     
     if(container != null) {
       List<ModelObject> children = container.getChildren();
@@ -224,7 +319,13 @@ public class DashboardInformationRESTService implements ResourceContainer {
             Application application = (Application)child;
             if(ApplicationType.GADGET == application.getType()) {
               String gadgetName = dataStorageService.getId(application.getState());
-              Gadget gadget = gadgetRegistryService.getGadget(gadgetName);
+              Gadget gadget;
+              if (gadgets.containsKey(gadgetName)) {
+                gadget = gadgets.get(gadgetName);
+              } else {
+                gadget = gadgetRegistryService.getGadget(gadgetName);
+                gadgets.put(gadgetName, gadget);
+              }
   
               if(gadget != null) {
                 JsonGadgetInfo info = new JsonGadgetInfo();
@@ -241,7 +342,7 @@ public class DashboardInformationRESTService implements ResourceContainer {
           }
           else if(child instanceof Container) {
             Container childContainer = (Container) child;
-            extractGadgets(childContainer);
+            extractGadgets(childContainer, gadgetsInfo, gadgets);
           }
         }
       }
@@ -322,11 +423,23 @@ public class DashboardInformationRESTService implements ResourceContainer {
    * @author Clement
    *
    */
-  public static class JsonGadgetInfo {
+  public static class JsonGadgetInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     String gadgetName;
     String gadgetUrl;
     String gadgetIcon;
     String gadgetDescription;
+
+    public JsonGadgetInfo() {
+    }
+
+    public JsonGadgetInfo(JsonGadgetInfo info) {
+      this.gadgetName = info.gadgetName;
+      this.gadgetUrl = info.gadgetUrl;
+      this.gadgetIcon = info.gadgetIcon;
+      this.gadgetDescription = info.gadgetDescription;
+    }
     
     public String getGadgetName() {
       return gadgetName;
@@ -2,27 +2,51 @@ package org.exoplatform.platform.common.service;
 
 import org.exoplatform.container.configuration.ConfigurationManager;
 import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.platform.common.cache.CacheAside;
+import org.exoplatform.platform.common.navigation.SiteChangeListener;
 import org.exoplatform.platform.common.service.plugin.MenuConfiguratorAddNodePlugin;
 import org.exoplatform.platform.common.service.plugin.MenuConfiguratorRemoveNodePlugin;
 import org.exoplatform.portal.config.model.*;
 import org.exoplatform.portal.mop.SiteKey;
 import org.exoplatform.portal.mop.Visibility;
+import org.exoplatform.portal.mop.navigation.NavigationContext;
+import org.exoplatform.portal.mop.navigation.NavigationService;
+import org.exoplatform.portal.mop.navigation.NodeContext;
+import org.exoplatform.portal.mop.navigation.NodeModel;
+import org.exoplatform.portal.mop.navigation.NodeState;
 import org.exoplatform.portal.mop.navigation.Scope;
+import org.exoplatform.portal.mop.navigation.VisitMode;
 import org.exoplatform.portal.mop.user.UserNavigation;
 import org.exoplatform.portal.mop.user.UserNode;
 import org.exoplatform.portal.mop.user.UserNodeFilterConfig;
 import org.exoplatform.portal.mop.user.UserPortal;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.listener.ListenerService;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.picocontainer.Startable;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Setup menu configuration. The setup menu items are resolved with an index
+ * of the paths of the nodes having the setup menu page references in each
+ * site, so that only the branches leading to these nodes are loaded, once per
+ * site. The index of a site is built when first used, and again after its
+ * navigation changes or when an indexed path doesn't exist anymore. The indexes
+ * are kept in a cache invalidated in the whole cluster.
+ */
 public class MenuConfiguratorService implements Startable {
 
+  public static final String CACHE_NAME = "platform.SetupMenuPageReferencePaths";
+
   private static final Log LOG = ExoLogger.getLogger(MenuConfiguratorService.class);
   private ConfigurationManager configurationManager;
   private String setupNavigationFilePath;
@@ -30,9 +54,24 @@ public class MenuConfiguratorService implements Startable {
   private List<MenuConfiguratorAddNodePlugin> menuConfiguratorAddNodePlugins = new ArrayList<MenuConfiguratorAddNodePlugin>();
   private List<MenuConfiguratorRemoveNodePlugin> menuConfiguratorRemoveNodePlugins = new ArrayList<MenuConfiguratorRemoveNodePlugin>();
   private UserNodeFilterConfig myGroupsFilterConfig;
+  private NavigationService navigationService;
+  private ListenerService listenerService;
+  // page references of the setup menu, in the menu order
+  private List<String> setupMenuPageReferences = new ArrayList<String>();
+  // page references of the setup menu by site
+  private Map<SiteKey, List<String>> setupMenuSitesPageReferences = new LinkedHashMap<SiteKey, List<String>>();
+  // paths of the nodes having a page reference of the setup menu <site, <page reference, paths>>
+  private final CacheAside<SiteKey, HashMap<String, List<String[]>>> pageReferencePaths;
 
-  public MenuConfiguratorService(InitParams initParams, ConfigurationManager configurationManager) {
+  public MenuConfiguratorService(InitParams initParams,
+                                 ConfigurationManager configurationManager,
+                                 NavigationService navigationService,
+                                 CacheService cacheService,
+                                 ListenerService listenerService) {
     this.configurationManager = configurationManager;
+    this.navigationService = navigationService;
+    this.listenerService = listenerService;
+    this.pageReferencePaths = new CacheAside<SiteKey, HashMap<String, List<String[]>>>(cacheService.getCacheInstance(CACHE_NAME));
     if (initParams.containsKey("setup.navigation.file")) {
       setupNavigationFilePath = initParams.getValueParam("setup.navigation.file").getValue();
     } else {
@@ -45,14 +84,26 @@ public class MenuConfiguratorService implements Startable {
   }
 
   public List<String> getSetupMenuPageReferences() {
-    List<String> pageReferences = new ArrayList<String>();
-    getPageReferences(pageReferences, setupPageNodes);
-    return pageReferences;
+    return new ArrayList<String>(setupMenuPageReferences);
   }
 
   public List<UserNode> getSetupMenuItems(UserPortal userPortal) throws Exception {
+    Map<String, UserNode> pageReferenceNodes = new HashMap<String, UserNode>();
+    for (Map.Entry<SiteKey, List<String>> sitePageReferences : setupMenuSitesPageReferences.entrySet()) {
+      UserNavigation userNavigation = userPortal.getNavigation(sitePageReferences.getKey());
+      searchUserNodesByPageReference(userPortal, userNavigation, sitePageReferences.getValue(), pageReferenceNodes);
+    }
     List<UserNode> userNodes = new ArrayList<UserNode>();
-    getSetupMenuItems(userPortal, userNodes, setupPageNodes);
+    for (String pageReference : setupMenuPageReferences) {
+      UserNode userNode = pageReferenceNodes.get(pageReference);
+      if (userNode != null) {
+        userNodes.add(userNode);
+      } else {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Can't find a navigation with pageReference: " + pageReference);
+        }
+      }
+    }
     return userNodes;
   }
 
@@ -103,6 +154,21 @@ public class MenuConfiguratorService implements Startable {
         fixOwnerName(pageNode);
       }
 
+      getPageReferences(setupMenuPageReferences, setupPageNodes);
+      for (String pageReference : setupMenuPageReferences) {
+        SiteKey siteKey = new SiteKey(getOwnerType(pageReference), getOwnerName(pageReference));
+        List<String> sitePageReferences = setupMenuSitesPageReferences.get(siteKey);
+        if (sitePageReferences == null) {
+          sitePageReferences = new ArrayList<String>();
+          setupMenuSitesPageReferences.put(siteKey, sitePageReferences);
+        }
+        if (!sitePageReferences.contains(pageReference)) {
+          sitePageReferences.add(pageReference);
+        }
+      }
+
+      new NavigationChangeListener().registerNavigationEvents(listenerService);
+
     } catch (Exception e) {
       throw new IllegalStateException("Unknown error occurred when setting Setup menu items.", e);
     }
@@ -125,60 +191,175 @@ public class MenuConfiguratorService implements Startable {
     }
   }
 
-  private void getSetupMenuItems(UserPortal userPortal, List<UserNode> userNodes, List<PageNode> setupPageNodes) {
-    for (PageNode pageNode : setupPageNodes) {
-      String pageReference = pageNode.getPageReference();
-      UserNavigation userNavigation = userPortal.getNavigation(new SiteKey(getOwnerType(pageReference),
-          getOwnerName(pageReference)));
-      UserNode userNode = searchUserNodeByPageReference(userPortal, userNavigation, pageReference);
-      if (userNode != null) {
-        userNodes.add(userNode);
-      } else {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Can't find a navigation with pageReference: " + pageReference);
+  /**
+   * Search the nodes of a navigation having some page references, loading only
+   * the branches of the indexed nodes. When several nodes have the same page
+   * reference, the first one visible by the user is kept. When a page
+   * reference isn't visible by the user at its indexed paths, these paths are
+   * checked in the navigation without the user filter: if they don't exist
+   * anymore, the index is outdated, so it is built again and the search is
+   * retried once. Otherwise the nodes are only hidden to the user.
+   */
+  private void searchUserNodesByPageReference(UserPortal userPortal,
+                                              UserNavigation nav,
+                                              List<String> pageReferences,
+                                              Map<String, UserNode> pageReferenceNodes) {
+    if (nav != null) {
+      try {
+        Map<String, List<String[]>> paths = getPageReferencePaths(nav.getKey(), pageReferences);
+        List<String> notFound = searchUserNodesByPageReference(userPortal, nav, paths, pageReferences, pageReferenceNodes);
+        if (!notFound.isEmpty() && isIndexOutdated(nav.getKey(), paths, notFound)) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Setup menu nodes not found in " + nav.getKey() + ", its page references are indexed again");
+          }
+          pageReferencePaths.remove(nav.getKey());
+          searchUserNodesByPageReference(userPortal, nav, getPageReferencePaths(nav.getKey(), pageReferences),
+                                         pageReferences, pageReferenceNodes);
         }
+      } catch (Exception exp) {
+        LOG.warn(nav.getKey().getName() + " has been deleted");
       }
-      if (pageNode.getChildren() != null && !pageNode.getChildren().isEmpty()) {
-        getSetupMenuItems(userPortal, userNodes, pageNode.getChildren());
+    }
+  }
+
+  /**
+   * @return the indexed page references not found at their indexed paths
+   */
+  private List<String> searchUserNodesByPageReference(UserPortal userPortal,
+                                                      UserNavigation nav,
+                                                      Map<String, List<String[]>> paths,
+                                                      List<String> pageReferences,
+                                                      Map<String, UserNode> pageReferenceNodes) throws Exception {
+    List<String> notFound = new ArrayList<String>();
+    if (paths.isEmpty()) {
+      return notFound;
+    }
+    List<String[]> branches = new ArrayList<String[]>();
+    for (List<String[]> pageReferencePaths : paths.values()) {
+      branches.addAll(pageReferencePaths);
+    }
+    UserNode rootNode = userPortal.getNode(nav, new BranchesScope(branches), myGroupsFilterConfig, null);
+    for (String pageReference : pageReferences) {
+      UserNode userNode = searchUserNodeByPageReference(rootNode, paths.get(pageReference), pageReference);
+      if (userNode != null) {
+        pageReferenceNodes.put(pageReference, userNode);
+      } else if (paths.containsKey(pageReference)) {
+        notFound.add(pageReference);
       }
     }
+    return notFound;
   }
 
-  private UserNode searchUserNodeByPageReference(UserPortal userPortal, UserNavigation nav, String pageReference) {
-    if (nav != null) {
-      try {
-        UserNode rootNode = userPortal.getNode(nav, Scope.ALL, myGroupsFilterConfig, null);
-        if (rootNode.getPageRef() != null && pageReference.equals(rootNode.getPageRef())) {
-          return rootNode;
-        }
+  /**
+   * Check the indexed paths of some page references in the navigation of a
+   * site, without the user filter.
+   *
+   * @return true if none of the indexed paths of a page reference leads to a
+   *         node having this page reference anymore
+   */
+  private boolean isIndexOutdated(SiteKey siteKey, Map<String, List<String[]>> paths, List<String> pageReferences) {
+    NavigationContext navigation = navigationService.loadNavigation(siteKey);
+    if (navigation == null) {
+      return true;
+    }
+    List<String[]> branches = new ArrayList<String[]>();
+    for (String pageReference : pageReferences) {
+      branches.addAll(paths.get(pageReference));
+    }
+    NodeContext<NodeContext<?>> rootNode = navigationService.loadNode(NodeModel.SELF_MODEL, navigation,
+                                                                      new BranchesScope(branches), null);
+    for (String pageReference : pageReferences) {
+      if (!hasNodeByPageReference(rootNode, paths.get(pageReference), pageReference)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean hasNodeByPageReference(NodeContext<NodeContext<?>> rootNode, List<String[]> paths, String pageReference) {
+    for (String[] path : paths) {
+      NodeContext<NodeContext<?>> node = rootNode;
+      for (int i = 0; i < path.length && node != null; i++) {
+        node = getChild(node, path[i]);
+      }
+      if (node != null && node.getState().getPageRef() != null
+          && node.getState().getPageRef().format().equals(pageReference)) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-        if (rootNode.getChildren() != null && !rootNode.getChildren().isEmpty()) {
-          return searchUserNodeByPageReference(rootNode.getChildren(), pageReference);
+  @SuppressWarnings("unchecked")
+  private NodeContext<NodeContext<?>> getChild(NodeContext<NodeContext<?>> node, String name) {
+    if (node.getNodes() != null) {
+      for (NodeContext<?> child : node.getNodes()) {
+        if (name.equals(child.getName())) {
+          return (NodeContext<NodeContext<?>>) child;
         }
-      } catch (Exception exp) {
-        LOG.warn(nav.getKey().getName() + " has been deleted");
       }
     }
     return null;
   }
 
-  private UserNode searchUserNodeByPageReference(Collection<UserNode> userNodes, String pageReference) {
-    if (userNodes == null || userNodes.isEmpty()) {
+  private UserNode searchUserNodeByPageReference(UserNode rootNode, List<String[]> paths, String pageReference) {
+    if (paths == null) {
       return null;
     }
-    for (UserNode userNode : userNodes) {
-      if (userNode.getPageRef() != null && userNode.getPageRef().format().equals(pageReference)) {
+    for (String[] path : paths) {
+      UserNode userNode = rootNode;
+      for (int i = 0; i < path.length && userNode != null; i++) {
+        userNode = userNode.getChild(path[i]);
+      }
+      if (userNode != null && userNode.getPageRef() != null && userNode.getPageRef().format().equals(pageReference)) {
         return userNode;
-      } else if (userNode.getChildren() != null && !userNode.getChildren().isEmpty()) {
-        UserNode childNode = searchUserNodeByPageReference(userNode.getChildren(), pageReference);
-        if (childNode != null) {
-          return childNode;
-        }
       }
     }
     return null;
   }
 
+  /**
+   * Get the paths of the nodes of a site having some page references, in the
+   * navigation order, and index them if they aren't yet.
+   */
+  private Map<String, List<String[]>> getPageReferencePaths(final SiteKey siteKey, final List<String> pageReferences) {
+    return pageReferencePaths.get(siteKey, () -> {
+      HashMap<String, List<String[]>> paths = new HashMap<String, List<String[]>>();
+      NavigationContext navigation = navigationService.loadNavigation(siteKey);
+      if (navigation != null) {
+        NodeContext<NodeContext<?>> rootNode = navigationService.loadNode(NodeModel.SELF_MODEL, navigation, Scope.ALL, null);
+        indexPageReferences(rootNode, new ArrayList<String>(), new HashSet<String>(pageReferences), paths);
+      }
+      return paths;
+    });
+  }
+
+  private void indexPageReferences(NodeContext<NodeContext<?>> node,
+                                   List<String> path,
+                                   Set<String> pageReferences,
+                                   Map<String, List<String[]>> paths) {
+    if (node.getState().getPageRef() != null) {
+      String pageReference = node.getState().getPageRef().format();
+      if (pageReferences.contains(pageReference)) {
+        List<String[]> pageReferencePaths = paths.get(pageReference);
+        if (pageReferencePaths == null) {
+          pageReferencePaths = new ArrayList<String[]>();
+          paths.put(pageReference, pageReferencePaths);
+        }
+        pageReferencePaths.add(path.toArray(new String[path.size()]));
+      }
+    }
+    if (node.getNodes() != null) {
+      for (NodeContext<?> child : node.getNodes()) {
+        @SuppressWarnings("unchecked")
+        NodeContext<NodeContext<?>> childNode = (NodeContext<NodeContext<?>>) child;
+        path.add(childNode.getName());
+        indexPageReferences(childNode, path, pageReferences, paths);
+        path.remove(path.size() - 1);
+      }
+    }
+  }
+
   private String getOwnerType(String pageReference) {
     String[] pageIds = pageReference.split("::");
     return pageIds[0];
@@ -215,4 +396,62 @@ public class MenuConfiguratorService implements Startable {
       return owner;
     }
   }
+
+  /**
+   * Scope loading the nodes along some paths, with their siblings.
+   */
+  static class BranchesScope implements Scope {
+    // paths of the nodes whose children are loaded
+    private final Set<String> expandedPaths = new HashSet<String>();
+
+    BranchesScope(List<String[]> branches) {
+      for (String[] branch : branches) {
+        StringBuilder path = new StringBuilder();
+        expandedPaths.add("");
+        for (int i = 0; i < branch.length - 1; i++) {
+          path.append('/').append(branch[i]);
+          expandedPaths.add(path.toString());
+        }
+      }
+    }
+
+    @Override
+    public Visitor get() {
+      final List<String> names = new ArrayList<String>();
+      return new Visitor() {
+        @Override
+        public VisitMode enter(int depth, String id, String name, NodeState state) {
+          while (names.size() > depth) {
+            names.remove(names.size() - 1);
+          }
+          names.add(name);
+          StringBuilder path = new StringBuilder();
+          // the root node isn't part of the paths
+          for (int i = 1; i < names.size(); i++) {
+            path.append('/').append(names.get(i));
+          }
+          return expandedPaths.contains(path.toString()) ? VisitMode.ALL_CHILDREN : VisitMode.NO_CHILDREN;
+        }
+
+        @Override
+        public void leave(int depth, String id, String name, NodeState state) {
+        }
+      };
+    }
+  }
+
+  /**
+   * Drops the index of the page references of a site when its navigation
+   * changes.
+   */
+  private class NavigationChangeListener extends SiteChangeListener {
+    @Override
+    protected void onSiteChange(SiteKey siteKey) {
+      if (siteKey != null) {
+        pageReferencePaths.remove(siteKey);
+      } else {
+        pageReferencePaths.clear();
+      }
+    }
+  }
 }
@@ -0,0 +1,183 @@
+package org.exoplatform.platform.common.navigation;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import org.exoplatform.platform.common.service.MenuConfiguratorService;
+import org.exoplatform.portal.config.UserACL;
+import org.exoplatform.portal.mop.EventType;
+import org.exoplatform.portal.mop.SiteKey;
+import org.exoplatform.portal.mop.navigation.NodeChangeListener;
+import org.exoplatform.portal.mop.navigation.Scope;
+import org.exoplatform.portal.mop.page.PageKey;
+import org.exoplatform.portal.mop.user.UserNavigation;
+import org.exoplatform.portal.mop.user.UserNode;
+import org.exoplatform.portal.mop.user.UserNodeFilterConfig;
+import org.exoplatform.portal.mop.user.UserPortal;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.listener.Event;
+import org.exoplatform.services.listener.Listener;
+import org.exoplatform.services.listener.ListenerService;
+import org.exoplatform.services.security.Identity;
+import org.exoplatform.services.security.MembershipEntry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GroupNavigationServiceTest {
+
+  private static final String     ADMINISTRATORS = "/platform/administrators";
+
+  @Mock
+  private MenuConfiguratorService menuConfiguratorService;
+
+  @Mock
+  private CacheService            cacheService;
+
+  @Mock
+  private ListenerService         listenerService;
+
+  @Mock
+  private UserACL                 userACL;
+
+  @Mock
+  private UserPortal              userPortal;
+
+  private GroupNavigationService  groupNavigationService;
+
+  @Before
+  public void setUp() throws Exception {
+    when(cacheService.getCacheInstance(GroupNavigationService.CACHE_NAME)).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    when(userACL.getSuperUser()).thenReturn("root");
+
+    SiteKey administratorsSite = SiteKey.group(ADMINISTRATORS);
+    SiteKey contributorsSite = SiteKey.group("/platform/web-contributors");
+    SiteKey spaceSite = SiteKey.group("/spaces/marketing");
+    SiteKey portalSite = SiteKey.portal("intranet");
+    when(menuConfiguratorService.getSetupMenuPageReferences()).thenReturn(Arrays.asList(new PageKey(administratorsSite,
+                                                                                                    "administration").format(),
+                                                                                        new PageKey(contributorsSite,
+                                                                                                    "administration").format()));
+    UserNavigation administrators = createNavigation(administratorsSite,
+                                                     createNode("administration", new PageKey(administratorsSite, "administration")),
+                                                     createNode("applications",
+                                                                null,
+                                                                createNode("wiki", new PageKey(administratorsSite, "wiki"))),
+                                                     createNode("calendar", new PageKey(administratorsSite, "calendar")));
+    UserNavigation contributors = createNavigation(contributorsSite,
+                                                   createNode("setup",
+                                                              null,
+                                                              createNode("contents", new PageKey(contributorsSite, "administration"))));
+    UserNavigation space = createNavigation(spaceSite, createNode("marketing", new PageKey(spaceSite, "marketing")));
+    UserNavigation portal = createNavigation(portalSite, createNode("home", new PageKey(portalSite, "home")));
+    when(userPortal.getNavigations()).thenReturn(Arrays.asList(portal, administrators, contributors, space));
+
+    groupNavigationService = new GroupNavigationService(menuConfiguratorService, cacheService, listenerService, userACL);
+    groupNavigationService.start();
+  }
+
+  @Test
+  public void testGroupNavigationTreeWithoutSetupMenuNodes() {
+    GroupNavigationTree tree = groupNavigationService.getGroupNavigationTree(userPortal, createIdentity("john", "/platform/users"));
+
+    assertEquals("Only the group navigations with nodes not in the setup menu are displayed, spaces excluded",
+                 Arrays.asList(ADMINISTRATORS),
+                 tree.getNavigationNames());
+    assertEquals(Arrays.asList("applications", "calendar"), tree.getValidNodeIds(ADMINISTRATORS));
+    assertEquals(Arrays.asList("wiki"), tree.getValidChildrenIds("applications"));
+    assertNull(tree.getValidChildrenIds("calendar"));
+  }
+
+  @Test
+  public void testGroupNavigationTreeCachedByMemberships() {
+    GroupNavigationTree tree = groupNavigationService.getGroupNavigationTree(userPortal, createIdentity("john", "/platform/users"));
+
+    assertSame("Users with the same memberships share the tree",
+               tree,
+               groupNavigationService.getGroupNavigationTree(userPortal, createIdentity("mary", "/platform/users")));
+    assertNotSame(tree,
+                  groupNavigationService.getGroupNavigationTree(userPortal, createIdentity("james", ADMINISTRATORS)));
+    assertNotSame("The super user has his own tree",
+                  tree,
+                  groupNavigationService.getGroupNavigationTree(userPortal, createIdentity("root", "/platform/users")));
+    verify(userPortal, times(3)).getNavigations();
+  }
+
+  @Test
+  public void testGroupNavigationTreeInvalidatedByGroupSiteChanges() throws Exception {
+    Identity identity = createIdentity("john", "/platform/users");
+    GroupNavigationTree tree = groupNavigationService.getGroupNavigationTree(userPortal, identity);
+
+    broadcast(EventType.NAVIGATION_UPDATED, SiteKey.portal("intranet"));
+    broadcast(EventType.PAGE_UPDATED, new PageKey(SiteKey.user("john"), "dashboard"));
+    assertSame("Changes of the other sites are ignored", tree, groupNavigationService.getGroupNavigationTree(userPortal, identity));
+
+    broadcast(EventType.PAGE_UPDATED, new PageKey(SiteKey.group(ADMINISTRATORS), "calendar"));
+    GroupNavigationTree updatedTree = groupNavigationService.getGroupNavigationTree(userPortal, identity);
+    assertNotSame(tree, updatedTree);
+    assertTrue(updatedTree.getVersion() > tree.getVersion());
+
+    broadcast(EventType.NAVIGATION_UPDATED, SiteKey.group(ADMINISTRATORS));
+    assertNotSame(updatedTree, groupNavigationService.getGroupNavigationTree(userPortal, identity));
+  }
+
+  @Test
+  public void testGroupNavigationTreeBuiltDuringInvalidationNotCached() {
+    final List<UserNavigation> navigations = userPortal.getNavigations();
+    when(userPortal.getNavigations()).thenAnswer(new Answer<List<UserNavigation>>() {
+      public List<UserNavigation> answer(InvocationOnMock invocation) {
+        // a group site changes while the tree is built
+        groupNavigationService.invalidate();
+        return navigations;
+      }
+    });
+    Identity identity = createIdentity("john", "/platform/users");
+
+    GroupNavigationTree tree = groupNavigationService.getGroupNavigationTree(userPortal, identity);
+
+    assertEquals(Arrays.asList(ADMINISTRATORS), tree.getNavigationNames());
+    assertNotSame(tree, groupNavigationService.getGroupNavigationTree(userPortal, identity));
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void broadcast(String eventName, Object data) throws Exception {
+    ArgumentCaptor<Listener> listener = ArgumentCaptor.forClass(Listener.class);
+    verify(listenerService).addListener(eq(eventName), listener.capture());
+    listener.getValue().onEvent(new Event(eventName, null, data));
+  }
+
+  private UserNavigation createNavigation(SiteKey siteKey, UserNode... nodes) {
+    UserNavigation navigation = mock(UserNavigation.class);
+    when(navigation.getKey()).thenReturn(siteKey);
+    UserNode rootNode = createNode("default", null, nodes);
+    when(userPortal.getNode(eq(navigation),
+                            eq(Scope.GRANDCHILDREN),
+                            any(UserNodeFilterConfig.class),
+                            any(NodeChangeListener.class))).thenReturn(rootNode);
+    return navigation;
+  }
+
+  private UserNode createNode(String id, PageKey pageReference, UserNode... children) {
+    UserNode node = mock(UserNode.class);
+    when(node.getId()).thenReturn(id);
+    when(node.getPageRef()).thenReturn(pageReference);
+    when(node.getChildren()).thenReturn(Arrays.asList(children));
+    return node;
+  }
+
+  private Identity createIdentity(String userId, String groupId) {
+    return new Identity(userId, Collections.singletonList(new MembershipEntry(groupId, "member")));
+  }
+}
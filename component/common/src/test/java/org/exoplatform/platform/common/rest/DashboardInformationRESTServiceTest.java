@@ -0,0 +1,209 @@
+package org.exoplatform.platform.common.rest;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.exoplatform.application.gadget.Gadget;
+import org.exoplatform.application.gadget.GadgetRegistryService;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.platform.common.rest.DashboardInformationRESTService.JsonGadgetInfo;
+import org.exoplatform.platform.common.rest.services.BaseRestServicesTestCase;
+import org.exoplatform.portal.config.DataStorage;
+import org.exoplatform.portal.config.model.Application;
+import org.exoplatform.portal.config.model.ApplicationState;
+import org.exoplatform.portal.config.model.ApplicationType;
+import org.exoplatform.portal.config.model.Dashboard;
+import org.exoplatform.portal.config.model.ModelObject;
+import org.exoplatform.portal.config.model.Page;
+import org.exoplatform.portal.config.model.TransientApplicationState;
+import org.exoplatform.portal.mop.EventType;
+import org.exoplatform.portal.mop.SiteKey;
+import org.exoplatform.portal.mop.description.DescriptionService;
+import org.exoplatform.portal.mop.navigation.NavigationService;
+import org.exoplatform.portal.mop.page.PageKey;
+import org.exoplatform.portal.pom.spi.portlet.Portlet;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.listener.Event;
+import org.exoplatform.services.listener.Listener;
+import org.exoplatform.services.listener.ListenerService;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.services.security.Identity;
+
+public class DashboardInformationRESTServiceTest extends BaseRestServicesTestCase {
+
+  private DataStorage                      dataStorage;
+
+  private GadgetRegistryService            gadgetRegistryService;
+
+  private NavigationService                navigationService;
+
+  private ListenerService                  listenerService;
+
+  private DashboardInformationRESTService  dashboardService;
+
+  protected Class<?> getComponentClass() {
+    return DashboardInformationRESTService.class;
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    dataStorage = mock(DataStorage.class);
+    gadgetRegistryService = mock(GadgetRegistryService.class);
+    navigationService = mock(NavigationService.class);
+    listenerService = mock(ListenerService.class);
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(DashboardInformationRESTService.DASHBOARD_PAGES_CACHE_NAME)).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    when(cacheService.getCacheInstance(DashboardInformationRESTService.DASHBOARD_GADGETS_CACHE_NAME)).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    dashboardService = new DashboardInformationRESTService(dataStorage,
+                                                           gadgetRegistryService,
+                                                           mock(DescriptionService.class),
+                                                           navigationService,
+                                                           cacheService,
+                                                           listenerService);
+    dashboardService.start();
+  }
+
+  public void tearDown() throws Exception {
+    ConversationState.setCurrent(null);
+    super.tearDown();
+  }
+
+  public void testDashboardPagesCachedByUser() throws Exception {
+    getDashboards("john");
+    getDashboards("john");
+    verify(navigationService, times(1)).loadNavigation(SiteKey.user("john"));
+
+    getDashboards("mary");
+    verify(navigationService, times(1)).loadNavigation(SiteKey.user("mary"));
+  }
+
+  public void testDashboardPagesInvalidatedByUserSiteChanges() throws Exception {
+    getDashboards("john");
+    getDashboards("mary");
+
+    broadcast(EventType.PAGE_UPDATED, new PageKey(SiteKey.group("/platform/users"), "dashboard"));
+    broadcast(EventType.NAVIGATION_UPDATED, SiteKey.portal("intranet"));
+    getDashboards("john");
+    verify(navigationService, times(1)).loadNavigation(SiteKey.user("john"));
+
+    broadcast(EventType.PAGE_CREATED, new PageKey(SiteKey.user("john"), "dashboard2"));
+    getDashboards("john");
+    getDashboards("mary");
+    verify(navigationService, times(2)).loadNavigation(SiteKey.user("john"));
+    verify(navigationService, times(1)).loadNavigation(SiteKey.user("mary"));
+
+    broadcast(EventType.NAVIGATION_UPDATED, SiteKey.user("mary"));
+    getDashboards("mary");
+    verify(navigationService, times(2)).loadNavigation(SiteKey.user("mary"));
+  }
+
+  public void testConcurrentGadgetInformation() throws Exception {
+    addDashboard("john", "johnDashboard", "calendar", "rss");
+    addDashboard("mary", "maryDashboard", "todo");
+    for (String gadgetName : new String[] { "calendar", "rss", "todo" }) {
+      Gadget gadget = new Gadget();
+      gadget.setName(gadgetName);
+      gadget.setTitle(gadgetName + " title");
+      gadget.setThumbnail("http://localhost:8080/" + gadgetName + ".png");
+      when(gadgetRegistryService.getGadget(gadgetName)).thenReturn(gadget);
+    }
+    final UriInfo uriInfo = mock(UriInfo.class);
+    when(uriInfo.getBaseUriBuilder()).thenAnswer(new Answer<UriBuilder>() {
+      public UriBuilder answer(InvocationOnMock invocation) {
+        return UriBuilder.fromUri("http://localhost:8080/rest");
+      }
+    });
+    final ExoContainer container = getContainer();
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> results = new ArrayList<Future<?>>();
+      for (int i = 0; i < 100; i++) {
+        final boolean john = i % 2 == 0;
+        results.add(executor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            ExoContainerContext.setCurrentContainer(container);
+            if (john) {
+              assertGadgets(dashboardService.getGadgetInformation("john", "dashboard", uriInfo), "john", "calendar", "rss");
+            } else {
+              assertGadgets(dashboardService.getGadgetInformation("mary", "dashboard", uriInfo), "mary", "todo");
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void addDashboard(String userId, String dashboardId, String... gadgetNames) throws Exception {
+    Page page = new Page();
+    page.setChildren(new ArrayList<ModelObject>(Arrays.asList(new Application<Portlet>(ApplicationType.PORTLET, dashboardId))));
+    when(dataStorage.getPage("user::" + userId + "::dashboard")).thenReturn(page);
+    Dashboard dashboard = new Dashboard(dashboardId);
+    ArrayList<ModelObject> gadgets = new ArrayList<ModelObject>();
+    for (String gadgetName : gadgetNames) {
+      Application<org.exoplatform.portal.pom.spi.gadget.Gadget> gadget = new Application<>(ApplicationType.GADGET,
+                                                                                           userId + "-" + gadgetName);
+      gadget.setState(new TransientApplicationState<>(gadgetName));
+      gadgets.add(gadget);
+    }
+    dashboard.setChildren(gadgets);
+    when(dataStorage.loadDashboard(dashboardId)).thenReturn(dashboard);
+    when(dataStorage.getId(any(ApplicationState.class))).thenAnswer(new Answer<String>() {
+      public String answer(InvocationOnMock invocation) {
+        return ((TransientApplicationState<?>) invocation.getArguments()[0]).getContentId();
+      }
+    });
+  }
+
+  private void assertGadgets(Response response, String userId, String... gadgetNames) {
+    assertEquals(200, response.getStatus());
+    List<?> gadgetsInfo = (List<?>) response.getEntity();
+    assertEquals(gadgetNames.length, gadgetsInfo.size());
+    for (int i = 0; i < gadgetNames.length; i++) {
+      JsonGadgetInfo gadgetInfo = (JsonGadgetInfo) gadgetsInfo.get(i);
+      assertEquals(gadgetNames[i] + " title", gadgetInfo.getGadgetName());
+      assertEquals("http://localhost:8080/" + gadgetNames[i] + ".png", gadgetInfo.getGadgetIcon());
+      // the standalone URL of a gadget has its storage id
+      assertTrue(gadgetInfo.getGadgetUrl(), gadgetInfo.getGadgetUrl().contains(userId + "-" + gadgetNames[i]));
+    }
+  }
+
+  private List<?> getDashboards(String userId) {
+    ConversationState.setCurrent(new ConversationState(new Identity(userId)));
+    Response response = dashboardService.getDashboards(null);
+    assertEquals(200, response.getStatus());
+    return (List<?>) response.getEntity();
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void broadcast(String eventName, Object data) throws Exception {
+    ArgumentCaptor<Listener> listener = ArgumentCaptor.forClass(Listener.class);
+    verify(listenerService).addListener(eq(eventName), listener.capture());
+    listener.getValue().onEvent(new Event(eventName, null, data));
+  }
+}
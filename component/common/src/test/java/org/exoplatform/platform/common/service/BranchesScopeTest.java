@@ -0,0 +1,51 @@
+package org.exoplatform.platform.common.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.exoplatform.portal.mop.navigation.Scope;
+import org.exoplatform.portal.mop.navigation.VisitMode;
+
+public class BranchesScopeTest {
+
+  @Test
+  public void testBranchesChildrenLoaded() {
+    Scope.Visitor visitor = new MenuConfiguratorService.BranchesScope(Arrays.asList(new String[] { "administration",
+        "users" }, new String[] { "administration", "content", "sites" }, new String[] { "home" })).get();
+
+    assertEquals("Root children are loaded", VisitMode.ALL_CHILDREN, visitor.enter(0, "0", "default", null));
+    assertEquals(VisitMode.ALL_CHILDREN, visitor.enter(1, "1", "administration", null));
+    assertEquals("Nodes at the end of the branches are loaded without their children",
+                 VisitMode.NO_CHILDREN,
+                 visitor.enter(2, "2", "users", null));
+    assertEquals(VisitMode.ALL_CHILDREN, visitor.enter(2, "3", "content", null));
+    assertEquals(VisitMode.NO_CHILDREN, visitor.enter(3, "4", "sites", null));
+    assertEquals("Siblings of the branches are loaded without their children",
+                 VisitMode.NO_CHILDREN,
+                 visitor.enter(2, "5", "applications", null));
+    assertEquals(VisitMode.NO_CHILDREN, visitor.enter(1, "6", "home", null));
+    assertEquals(VisitMode.NO_CHILDREN, visitor.enter(1, "7", "wiki", null));
+  }
+
+  @Test
+  public void testSameNameInAnotherBranch() {
+    Scope.Visitor visitor = new MenuConfiguratorService.BranchesScope(Arrays.asList(new String[] { "administration",
+        "content", "sites" })).get();
+
+    assertEquals(VisitMode.ALL_CHILDREN, visitor.enter(0, "0", "default", null));
+    assertEquals(VisitMode.NO_CHILDREN, visitor.enter(1, "1", "content", null));
+    assertEquals(VisitMode.ALL_CHILDREN, visitor.enter(1, "2", "administration", null));
+    assertEquals(VisitMode.ALL_CHILDREN, visitor.enter(2, "3", "content", null));
+  }
+
+  @Test
+  public void testNoBranches() {
+    Scope.Visitor visitor = new MenuConfiguratorService.BranchesScope(Collections.<String[]> emptyList()).get();
+
+    assertEquals(VisitMode.NO_CHILDREN, visitor.enter(0, "0", "default", null));
+  }
+}
@@ -1,12 +1,21 @@
 package org.exoplatform.platform.organization.externalstore.jpa;
 
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 import org.exoplatform.commons.api.persistence.ExoTransactional;
 import org.exoplatform.commons.persistence.impl.GenericDAOJPAImpl;
+import org.exoplatform.services.organization.externalstore.model.IDMOperationType;
 
 public class IDMQueueDAO extends GenericDAOJPAImpl<IDMQueueEntity, Long> {
 
+  /**
+   * Id of the single row storing the start date of the last scheduled purge,
+   * inserted with the IDM_QUEUE_PURGE table.
+   */
+  private static final long PURGE_ID = 1;
+
   public int countAllNotProcessedAndMaxNbRetries(int maxRetries) {
     return getEntityManager().createNamedQuery("IDMQueueEntity.countAllNotProcessedAndMaxNbRetries", Long.class)
                              .setParameter("nbRetries", maxRetries)
@@ -24,10 +33,128 @@ public class IDMQueueDAO extends GenericDAOJPAImpl<IDMQueueEntity, Long> {
   public List<IDMQueueEntity> getEntriesNotProcessedWithNBRetries(int nbRetries, int limit) {
     return getEntityManager().createNamedQuery("IDMQueueEntity.getEntriesNotProcessedWithNBRetries", IDMQueueEntity.class)
                              .setParameter("nbRetries", nbRetries)
+                             .setParameter("now", System.currentTimeMillis())
                              .setMaxResults(limit)
                              .getResultList();
   }
 
+  /**
+   * Get the entries to pop: the entries not claimed, claimed by the given
+   * owner or whose lease has expired.
+   *
+   * @param nbRetries retry count of the entries
+   * @param owner identifier of the popping node
+   * @param limit maximum number of entries to return
+   * @return entries from the most recent to the oldest
+   */
+  public List<IDMQueueEntity> getEntriesToPop(int nbRetries, String owner, int limit) {
+    return getEntityManager().createNamedQuery("IDMQueueEntity.getEntriesToPopWithNBRetries", IDMQueueEntity.class)
+                             .setParameter("nbRetries", nbRetries)
+                             .setParameter("owner", owner)
+                             .setParameter("now", System.currentTimeMillis())
+                             .setMaxResults(limit)
+                             .getResultList();
+  }
+
+  /**
+   * Get the entry of an entity that is waiting for its first processing and
+   * isn't claimed, if any.
+   *
+   * @param entityType entity type index
+   * @param entityId entity identifier
+   * @return the most recent pending entry or null
+   */
+  public IDMQueueEntity findPendingEntryOfEntity(int entityType, String entityId) {
+    List<IDMQueueEntity> entries = getEntityManager()
+                                                     .createNamedQuery("IDMQueueEntity.getPendingEntriesOfEntity",
+                                                                       IDMQueueEntity.class)
+                                                     .setParameter("entityType", entityType)
+                                                     .setParameter("entityId", entityId)
+                                                     .setMaxResults(1)
+                                                     .getResultList();
+    return entries.isEmpty() ? null : entries.get(0);
+  }
+
+  /**
+   * Set the operation of a pending entry, only if it is still not claimed nor
+   * processed when the update is executed.
+   *
+   * @param id entry identifier
+   * @param type operation type
+   * @param creationDate creation date
+   * @return true if the entry was updated
+   */
+  @ExoTransactional
+  public boolean mergeIntoPendingEntry(long id, IDMOperationType type, Calendar creationDate) {
+    return getEntityManager().createNamedQuery("IDMQueueEntity.mergeIntoPendingEntry")
+                             .setParameter("id", id)
+                             .setParameter("type", type)
+                             .setParameter("creationDate", creationDate)
+                             .executeUpdate() > 0;
+  }
+
+  /**
+   * Claim entries for an owner. Only the entries that are still not claimed,
+   * or whose lease has expired, when the update is executed are claimed, so
+   * concurrent consumers never claim the same entry.
+   *
+   * @param ids candidate entries identifiers
+   * @param owner consumer identifier
+   * @param leaseExpiry time in milliseconds when the claim expires
+   * @return claimed entries
+   */
+  @ExoTransactional
+  public List<IDMQueueEntity> claimEntries(List<Long> ids, String owner, long leaseExpiry) {
+    return claimEntries(ids, owner, leaseExpiry, false);
+  }
+
+  /**
+   * Claim entries for an owner.
+   *
+   * @param ids candidate entries identifiers
+   * @param owner consumer identifier
+   * @param leaseExpiry time in milliseconds when the claim expires
+   * @param reentrant if true, the entries already claimed by the owner are
+   *          claimed again with the new lease
+   * @return claimed entries
+   */
+  @ExoTransactional
+  public List<IDMQueueEntity> claimEntries(List<Long> ids, String owner, long leaseExpiry, boolean reentrant) {
+    String queryName = reentrant ? "IDMQueueEntity.reclaimEntries" : "IDMQueueEntity.claimEntries";
+    int claimed = getEntityManager().createNamedQuery(queryName)
+                                    .setParameter("ids", ids)
+                                    .setParameter("owner", owner)
+                                    .setParameter("leaseExpiry", leaseExpiry)
+                                    .setParameter("now", System.currentTimeMillis())
+                                    .executeUpdate();
+    if (claimed == 0) {
+      return Collections.emptyList();
+    }
+    // The bulk update bypasses the persistence context
+    getEntityManager().clear();
+    return getEntityManager().createNamedQuery("IDMQueueEntity.getClaimedEntries", IDMQueueEntity.class)
+                             .setParameter("owner", owner)
+                             .setParameter("ids", ids)
+                             .getResultList();
+  }
+
+  @ExoTransactional
+  public int renewLease(List<Long> ids, String owner, long leaseExpiry) {
+    return getEntityManager().createNamedQuery("IDMQueueEntity.renewEntriesLease")
+                             .setParameter("ids", ids)
+                             .setParameter("owner", owner)
+                             .setParameter("leaseExpiry", leaseExpiry)
+                             .executeUpdate();
+  }
+
+  @ExoTransactional
+  public void release(List<Long> ids, String owner) {
+    getEntityManager().createNamedQuery("IDMQueueEntity.releaseEntries")
+                      .setParameter("ids", ids)
+                      .setParameter("owner", owner)
+                      .executeUpdate();
+  }
+
   @ExoTransactional
   public void setProcessed(List<Long> ids) {
     getEntityManager().createNamedQuery("IDMQueueEntity.setEntriesAsProcessed").setParameter("ids", ids).executeUpdate();
@@ -38,16 +165,57 @@ public class IDMQueueDAO extends GenericDAOJPAImpl<IDMQueueEntity, Long> {
     getEntityManager().createNamedQuery("IDMQueueEntity.incrementEntriesRetry").setParameter("ids", ids).executeUpdate();
   }
 
+  /**
+   * @param before if not null, only the entries created before this date are
+   *          returned
+   * @param limit maximum number of identifiers to return
+   * @return identifiers of processed entries
+   */
+  public List<Long> getProcessedEntriesIds(Calendar before, int limit) {
+    if (before == null) {
+      return getEntityManager().createNamedQuery("IDMQueueEntity.getProcessedEntriesIds", Long.class)
+                               .setMaxResults(limit)
+                               .getResultList();
+    }
+    return getEntityManager().createNamedQuery("IDMQueueEntity.getProcessedEntriesIdsCreatedBefore", Long.class)
+                             .setParameter("before", before)
+                             .setMaxResults(limit)
+                             .getResultList();
+  }
+
+  public List<Long> getExceededRetriesEntriesIds(int maxRetries, int limit) {
+    return getEntityManager().createNamedQuery("IDMQueueEntity.getExceededRetriesEntriesIds", Long.class)
+                             .setParameter("maxRetries", maxRetries)
+                             .setMaxResults(limit)
+                             .getResultList();
+  }
+
   @ExoTransactional
-  public void deleteProcessedEntries() {
-    getEntityManager().createNamedQuery("IDMQueueEntity.deleteProcessedEntries").executeUpdate();
+  public int deleteEntries(List<Long> ids) {
+    return getEntityManager().createNamedQuery("IDMQueueEntity.deleteEntriesByIds").setParameter("ids", ids).executeUpdate();
   }
 
+  /**
+   * Marks the scheduled purge as started, unless it already started since a
+   * given date, on this node or on another cluster node.
+   *
+   * @param now start date of the purge
+   * @param since date from which a started purge prevents a new one
+   * @return true if the purge has been marked as started
+   */
   @ExoTransactional
-  public void deleteExceededRetriesEntries(int maxRetries) {
-    getEntityManager().createNamedQuery("IDMQueueEntity.deleteExceededRetriesEntries")
-                      .setParameter("maxRetries", maxRetries)
-                      .executeUpdate();
+  public boolean startPurge(long now, long since) {
+    return getEntityManager().createNamedQuery("IDMQueuePurgeEntity.startPurge")
+                             .setParameter("id", PURGE_ID)
+                             .setParameter("now", toCalendar(now))
+                             .setParameter("since", toCalendar(since))
+                             .executeUpdate() > 0;
+  }
+
+  private static Calendar toCalendar(long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    return calendar;
   }
 
 }
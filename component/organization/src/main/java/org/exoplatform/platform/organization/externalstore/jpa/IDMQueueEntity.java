@@ -17,15 +17,41 @@ import org.exoplatform.services.organization.externalstore.model.IDMOperationTyp
     @NamedQuery(name = "IDMQueueEntity.countAllNotProcessedAndNbRetries", query = "SELECT count(q) FROM IDMQueueEntity q "
         + " WHERE q.processed = FALSE AND nbRetries = :nbRetries "),
     @NamedQuery(name = "IDMQueueEntity.getEntriesNotProcessedWithNBRetries", query = "SELECT q FROM IDMQueueEntity q "
-        + " WHERE q.processed = FALSE AND nbRetries = :nbRetries ORDER BY q.creationDate DESC, q.id ASC"),
+        + " WHERE q.processed = FALSE AND nbRetries = :nbRetries AND (q.owner IS NULL OR q.leaseExpiry < :now)"
+        + " ORDER BY q.creationDate DESC, q.id ASC"),
+    @NamedQuery(name = "IDMQueueEntity.getEntriesToPopWithNBRetries", query = "SELECT q FROM IDMQueueEntity q "
+        + " WHERE q.processed = FALSE AND nbRetries = :nbRetries"
+        + " AND (q.owner IS NULL OR q.owner = :owner OR q.leaseExpiry < :now)"
+        + " ORDER BY q.creationDate DESC, q.id ASC"),
+    @NamedQuery(name = "IDMQueueEntity.getPendingEntriesOfEntity", query = "SELECT q FROM IDMQueueEntity q "
+        + " WHERE q.entityType = :entityType AND q.entityId = :entityId AND q.processed = FALSE AND q.nbRetries = 0"
+        + " AND q.owner IS NULL ORDER BY q.id DESC"),
+    @NamedQuery(name = "IDMQueueEntity.mergeIntoPendingEntry", query = "UPDATE IDMQueueEntity q "
+        + " SET q.type = :type, q.creationDate = :creationDate WHERE q.id = :id AND q.processed = FALSE"
+        + " AND q.nbRetries = 0 AND q.owner IS NULL"),
+    @NamedQuery(name = "IDMQueueEntity.claimEntries", query = "UPDATE IDMQueueEntity q "
+        + " SET q.owner = :owner, q.leaseExpiry = :leaseExpiry WHERE q.id IN (:ids) AND q.processed = FALSE"
+        + " AND (q.owner IS NULL OR q.leaseExpiry < :now)"),
+    @NamedQuery(name = "IDMQueueEntity.reclaimEntries", query = "UPDATE IDMQueueEntity q "
+        + " SET q.owner = :owner, q.leaseExpiry = :leaseExpiry WHERE q.id IN (:ids) AND q.processed = FALSE"
+        + " AND (q.owner IS NULL OR q.owner = :owner OR q.leaseExpiry < :now)"),
+    @NamedQuery(name = "IDMQueueEntity.getClaimedEntries", query = "SELECT q FROM IDMQueueEntity q "
+        + " WHERE q.owner = :owner AND q.id IN (:ids) ORDER BY q.creationDate DESC, q.id ASC"),
+    @NamedQuery(name = "IDMQueueEntity.renewEntriesLease", query = "UPDATE IDMQueueEntity q "
+        + " SET q.leaseExpiry = :leaseExpiry WHERE q.owner = :owner AND q.id IN (:ids)"),
+    @NamedQuery(name = "IDMQueueEntity.releaseEntries", query = "UPDATE IDMQueueEntity q "
+        + " SET q.owner = NULL, q.leaseExpiry = NULL WHERE q.owner = :owner AND q.id IN (:ids)"),
     @NamedQuery(name = "IDMQueueEntity.setEntriesAsProcessed", query = "UPDATE IDMQueueEntity q "
-        + " SET q.processed = TRUE WHERE q.id IN (:ids)"),
+        + " SET q.processed = TRUE, q.owner = NULL, q.leaseExpiry = NULL WHERE q.id IN (:ids)"),
     @NamedQuery(name = "IDMQueueEntity.incrementEntriesRetry", query = "UPDATE IDMQueueEntity q "
-        + " SET q.nbRetries = (q.nbRetries + 1) WHERE q.id IN (:ids)"),
-    @NamedQuery(name = "IDMQueueEntity.deleteProcessedEntries", query = "DELETE FROM IDMQueueEntity q "
-        + " WHERE q.processed = TRUE"),
-    @NamedQuery(name = "IDMQueueEntity.deleteExceededRetriesEntries", query = "DELETE FROM IDMQueueEntity q "
-        + " WHERE q.nbRetries >= :maxRetries") })
+        + " SET q.nbRetries = (q.nbRetries + 1), q.owner = NULL, q.leaseExpiry = NULL WHERE q.id IN (:ids)"),
+    @NamedQuery(name = "IDMQueueEntity.getProcessedEntriesIds", query = "SELECT q.id FROM IDMQueueEntity q "
+        + " WHERE q.processed = TRUE ORDER BY q.id ASC"),
+    @NamedQuery(name = "IDMQueueEntity.getProcessedEntriesIdsCreatedBefore", query = "SELECT q.id FROM IDMQueueEntity q "
+        + " WHERE q.processed = TRUE AND q.creationDate < :before ORDER BY q.id ASC"),
+    @NamedQuery(name = "IDMQueueEntity.getExceededRetriesEntriesIds", query = "SELECT q.id FROM IDMQueueEntity q "
+        + " WHERE q.nbRetries >= :maxRetries ORDER BY q.id ASC"),
+    @NamedQuery(name = "IDMQueueEntity.deleteEntriesByIds", query = "DELETE FROM IDMQueueEntity q WHERE q.id IN (:ids)") })
 public class IDMQueueEntity implements Serializable {
 
   private static final long serialVersionUID = 7102348817269095013L;
@@ -54,6 +80,19 @@ public class IDMQueueEntity implements Serializable {
   @Column(name = "PROCESSED")
   private boolean           processed;
 
+  /**
+   * Identifier of the consumer that claimed the entry, null if not claimed
+   */
+  @Column(name = "OWNER_ID")
+  private String            owner;
+
+  /**
+   * Time in milliseconds after which the claim of the owner expires and the
+   * entry can be claimed by another consumer
+   */
+  @Column(name = "LEASE_EXPIRY")
+  private Long              leaseExpiry;
+
   public long getId() {
     return id;
   }
@@ -115,4 +154,22 @@ public class IDMQueueEntity implements Serializable {
   public boolean isProcessed() {
     return processed;
   }
+
+  public String getOwner() {
+    return owner;
+  }
+
+  public IDMQueueEntity setOwner(String owner) {
+    this.owner = owner;
+    return this;
+  }
+
+  public Long getLeaseExpiry() {
+    return leaseExpiry;
+  }
+
+  public IDMQueueEntity setLeaseExpiry(Long leaseExpiry) {
+    this.leaseExpiry = leaseExpiry;
+    return this;
+  }
 }
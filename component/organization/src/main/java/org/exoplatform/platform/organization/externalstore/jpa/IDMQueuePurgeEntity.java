@@ -0,0 +1,42 @@
+package org.exoplatform.platform.organization.externalstore.jpa;
+
+import java.io.Serializable;
+import java.util.Calendar;
+
+import javax.persistence.*;
+
+import org.exoplatform.commons.api.persistence.ExoEntity;
+
+/**
+ * Start date of the last scheduled IDM queue purge, shared by the cluster
+ * nodes so that the scheduled purge runs on a single node.
+ */
+@Entity(name = "IDMQueuePurgeEntity")
+@ExoEntity
+@Table(name = "IDM_QUEUE_PURGE")
+@NamedQueries({
+    @NamedQuery(name = "IDMQueuePurgeEntity.startPurge", query = "UPDATE IDMQueuePurgeEntity p "
+        + " SET p.lastPurgeDate = :now WHERE p.id = :id AND p.lastPurgeDate < :since") })
+public class IDMQueuePurgeEntity implements Serializable {
+
+  private static final long serialVersionUID = -3218470675243402186L;
+
+  @Id
+  @Column(name = "ID")
+  private long              id;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "LAST_PURGE_DATE", nullable = false)
+  private Calendar          lastPurgeDate;
+
+  public IDMQueuePurgeEntity() {
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public Calendar getLastPurgeDate() {
+    return lastPurgeDate;
+  }
+}
@@ -0,0 +1,33 @@
+package org.exoplatform.platform.organization.externalstore.jpa;
+
+import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.services.organization.externalstore.IDMQueueService;
+import org.exoplatform.services.scheduler.BaseJob;
+import org.exoplatform.services.scheduler.JobContext;
+
+/**
+ * Scheduled job that purges the old processed entries and the entries that
+ * exceeded the max retries from the IDM queue, on a single cluster node per
+ * period, see {@link IDMQueueServiceImpl#scheduledPurge()}.
+ */
+public class IDMQueuePurgeJob extends BaseJob {
+
+  public IDMQueuePurgeJob() {
+  }
+
+  @Override
+  public void execute(JobContext context) throws Exception {
+    IDMQueueService queueService = CommonsUtils.getService(IDMQueueService.class);
+    if (!(queueService instanceof IDMQueueServiceImpl)) {
+      return;
+    }
+    RequestLifeCycle.begin(ExoContainerContext.getCurrentContainer());
+    try {
+      ((IDMQueueServiceImpl) queueService).scheduledPurge();
+    } finally {
+      RequestLifeCycle.end();
+    }
+  }
+}
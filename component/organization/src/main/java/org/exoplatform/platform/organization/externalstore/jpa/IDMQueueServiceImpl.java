@@ -1,7 +1,10 @@
 package org.exoplatform.platform.organization.externalstore.jpa;
 
+import java.net.InetAddress;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.exoplatform.commons.api.persistence.ExoTransactional;
 import org.exoplatform.commons.api.settings.SettingService;
@@ -9,6 +12,9 @@ import org.exoplatform.commons.api.settings.SettingValue;
 import org.exoplatform.commons.api.settings.data.Context;
 import org.exoplatform.commons.api.settings.data.Scope;
 import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.*;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.organization.externalstore.IDMQueueService;
@@ -16,8 +22,16 @@ import org.exoplatform.services.organization.externalstore.model.IDMEntityType;
 import org.exoplatform.services.organization.externalstore.model.IDMQueueEntry;
 
 /**
- * IDM Queue Service implementation using JPA
+ * IDM Queue Service implementation using JPA. Entries of the same entity are
+ * coalesced: a pushed entry updates the pending entry of its entity, if any
+ * and not popped or claimed by a consumer, instead of adding a new one, and duplicated entries of an entity read by
+ * {@link #pop(int, int, boolean)} or {@link #claim(String, int, int)} are
+ * reduced to the most recent one.
  */
+@Managed
+@ManagedDescription("IDM Queue Service")
+@NameTemplate({ @Property(key = "name", value = "IDMQueueService"), @Property(key = "service", value = "extensions"),
+    @Property(key = "type", value = "platform") })
 public class IDMQueueServiceImpl implements IDMQueueService {
 
   private static final Scope  IDM_SCOPE                        = Scope.APPLICATION.id("IDM");
@@ -28,8 +42,68 @@ public class IDMQueueServiceImpl implements IDMQueueService {
 
   private static final int    DEFAULT_MAX_RETRIES              = 5;
 
+  private static final String IDM_QUEUE_LEASE_DURATION         = "exo.idm.queue.processing.lease.duration";
+
+  private static final long   DEFAULT_LEASE_DURATION           = 5 * 60 * 1000L;
+
+  private static final String IDM_QUEUE_PROCESSED_RETENTION    = "exo.idm.queue.processed.retention";
+
+  private static final long   DEFAULT_PROCESSED_RETENTION      = 24 * 60 * 60 * 1000L;
+
+  private static final String IDM_QUEUE_PURGE_BATCH_SIZE       = "exo.idm.queue.purge.batch.size";
+
+  private static final int    DEFAULT_PURGE_BATCH_SIZE         = 500;
+
+  private static final String IDM_QUEUE_PURGE_PAUSE            = "exo.idm.queue.purge.pause";
+
+  private static final long   DEFAULT_PURGE_PAUSE              = 100;
+
+  private static final String IDM_QUEUE_PURGE_PERIOD           = "exo.idm.queue.purge.period";
+
+  private static final long   DEFAULT_PURGE_PERIOD             = 60 * 60 * 1000L;
+
+  private static final String IDM_QUEUE_COUNT_CACHE_DURATION   = "exo.idm.queue.count.cache.duration";
+
+  private static final int    COUNT_ALL_KEY                    = -1;
+
   private int                 maxRetries                       = DEFAULT_MAX_RETRIES;
 
+  private long                leaseDuration                    = DEFAULT_LEASE_DURATION;
+
+  private long                processedRetention               = DEFAULT_PROCESSED_RETENTION;
+
+  private int                 purgeBatchSize                   = DEFAULT_PURGE_BATCH_SIZE;
+
+  private long                purgePause                       = DEFAULT_PURGE_PAUSE;
+
+  /**
+   * Period in milliseconds of the scheduled purge, run by a single cluster
+   * node per period
+   */
+  private long                purgePeriod                      = DEFAULT_PURGE_PERIOD;
+
+  /**
+   * Duration in milliseconds during which a count is served from cache
+   * instead of querying the database, 0 to always query the database
+   */
+  private long                countCacheDuration;
+
+  private final Map<Integer, long[]> countsCache               = new ConcurrentHashMap<>();
+
+  private final String        ownerId                          = computeOwnerId();
+
+  /**
+   * Owner of the entries read by {@link #pop(int, int, boolean)}, distinct
+   * from {@link #ownerId} since pop claims are reentrant
+   */
+  private final String        popOwnerId                       = ownerId + "-pop";
+
+  private final AtomicLong    pushedEntries                    = new AtomicLong();
+
+  private final AtomicLong    mergedOnPush                     = new AtomicLong();
+
+  private final AtomicLong    mergedOnRead                     = new AtomicLong();
+
   private IDMQueueDAO         queueDAO;
 
   private SettingService      settingService;
@@ -47,6 +121,12 @@ public class IDMQueueServiceImpl implements IDMQueueService {
                  e);
       }
     }
+    leaseDuration = getLongParam(params, IDM_QUEUE_LEASE_DURATION, DEFAULT_LEASE_DURATION);
+    processedRetention = getLongParam(params, IDM_QUEUE_PROCESSED_RETENTION, DEFAULT_PROCESSED_RETENTION);
+    purgeBatchSize = (int) getLongParam(params, IDM_QUEUE_PURGE_BATCH_SIZE, DEFAULT_PURGE_BATCH_SIZE);
+    purgePause = getLongParam(params, IDM_QUEUE_PURGE_PAUSE, DEFAULT_PURGE_PAUSE);
+    purgePeriod = getLongParam(params, IDM_QUEUE_PURGE_PERIOD, DEFAULT_PURGE_PERIOD);
+    countCacheDuration = getLongParam(params, IDM_QUEUE_COUNT_CACHE_DURATION, 0);
   }
 
   @Override
@@ -90,38 +170,164 @@ public class IDMQueueServiceImpl implements IDMQueueService {
 
   @Override
   public int countAll() throws Exception {
-    return queueDAO.countAllNotProcessedAndMaxNbRetries(getMaxRetries());
+    Integer cachedCount = getCachedCount(COUNT_ALL_KEY);
+    if (cachedCount != null) {
+      return cachedCount;
+    }
+    return cacheCount(COUNT_ALL_KEY, queueDAO.countAllNotProcessedAndMaxNbRetries(getMaxRetries()));
   }
 
   @Override
   public int count(int nbRetries) throws Exception {
-    return queueDAO.countAllNotProcessedAndNbRetries(nbRetries);
+    Integer cachedCount = getCachedCount(nbRetries);
+    if (cachedCount != null) {
+      return cachedCount;
+    }
+    return cacheCount(nbRetries, queueDAO.countAllNotProcessedAndNbRetries(nbRetries));
   }
 
   @Override
   @ExoTransactional
   public void push(IDMQueueEntry queueEntry) throws Exception {
+    pushedEntries.incrementAndGet();
+    countsCache.clear();
+    if (queueEntry.getId() <= 0 && !queueEntry.isProcessed() && queueEntry.getRetryCount() == 0) {
+      // Last writer wins: the pending entry of the entity takes the operation
+      // of the pushed entry. The entry is updated only if it wasn't popped or
+      // claimed meanwhile, else its consumer may be processing the previous
+      // operation and a new entry is added.
+      IDMQueueEntity pendingEntity = queueDAO.findPendingEntryOfEntity(queueEntry.getEntityType().getTypeIndex(),
+                                                                       queueEntry.getEntityId());
+      if (pendingEntity != null
+          && queueDAO.mergeIntoPendingEntry(pendingEntity.getId(),
+                                            queueEntry.getOperationType(),
+                                            queueEntry.getCreationDate() == null ? Calendar.getInstance()
+                                                                                 : queueEntry.getCreationDate())) {
+        queueEntry.setId(pendingEntity.getId());
+        mergedOnPush.incrementAndGet();
+        return;
+      }
+    }
     IDMQueueEntity idmQueueEntity = convertToEntity(queueEntry);
     queueDAO.create(idmQueueEntity);
   }
 
+  /**
+   * Read entries and claim them for this node, with a lease of
+   * 'exo.idm.queue.processing.lease.duration' milliseconds, so that other
+   * nodes don't pop them until they are stored as processed, their retry count
+   * is incremented or the lease expires. The entries already popped by this
+   * node and not processed yet are returned again, their lease being renewed.
+   */
   @Override
   @ExoTransactional
   public List<IDMQueueEntry> pop(int limit, int nbRetries, boolean keepInQueue) throws Exception {
-    List<IDMQueueEntity> queueEntries = queueDAO.getEntriesNotProcessedWithNBRetries(nbRetries, limit);
-    if (queueEntries == null || queueEntries.size() == 0) {
+    List<IDMQueueEntity> candidates = queueDAO.getEntriesToPop(nbRetries, popOwnerId, limit);
+    if (candidates == null || candidates.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Long> ids = new ArrayList<>();
+    for (IDMQueueEntity candidate : candidates) {
+      ids.add(candidate.getId());
+    }
+    countsCache.clear();
+    List<IDMQueueEntity> queueEntries = queueDAO.claimEntries(ids, popOwnerId, System.currentTimeMillis() + leaseDuration, true);
+    if (queueEntries.isEmpty()) {
       return Collections.emptyList();
     }
     List<IDMQueueEntry> entries = new ArrayList<>();
-    for (IDMQueueEntity idmQueueEntity : queueEntries) {
+    List<Long> duplicatedIds = new ArrayList<>();
+    for (IDMQueueEntity idmQueueEntity : coalesce(queueEntries, duplicatedIds)) {
       entries.add(convertToDTO(idmQueueEntity));
     }
     if (!keepInQueue) {
       queueDAO.deleteAll(queueEntries);
+    } else if (!duplicatedIds.isEmpty()) {
+      queueDAO.setProcessed(duplicatedIds);
+    }
+    return entries;
+  }
+
+  /**
+   * Claim a batch of entries for a consumer. Claimed entries aren't returned
+   * by {@link #pop(int, int, boolean)} or claimed by other consumers until
+   * they are stored as processed, their retry count is incremented, they are
+   * released or the lease expires (when the consumer node crashed for
+   * example).
+   *
+   * @param owner consumer identifier, see {@link #getOwnerId()}
+   * @param limit maximum number of entries to claim
+   * @param nbRetries retry count of the entries to claim
+   * @return claimed entries, which may be less than limit if other consumers
+   *         claimed some candidate entries concurrently
+   */
+  @ExoTransactional
+  public List<IDMQueueEntry> claim(String owner, int limit, int nbRetries) {
+    List<IDMQueueEntity> candidates = queueDAO.getEntriesNotProcessedWithNBRetries(nbRetries, limit);
+    if (candidates == null || candidates.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Long> ids = new ArrayList<>();
+    for (IDMQueueEntity candidate : candidates) {
+      ids.add(candidate.getId());
+    }
+    countsCache.clear();
+    List<IDMQueueEntity> claimedEntries = queueDAO.claimEntries(ids, owner, System.currentTimeMillis() + leaseDuration);
+    List<IDMQueueEntry> entries = new ArrayList<>();
+    List<Long> duplicatedIds = new ArrayList<>();
+    for (IDMQueueEntity idmQueueEntity : coalesce(claimedEntries, duplicatedIds)) {
+      entries.add(convertToDTO(idmQueueEntity));
+    }
+    if (!duplicatedIds.isEmpty()) {
+      queueDAO.setProcessed(duplicatedIds);
     }
     return entries;
   }
 
+  /**
+   * Extend the lease of entries claimed by a consumer.
+   *
+   * @param owner consumer identifier
+   * @param queueEntries claimed entries
+   * @return number of entries still owned by the consumer
+   */
+  @ExoTransactional
+  public int renewLease(String owner, List<IDMQueueEntry> queueEntries) {
+    if (queueEntries == null || queueEntries.isEmpty()) {
+      return 0;
+    }
+    return queueDAO.renewLease(getIds(queueEntries), owner, System.currentTimeMillis() + leaseDuration);
+  }
+
+  /**
+   * Give back claimed entries to the queue without processing them.
+   *
+   * @param owner consumer identifier
+   * @param queueEntries claimed entries
+   */
+  @ExoTransactional
+  public void release(String owner, List<IDMQueueEntry> queueEntries) {
+    if (queueEntries == null || queueEntries.isEmpty()) {
+      return;
+    }
+    countsCache.clear();
+    queueDAO.release(getIds(queueEntries), owner);
+  }
+
+  /**
+   * @return identifier of this node, to use as owner of claimed entries
+   */
+  public String getOwnerId() {
+    return ownerId;
+  }
+
+  /**
+   * @return duration in milliseconds of the claims
+   */
+  public long getLeaseDuration() {
+    return leaseDuration;
+  }
+
   @Override
   @ExoTransactional
   public void storeAsProcessed(List<IDMQueueEntry> queueEntries) {
@@ -136,6 +342,7 @@ public class IDMQueueServiceImpl implements IDMQueueService {
       }
       ids.add(queueEntry.getId());
     }
+    countsCache.clear();
     queueDAO.setProcessed(ids);
   }
 
@@ -153,19 +360,103 @@ public class IDMQueueServiceImpl implements IDMQueueService {
       }
       ids.add(queueEntry.getId());
     }
+    countsCache.clear();
     queueDAO.incrementRetry(ids);
   }
 
+  /**
+   * Delete all processed entries, by batches of 'exo.idm.queue.purge.batch.size'
+   * entries each deleted in its own transaction.
+   */
   @Override
-  @ExoTransactional
   public void deleteProcessedEntries() {
-    queueDAO.deleteProcessedEntries();
+    purgeProcessedEntries(null, 0);
   }
 
+  /**
+   * Delete the entries that exceeded the max retries, by batches of
+   * 'exo.idm.queue.purge.batch.size' entries each deleted in its own
+   * transaction.
+   */
   @Override
-  @ExoTransactional
   public void deleteExceededRetriesEntries() {
-    queueDAO.deleteExceededRetriesEntries(getMaxRetries());
+    purgeExceededRetriesEntries(0);
+  }
+
+  /**
+   * Purge the processed entries older than the retention duration
+   * ('exo.idm.queue.processed.retention') and the entries that exceeded the
+   * max retries. Entries are deleted by bounded batches, with a pause between
+   * two batches, to avoid long table locks.
+   *
+   * @return number of deleted entries
+   */
+  @Managed
+  @ManagedDescription("Purge old processed entries and entries that exceeded max retries")
+  @Impact(ImpactType.WRITE)
+  public int purge() {
+    Calendar before = Calendar.getInstance();
+    before.setTimeInMillis(System.currentTimeMillis() - processedRetention);
+    int deleted = purgeProcessedEntries(before, purgePause);
+    deleted += purgeExceededRetriesEntries(purgePause);
+    if (deleted > 0) {
+      LOG.info("{} IDM queue entries purged", deleted);
+    }
+    return deleted;
+  }
+
+  /**
+   * Runs {@link #purge()} unless another cluster node already ran the
+   * scheduled purge during the current period ('exo.idm.queue.purge.period').
+   * A tenth of the period is tolerated for the scheduling drift between the
+   * nodes.
+   *
+   * @return true if the purge was run by this call
+   */
+  public boolean scheduledPurge() {
+    long now = System.currentTimeMillis();
+    if (!queueDAO.startPurge(now, now - purgePeriod + purgePeriod / 10)) {
+      LOG.debug("IDM queue already purged by another node during the current period, purge skipped");
+      return false;
+    }
+    purge();
+    return true;
+  }
+
+  private int purgeProcessedEntries(Calendar before, long pause) {
+    int deleted = 0;
+    List<Long> ids;
+    do {
+      ids = queueDAO.getProcessedEntriesIds(before, purgeBatchSize);
+      deleted += deleteEntries(ids, pause);
+    } while (ids.size() == purgeBatchSize && !Thread.currentThread().isInterrupted());
+    return deleted;
+  }
+
+  private int purgeExceededRetriesEntries(long pause) {
+    int deleted = 0;
+    List<Long> ids;
+    do {
+      ids = queueDAO.getExceededRetriesEntriesIds(getMaxRetries(), purgeBatchSize);
+      deleted += deleteEntries(ids, pause);
+    } while (ids.size() == purgeBatchSize && !Thread.currentThread().isInterrupted());
+    return deleted;
+  }
+
+  private int deleteEntries(List<Long> ids, long pause) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    int deleted = queueDAO.deleteEntries(ids);
+    countsCache.clear();
+    if (pause > 0 && ids.size() == purgeBatchSize) {
+      try {
+        Thread.sleep(pause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return deleted;
   }
 
   @Override
@@ -173,6 +464,100 @@ public class IDMQueueServiceImpl implements IDMQueueService {
     return maxRetries;
   }
 
+  @Managed
+  @ManagedDescription("Number of entries pushed in queue since startup")
+  @Impact(ImpactType.READ)
+  public long getPushedEntriesCount() {
+    return pushedEntries.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of pushed entries merged into the pending entry of the same entity since startup")
+  @Impact(ImpactType.READ)
+  public long getMergedOnPushCount() {
+    return mergedOnPush.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of duplicated entries of an entity skipped when reading the queue since startup")
+  @Impact(ImpactType.READ)
+  public long getMergedOnReadCount() {
+    return mergedOnRead.get();
+  }
+
+  /**
+   * Keep only the first entry of each entity. Entries are read from the most
+   * recent to the oldest, so the most recent entry of an entity is kept.
+   *
+   * @param queueEntries entries read from queue
+   * @param duplicatedIds filled with identifiers of skipped entries
+   * @return entries without duplicates
+   */
+  private List<IDMQueueEntity> coalesce(List<IDMQueueEntity> queueEntries, List<Long> duplicatedIds) {
+    Set<String> entities = new HashSet<>();
+    List<IDMQueueEntity> coalescedEntries = new ArrayList<>();
+    for (IDMQueueEntity idmQueueEntity : queueEntries) {
+      if (entities.add(idmQueueEntity.getEntityType() + ":" + idmQueueEntity.getEntityId())) {
+        coalescedEntries.add(idmQueueEntity);
+      } else {
+        duplicatedIds.add(idmQueueEntity.getId());
+      }
+    }
+    if (!duplicatedIds.isEmpty()) {
+      mergedOnRead.addAndGet(duplicatedIds.size());
+    }
+    return coalescedEntries;
+  }
+
+  private Integer getCachedCount(int key) {
+    if (countCacheDuration <= 0) {
+      return null;
+    }
+    long[] cachedCount = countsCache.get(key);
+    if (cachedCount == null || System.currentTimeMillis() - cachedCount[1] > countCacheDuration) {
+      return null;
+    }
+    return (int) cachedCount[0];
+  }
+
+  private int cacheCount(int key, int count) {
+    if (countCacheDuration > 0) {
+      countsCache.put(key, new long[] { count, System.currentTimeMillis() });
+    }
+    return count;
+  }
+
+  private static long getLongParam(InitParams params, String name, long defaultValue) {
+    if (params == null || !params.containsKey(name)) {
+      return defaultValue;
+    }
+    String value = params.getValueParam(name).getValue();
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      LOG.warn("Unable to parse " + name + " " + value + ". Default value " + defaultValue + " will be used", e);
+      return defaultValue;
+    }
+  }
+
+  private List<Long> getIds(List<IDMQueueEntry> queueEntries) {
+    List<Long> ids = new ArrayList<>();
+    for (IDMQueueEntry queueEntry : queueEntries) {
+      ids.add(queueEntry.getId());
+    }
+    return ids;
+  }
+
+  private static String computeOwnerId() {
+    String hostName;
+    try {
+      hostName = InetAddress.getLocalHost().getHostName();
+    } catch (Exception e) {
+      hostName = "unknown";
+    }
+    return hostName + "-" + UUID.randomUUID().toString().substring(0, 8);
+  }
+
   private IDMQueueEntity convertToEntity(IDMQueueEntry queueEntry) {
     IDMQueueEntity idmQueueEntity = new IDMQueueEntity();
     idmQueueEntity.setCreationDate(queueEntry.getCreationDate() == null ? Calendar.getInstance() : queueEntry.getCreationDate())
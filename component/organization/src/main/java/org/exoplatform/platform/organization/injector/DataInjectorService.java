@@ -34,6 +34,7 @@ import org.exoplatform.container.xml.Component;
 import org.exoplatform.container.xml.ComponentPlugin;
 import org.exoplatform.container.xml.Configuration;
 import org.exoplatform.container.xml.ExternalComponentPlugins;
+import org.exoplatform.platform.organization.util.ListAccessIterator;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.organization.Group;
@@ -234,25 +235,21 @@ public class DataInjectorService implements Startable {
       }
 
       {// Write Users
-        ListAccess<User> usersListAccess = organizationService.getUserHandler().findAllUsers();
+        ListAccessIterator<User> usersIterator = newUsersIterator();
         List<OrganizationConfig.User> orgConfigUsersInSigleFile = new ArrayList<OrganizationConfig.User>();
         int i = 0;
-        while (i <= usersListAccess.getSize()) {
-          int length = i + SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME <= usersListAccess.getSize() ?
-                  SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME : usersListAccess.getSize() - i;
-          User[] users = usersListAccess.load(i, length);
-          for (User user : users) {
-            OrganizationConfig.User orgConfigUser = convertUserToSerializableObject(user);
+        try {
+          while (usersIterator.hasNext()) {
+            OrganizationConfig.User orgConfigUser = convertUserToSerializableObject(usersIterator.next());
             orgConfigUsersInSigleFile.add(orgConfigUser);
+            if (orgConfigUsersInSigleFile.size() == SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME || !usersIterator.hasNext()) {
+              addUsersEntry(zos, configuration, orgConfigUsersInSigleFile, i);
+              i += orgConfigUsersInSigleFile.size();
+              orgConfigUsersInSigleFile.clear();
+            }
           }
-          Configuration organizationServiceConfiguration = SerializationUtils
-              .buildOrganizationServiceConfiguration(SerializationUtils.getOrganizationConfig(null, null,
-                  orgConfigUsersInSigleFile));
-          SerializationUtils.addEntry(zos, SerializationUtils.toXML(organizationServiceConfiguration),
-              "OrganizationDataModel/Users" + i + CONFIGURATION_XML_SUFFIX);
-          orgConfigUsersInSigleFile.clear();
-          configuration.addImport("OrganizationDataModel/Users" + i + CONFIGURATION_XML_SUFFIX);
-          i += SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME;
+        } finally {
+          usersIterator.close();
         }
       }
       SerializationUtils.addEntry(zos, SerializationUtils.toXML(configuration), "configuration.xml");
@@ -264,14 +261,11 @@ public class DataInjectorService implements Startable {
   public void writeProfiles(ZipOutputStream zos) throws Exception {
     RequestLifeCycle.begin(PortalContainer.getInstance());
     try {
-      ListAccess<User> usersListAccess = organizationService.getUserHandler().findAllUsers();
+      ListAccessIterator<User> usersIterator = newUsersIterator();
       XStream xstream_ = new XStream(new XppDriver());
-      int i = 0;
-      while (i <= usersListAccess.getSize()) {
-        int length = i + SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME <= usersListAccess.getSize() ?
-                SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME : usersListAccess.getSize() - i;
-        User[] users = usersListAccess.load(i, length);
-        for (User user : users) {
+      try {
+        while (usersIterator.hasNext()) {
+          User user = usersIterator.next();
           UserProfile userProfile = organizationService.getUserProfileHandler().findUserProfileByName(user.getUserName());
           if ((userProfile != null) && (userProfile.getUserInfoMap() != null) && !userProfile.getUserInfoMap().isEmpty()) {
             xstream_.alias("user-profile", userProfile.getClass());
@@ -285,7 +279,8 @@ public class DataInjectorService implements Startable {
             }
           }
         }
-        i += SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME;
+      } finally {
+        usersIterator.close();
       }
     } finally {
       RequestLifeCycle.end();
@@ -298,14 +293,11 @@ public class DataInjectorService implements Startable {
       if (LOG.isDebugEnabled()) {
         LOG.debug("Adding entries for each user, additional fields are missing: LastLoginTime & CreatedDate");
       }
-      ListAccess<User> usersListAccess = organizationService.getUserHandler().findAllUsers();
+      ListAccessIterator<User> usersIterator = newUsersIterator();
       XStream xstream_ = new XStream(new XppDriver());
-      int i = 0;
-      while (i <= usersListAccess.getSize()) {
-        int length = i + SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME <= usersListAccess.getSize() ?
-                SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME : usersListAccess.getSize() - i;
-        User[] users = usersListAccess.load(i, length);
-        for (User user : users) {
+      try {
+        while (usersIterator.hasNext()) {
+          User user = usersIterator.next();
           if (user != null) {
             xstream_.alias("user", user.getClass());
             String xml = xstream_.toXML(user);
@@ -318,13 +310,31 @@ public class DataInjectorService implements Startable {
             }
           }
         }
-        i += SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME;
+      } finally {
+        usersIterator.close();
       }
     } finally {
       RequestLifeCycle.end();
     }
   }
 
+  private ListAccessIterator<User> newUsersIterator() throws Exception {
+    ListAccess<User> usersListAccess = organizationService.getUserHandler().findAllUsers();
+    return new ListAccessIterator<User>(usersListAccess, SerializationUtils.MAX_USERS_IN_FILE_PARAM_NAME, true);
+  }
+
+  private void addUsersEntry(ZipOutputStream zos,
+                             Configuration configuration,
+                             List<OrganizationConfig.User> orgConfigUsersInSigleFile,
+                             int index) throws Exception {
+    Configuration organizationServiceConfiguration = SerializationUtils
+        .buildOrganizationServiceConfiguration(SerializationUtils.getOrganizationConfig(null, null,
+            orgConfigUsersInSigleFile));
+    SerializationUtils.addEntry(zos, SerializationUtils.toXML(organizationServiceConfiguration),
+        "OrganizationDataModel/Users" + index + CONFIGURATION_XML_SUFFIX);
+    configuration.addImport("OrganizationDataModel/Users" + index + CONFIGURATION_XML_SUFFIX);
+  }
+
   private OrganizationConfig.User convertUserToSerializableObject(User user) throws Exception {
     OrganizationConfig.User orgConfigUser = new OrganizationConfig.User();
     orgConfigUser.setEmail(user.getEmail());
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.platform.organization.integration;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Batch of integration folders writes bound to the current thread. While a
+ * batch is in progress, {@link Util} create and delete operations don't save
+ * the JCR session after each operation: the session is saved every
+ * 'batchSize' operations and when the batch is flushed or ended. The
+ * integration listeners and {@link OrganizationIntegrationService} use the
+ * batch session (see {@link Util#openSession}), so they see the pending
+ * writes of the batch.
+ * If a save fails, the pending writes of the batch are discarded; the
+ * related entities are integrated again by the next synchronization.
+ *
+ * @deprecated OrganizationIntegrationService is replaced by External Store API
+ */
+@Deprecated
+public class FolderWriteBatch {
+
+  private static final Log                            LOG     = ExoLogger.getLogger(FolderWriteBatch.class);
+
+  private static final ThreadLocal<FolderWriteBatch> CURRENT = new ThreadLocal<FolderWriteBatch>();
+
+  private final Session                               session;
+
+  private final int                                   batchSize;
+
+  private int                                         pendingOperations;
+
+  private long                                        saves;
+
+  private long                                        failedSaves;
+
+  private FolderWriteBatch(Session session, int batchSize) {
+    this.session = session;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Start a batch on the current thread. When the batch size is lower than 2
+   * or a batch is already in progress, no batch is started and null is
+   * returned.
+   *
+   * @param session JCR session used by the batch
+   * @param batchSize number of operations saved together
+   * @return the started batch or null
+   */
+  public static FolderWriteBatch begin(Session session, int batchSize) {
+    if (session == null || batchSize < 2 || CURRENT.get() != null) {
+      return null;
+    }
+    FolderWriteBatch batch = new FolderWriteBatch(session, batchSize);
+    CURRENT.set(batch);
+    return batch;
+  }
+
+  /**
+   * @return the batch in progress on the current thread, null if none
+   */
+  public static FolderWriteBatch getCurrent() {
+    return CURRENT.get();
+  }
+
+  /**
+   * End the batch and save its pending operations. Can be called with a null
+   * batch.
+   *
+   * @param batch batch returned by {@link #begin(Session, int)}
+   * @throws RepositoryException if the pending operations can't be saved
+   */
+  public static void end(FolderWriteBatch batch) throws RepositoryException {
+    if (batch == null) {
+      return;
+    }
+    try {
+      batch.flush();
+    } finally {
+      if (CURRENT.get() == batch) {
+        CURRENT.remove();
+      }
+    }
+  }
+
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * Save the pending operations of the batch.
+   *
+   * @throws RepositoryException if the pending operations can't be saved
+   */
+  public void flush() throws RepositoryException {
+    if (pendingOperations == 0) {
+      return;
+    }
+    int operations = pendingOperations;
+    pendingOperations = 0;
+    try {
+      session.save();
+      saves++;
+    } catch (RepositoryException e) {
+      failedSaves++;
+      LOG.error("Error while saving " + operations + " integration folders operations, they are discarded", e);
+      session.refresh(false);
+      throw e;
+    }
+  }
+
+  /**
+   * @return number of operations not saved yet
+   */
+  public int getPendingOperations() {
+    return pendingOperations;
+  }
+
+  /**
+   * @return number of JCR saves done by this batch
+   */
+  public long getSaves() {
+    return saves;
+  }
+
+  /**
+   * @return number of JCR saves of this batch that failed, including the saves
+   *         done when the batch size is reached
+   */
+  public long getFailedSaves() {
+    return failedSaves;
+  }
+
+  void written() throws RepositoryException {
+    if (++pendingOperations >= batchSize) {
+      flush();
+    }
+  }
+}
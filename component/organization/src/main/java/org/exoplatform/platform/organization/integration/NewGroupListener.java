@@ -56,13 +56,13 @@ public class NewGroupListener extends GroupEventListener {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (!Util.hasGroupFolder(session, group.getId())) {
         Util.createGroupFolder(session, group.getId());
       }
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
@@ -76,13 +76,13 @@ public class NewGroupListener extends GroupEventListener {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (Util.hasGroupFolder(session, group.getId())) {
         Util.deleteGroupFolder(session, group.getId());
       }
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
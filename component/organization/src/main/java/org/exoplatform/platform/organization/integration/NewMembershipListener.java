@@ -60,7 +60,7 @@ public class NewMembershipListener extends MembershipEventListener {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (Util.hasUserFolder(session, m.getUserName())) {
         if (!Util.hasMembershipFolder(session, m)) {
           Util.createMembershipFolder(session, m);
@@ -70,7 +70,7 @@ public class NewMembershipListener extends MembershipEventListener {
       }
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
@@ -84,13 +84,13 @@ public class NewMembershipListener extends MembershipEventListener {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (Util.hasMembershipFolder(session, m)) {
         Util.deleteMembershipFolder(session, m);
       }
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
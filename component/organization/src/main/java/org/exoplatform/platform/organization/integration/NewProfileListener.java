@@ -56,13 +56,13 @@ public class NewProfileListener extends UserProfileEventListener {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (!Util.hasProfileFolder(session, user.getUserName())) {
         Util.createProfileFolder(session, user.getUserName());
       }
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
@@ -76,13 +76,13 @@ public class NewProfileListener extends UserProfileEventListener {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (Util.hasProfileFolder(session, user.getUserName())) {
         Util.deleteProfileFolder(session, user.getUserName());
       }
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
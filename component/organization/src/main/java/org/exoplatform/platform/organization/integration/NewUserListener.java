@@ -56,13 +56,13 @@ public class NewUserListener extends UserEventListener {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (!Util.hasUserFolder(session, user.getUserName())) {
         Util.createUserFolder(session, user.getUserName());
       }
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
@@ -76,13 +76,13 @@ public class NewUserListener extends UserEventListener {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (Util.hasUserFolder(session, user.getUserName())) {
         Util.deleteUserFolder(session, user.getUserName());
       }
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
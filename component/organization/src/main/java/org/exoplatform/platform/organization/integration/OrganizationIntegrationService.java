@@ -22,7 +22,6 @@ import javax.jcr.Session;
 
 import org.picocontainer.Startable;
 
-import org.exoplatform.commons.utils.ListAccess;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.component.ComponentPlugin;
 import org.exoplatform.container.component.ComponentRequestLifecycle;
@@ -32,6 +31,7 @@ import org.exoplatform.management.annotations.*;
 import org.exoplatform.management.jmx.annotations.NameTemplate;
 import org.exoplatform.management.jmx.annotations.Property;
 import org.exoplatform.management.rest.annotations.RESTEndpoint;
+import org.exoplatform.platform.organization.util.ListAccessIterator;
 import org.exoplatform.services.jcr.RepositoryService;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
@@ -102,10 +102,29 @@ public class OrganizationIntegrationService implements Startable {
 
   private PicketLinkIDMCacheService                                              picketLinkIDMCacheService;
 
+  private SyncCacheInvalidator                                                   cacheInvalidator;
+
+  private SyncCheckpoint                                                         syncCheckpoint;
+
   private IDMExternalStoreService                                                externalStoreService;
 
   private boolean                                                                enabled                     = true;
 
+  private int                                                                    syncWorkers                 = 1;
+
+  private int                                                                    syncQueueCapacity           = 1000;
+
+  private int                                                                    usersPageSize               =
+                                                                                               ListAccessIterator.DEFAULT_PAGE_SIZE;
+
+  private int                                                                    writeBatchSize              = 100;
+
+  private int                                                                    checkpointBatchSize         =
+                                                                                                     SyncCheckpoint.DEFAULT_BATCH_SIZE;
+
+  private final OrganizationSyncStatistics                                       syncStatistics              =
+                                                                                                new OrganizationSyncStatistics();
+
   public OrganizationIntegrationService(OrganizationService organizationService,
                                         IDMExternalStoreService externalStoreService,
                                         RepositoryService repositoryService,
@@ -118,6 +137,7 @@ public class OrganizationIntegrationService implements Startable {
     this.repositoryService = repositoryService;
     this.container = container;
     this.picketLinkIDMCacheService = picketLinkIDMCacheService;
+    this.cacheInvalidator = new SyncCacheInvalidator(picketLinkIDMCacheService, container);
     this.externalStoreService = externalStoreService;
     userDAOListeners_ = new LinkedHashMap<String, UserEventListener>();
     groupDAOListeners_ = new LinkedHashMap<String, GroupEventListener>();
@@ -182,10 +202,16 @@ public class OrganizationIntegrationService implements Startable {
       } else {
         LOG.warn("'homePath' init param is empty, use default value: " + Util.HOME_PATH);
       }
+      syncWorkers = getIntParam(initParams, "syncWorkers", syncWorkers);
+      syncQueueCapacity = getIntParam(initParams, "syncQueueCapacity", syncQueueCapacity);
+      usersPageSize = getIntParam(initParams, "usersPageSize", usersPageSize);
+      checkpointBatchSize = getIntParam(initParams, "checkpointBatchSize", checkpointBatchSize);
+      writeBatchSize = getIntParam(initParams, "writeBatchSize", writeBatchSize);
     } else {
       LOG.warn("init params not set, use default values for 'homePath'[=" + Util.HOME_PATH + "] and 'workspace[=" + Util.WORKSPACE
           + "]'");
     }
+    this.syncCheckpoint = new SyncCheckpoint(container, checkpointBatchSize);
   }
 
   public void start() {
@@ -196,7 +222,7 @@ public class OrganizationIntegrationService implements Startable {
     }
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       Util.init(session);
 
       if (synchronizeGroups) {
@@ -210,7 +236,7 @@ public class OrganizationIntegrationService implements Startable {
       LOG.error(e.getMessage(), e);
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
@@ -274,7 +300,83 @@ public class OrganizationIntegrationService implements Startable {
   }
 
   /**
-   * Apply OrganizationService listeners on all Groups
+   * @return status of the running or last users synchronization
+   */
+  @Managed
+  @ManagedDescription("Status of the running or last users synchronization: progress, throughput and errors per partition")
+  @Impact(ImpactType.READ)
+  public String getSyncStatus() {
+    return syncStatistics.toString();
+  }
+
+  @Managed
+  @ManagedDescription("Number of users processed by the running or last users synchronization")
+  @Impact(ImpactType.READ)
+  public long getSyncProcessedCount() {
+    return syncStatistics.getProcessed();
+  }
+
+  @Managed
+  @ManagedDescription("Number of users processed per second by the running or last users synchronization")
+  @Impact(ImpactType.READ)
+  public double getSyncThroughput() {
+    return syncStatistics.getThroughput();
+  }
+
+  @Managed
+  @ManagedDescription("Number of errors per partition of the running or last users synchronization")
+  @Impact(ImpactType.READ)
+  public String getSyncPartitionErrors() {
+    return Arrays.toString(syncStatistics.getPartitionErrors());
+  }
+
+  @Managed
+  @ManagedDescription("Number of parallel workers used to synchronize users")
+  @Impact(ImpactType.READ)
+  public int getSyncWorkers() {
+    return syncWorkers;
+  }
+
+  @Managed
+  @ManagedDescription("Set the number of parallel workers used to synchronize users, 1 means sequential synchronization")
+  @Impact(ImpactType.WRITE)
+  public void setSyncWorkers(@ManagedDescription("Number of workers") @ManagedName("syncWorkers") int syncWorkers) {
+    if (syncWorkers < 1) {
+      throw new IllegalArgumentException("The number of synchronization workers must be greater than 0");
+    }
+    this.syncWorkers = syncWorkers;
+  }
+
+  @Managed
+  @ManagedDescription("Number of PicketLink IDM cache invalidations triggered by synchronization")
+  @Impact(ImpactType.READ)
+  public long getSyncCacheInvalidations() {
+    return cacheInvalidator.getInvalidations();
+  }
+
+  @Managed
+  @ManagedDescription("Number of PicketLink IDM cache invalidations avoided because a bulk synchronization already invalidated it")
+  @Impact(ImpactType.READ)
+  public long getSyncSkippedCacheInvalidations() {
+    return cacheInvalidator.getSkippedInvalidations();
+  }
+
+  @Managed
+  @ManagedDescription("Hit ratio of PicketLink IDM caches since the start of the running or last bulk synchronization, -1 if unknown")
+  @Impact(ImpactType.READ)
+  public double getSyncCacheHitRatio() {
+    return cacheInvalidator.getCacheHitRatio();
+  }
+
+  public OrganizationSyncStatistics getSyncStatistics() {
+    return syncStatistics;
+  }
+
+  /**
+   * Apply OrganizationService listeners on all Groups. Groups are
+   * synchronized first, from parents to children, and users synchronization
+   * (which may be parallelized using 'syncWorkers') starts only once all
+   * groups are processed.
    */
   @Managed
   @ManagedDescription("invoke all organization model listeners. Becarefull, this could takes a lot of time.")
@@ -286,44 +388,107 @@ public class OrganizationIntegrationService implements Startable {
     if (!isEnabled()) {
       throw new IllegalStateException("OrganizationIntegrationService is disabled");
     }
+    syncAll(null, null, 0);
+  }
 
-    startRequest();
-    LOG.info("The synchronization is started for all LDAP users and groups, eventType: ADDED,DELETED");
-    try {
-
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(" Search for integrated Groups.");
-      }
-      syncAllGroups(EventType.UPDATED.toString());
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(" Search for non integrated Groups.");
-      }
-      syncAllGroups(EventType.ADDED.toString());
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(" Search for deleted Groups, but remain integrated.");
+  /**
+   * Resume an interrupted synchronization (server restart, node failover...)
+   * from its persisted checkpoint. The phases that were completed are
+   * skipped. Users and groups 'UPDATED' phases continue after the last
+   * checkpointed entity, 'ADDED' and 'DELETED' phases are restarted since they
+   * only process the entities that are still not reconciled.
+   */
+  @Managed
+  @ManagedDescription("Resume the interrupted synchronization from its last checkpoint. A full synchronization is started if no checkpoint is found.")
+  @Impact(ImpactType.READ)
+  public void resumeSyncAll() throws Exception {
+    if (!isEnabled()) {
+      throw new IllegalStateException("OrganizationIntegrationService is disabled");
+    }
+    SyncCheckpoint checkpoint = new SyncCheckpoint(container, checkpointBatchSize);
+    if (!checkpoint.load() || SyncCheckpoint.getPhaseIndex(checkpoint.getPhase()) < 0) {
+      LOG.info("No synchronization checkpoint found, a full synchronization is started");
+      syncAll();
+      return;
+    }
+    LOG.info("Resume the synchronization from checkpoint: " + checkpoint);
+    if (checkpoint.isFullSync()) {
+      syncAll(checkpoint.getPhase(), checkpoint.getLastEntity(), checkpoint.getProcessed());
+    } else {
+      cacheInvalidator.beginBulkRun();
+      try {
+        runPhase(checkpoint.getPhase(), false, checkpoint.getLastEntity(), checkpoint.getProcessed());
+        syncCheckpoint.clear();
+      } finally {
+        cacheInvalidator.endBulkRun();
       }
+    }
+  }
 
-      syncAllGroups(EventType.DELETED.toString());
+  @Managed
+  @ManagedDescription("Persisted checkpoint of the running or interrupted synchronization")
+  @Impact(ImpactType.READ)
+  public String getSyncCheckpoint() {
+    SyncCheckpoint checkpoint = new SyncCheckpoint(container, checkpointBatchSize);
+    checkpoint.load();
+    return checkpoint.toString();
+  }
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(" Search for integrated Users.");
-      }
-      syncAllUsers(EventType.UPDATED.toString());
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(" Search for non integrated Users.");
-      }
-      syncAllUsers(EventType.ADDED.toString());
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(" Search for deleted Users, but remain integrated.");
+  private void syncAll(String resumePhase, String resumeAfter, long resumeProcessed) {
+    startRequest();
+    LOG.info("The synchronization is started for all LDAP users and groups, eventType: ADDED,DELETED");
+    int resumePhaseIndex = resumePhase == null ? 0 : SyncCheckpoint.getPhaseIndex(resumePhase);
+    cacheInvalidator.beginBulkRun();
+    try {
+      // Groups are synchronized from parents to children before users:
+      // GROUPS:UPDATED, GROUPS:ADDED, GROUPS:DELETED, USERS:UPDATED,
+      // USERS:ADDED then USERS:DELETED
+      for (int i = resumePhaseIndex; i < SyncCheckpoint.SYNC_PHASES.length; i++) {
+        if (i == resumePhaseIndex && resumePhase != null) {
+          runPhase(SyncCheckpoint.SYNC_PHASES[i], true, resumeAfter, resumeProcessed);
+        } else {
+          runPhase(SyncCheckpoint.SYNC_PHASES[i], true, null, 0);
+        }
       }
-      syncAllUsers(EventType.DELETED.toString());
+      syncCheckpoint.clear();
     } catch (Exception e) {
       LOG.error(e.getMessage(), e);
+    } finally {
+      cacheInvalidator.endBulkRun();
     }
     LOG.info("The synchronization is finished for all LDAP users and groups, eventType: ADDED,DELETED");
     endRequest();
   }
 
+  /**
+   * Run a phase of a synchronization. The checkpoint must be cleared only
+   * once all the phases of the run succeeded.
+   *
+   * @throws Exception if the phase couldn't process all its entities
+   */
+  private void runPhase(String phase, boolean fullSync, String resumeAfter, long resumeProcessed) throws Exception {
+    EventType event = EventType.valueOf(phase.substring(phase.indexOf(':') + 1));
+    syncCheckpoint.startPhase(phase, fullSync, resumeAfter, resumeProcessed);
+    if (phase.startsWith("GROUPS:")) {
+      syncAllGroups(event, resumeAfter);
+    } else {
+      syncAllUsers(event, resumeAfter);
+    }
+  }
+
+  /**
+   * A single phase run on demand shares the checkpoint of the full
+   * synchronization, so it is refused while a synchronization is running or
+   * its checkpoint wasn't cleared, since it would overwrite or remove it.
+   */
+  private void checkNoCheckpoint() {
+    SyncCheckpoint checkpoint = new SyncCheckpoint(container, checkpointBatchSize);
+    if (syncCheckpoint.getPhase() != null || checkpoint.load()) {
+      throw new IllegalStateException("A synchronization is running or was interrupted, it must be resumed first: "
+          + (checkpoint.getPhase() != null ? checkpoint : syncCheckpoint));
+    }
+  }
+
   /**
    * Invoke Groups listeners to all Organization Model Elements
    * 
@@ -341,14 +506,25 @@ public class OrganizationIntegrationService implements Startable {
       throw new IllegalStateException("OrganizationIntegrationService is disabled");
     }
 
+    EventType event = EventType.valueOf(eventType);
+    checkNoCheckpoint();
+    cacheInvalidator.beginBulkRun();
+    try {
+      runPhase("GROUPS:" + event, false, null, 0);
+      syncCheckpoint.clear();
+    } finally {
+      cacheInvalidator.endBulkRun();
+    }
+  }
+
+  private void syncAllGroups(EventType event, String resumeAfter) throws Exception {
+    String eventType = event.toString();
     startRequest();
 
     List<Group> groups = new ArrayList<Group>(organizationService.getGroupHandler().getAllGroups());
     // Invoke listeners on groups, starting from parent groups to children
     Collections.sort(groups, GROUP_COMPARATOR);
 
-    picketLinkIDMCacheService.invalidateAll();
-    EventType event = EventType.valueOf(eventType);
     switch (event) {
     case DELETED: {
       LOG.info("The synchronization is started for all LDAP groups, eventType: DELETED");
@@ -358,18 +534,27 @@ public class OrganizationIntegrationService implements Startable {
       // Search for deleted groups, and invoke
       // GroupEventListener#preDelete and #postDelete
       Session session = null;
+      FolderWriteBatch batch = null;
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
+        batch = FolderWriteBatch.begin(session, writeBatchSize);
         List<String> activatedGroups = Util.getActivatedGroups(session);
-        for (Group group : groups) {
-          activatedGroups.remove(group.getId());
-        }
-        for (String groupId : activatedGroups) {
-          syncGroup(groupId, eventType);
+        // Activated groups index of this run, to find the children of the
+        // deleted groups
+        NavigableSet<String> activatedGroupsIndex = Util.indexActivatedGroups(activatedGroups);
+        SyncDiff groupsDiff = SyncDiff.computeGroupsDiff(activatedGroups, groups);
+        LOG.info("Groups to synchronize, " + groupsDiff);
+        for (String groupId : groupsDiff.getDeleted()) {
+          syncGroup(groupId, eventType, activatedGroupsIndex);
+          syncCheckpoint.processed(groupId);
         }
       } finally {
-        if (session != null) {
-          session.logout();
+        try {
+          FolderWriteBatch.end(batch);
+        } finally {
+          if (session != null) {
+            Util.closeSession(session);
+          }
         }
       }
       LOG.info("The synchronization is finished for all LDAP groups, eventType: DELETED");
@@ -379,15 +564,28 @@ public class OrganizationIntegrationService implements Startable {
       LOG.info("The synchronization is started for all LDAP groups, eventType: UPDATED");
       // Search for added groups that aren't yet integrated
       Session session = null;
+      FolderWriteBatch batch = null;
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
-        List<String> activatedGroups = Util.getActivatedGroups(session);
+        session = Util.openSession(repositoryService);
+        batch = FolderWriteBatch.begin(session, writeBatchSize);
+        // Sorted to be able to resume after the last checkpointed group,
+        // parent groups are still processed before their children
+        List<String> activatedGroups = new ArrayList<String>(Util.getActivatedGroups(session));
+        Collections.sort(activatedGroups);
         for (String groupId : activatedGroups) {
+          if (resumeAfter != null && groupId.compareTo(resumeAfter) <= 0) {
+            continue;
+          }
           syncGroup(groupId, eventType);
+          syncCheckpoint.processed(groupId);
         }
       } finally {
-        if (session != null) {
-          session.logout();
+        try {
+          FolderWriteBatch.end(batch);
+        } finally {
+          if (session != null) {
+            Util.closeSession(session);
+          }
         }
       }
       LOG.info("The synchronization is finished for all LDAP groups, eventType: UPDATED");
@@ -397,17 +595,23 @@ public class OrganizationIntegrationService implements Startable {
       LOG.info("The synchronization is started for all LDAP groups, eventType: ADDED");
       // Search for added groups that aren't yet integrated
       Session session = null;
+      FolderWriteBatch batch = null;
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
-        List<String> activatedGroups = Util.getActivatedGroups(session);
-        for (Group group : groups) {
-          if (!activatedGroups.contains(group.getId())) {
-            syncGroup(group.getId(), eventType);
-          }
+        session = Util.openSession(repositoryService);
+        batch = FolderWriteBatch.begin(session, writeBatchSize);
+        SyncDiff groupsDiff = SyncDiff.computeGroupsDiff(Util.getActivatedGroups(session), groups);
+        LOG.info("Groups to synchronize, " + groupsDiff);
+        for (String groupId : groupsDiff.getAdded()) {
+          syncGroup(groupId, eventType);
+          syncCheckpoint.processed(groupId);
         }
       } finally {
-        if (session != null) {
-          session.logout();
+        try {
+          FolderWriteBatch.end(batch);
+        } finally {
+          if (session != null) {
+            Util.closeSession(session);
+          }
         }
       }
       LOG.info("The synchronization is finished for all LDAP groups, eventType: ADDED");
@@ -428,6 +632,14 @@ public class OrganizationIntegrationService implements Startable {
   @Impact(ImpactType.READ)
   public void syncGroup(@ManagedDescription("Group Id") @ManagedName("groupId") String groupId,
                         @ManagedDescription("Event type ADDED, UPDATED or DELETED") @ManagedName("eventType") String eventType) {
+    syncGroup(groupId, eventType, null);
+  }
+
+  /**
+   * @param activatedGroupsIndex activated groups index of the current
+   *          synchronization run, or null to read the activated groups
+   */
+  private void syncGroup(String groupId, String eventType, NavigableSet<String> activatedGroupsIndex) {
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("\tGroup listeners invocation, operation= " + eventType + ", for group= " + groupId);
@@ -438,16 +650,19 @@ public class OrganizationIntegrationService implements Startable {
 
     EventType event = EventType.valueOf(eventType);
     // Invalidate plidmcache
-    picketLinkIDMCacheService.invalidateAll();
+    cacheInvalidator.invalidate("group " + groupId);
     switch (event) {
     case DELETED: {
       {
         Session session = null;
         startRequest();
         try {
-          session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+          session = Util.openSession(repositoryService);
 
-          List<Group> groups = Util.getActivatedChildrenGroup(session, groupId);
+          List<Group> groups = activatedGroupsIndex == null ? Util.getActivatedChildrenGroup(session, groupId)
+                                                            : Util.getActivatedChildrenGroup(session,
+                                                                                             groupId,
+                                                                                             activatedGroupsIndex);
 
           Collections.sort(groups, GROUP_COMPARATOR);
           Collections.reverse(groups);
@@ -460,7 +675,7 @@ public class OrganizationIntegrationService implements Startable {
         } finally {
           endRequest();
           if (session != null) {
-            session.logout();
+            Util.closeSession(session);
           }
         }
       }
@@ -494,7 +709,7 @@ public class OrganizationIntegrationService implements Startable {
   @Managed
   @ManagedDescription("invoke all users listeners")
   @Impact(ImpactType.READ)
-  public void syncAllUsers(@ManagedDescription("Event type: added/updated/deleted") @ManagedName("eventType") String eventType) {
+  public void syncAllUsers(@ManagedDescription("Event type: added/updated/deleted") @ManagedName("eventType") String eventType) throws Exception {
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("All users listeners invocation, eventType = " + eventType);
@@ -504,8 +719,18 @@ public class OrganizationIntegrationService implements Startable {
     }
 
     EventType event = EventType.valueOf(eventType);
+    checkNoCheckpoint();
+    cacheInvalidator.beginBulkRun();
+    try {
+      runPhase("USERS:" + event, false, null, 0);
+      syncCheckpoint.clear();
+    } finally {
+      cacheInvalidator.endBulkRun();
+    }
+  }
+
+  private void syncAllUsers(EventType event, String resumeAfter) throws Exception {
     Session session = null;
-    picketLinkIDMCacheService.invalidateAll();
     switch (event) {
     case DELETED: {
       LOG.info("The synchronization is started for all LDAP users, eventType: DELETED");
@@ -514,37 +739,14 @@ public class OrganizationIntegrationService implements Startable {
       }
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
-        List<String> activatedUsers = Util.getActivatedUsers(session);
-
-        ListAccess<User> usersListAccess = organizationService.getUserHandler().findAllUsers();
-
-        int i = 0;
-        int k = 0;
-        while (i <= usersListAccess.getSize()) {
-          int length = i + 10 <= usersListAccess.getSize() ? 10 : usersListAccess.getSize() - i;
-          User[] users = usersListAccess.load(i, length);
-          for (User user : users) {
-            activatedUsers.remove(user.getUserName());
-            k++;
-            if (k % 100 == 0) {
-              LOG.info(k + " users are checked for deletion");
-            }
-          }
-          i += 10;
-        }
-        if (k % 100 != 0) {
-          LOG.info(k + " users are checked for deletion");
-        }
-        for (String username : activatedUsers) {
-          syncUser(username, eventType);
-        }
-      } catch (Exception e) {
-        LOG.error("\t\tUnknown error occurred while preparing to proceed users deletion", e);
+        session = Util.openSession(repositoryService);
+        SyncDiff usersDiff = computeUsersDiff(session);
+        LOG.info("Users to synchronize, " + usersDiff);
+        dispatchUsers(usersDiff.getDeleted(), event);
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       LOG.info("The synchronization is finished for all LDAP users, eventType: DELETED");
@@ -557,17 +759,23 @@ public class OrganizationIntegrationService implements Startable {
       }
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
-        List<String> activatedUsers = Util.getActivatedUsers(session);
-        for (String username : activatedUsers) {
-          syncUser(username, eventType);
+        session = Util.openSession(repositoryService);
+        // Sorted to be able to resume after the last checkpointed user
+        List<String> activatedUsers = new ArrayList<String>(Util.getActivatedUsers(session));
+        Collections.sort(activatedUsers);
+        if (resumeAfter != null) {
+          Iterator<String> activatedUsersIterator = activatedUsers.iterator();
+          while (activatedUsersIterator.hasNext()) {
+            if (activatedUsersIterator.next().compareTo(resumeAfter) <= 0) {
+              activatedUsersIterator.remove();
+            }
+          }
         }
-      } catch (Exception e) {
-        LOG.error("\tUnknown error occurred while preparing to proceed user update", e);
+        dispatchUsers(activatedUsers, event);
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       LOG.info("The synchronization is finished for all LDAP users, eventType: UPDATED");
@@ -577,38 +785,18 @@ public class OrganizationIntegrationService implements Startable {
       LOG.info("The synchronization is started for all LDAP users, eventType: ADDED");
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
-        List<String> activatedUsers = Util.getActivatedUsers(session);
+        session = Util.openSession(repositoryService);
 
         if (LOG.isDebugEnabled()) {
           LOG.debug("\tAll new users intagration: Search for already existing users in Datasource but not integrated yet.");
         }
-        ListAccess<User> usersListAccess = organizationService.getUserHandler().findAllUsers();
-        int i = 0;
-        int k = 0;
-        while (i <= usersListAccess.getSize()) {
-          int length = i + 10 <= usersListAccess.getSize() ? 10 : usersListAccess.getSize() - i;
-          User[] users = usersListAccess.load(i, length);
-          for (User user : users) {
-            if (!activatedUsers.contains(user.getUserName())) {
-              syncUser(user.getUserName(), eventType);
-            }
-            k++;
-            if (k % 100 == 0) {
-              LOG.info(k + " users are checked for addition");
-            }
-          }
-          i += 10;
-        }
-        if (k % 100 != 0) {
-          LOG.info(k + " users are checked for addition");
-        }
-      } catch (Exception e) {
-        LOG.error("\tUnknown error occurred while preparing to proceed user update", e);
+        SyncDiff usersDiff = computeUsersDiff(session);
+        LOG.info("Users to synchronize, " + usersDiff);
+        dispatchUsers(usersDiff.getAdded(), event);
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       LOG.info("The synchronization is finished for all LDAP users, eventType: ADDED");
@@ -638,7 +826,7 @@ public class OrganizationIntegrationService implements Startable {
 
     EventType event = EventType.valueOf(eventType);
     // Invalidate plidmcache
-    picketLinkIDMCacheService.invalidateAll();
+    cacheInvalidator.invalidate("user " + username);
     switch (event) {
     case DELETED: {
       User user = null;
@@ -660,7 +848,7 @@ public class OrganizationIntegrationService implements Startable {
       Session session = null;
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
         if (Util.hasUserFolder(session, username)) {
           LOG.info("Invoke user deletion: " + username);
           user = new UserImpl(username);
@@ -691,7 +879,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       break;
@@ -702,7 +890,7 @@ public class OrganizationIntegrationService implements Startable {
       startRequest();
       try {
         boolean isNew = event.equals(EventType.ADDED);
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
         if (!isNew || !Util.hasUserFolder(session, username)) {
           User user = organizationService.getUserHandler().findUserByName(username);
           if (user == null) {
@@ -741,7 +929,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       invokeUserProfileListeners(username, event);
@@ -766,11 +954,11 @@ public class OrganizationIntegrationService implements Startable {
 
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       return "" + Util.hasUserFolder(session, username);
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
@@ -803,7 +991,7 @@ public class OrganizationIntegrationService implements Startable {
       Session session = null;
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
         List<Membership> activatedMemberships = Util.getActivatedMembershipsRelatedToUser(session, username);
         // Select memberships with given username and groupId
         int i = 0;
@@ -833,8 +1021,9 @@ public class OrganizationIntegrationService implements Startable {
           memberships = new ArrayList<Membership>();
         }
 
+        Set<String> membershipIds = getMembershipIds(memberships);
         for (Membership membership : activatedMemberships) {
-          if (!contains(membership, memberships)) {
+          if (!membershipIds.contains(membership.getId())) {
             invokeMembershipListeners(username, groupId, membership.getMembershipType(), event);
           }
         }
@@ -843,7 +1032,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       break;
@@ -869,7 +1058,7 @@ public class OrganizationIntegrationService implements Startable {
           return;
         }
 
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
         List<Membership> activatedMemberships = Util.getActivatedMembershipsRelatedToUser(session, username);
         // Select memberships with given username and groupId
         int i = 0;
@@ -888,13 +1077,14 @@ public class OrganizationIntegrationService implements Startable {
           return;
         }
 
+        Set<String> activatedMembershipIds = getMembershipIds(activatedMemberships);
         for (Membership membership : memberships) {
           if (isNew) {
-            if (!contains(membership, activatedMemberships)) {
+            if (!activatedMembershipIds.contains(membership.getId())) {
               invokeMembershipListeners(username, groupId, membership.getMembershipType(), event);
             }
           } else {
-            if (contains(membership, activatedMemberships)) {
+            if (activatedMembershipIds.contains(membership.getId())) {
               invokeMembershipListeners(username, groupId, membership.getMembershipType(), event);
             }
           }
@@ -904,7 +1094,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       break;
@@ -987,7 +1177,7 @@ public class OrganizationIntegrationService implements Startable {
       Session session = null;
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
         Membership membership = organizationService.getMembershipHandler()
                                                    .findMembershipByUserGroupAndType(username, groupId, membershipType);
         try {
@@ -1029,7 +1219,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       break;
@@ -1051,7 +1241,7 @@ public class OrganizationIntegrationService implements Startable {
 
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (!Util.hasGroupFolder(session, groupId)) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("\t\tGroup doesn't exist or has been already deleted.");
@@ -1081,7 +1271,7 @@ public class OrganizationIntegrationService implements Startable {
     } finally {
       endRequest();
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
     GroupImpl group = new GroupImpl(groupId);
@@ -1119,7 +1309,7 @@ public class OrganizationIntegrationService implements Startable {
           LOG.error("\t\t\tCouldn't process deletion of Memberships related to the user : " + username, exception);
         }
         if (userMemberships != null) {
-          session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+          session = Util.openSession(repositoryService);
           List<Membership> memberships = Util.getActivatedMembershipsRelatedToUser(session, username);
           for (Membership membership : memberships) {
             invokeMembershipListeners(username, membership.getGroupId(), membership.getMembershipType(), eventType);
@@ -1132,7 +1322,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       break;
@@ -1145,12 +1335,13 @@ public class OrganizationIntegrationService implements Startable {
       List<Membership> activatedMemberships = null;
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
         memberships = organizationService.getMembershipHandler().findMembershipsByUser(username);
         activatedMemberships = Util.getActivatedMembershipsRelatedToUser(session, username);
+        Set<String> activatedMembershipIds = getMembershipIds(activatedMemberships);
         for (Object membershipObject : memberships) {
           Membership membership = (Membership) membershipObject;
-          boolean isAlreadyIntegrated = contains(membership, activatedMemberships);
+          boolean isAlreadyIntegrated = activatedMembershipIds.contains(membership.getId());
           if (isNew) {
             if (!isAlreadyIntegrated) {
               invokeMembershipListeners(username, membership.getGroupId(), membership.getMembershipType(), eventType);
@@ -1177,7 +1368,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       break;
@@ -1185,16 +1376,142 @@ public class OrganizationIntegrationService implements Startable {
     }
   }
 
-  private boolean contains(Membership membership, List<Membership> activatedMemberships) {
-    if (membership == null || activatedMemberships == null || activatedMemberships.size() == 0) {
-      return false;
+  /**
+   * Compute, without invoking any listener, the users and groups that would
+   * be added or deleted by a full synchronization.
+   * 
+   * @return the users and groups diffs
+   * @throws Exception JCR or IDM operation failure
+   */
+  @Managed
+  @ManagedDescription("Dry run: compute the number of users and groups to add, delete or update without invoking listeners")
+  @Impact(ImpactType.READ)
+  public String getSyncDiff() throws Exception {
+    if (!isEnabled()) {
+      throw new IllegalStateException("OrganizationIntegrationService is disabled");
     }
-    for (Membership tmpMembership : activatedMemberships) {
-      if (tmpMembership.getId().equals(membership.getId())) {
-        return true;
+    Session session = null;
+    startRequest();
+    try {
+      session = Util.openSession(repositoryService);
+      SyncDiff groupsDiff = SyncDiff.computeGroupsDiff(Util.getActivatedGroups(session),
+                                                       organizationService.getGroupHandler().getAllGroups());
+      SyncDiff usersDiff = computeUsersDiff(session);
+      return groupsDiff + "; " + usersDiff;
+    } finally {
+      endRequest();
+      if (session != null) {
+        Util.closeSession(session);
       }
     }
-    return false;
+  }
+
+  private SyncDiff computeUsersDiff(Session session) throws Exception {
+    return SyncDiff.computeUsersDiff(Util.getActivatedUsers(session),
+                                     organizationService.getUserHandler().findAllUsers(),
+                                     usersPageSize);
+  }
+
+  /**
+   * @throws IllegalStateException if some users weren't completed, because a
+   *           synchronization worker stopped
+   */
+  private void dispatchUsers(Collection<String> usernames, EventType event) throws InterruptedException {
+    PartitionedUserSync userSync = newUserSync(event);
+    int batchSize = syncCheckpoint.getBatchSize();
+    // Last user of each batch of submitted users not checkpointed yet
+    Deque<String> batchLastUsers = new ArrayDeque<String>();
+    long checkpointedBatches = 0;
+    int count = 0;
+    try {
+      for (String username : usernames) {
+        userSync.submit(username);
+        if (++count % batchSize == 0) {
+          batchLastUsers.addLast(username);
+        }
+        checkpointedBatches = checkpointCompletedBatches(userSync, batchLastUsers, checkpointedBatches, batchSize);
+      }
+    } finally {
+      userSync.close();
+      checkpointCompletedBatches(userSync, batchLastUsers, checkpointedBatches, batchSize);
+      syncStatistics.finish();
+    }
+    if (userSync.getCompletedCount() < count) {
+      throw new IllegalStateException("Users synchronization, eventType: " + event + ", is incomplete: "
+          + (count - userSync.getCompletedCount()) + " of " + count + " users were not completed");
+    }
+  }
+
+  /**
+   * Flush the checkpoint for the batches of users whose users, and all the
+   * users submitted before them, are completed, without waiting for the
+   * workers.
+   *
+   * @return number of checkpointed batches
+   */
+  private long checkpointCompletedBatches(PartitionedUserSync userSync,
+                                          Deque<String> batchLastUsers,
+                                          long checkpointedBatches,
+                                          int batchSize) {
+    long completedCount = userSync.getCompletedCount();
+    while (!batchLastUsers.isEmpty() && completedCount >= (checkpointedBatches + 1) * batchSize) {
+      syncCheckpoint.processedBatch(batchLastUsers.removeFirst(), batchSize);
+      checkpointedBatches++;
+    }
+    return checkpointedBatches;
+  }
+
+  private PartitionedUserSync newUserSync(final EventType event) {
+    final String eventType = event.toString();
+    int nbPartitions = syncWorkers;
+    syncStatistics.start("USERS:" + eventType, nbPartitions);
+    if (nbPartitions > 1) {
+      LOG.info("Users synchronization, eventType: " + eventType + ", is processed by " + nbPartitions + " workers");
+    }
+    return new PartitionedUserSync(container, repositoryService, eventType, nbPartitions, syncQueueCapacity, writeBatchSize,
+                                   new PartitionedUserSync.UserSyncTask() {
+                                     public void sync(Session session, String username) throws Exception {
+                                       // The user may have been integrated in
+                                       // the meantime by another node or by a
+                                       // listener
+                                       if (event == EventType.ADDED && session != null
+                                           && Util.hasUserFolder(session, username)) {
+                                         return;
+                                       }
+                                       // Workers synchronize the users of
+                                       // the bulk run of the caller
+                                       cacheInvalidator.joinBulkRun();
+                                       try {
+                                         syncUser(username, eventType);
+                                       } finally {
+                                         cacheInvalidator.leaveBulkRun();
+                                       }
+                                     }
+                                   }, syncStatistics);
+  }
+
+  private static int getIntParam(InitParams initParams, String name, int defaultValue) {
+    if (!initParams.containsKey(name)) {
+      return defaultValue;
+    }
+    try {
+      int value = Integer.parseInt(initParams.getValueParam(name).getValue().trim());
+      return value > 0 ? value : defaultValue;
+    } catch (NumberFormatException e) {
+      LOG.warn("'" + name + "' init param is not a valid positive integer, use default value: " + defaultValue);
+      return defaultValue;
+    }
+  }
+
+  private Set<String> getMembershipIds(Collection<Membership> memberships) {
+    if (memberships == null || memberships.isEmpty()) {
+      return Collections.emptySet();
+    }
+    Set<String> membershipIds = new HashSet<String>(memberships.size() * 2);
+    for (Membership membership : memberships) {
+      membershipIds.add(membership.getId());
+    }
+    return membershipIds;
   }
 
   private void invokeUserProfileListeners(String username, EventType eventType) {
@@ -1207,7 +1524,7 @@ public class OrganizationIntegrationService implements Startable {
       Session session = null;
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
         boolean isNew = EventType.ADDED.equals(eventType);
         UserProfile userProfile = organizationService.getUserProfileHandler().findUserProfileByName(username);
         if (userProfile == null) {
@@ -1247,7 +1564,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       break;
@@ -1256,7 +1573,7 @@ public class OrganizationIntegrationService implements Startable {
       Session session = null;
       startRequest();
       try {
-        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        session = Util.openSession(repositoryService);
         UserProfile userProfile = null;
         try {
           userProfile = organizationService.getUserProfileHandler().findUserProfileByName(username);
@@ -1300,7 +1617,7 @@ public class OrganizationIntegrationService implements Startable {
       } finally {
         endRequest();
         if (session != null) {
-          session.logout();
+          Util.closeSession(session);
         }
       }
       break;
@@ -1311,7 +1628,7 @@ public class OrganizationIntegrationService implements Startable {
   private void invokeListenersToSavedGroup(Group group, boolean isNew) {
     Session session = null;
     try {
-      session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+      session = Util.openSession(repositoryService);
       if (group.getParentId() != null && !group.getParentId().isEmpty()) {
         try {
           Group parentGroup = organizationService.getGroupHandler().findGroupById(group.getParentId());
@@ -1343,7 +1660,7 @@ public class OrganizationIntegrationService implements Startable {
       LOG.warn("\t\t\tFailed to call listeners for " + group.getId() + " Group.", e);
     } finally {
       if (session != null) {
-        session.logout();
+        Util.closeSession(session);
       }
     }
   }
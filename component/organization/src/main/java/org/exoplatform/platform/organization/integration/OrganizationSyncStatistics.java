@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.platform.organization.integration;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Progress counters of the running (or last) synchronization operation of
+ * {@link OrganizationIntegrationService}. Counters are updated concurrently by
+ * sync workers and read by the management operations.
+ *
+ * @deprecated OrganizationIntegrationService is replaced by External Store API
+ */
+@Deprecated
+public class OrganizationSyncStatistics {
+
+  private volatile String          phase     = "IDLE";
+
+  private volatile long            startTime = 0;
+
+  private volatile long            endTime   = 0;
+
+  private final AtomicLong         processed = new AtomicLong();
+
+  private volatile AtomicLongArray partitionProcessed = new AtomicLongArray(1);
+
+  private volatile AtomicLongArray partitionErrors    = new AtomicLongArray(1);
+
+  /**
+   * Reset counters for a new synchronization phase.
+   *
+   * @param phase name of the phase, for example 'USERS:ADDED'
+   * @param nbPartitions number of partitions processing the phase
+   */
+  public synchronized void start(String phase, int nbPartitions) {
+    this.phase = phase;
+    this.startTime = System.currentTimeMillis();
+    this.endTime = 0;
+    this.processed.set(0);
+    this.partitionProcessed = new AtomicLongArray(Math.max(nbPartitions, 1));
+    this.partitionErrors = new AtomicLongArray(Math.max(nbPartitions, 1));
+  }
+
+  public synchronized void finish() {
+    this.endTime = System.currentTimeMillis();
+  }
+
+  public void processed(int partition) {
+    processed.incrementAndGet();
+    partitionProcessed.incrementAndGet(partition);
+  }
+
+  public void failed(int partition) {
+    partitionErrors.incrementAndGet(partition);
+  }
+
+  public String getPhase() {
+    return phase;
+  }
+
+  public boolean isRunning() {
+    return startTime > 0 && endTime == 0;
+  }
+
+  public long getProcessed() {
+    return processed.get();
+  }
+
+  public long getErrors() {
+    long errors = 0;
+    AtomicLongArray errorsArray = partitionErrors;
+    for (int i = 0; i < errorsArray.length(); i++) {
+      errors += errorsArray.get(i);
+    }
+    return errors;
+  }
+
+  /**
+   * @return elapsed time of the current phase in milliseconds
+   */
+  public long getDuration() {
+    if (startTime == 0) {
+      return 0;
+    }
+    return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+  }
+
+  /**
+   * @return number of processed entities per second
+   */
+  public double getThroughput() {
+    long duration = getDuration();
+    if (duration == 0) {
+      return 0;
+    }
+    return processed.get() * 1000d / duration;
+  }
+
+  public long[] getPartitionProcessed() {
+    return toArray(partitionProcessed);
+  }
+
+  public long[] getPartitionErrors() {
+    return toArray(partitionErrors);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder status = new StringBuilder();
+    status.append("phase=").append(phase);
+    status.append(", running=").append(isRunning());
+    status.append(", processed=").append(getProcessed());
+    status.append(", errors=").append(getErrors());
+    status.append(", duration=").append(getDuration()).append("ms");
+    status.append(", throughput=").append(String.format("%.2f", getThroughput())).append("/s");
+    long[] processedArray = getPartitionProcessed();
+    long[] errorsArray = getPartitionErrors();
+    for (int i = 0; i < processedArray.length; i++) {
+      status.append(", partition[").append(i).append("]=").append(processedArray[i]).append("/").append(errorsArray[i]);
+    }
+    return status.toString();
+  }
+
+  private static long[] toArray(AtomicLongArray array) {
+    long[] result = new long[array.length()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = array.get(i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.platform.organization.integration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.services.jcr.RepositoryService;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Dispatches users synchronization to a bounded set of workers. Users are
+ * partitioned by username hash, so a given user is always handled by the same
+ * worker and never by two workers at the same time. Each worker has its own
+ * {@link RequestLifeCycle} and its own JCR system session.
+ * When only one partition is configured, users are processed in the caller
+ * thread, which is the legacy sequential behavior.
+ * When 'writeBatchSize' is greater than 1, the integration folders written
+ * while processing users are saved by {@link FolderWriteBatch}.
+ * Submitted users are numbered in submission order, so that the caller can
+ * know how many of the first submitted users are processed and saved, see
+ * {@link #getCompletedCount()}, without waiting for the workers.
+ *
+ * @deprecated OrganizationIntegrationService is replaced by External Store API
+ */
+@Deprecated
+public class PartitionedUserSync {
+
+  private static final Log LOG = ExoLogger.getLogger(PartitionedUserSync.class);
+
+  /**
+   * Synchronization operation applied on each dispatched user.
+   */
+  public interface UserSyncTask {
+    void sync(Session session, String username) throws Exception;
+  }
+
+  private final ExoContainer               container;
+
+  private final RepositoryService          repositoryService;
+
+  private final UserSyncTask               task;
+
+  private final OrganizationSyncStatistics statistics;
+
+  private final int                        nbPartitions;
+
+  private final int                        writeBatchSize;
+
+  private final List<Worker>               workers   = new ArrayList<Worker>();
+
+  private final AtomicLong                 submitted = new AtomicLong();
+
+  private final AtomicLong                 completed = new AtomicLong();
+
+  private volatile boolean                 closed    = false;
+
+  // Sequence number of the next submitted user, guarded by 'completed'
+  private long                             nextSequence;
+
+  // Sequence numbers of the users processed in the caller thread whose
+  // integration folders aren't saved yet, guarded by 'completed'
+  private final ArrayDeque<Long>           callerInFlight = new ArrayDeque<Long>();
+
+  private Session                          callerSession;
+
+  private FolderWriteBatch                 callerBatch;
+
+  public PartitionedUserSync(ExoContainer container,
+                             RepositoryService repositoryService,
+                             String name,
+                             int nbPartitions,
+                             int queueCapacity,
+                             UserSyncTask task,
+                             OrganizationSyncStatistics statistics) {
+    this(container, repositoryService, name, nbPartitions, queueCapacity, 1, task, statistics);
+  }
+
+  public PartitionedUserSync(ExoContainer container,
+                             RepositoryService repositoryService,
+                             String name,
+                             int nbPartitions,
+                             int queueCapacity,
+                             int writeBatchSize,
+                             UserSyncTask task,
+                             OrganizationSyncStatistics statistics) {
+    this.container = container;
+    this.repositoryService = repositoryService;
+    this.task = task;
+    this.statistics = statistics;
+    this.nbPartitions = Math.max(nbPartitions, 1);
+    this.writeBatchSize = writeBatchSize;
+    if (this.nbPartitions == 1 && writeBatchSize > 1) {
+      try {
+        callerSession = Util.openSession(repositoryService);
+        callerBatch = FolderWriteBatch.begin(callerSession, writeBatchSize);
+      } catch (RepositoryException e) {
+        LOG.warn("Can't open JCR session, integration folders writes will not be batched", e);
+      }
+    } else if (this.nbPartitions > 1) {
+      for (int i = 0; i < this.nbPartitions; i++) {
+        Worker worker = new Worker(i, queueCapacity);
+        Thread thread = new Thread(worker, "OrganizationSync-" + name + "-" + i);
+        thread.setDaemon(true);
+        worker.thread = thread;
+        workers.add(worker);
+        thread.start();
+      }
+    }
+  }
+
+  /**
+   * Compute the partition of a user.
+   *
+   * @param username user name
+   * @param nbPartitions number of partitions
+   * @return partition index between 0 and nbPartitions - 1
+   */
+  public static int getPartition(String username, int nbPartitions) {
+    if (nbPartitions <= 1) {
+      return 0;
+    }
+    return (username.hashCode() & Integer.MAX_VALUE) % nbPartitions;
+  }
+
+  /**
+   * Submit a user for synchronization. When the worker queue of the user
+   * partition is full, this method blocks until a slot is available.
+   *
+   * @param username user name
+   * @throws InterruptedException if interrupted while waiting for a slot
+   */
+  public void submit(String username) throws InterruptedException {
+    if (closed) {
+      throw new IllegalStateException("Synchronization dispatcher is already closed");
+    }
+    if (nbPartitions == 1) {
+      synchronized (completed) {
+        callerInFlight.addLast(nextSequence++);
+      }
+      submitted.incrementAndGet();
+      process(0, callerSession, username);
+      if (callerBatch == null || callerBatch.getPendingOperations() == 0) {
+        completedInCaller();
+      }
+    } else {
+      Worker worker = workers.get(getPartition(username, nbPartitions));
+      // A user ignored because its worker stopped stays in flight, so that
+      // the completed count never goes past it
+      synchronized (completed) {
+        worker.inFlight.addLast(nextSequence++);
+      }
+      while (!worker.queue.offer(username, 200, TimeUnit.MILLISECONDS)) {
+        if (worker.stopped) {
+          statistics.failed(worker.partition);
+          LOG.warn("\t\tSynchronization worker " + worker.partition + " is stopped, user " + username + " is ignored");
+          return;
+        }
+      }
+      submitted.incrementAndGet();
+    }
+  }
+
+  /**
+   * Wait until all the users submitted so far are processed and their
+   * integration folders saved, without stopping the workers. Returns earlier
+   * if a worker stops unexpectedly, since its remaining users will never be
+   * processed.
+   *
+   * @return true if all submitted users were processed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean awaitCompletion() throws InterruptedException {
+    if (callerBatch != null) {
+      try {
+        callerBatch.flush();
+      } catch (RepositoryException e) {
+        return false;
+      }
+      completedInCaller();
+      if (callerBatch.getFailedSaves() > 0) {
+        return false;
+      }
+    }
+    synchronized (completed) {
+      while (completed.get() < submitted.get()) {
+        for (Worker worker : workers) {
+          if (worker.stopped) {
+            return false;
+          }
+        }
+        completed.wait(200);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the number of the first submitted users that are all processed and
+   * whose integration folders are saved. Users submitted after a user still
+   * in process aren't counted, even if processed, so that all the users up to
+   * this count can be considered as synchronized. This method doesn't wait
+   * for the workers.
+   *
+   * @return number of the first submitted users which are completed
+   */
+  public long getCompletedCount() {
+    synchronized (completed) {
+      long lowestInFlight = nextSequence;
+      if (!callerInFlight.isEmpty()) {
+        lowestInFlight = Math.min(lowestInFlight, callerInFlight.peekFirst());
+      }
+      for (Worker worker : workers) {
+        if (!worker.inFlight.isEmpty()) {
+          lowestInFlight = Math.min(lowestInFlight, worker.inFlight.peekFirst());
+        }
+      }
+      return lowestInFlight;
+    }
+  }
+
+  /**
+   * Wait until all submitted users are processed and stop the workers.
+   */
+  public void close() {
+    closed = true;
+    if (callerSession != null) {
+      try {
+        FolderWriteBatch.end(callerBatch);
+        completedInCaller();
+      } catch (RepositoryException e) {
+        LOG.warn("Error while saving the last integration folders of users synchronization", e);
+      } finally {
+        Util.closeSession(callerSession);
+        callerSession = null;
+      }
+    }
+    for (Worker worker : workers) {
+      try {
+        worker.thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOG.warn("Interrupted while waiting for synchronization worker " + worker.partition + " to finish");
+        return;
+      }
+    }
+  }
+
+  public int getNbPartitions() {
+    return nbPartitions;
+  }
+
+  private void process(int partition, Session session, String username) {
+    try {
+      task.sync(session, username);
+      statistics.processed(partition);
+    } catch (Exception e) {
+      statistics.failed(partition);
+      LOG.error("\t\tError while synchronizing user " + username + " in partition " + partition, e);
+    }
+  }
+
+  private void completedInCaller() {
+    if (callerBatch != null && callerBatch.getFailedSaves() > 0) {
+      // The discarded integration folders of the users in flight are unknown,
+      // so none of them is completed
+      return;
+    }
+    synchronized (completed) {
+      int count = callerInFlight.size();
+      callerInFlight.clear();
+      completed(count);
+    }
+  }
+
+  private void completed(Worker worker, int count) {
+    synchronized (completed) {
+      for (int i = 0; i < count && !worker.inFlight.isEmpty(); i++) {
+        worker.inFlight.removeFirst();
+      }
+      completed(count);
+    }
+  }
+
+  private void completed(int count) {
+    if (count == 0) {
+      return;
+    }
+    synchronized (completed) {
+      completed.addAndGet(count);
+      completed.notifyAll();
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    private final int                   partition;
+
+    private final BlockingQueue<String> queue;
+
+    // Sequence numbers of the submitted users not completed yet, in
+    // submission order, guarded by 'completed'
+    private final ArrayDeque<Long>      inFlight = new ArrayDeque<Long>();
+
+    private Thread                      thread;
+
+    private volatile boolean            stopped = false;
+
+    private Worker(int partition, int queueCapacity) {
+      this.partition = partition;
+      this.queue = new ArrayBlockingQueue<String>(Math.max(queueCapacity, 1));
+    }
+
+    public void run() {
+      ExoContainerContext.setCurrentContainer(container);
+      Session session = null;
+      FolderWriteBatch batch = null;
+      // Users processed but whose integration folders may not be saved yet
+      int unsaved = 0;
+      // The users in flight stay in 'inFlight' once a save failed, so that the
+      // completed count never goes past users whose folders were discarded
+      boolean saveFailed = false;
+      try {
+        session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+        batch = FolderWriteBatch.begin(session, writeBatchSize);
+        while (!closed || !queue.isEmpty()) {
+          String username = queue.poll(200, TimeUnit.MILLISECONDS);
+          if (username == null) {
+            continue;
+          }
+          RequestLifeCycle.begin(container);
+          try {
+            process(partition, session, username);
+          } finally {
+            RequestLifeCycle.end();
+          }
+          unsaved++;
+          if (batch != null && batch.getFailedSaves() > 0) {
+            // The batch was saved when its size was reached, while processing the user
+            saveFailed = true;
+            statistics.failed(partition);
+            LOG.error("Synchronization worker " + partition + " stopped, the integration folders of " + unsaved
+                + " users were not saved, " + queue.size() + " users will not be processed");
+            return;
+          }
+          if (batch == null || queue.isEmpty() || batch.getPendingOperations() == 0) {
+            flush(batch);
+            completed(this, unsaved);
+            unsaved = 0;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOG.warn("Synchronization worker " + partition + " was interrupted, " + queue.size() + " users will not be processed");
+      } catch (RepositoryException e) {
+        saveFailed = true;
+        statistics.failed(partition);
+        LOG.error("Synchronization worker " + partition + " stopped, the integration folders of " + unsaved
+            + " users can't be saved, " + queue.size() + " users will not be processed", e);
+      } catch (Exception e) {
+        LOG.error("Synchronization worker " + partition + " stopped unexpectedly, " + queue.size()
+            + " users will not be processed", e);
+      } finally {
+        try {
+          FolderWriteBatch.end(batch);
+        } catch (RepositoryException e) {
+          saveFailed = true;
+          LOG.warn("Error while saving the last integration folders of synchronization worker " + partition, e);
+        }
+        if (!saveFailed) {
+          completed(this, unsaved);
+        }
+        stopped = true;
+        if (session != null) {
+          session.logout();
+        }
+      }
+    }
+
+    private void flush(FolderWriteBatch batch) throws RepositoryException {
+      if (batch != null) {
+        batch.flush();
+      }
+    }
+  }
+}
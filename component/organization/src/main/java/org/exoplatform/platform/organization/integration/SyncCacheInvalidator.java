@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.platform.organization.integration;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.organization.idm.PicketLinkIDMCacheService;
+
+/**
+ * Controls PicketLink IDM cache invalidation during organization
+ * synchronization. A bulk run (full users or groups synchronization)
+ * invalidates the IDM cache once when it starts; the entities synchronized
+ * by the threads of the bulk run, the thread which started it and the
+ * synchronization workers which joined it, don't flush the cache again. An
+ * entity synchronized by another thread, for example from REST or JMX while
+ * a bulk run is in progress, still invalidates the cache right away, since
+ * {@link PicketLinkIDMCacheService} doesn't allow to evict a single entry.
+ * Nested and concurrent bulk runs share the same invalidation.
+ *
+ * @deprecated OrganizationIntegrationService is replaced by External Store API
+ */
+@Deprecated
+public class SyncCacheInvalidator {
+
+  private static final Log                LOG                   = ExoLogger.getLogger(SyncCacheInvalidator.class);
+
+  private static final String             IDM_CACHE_NAME_FILTER = "idm";
+
+  private final PicketLinkIDMCacheService picketLinkIDMCacheService;
+
+  private final ExoContainer              container;
+
+  private final AtomicInteger             bulkRuns              = new AtomicInteger();
+
+  // Number of bulk runs started or joined by the current thread
+  private final ThreadLocal<Integer>      threadBulkRuns        = new ThreadLocal<Integer>();
+
+  private final AtomicLong                invalidations         = new AtomicLong();
+
+  private final AtomicLong                skippedInvalidations  = new AtomicLong();
+
+  private volatile long                   cacheHitsAtStart      = 0;
+
+  private volatile long                   cacheMissesAtStart    = 0;
+
+  public SyncCacheInvalidator(PicketLinkIDMCacheService picketLinkIDMCacheService, ExoContainer container) {
+    this.picketLinkIDMCacheService = picketLinkIDMCacheService;
+    this.container = container;
+  }
+
+  /**
+   * Start a bulk run in the current thread. The IDM cache is invalidated only
+   * if no other bulk run is in progress.
+   */
+  public void beginBulkRun() {
+    if (bulkRuns.getAndIncrement() == 0) {
+      invalidateAll();
+      long[] stats = getIDMCacheStatistics();
+      cacheHitsAtStart = stats[0];
+      cacheMissesAtStart = stats[1];
+    }
+    joinBulkRun();
+  }
+
+  public void endBulkRun() {
+    leaveBulkRun();
+    bulkRuns.decrementAndGet();
+  }
+
+  /**
+   * Mark the current thread as working for the bulk run in progress, for the
+   * synchronization workers. Must be followed by {@link #leaveBulkRun()}.
+   */
+  public void joinBulkRun() {
+    Integer runs = threadBulkRuns.get();
+    threadBulkRuns.set(runs == null ? 1 : runs + 1);
+  }
+
+  public void leaveBulkRun() {
+    Integer runs = threadBulkRuns.get();
+    if (runs == null || runs <= 1) {
+      threadBulkRuns.remove();
+    } else {
+      threadBulkRuns.set(runs - 1);
+    }
+  }
+
+  public boolean isBulkRunInProgress() {
+    return bulkRuns.get() > 0;
+  }
+
+  /**
+   * @return true if the current thread started or joined a bulk run in
+   *         progress
+   */
+  public boolean isInBulkRun() {
+    return threadBulkRuns.get() != null && isBulkRunInProgress();
+  }
+
+  /**
+   * Invalidate the IDM cache before synchronizing an entity, unless the
+   * invalidation was already done by the bulk run of the current thread.
+   *
+   * @param entity description of the synchronized entity, used for logging
+   */
+  public void invalidate(String entity) {
+    if (isInBulkRun()) {
+      skippedInvalidations.incrementAndGet();
+      return;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Invalidate IDM cache to synchronize " + entity);
+    }
+    invalidateAll();
+  }
+
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+  public long getSkippedInvalidations() {
+    return skippedInvalidations.get();
+  }
+
+  /**
+   * @return hit ratio of the IDM caches since the start of the current (or
+   *         last) bulk run, -1 if it can't be computed
+   */
+  public double getCacheHitRatio() {
+    long[] stats = getIDMCacheStatistics();
+    long hits = stats[0] - cacheHitsAtStart;
+    long misses = stats[1] - cacheMissesAtStart;
+    if (hits < 0 || misses < 0 || hits + misses == 0) {
+      return -1;
+    }
+    return (double) hits / (hits + misses);
+  }
+
+  private void invalidateAll() {
+    picketLinkIDMCacheService.invalidateAll();
+    invalidations.incrementAndGet();
+  }
+
+  private long[] getIDMCacheStatistics() {
+    long hits = 0;
+    long misses = 0;
+    CacheService cacheService = container == null ? null : container.getComponentInstanceOfType(CacheService.class);
+    if (cacheService != null) {
+      try {
+        for (ExoCache<? extends Serializable, ?> cache : cacheService.getAllCacheInstances()) {
+          if (cache.getName() != null && cache.getName().toLowerCase().contains(IDM_CACHE_NAME_FILTER)) {
+            hits += cache.getCacheHit();
+            misses += cache.getCacheMiss();
+          }
+        }
+      } catch (Exception e) {
+        LOG.debug("Can't compute IDM cache statistics", e);
+      }
+    }
+    return new long[] { hits, misses };
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.platform.organization.integration;
+
+import javax.jcr.RepositoryException;
+
+import org.exoplatform.commons.api.settings.SettingService;
+import org.exoplatform.commons.api.settings.SettingValue;
+import org.exoplatform.commons.api.settings.data.Context;
+import org.exoplatform.commons.api.settings.data.Scope;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Persisted progress of a synchronization run, stored using
+ * {@link SettingService}. It contains the running phase (for example
+ * 'USERS:UPDATED'), the last processed user or group and the number of
+ * processed entities in the phase. The checkpoint is flushed every 'batchSize'
+ * processed entities and removed when the run finishes, so a checkpoint found
+ * later means that the run was interrupted (restart, node failover...).
+ *
+ * @deprecated OrganizationIntegrationService is replaced by External Store API
+ */
+@Deprecated
+public class SyncCheckpoint {
+
+  private static final Log      LOG               = ExoLogger.getLogger(SyncCheckpoint.class);
+
+  private static final Scope    SYNC_SCOPE        = Scope.APPLICATION.id("OrganizationIntegrationService");
+
+  private static final String   PHASE_KEY         = "CHECKPOINT-PHASE";
+
+  private static final String   FULL_SYNC_KEY     = "CHECKPOINT-FULL-SYNC";
+
+  private static final String   LAST_ENTITY_KEY   = "CHECKPOINT-LAST-ENTITY";
+
+  private static final String   PROCESSED_KEY     = "CHECKPOINT-PROCESSED";
+
+  private static final String   DATE_KEY          = "CHECKPOINT-DATE";
+
+  /**
+   * Phases of a full synchronization, in execution order.
+   */
+  public static final String[]  SYNC_PHASES       = { "GROUPS:UPDATED", "GROUPS:ADDED", "GROUPS:DELETED", "USERS:UPDATED",
+      "USERS:ADDED", "USERS:DELETED" };
+
+  public static final int       DEFAULT_BATCH_SIZE = 100;
+
+  private final ExoContainer    container;
+
+  private final int             batchSize;
+
+  private volatile String       phase;
+
+  private volatile boolean      fullSync;
+
+  private volatile String       lastEntity;
+
+  private volatile long         processed;
+
+  private volatile long         date;
+
+  public SyncCheckpoint(ExoContainer container, int batchSize) {
+    this.container = container;
+    this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+  }
+
+  /**
+   * Load the persisted checkpoint, if any.
+   *
+   * @return true if a checkpoint of an interrupted run was found
+   */
+  public synchronized boolean load() {
+    SettingService settingService = getSettingService();
+    if (settingService == null) {
+      return phase != null;
+    }
+    try {
+      phase = getValue(settingService, PHASE_KEY);
+      fullSync = Boolean.parseBoolean(getValue(settingService, FULL_SYNC_KEY));
+      lastEntity = getValue(settingService, LAST_ENTITY_KEY);
+      String processedValue = getValue(settingService, PROCESSED_KEY);
+      processed = processedValue == null ? 0 : Long.parseLong(processedValue);
+      String dateValue = getValue(settingService, DATE_KEY);
+      date = dateValue == null ? 0 : Long.parseLong(dateValue);
+    } catch (Exception e) {
+      LOG.warn("Error while loading organization synchronization checkpoint", e);
+    }
+    return phase != null;
+  }
+
+  /**
+   * Start (or resume) a phase and persist it.
+   *
+   * @param phase phase name, see {@link #SYNC_PHASES}
+   * @param fullSync whether the phase is part of a full synchronization
+   * @param lastEntity last processed entity of a resumed phase, null when the
+   *          phase starts from the beginning
+   * @param processed number of entities already processed in a resumed phase
+   */
+  public synchronized void startPhase(String phase, boolean fullSync, String lastEntity, long processed) {
+    this.phase = phase;
+    this.fullSync = fullSync;
+    this.lastEntity = lastEntity;
+    this.processed = processed;
+    save();
+  }
+
+  /**
+   * Mark an entity as processed. The checkpoint is persisted every
+   * 'batchSize' entities.
+   *
+   * @param entity username or group id
+   */
+  public synchronized void processed(String entity) {
+    this.lastEntity = entity;
+    this.processed++;
+    if (processed % batchSize == 0) {
+      save();
+    }
+  }
+
+  /**
+   * Mark a batch of entities as processed and persist the checkpoint.
+   *
+   * @param lastEntity last username or group id of the batch, all the
+   *          entities submitted before it are processed
+   * @param count number of entities in the batch
+   */
+  public synchronized void processedBatch(String lastEntity, int count) {
+    this.lastEntity = lastEntity;
+    this.processed += count;
+    save();
+  }
+
+  /**
+   * Remove the persisted checkpoint, to call when the run is finished.
+   */
+  public synchronized void clear() {
+    phase = null;
+    fullSync = false;
+    lastEntity = null;
+    processed = 0;
+    date = 0;
+    SettingService settingService = getSettingService();
+    if (settingService == null) {
+      return;
+    }
+    try {
+      settingService.remove(Context.GLOBAL, SYNC_SCOPE, PHASE_KEY);
+      settingService.remove(Context.GLOBAL, SYNC_SCOPE, FULL_SYNC_KEY);
+      settingService.remove(Context.GLOBAL, SYNC_SCOPE, LAST_ENTITY_KEY);
+      settingService.remove(Context.GLOBAL, SYNC_SCOPE, PROCESSED_KEY);
+      settingService.remove(Context.GLOBAL, SYNC_SCOPE, DATE_KEY);
+    } catch (Exception e) {
+      LOG.warn("Error while removing organization synchronization checkpoint", e);
+    }
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public String getPhase() {
+    return phase;
+  }
+
+  public boolean isFullSync() {
+    return fullSync;
+  }
+
+  public String getLastEntity() {
+    return lastEntity;
+  }
+
+  public long getProcessed() {
+    return processed;
+  }
+
+  /**
+   * @param phase a phase name
+   * @return index of the phase in {@link #SYNC_PHASES}, -1 if unknown
+   */
+  public static int getPhaseIndex(String phase) {
+    for (int i = 0; i < SYNC_PHASES.length; i++) {
+      if (SYNC_PHASES[i].equals(phase)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    if (phase == null) {
+      return "No checkpoint";
+    }
+    return "phase=" + phase + ", fullSync=" + fullSync + ", lastEntity=" + lastEntity + ", processed=" + processed
+        + ", date=" + (date == 0 ? "-" : new java.util.Date(date).toString());
+  }
+
+  private void save() {
+    SettingService settingService = getSettingService();
+    if (settingService == null || phase == null) {
+      return;
+    }
+    // The integration folders written before the checkpoint must be saved
+    // first, otherwise a resumed run could skip them
+    FolderWriteBatch batch = FolderWriteBatch.getCurrent();
+    if (batch != null) {
+      try {
+        batch.flush();
+      } catch (RepositoryException e) {
+        LOG.warn("Organization synchronization checkpoint isn't saved since integration folders can't be saved");
+        return;
+      }
+    }
+    date = System.currentTimeMillis();
+    try {
+      settingService.set(Context.GLOBAL, SYNC_SCOPE, PHASE_KEY, SettingValue.create(phase));
+      settingService.set(Context.GLOBAL, SYNC_SCOPE, FULL_SYNC_KEY, SettingValue.create(String.valueOf(fullSync)));
+      if (lastEntity == null) {
+        settingService.remove(Context.GLOBAL, SYNC_SCOPE, LAST_ENTITY_KEY);
+      } else {
+        settingService.set(Context.GLOBAL, SYNC_SCOPE, LAST_ENTITY_KEY, SettingValue.create(lastEntity));
+      }
+      settingService.set(Context.GLOBAL, SYNC_SCOPE, PROCESSED_KEY, SettingValue.create(String.valueOf(processed)));
+      settingService.set(Context.GLOBAL, SYNC_SCOPE, DATE_KEY, SettingValue.create(String.valueOf(date)));
+    } catch (Exception e) {
+      LOG.warn("Error while saving organization synchronization checkpoint " + this, e);
+    }
+  }
+
+  private String getValue(SettingService settingService, String key) {
+    SettingValue<?> settingValue = settingService.get(Context.GLOBAL, SYNC_SCOPE, key);
+    return settingValue == null || settingValue.getValue() == null ? null : String.valueOf(settingValue.getValue());
+  }
+
+  private SettingService getSettingService() {
+    return container == null ? null : container.getComponentInstanceOfType(SettingService.class);
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.platform.organization.integration;
+
+import java.util.*;
+
+import org.exoplatform.commons.utils.ListAccess;
+import org.exoplatform.platform.organization.util.ListAccessIterator;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.organization.Group;
+import org.exoplatform.services.organization.User;
+
+/**
+ * Result of the reconciliation between the entities integrated in JCR (the
+ * 'activated' folders) and the entities of the Organization datasource.
+ * The reconciliation is computed in a single pass using hash indexes, before
+ * any listener is invoked.
+ *
+ * @deprecated OrganizationIntegrationService is replaced by External Store API
+ */
+@Deprecated
+public class SyncDiff {
+
+  private static final Log   LOG       = ExoLogger.getLogger(SyncDiff.class);
+
+  private final String       entityType;
+
+  private final List<String> added;
+
+  private final List<String> deleted;
+
+  private final int          unchanged;
+
+  public SyncDiff(String entityType, List<String> added, List<String> deleted, int unchanged) {
+    this.entityType = entityType;
+    this.added = added;
+    this.deleted = deleted;
+    this.unchanged = unchanged;
+  }
+
+  /**
+   * Compute the users diff by streaming the datasource users page by page.
+   *
+   * @param activatedUsers users integrated in JCR
+   * @param usersListAccess datasource users
+   * @param pageSize number of users loaded from datasource by page
+   * @return users diff: datasource users not integrated yet, integrated users
+   *         deleted from datasource and users present in both
+   * @throws Exception when an error occurs while loading users
+   */
+  public static SyncDiff computeUsersDiff(Collection<String> activatedUsers,
+                                          ListAccess<User> usersListAccess,
+                                          int pageSize) throws Exception {
+    Set<String> remainingActivatedUsers = new LinkedHashSet<String>(activatedUsers);
+    List<String> added = new ArrayList<String>();
+    int unchanged = 0;
+    int k = 0;
+    ListAccessIterator<User> usersIterator = new ListAccessIterator<User>(usersListAccess, pageSize, true);
+    try {
+      while (usersIterator.hasNext()) {
+        User user = usersIterator.next();
+        if (user == null) {
+          continue;
+        }
+        if (remainingActivatedUsers.remove(user.getUserName())) {
+          unchanged++;
+        } else {
+          added.add(user.getUserName());
+        }
+        k++;
+        if (k % 1000 == 0) {
+          LOG.info(k + "/" + usersIterator.getSize() + " users are checked for synchronization");
+        }
+      }
+    } finally {
+      usersIterator.close();
+    }
+    if (k % 1000 != 0) {
+      LOG.info(k + " users are checked for synchronization");
+    }
+    return new SyncDiff("users", added, new ArrayList<String>(remainingActivatedUsers), unchanged);
+  }
+
+  /**
+   * Compute the groups diff.
+   *
+   * @param activatedGroups groups integrated in JCR
+   * @param groups datasource groups, the order of this list is kept for added
+   *          groups
+   * @return groups diff
+   */
+  public static SyncDiff computeGroupsDiff(Collection<String> activatedGroups, Collection<Group> groups) {
+    Set<String> remainingActivatedGroups = new LinkedHashSet<String>(activatedGroups);
+    List<String> added = new ArrayList<String>();
+    int unchanged = 0;
+    for (Group group : groups) {
+      if (remainingActivatedGroups.remove(group.getId())) {
+        unchanged++;
+      } else {
+        added.add(group.getId());
+      }
+    }
+    return new SyncDiff("groups", added, new ArrayList<String>(remainingActivatedGroups), unchanged);
+  }
+
+  /**
+   * @return datasource entities that aren't integrated yet
+   */
+  public List<String> getAdded() {
+    return added;
+  }
+
+  /**
+   * @return integrated entities that were deleted from datasource
+   */
+  public List<String> getDeleted() {
+    return deleted;
+  }
+
+  /**
+   * @return number of entities both integrated and present in datasource
+   */
+  public int getUnchanged() {
+    return unchanged;
+  }
+
+  @Override
+  public String toString() {
+    return entityType + ": added=" + added.size() + ", deleted=" + deleted.size() + ", unchanged=" + unchanged;
+  }
+}
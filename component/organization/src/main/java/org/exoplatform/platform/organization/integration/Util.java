@@ -18,6 +18,8 @@ package org.exoplatform.platform.organization.integration;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -25,6 +27,7 @@ import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
+import org.exoplatform.services.jcr.RepositoryService;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.organization.Group;
@@ -82,6 +85,31 @@ public class Util {
     session.save();
   }
 
+  /**
+   * Get the session to use for integration folders operations: the session
+   * of the write batch in progress on the current thread if any, otherwise a
+   * new system session that must be released with
+   * {@link #closeSession(Session)}.
+   */
+  public static Session openSession(RepositoryService repositoryService) throws RepositoryException {
+    FolderWriteBatch batch = FolderWriteBatch.getCurrent();
+    if (batch != null) {
+      return batch.getSession();
+    }
+    return repositoryService.getCurrentRepository().getSystemSession(WORKSPACE);
+  }
+
+  /**
+   * Release a session got using {@link #openSession(RepositoryService)}. The
+   * session of the write batch in progress is kept opened.
+   */
+  public static void closeSession(Session session) {
+    FolderWriteBatch batch = FolderWriteBatch.getCurrent();
+    if (session != null && (batch == null || batch.getSession() != session)) {
+      session.logout();
+    }
+  }
+
   public static Node getUsersFolder(Session session) throws Exception {
     Node organizationInitializersHomePathNode = null;
     try {
@@ -156,12 +184,12 @@ public class Util {
 
   public static void createUserFolder(Session session, String username) throws Exception {
     createFolder(getUsersFolder(session), username);
-    session.save();
+    save(session);
   }
 
   public static void createProfileFolder(Session session, String username) throws Exception {
     createFolder(getProfilesFolder(session), username);
-    session.save();
+    save(session);
   }
 
   public static void createMembershipFolder(Session session, Membership membership) throws Exception {
@@ -183,7 +211,7 @@ public class Util {
     createFolder(getUserNode(session, membership.getUserName()),
         membership.getMembershipType().replace("*", SPECIAL_CHARACTER_REPLACEMENT) + MEMBERSHIP_SEPARATOR
             + membership.getGroupId().replace("/", SPECIAL_CHARACTER_REPLACEMENT));
-    session.save();
+    save(session);
   }
 
   public static Node getUserNode(Session session, String username) throws PathNotFoundException, RepositoryException, Exception {
@@ -192,17 +220,17 @@ public class Util {
 
   public static void createGroupFolder(Session session, String groupId) throws Exception {
     createFolder(getGroupsFolder(session), groupId.replace("/", SPECIAL_CHARACTER_REPLACEMENT).trim());
-    session.save();
+    save(session);
   }
 
   public static void deleteUserFolder(Session session, String username) throws Exception {
     getUsersFolder(session).getNode(username).remove();
-    session.save();
+    save(session);
   }
 
   public static void deleteProfileFolder(Session session, String username) throws Exception {
     getProfilesFolder(session).getNode(username).remove();
-    session.save();
+    save(session);
   }
 
   public static void deleteMembershipFolder(Session session, Membership membership) throws Exception {
@@ -225,29 +253,43 @@ public class Util {
 
       getUserNode(session, membership.getUserName()).getNode(membershipUserFolderName).remove();
     }
-    session.save();
+    save(session);
   }
 
   public static void deleteGroupFolder(Session session, String groupId) throws Exception {
     getGroupNode(session, groupId).remove();
-    session.save();
+    save(session);
   }
 
   public static Node getGroupNode(Session session, String groupId) throws PathNotFoundException, RepositoryException, Exception {
     return getGroupsFolder(session).getNode(groupId.replace("/", SPECIAL_CHARACTER_REPLACEMENT));
   }
 
+  /**
+   * Add a hidden folder. The node and its mixin are saved together by the
+   * caller.
+   */
   private static Node createFolder(Node parentNode, String name) throws Exception {
     Node orgIntServNode = parentNode.addNode(name, "nt:folder");
-    parentNode.getSession().save();
-    //TODO : Exceptions are not handled correctly
-    if(orgIntServNode.canAddMixin("exo:hiddenable")){
-        orgIntServNode.addMixin("exo:hiddenable");
+    if (orgIntServNode.canAddMixin("exo:hiddenable")) {
+      orgIntServNode.addMixin("exo:hiddenable");
     }
-    orgIntServNode.getSession().save();
     return orgIntServNode;
   }
 
+  /**
+   * Save an integration folder operation, or add it to the write batch in
+   * progress on the current thread.
+   */
+  private static void save(Session session) throws RepositoryException {
+    FolderWriteBatch batch = FolderWriteBatch.getCurrent();
+    if (batch != null && batch.getSession() == session) {
+      batch.written();
+    } else {
+      session.save();
+    }
+  }
+
   public static List<String> getActivatedUsers(Session session) throws Exception {
     List<String> activatedUsernames = new ArrayList<String>();
     NodeIterator usersFolderIterator = getUsersFolder(session).getNodes();
@@ -269,6 +311,21 @@ public class Util {
     return activatedGroups;
   }
 
+  /**
+   * Build a sorted index of activated group ids, to find the children of
+   * groups by prefix with
+   * {@link #getActivatedChildrenGroup(Session, String, NavigableSet)}. The
+   * index isn't updated by group folders changes, so it is meant to be used
+   * during a single synchronization run only.
+   *
+   * @param activatedGroups activated group ids, as returned by
+   *          {@link #getActivatedGroups(Session)}
+   * @return activated group ids index
+   */
+  public static NavigableSet<String> indexActivatedGroups(List<String> activatedGroups) {
+    return new TreeSet<String>(activatedGroups);
+  }
+
   public static List<Membership> getActivatedMembershipsRelatedToGroup(Session session, String groupId) throws Exception {
     List<Membership> activatedMemberships = new ArrayList<Membership>();
     NodeIterator membershipNodesIterator = getGroupNode(session, groupId).getNodes();
@@ -291,15 +348,33 @@ public class Util {
     return activatedMemberships;
   }
 
+  /**
+   * Get the activated descendants of a group: the group ids starting with
+   * 'parentGroupId/', so '/spaces/foobar' isn't a child of '/spaces/foo'.
+   */
   public static List<Group> getActivatedChildrenGroup(Session session, String parentGroupId) throws Exception {
-    List<Group> activatedGroups = new ArrayList<Group>();
-    NodeIterator groupsNodesIterator = getGroupsFolder(session).getNodes();
-    while (groupsNodesIterator.hasNext()) {
-      Node groupNode = groupsNodesIterator.nextNode();
+    return getActivatedChildrenGroup(session, parentGroupId, indexActivatedGroups(getActivatedGroups(session)));
+  }
 
-      String groupId = groupNode.getName();
-      groupId = groupId.replace(SPECIAL_CHARACTER_REPLACEMENT, "/");
-      if (!groupId.contains(parentGroupId) || groupId.equals(parentGroupId)) {
+  /**
+   * Get the activated descendants of a group using an index of the activated
+   * groups built during the current synchronization run, so that only the
+   * subtree of the group is read. Indexed groups whose folder was deleted
+   * since the index was built are ignored and removed from the index.
+   *
+   * @param activatedGroupsIndex index built by
+   *          {@link #indexActivatedGroups(List)}
+   */
+  public static List<Group> getActivatedChildrenGroup(Session session,
+                                                      String parentGroupId,
+                                                      NavigableSet<String> activatedGroupsIndex) throws Exception {
+    List<Group> activatedGroups = new ArrayList<Group>();
+    String prefix = parentGroupId.endsWith("/") ? parentGroupId : parentGroupId + "/";
+    Node groupsFolder = getGroupsFolder(session);
+    NavigableSet<String> children = activatedGroupsIndex.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+    for (String groupId : new ArrayList<String>(children)) {
+      if (!groupsFolder.hasNode(groupId.replace("/", SPECIAL_CHARACTER_REPLACEMENT))) {
+        activatedGroupsIndex.remove(groupId);
         continue;
       }
 
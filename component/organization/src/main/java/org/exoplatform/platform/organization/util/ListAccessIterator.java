@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.platform.organization.util;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+import org.exoplatform.commons.utils.ListAccess;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+
+/**
+ * Streams the elements of a {@link ListAccess} page by page. The size of the
+ * list is computed only once, when the iterator is created. When read-ahead is
+ * enabled, the next page is loaded on a background thread, in its own
+ * {@link RequestLifeCycle}, while the current page is being processed.
+ * The iterator must be closed to release the read-ahead thread.
+ *
+ * @param <E> type of the elements
+ */
+public class ListAccessIterator<E> implements Iterator<E>, Closeable {
+
+  public static final int       DEFAULT_PAGE_SIZE = 100;
+
+  private final ListAccess<E>   listAccess;
+
+  private final int             pageSize;
+
+  private final int             size;
+
+  private final ExoContainer    container;
+
+  private final ExecutorService readAheadExecutor;
+
+  private E[]                   currentPage;
+
+  private int                   currentIndex;
+
+  private int                   nextOffset;
+
+  private Future<E[]>           nextPage;
+
+  /**
+   * @param listAccess list to iterate over
+   * @param pageSize number of elements loaded by each call to
+   *          {@link ListAccess#load(int, int)}
+   * @param readAhead whether the next page is loaded in background
+   * @throws Exception when the list size can't be computed
+   */
+  public ListAccessIterator(ListAccess<E> listAccess, int pageSize, boolean readAhead) throws Exception {
+    this.listAccess = listAccess;
+    this.pageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+    this.size = listAccess.getSize();
+    this.container = ExoContainerContext.getCurrentContainerIfPresent();
+    if (readAhead && this.size > this.pageSize) {
+      this.readAheadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ListAccessIterator-ReadAhead");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    } else {
+      this.readAheadExecutor = null;
+    }
+  }
+
+  /**
+   * @return the size of the list computed when the iterator was created
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return offset of the next page to load
+   */
+  public int getOffset() {
+    return nextOffset;
+  }
+
+  public boolean hasNext() {
+    if (currentPage != null && currentIndex < currentPage.length) {
+      return true;
+    }
+    while (nextOffset < size || nextPage != null) {
+      currentPage = fetchPage();
+      currentIndex = 0;
+      if (currentPage != null && currentPage.length > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public E next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return currentPage[currentIndex++];
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException("remove");
+  }
+
+  public void close() {
+    if (readAheadExecutor != null) {
+      readAheadExecutor.shutdownNow();
+    }
+  }
+
+  private E[] fetchPage() {
+    E[] page;
+    if (nextPage != null) {
+      try {
+        page = nextPage.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while loading page at offset " + nextOffset, e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Error while loading page at offset " + nextOffset, e.getCause());
+      } finally {
+        nextPage = null;
+      }
+    } else {
+      int offset = nextOffset;
+      int length = Math.min(pageSize, size - offset);
+      nextOffset += length;
+      try {
+        page = listAccess.load(offset, length);
+      } catch (Exception e) {
+        throw new IllegalStateException("Error while loading page at offset " + offset, e);
+      }
+    }
+    if (readAheadExecutor != null && nextOffset < size) {
+      final int offset = nextOffset;
+      final int length = Math.min(pageSize, size - offset);
+      nextOffset += length;
+      nextPage = readAheadExecutor.submit(new Callable<E[]>() {
+        public E[] call() throws Exception {
+          return loadInRequest(offset, length);
+        }
+      });
+    }
+    return page;
+  }
+
+  private E[] loadInRequest(int offset, int length) throws Exception {
+    if (container == null) {
+      return listAccess.load(offset, length);
+    }
+    ExoContainerContext.setCurrentContainer(container);
+    RequestLifeCycle.begin(container);
+    try {
+      return listAccess.load(offset, length);
+    } finally {
+      RequestLifeCycle.end();
+    }
+  }
+}
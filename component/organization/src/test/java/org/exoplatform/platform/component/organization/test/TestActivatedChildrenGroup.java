@@ -0,0 +1,96 @@
+package org.exoplatform.platform.component.organization.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.platform.organization.integration.Util;
+import org.exoplatform.services.jcr.RepositoryService;
+import org.exoplatform.services.organization.Group;
+
+public class TestActivatedChildrenGroup {
+
+  private static final String[] GROUP_IDS = { "/testspaces", "/testspaces/foo", "/testspaces/foo/sub", "/testspaces/foo/sub/leaf",
+      "/testspaces/foobar", "/testspaces/foobar/sub" };
+
+  private Session               session;
+
+  @Before
+  public void setUp() throws Exception {
+    RepositoryService repositoryService = PortalContainer.getInstance().getComponentInstanceOfType(RepositoryService.class);
+    session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+    Util.init(session);
+    for (String groupId : GROUP_IDS) {
+      if (!Util.hasGroupFolder(session, groupId)) {
+        Util.createGroupFolder(session, groupId);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (String groupId : GROUP_IDS) {
+      if (Util.hasGroupFolder(session, groupId)) {
+        Util.deleteGroupFolder(session, groupId);
+      }
+    }
+    session.logout();
+  }
+
+  @Test
+  public void testChildrenDontMatchSiblingsWithSamePrefix() throws Exception {
+    assertEquals(Arrays.asList("/testspaces/foo/sub", "/testspaces/foo/sub/leaf"),
+                 getGroupIds(Util.getActivatedChildrenGroup(session, "/testspaces/foo")));
+    assertEquals(Arrays.asList("/testspaces/foobar/sub"),
+                 getGroupIds(Util.getActivatedChildrenGroup(session, "/testspaces/foobar")));
+    assertTrue(Util.getActivatedChildrenGroup(session, "/testspaces/foo/sub/leaf").isEmpty());
+  }
+
+  @Test
+  public void testChildrenFollowFolderChanges() throws Exception {
+    Util.getActivatedChildrenGroup(session, "/testspaces/foo");
+    // Folder created after a previous lookup, by another cluster node for
+    // example
+    Util.createGroupFolder(session, "/testspaces/foo/other");
+    try {
+      assertTrue(getGroupIds(Util.getActivatedChildrenGroup(session, "/testspaces/foo")).contains("/testspaces/foo/other"));
+    } finally {
+      Util.deleteGroupFolder(session, "/testspaces/foo/other");
+    }
+    assertFalse(getGroupIds(Util.getActivatedChildrenGroup(session, "/testspaces/foo")).contains("/testspaces/foo/other"));
+  }
+
+  @Test
+  public void testRunIndexSkipsDeletedFolders() throws Exception {
+    NavigableSet<String> activatedGroupsIndex = Util.indexActivatedGroups(Util.getActivatedGroups(session));
+    assertEquals(Arrays.asList("/testspaces/foo/sub", "/testspaces/foo/sub/leaf"),
+                 getGroupIds(Util.getActivatedChildrenGroup(session, "/testspaces/foo", activatedGroupsIndex)));
+
+    // Folder removed without using Util, as done by another cluster node
+    Util.getGroupNode(session, "/testspaces/foo/sub/leaf").remove();
+    session.save();
+    assertEquals(Arrays.asList("/testspaces/foo/sub"),
+                 getGroupIds(Util.getActivatedChildrenGroup(session, "/testspaces/foo", activatedGroupsIndex)));
+    assertFalse(activatedGroupsIndex.contains("/testspaces/foo/sub/leaf"));
+  }
+
+  private List<String> getGroupIds(List<Group> groups) {
+    List<String> groupIds = new ArrayList<String>();
+    for (Group group : groups) {
+      groupIds.add(group.getId());
+    }
+    Collections.sort(groupIds);
+    return groupIds;
+  }
+}
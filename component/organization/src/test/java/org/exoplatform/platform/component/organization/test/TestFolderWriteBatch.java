@@ -0,0 +1,139 @@
+package org.exoplatform.platform.component.organization.test;
+
+import static org.junit.Assert.*;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.platform.organization.integration.FolderWriteBatch;
+import org.exoplatform.platform.organization.integration.Util;
+import org.exoplatform.services.jcr.RepositoryService;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Checks that integration folders writes are saved by batches when a batch
+ * is in progress, and saved one by one otherwise. The time spent to write
+ * users folders with and without batch is compared only when the
+ * 'exo.test.folderWriteBatch.benchmark' system property is true, since the
+ * timings depend on the machine.
+ */
+public class TestFolderWriteBatch {
+
+  private static final Log    LOG                = ExoLogger.getLogger(TestFolderWriteBatch.class);
+
+  private static final String BENCHMARK_PROPERTY = "exo.test.folderWriteBatch.benchmark";
+
+  private static final int    USERS_COUNT        = 500;
+
+  private RepositoryService   repositoryService;
+
+  private Session             session;
+
+  @Before
+  public void setUp() throws Exception {
+    repositoryService = PortalContainer.getInstance().getComponentInstanceOfType(RepositoryService.class);
+    session = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+    Util.init(session);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Node usersFolder = Util.getUsersFolder(session);
+    for (String username : Util.getActivatedUsers(session)) {
+      if (username.startsWith("batch")) {
+        usersFolder.getNode(username).remove();
+      }
+    }
+    session.save();
+    session.logout();
+  }
+
+  @Test
+  public void testBatchedWritesAreSavedByBatch() throws Exception {
+    FolderWriteBatch batch = FolderWriteBatch.begin(session, 10);
+    assertNotNull(batch);
+    assertNull(FolderWriteBatch.begin(session, 10));
+    assertSame(session, Util.openSession(repositoryService));
+    try {
+      for (int i = 0; i < 25; i++) {
+        Util.createUserFolder(session, "batchUser" + i);
+      }
+      assertEquals(2, batch.getSaves());
+      assertEquals(5, batch.getPendingOperations());
+    } finally {
+      FolderWriteBatch.end(batch);
+    }
+    assertNull(FolderWriteBatch.getCurrent());
+    assertEquals(3, batch.getSaves());
+
+    Session otherSession = repositoryService.getCurrentRepository().getSystemSession(Util.WORKSPACE);
+    try {
+      assertTrue(Util.hasUserFolder(otherSession, "batchUser24"));
+      assertTrue(Util.getUserNode(otherSession, "batchUser24").isNodeType("exo:hiddenable"));
+    } finally {
+      otherSession.logout();
+    }
+  }
+
+  @Test
+  public void testUnbatchedWritesAreSavedOneByOne() throws Exception {
+    assertNull(FolderWriteBatch.getCurrent());
+    for (int i = 0; i < 5; i++) {
+      Util.createUserFolder(session, "batchSingle" + i);
+      assertFalse("Each write must be saved without batch", session.hasPendingChanges());
+    }
+    assertTrue(Util.hasUserFolder(session, "batchSingle4"));
+  }
+
+  @Test
+  public void testBatchedWritesSaves() throws Exception {
+    FolderWriteBatch batch = FolderWriteBatch.begin(session, 100);
+    try {
+      for (int i = 0; i < USERS_COUNT; i++) {
+        Util.createUserFolder(session, "batchBulk" + i);
+        if (i % 100 == 98) {
+          assertTrue("Writes must be kept until the batch is full", session.hasPendingChanges());
+          assertEquals(99, batch.getPendingOperations());
+        } else if (i % 100 == 99) {
+          assertFalse("Writes must be saved when the batch is full", session.hasPendingChanges());
+          assertEquals((i + 1) / 100, batch.getSaves());
+        }
+      }
+    } finally {
+      FolderWriteBatch.end(batch);
+    }
+    assertEquals("A single save per batch of 100 writes is expected", USERS_COUNT / 100, batch.getSaves());
+    assertTrue(Util.hasUserFolder(session, "batchBulk" + (USERS_COUNT - 1)));
+  }
+
+  @Test
+  public void testCompareBatchedAndUnbatchedWrites() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < USERS_COUNT; i++) {
+      Util.createUserFolder(session, "batchSingle" + i);
+    }
+    long unbatchedTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    FolderWriteBatch batch = FolderWriteBatch.begin(session, 100);
+    try {
+      for (int i = 0; i < USERS_COUNT; i++) {
+        Util.createUserFolder(session, "batchBulk" + i);
+      }
+    } finally {
+      FolderWriteBatch.end(batch);
+    }
+    long batchedTime = System.currentTimeMillis() - start;
+
+    LOG.info("Integration folders of " + USERS_COUNT + " users written in " + unbatchedTime + "ms without batch, "
+        + batchedTime + "ms with batches of 100 operations (" + batch.getSaves() + " saves)");
+  }
+}
@@ -2,6 +2,9 @@ package org.exoplatform.platform.component.organization.test;
 
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.commons.api.settings.SettingService;
+import org.exoplatform.platform.organization.externalstore.jpa.IDMQueueDAO;
+import org.exoplatform.platform.organization.externalstore.jpa.IDMQueueServiceImpl;
 import org.exoplatform.services.organization.externalstore.IDMQueueService;
 import org.exoplatform.services.organization.externalstore.model.IDMEntityType;
 import org.exoplatform.services.organization.externalstore.model.IDMOperationType;
@@ -13,6 +16,7 @@ import org.junit.Test;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Calendar;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -212,6 +216,168 @@ public class TestIDMQueueServiceImpl {
     assertEquals(0, queueService.pop(100, 3, true).size());
   }
 
+  @Test
+  public void testClaim() throws Exception {
+    IDMQueueServiceImpl queueServiceImpl = (IDMQueueServiceImpl) queueService;
+    for (int i = 0; i < 5; i++) {
+      queueService.push(new IDMQueueEntry(IDMEntityType.USER, "claimuser" + i, IDMOperationType.ADD_OR_UPDATE));
+    }
+
+    List<IDMQueueEntry> node1Entries = queueServiceImpl.claim("node1", 3, 0);
+    assertEquals(3, node1Entries.size());
+    List<IDMQueueEntry> node2Entries = queueServiceImpl.claim("node2", 10, 0);
+    assertEquals("Entries claimed by node1 mustn't be claimed by node2", 2, node2Entries.size());
+    for (IDMQueueEntry node2Entry : node2Entries) {
+      for (IDMQueueEntry node1Entry : node1Entries) {
+        assertNotEquals(node1Entry.getId(), node2Entry.getId());
+      }
+    }
+    assertEquals("Claimed entries mustn't be popped", 0, queueService.pop(100, 0, true).size());
+    assertEquals("Claimed entries are still counted", 5, queueService.countAll());
+
+    assertEquals(3, queueServiceImpl.renewLease("node1", node1Entries));
+    assertEquals("Only the owner can renew a lease", 0, queueServiceImpl.renewLease("node2", node1Entries));
+
+    queueServiceImpl.release("node1", node1Entries);
+    assertEquals(3, queueService.pop(100, 0, true).size());
+
+    queueService.storeAsProcessed(node2Entries);
+    queueService.deleteProcessedEntries();
+    assertEquals(3, queueService.countAll());
+  }
+
+  @Test
+  public void testPopClaimsEntries() throws Exception {
+    IDMQueueServiceImpl otherNodeQueueService = new IDMQueueServiceImpl(container.getComponentInstanceOfType(IDMQueueDAO.class),
+                                                                        container.getComponentInstanceOfType(SettingService.class),
+                                                                        null);
+    for (int i = 0; i < 3; i++) {
+      queueService.push(new IDMQueueEntry(IDMEntityType.USER, "popuser" + i, IDMOperationType.ADD_OR_UPDATE));
+    }
+
+    List<IDMQueueEntry> entries = queueService.pop(100, 0, true);
+    assertEquals(3, entries.size());
+    assertEquals("Popped entries mustn't be popped by another node", 0, otherNodeQueueService.pop(100, 0, true).size());
+    assertEquals("Popped entries are popped again by the same node", 3, queueService.pop(100, 0, true).size());
+
+    queueService.incrementRetry(entries.subList(0, 1));
+    List<IDMQueueEntry> retriedEntries = otherNodeQueueService.pop(100, 1, true);
+    assertEquals("Entries are released when their retry count is incremented", 1, retriedEntries.size());
+    otherNodeQueueService.storeAsProcessed(retriedEntries);
+    queueService.storeAsProcessed(entries.subList(1, 3));
+    queueService.deleteProcessedEntries();
+    assertEquals(0, queueService.countAll());
+  }
+
+  @Test
+  public void testCoalesceOnPush() throws Exception {
+    IDMQueueServiceImpl queueServiceImpl = (IDMQueueServiceImpl) queueService;
+    long mergedOnPush = queueServiceImpl.getMergedOnPushCount();
+    queueService.push(new IDMQueueEntry(IDMEntityType.USER, "flappinguser", IDMOperationType.ADD_OR_UPDATE));
+    queueService.push(new IDMQueueEntry(IDMEntityType.USER, "flappinguser", IDMOperationType.ADD_OR_UPDATE));
+    queueService.push(new IDMQueueEntry(IDMEntityType.USER, "flappinguser", IDMOperationType.DELETE));
+    queueService.push(new IDMQueueEntry(IDMEntityType.GROUP, "flappinguser", IDMOperationType.ADD_OR_UPDATE));
+
+    assertEquals("Entries of the same entity must be merged", 2, queueService.countAll());
+    assertEquals(2, queueServiceImpl.getMergedOnPushCount() - mergedOnPush);
+
+    List<IDMQueueEntry> entries = queueService.pop(100, 0, true);
+    assertEquals(2, entries.size());
+    for (IDMQueueEntry entry : entries) {
+      if (entry.getEntityType() == IDMEntityType.USER) {
+        assertEquals("Last pushed operation must be kept", IDMOperationType.DELETE, entry.getOperationType());
+      }
+    }
+
+    // An entry being retried isn't merged with new entries
+    queueService.incrementRetry(entries);
+    queueService.push(new IDMQueueEntry(IDMEntityType.USER, "flappinguser", IDMOperationType.ADD_OR_UPDATE));
+    assertEquals(1, queueService.count(0));
+    assertEquals(2, queueService.count(1));
+  }
+
+  @Test
+  public void testPushNotMergedIntoPoppedEntry() throws Exception {
+    queueService.push(new IDMQueueEntry(IDMEntityType.USER, "poppeduser", IDMOperationType.ADD_OR_UPDATE));
+    List<IDMQueueEntry> poppedEntries = queueService.pop(100, 0, true);
+    assertEquals(1, poppedEntries.size());
+
+    // The popped entry may be in process, the new operation mustn't be lost
+    queueService.push(new IDMQueueEntry(IDMEntityType.USER, "poppeduser", IDMOperationType.DELETE));
+    assertEquals(2, queueService.count(0));
+    queueService.storeAsProcessed(poppedEntries);
+
+    List<IDMQueueEntry> entries = queueService.pop(100, 0, true);
+    assertEquals(1, entries.size());
+    assertEquals(IDMOperationType.DELETE, entries.get(0).getOperationType());
+    queueService.storeAsProcessed(entries);
+    queueService.deleteProcessedEntries();
+  }
+
+  @Test
+  public void testCoalesceOnRead() throws Exception {
+    IDMQueueServiceImpl queueServiceImpl = (IDMQueueServiceImpl) queueService;
+    long mergedOnRead = queueServiceImpl.getMergedOnReadCount();
+    for (int i = 0; i < 3; i++) {
+      IDMQueueEntry entry = new IDMQueueEntry(IDMEntityType.USER, "retrieduser", IDMOperationType.ADD_OR_UPDATE);
+      entry.setRetryCount(1);
+      queueService.push(entry);
+    }
+    assertEquals(3, queueService.count(1));
+
+    List<IDMQueueEntry> entries = queueService.pop(100, 1, true);
+    assertEquals("Duplicated entries must be returned once", 1, entries.size());
+    assertEquals(2, queueServiceImpl.getMergedOnReadCount() - mergedOnRead);
+    assertEquals("Duplicated entries must be stored as processed", 1, queueService.count(1));
+    queueService.deleteProcessedEntries();
+  }
+
+  @Test
+  public void testPurge() throws Exception {
+    IDMQueueServiceImpl queueServiceImpl = (IDMQueueServiceImpl) queueService;
+    queueService.deleteProcessedEntries();
+    queueService.deleteExceededRetriesEntries();
+
+    Calendar oldDate = Calendar.getInstance();
+    oldDate.add(Calendar.DAY_OF_MONTH, -2);
+    for (int i = 0; i < 1200; i++) {
+      IDMQueueEntry oldProcessedEntry = new IDMQueueEntry(IDMEntityType.USER, "purgeduser" + i, IDMOperationType.ADD_OR_UPDATE);
+      oldProcessedEntry.setProcessed(true);
+      oldProcessedEntry.setCreationDate(oldDate);
+      queueService.push(oldProcessedEntry);
+    }
+    IDMQueueEntry recentProcessedEntry = new IDMQueueEntry(IDMEntityType.USER, "recentuser", IDMOperationType.ADD_OR_UPDATE);
+    recentProcessedEntry.setProcessed(true);
+    queueService.push(recentProcessedEntry);
+    IDMQueueEntry failedEntry = new IDMQueueEntry(IDMEntityType.USER, "faileduser", IDMOperationType.ADD_OR_UPDATE);
+    failedEntry.setRetryCount(queueService.getMaxRetries());
+    queueService.push(failedEntry);
+    queueService.push(new IDMQueueEntry(IDMEntityType.USER, "pendinguser", IDMOperationType.ADD_OR_UPDATE));
+
+    assertEquals("Old processed entries must be deleted by several batches, with the failed entry",
+                 1201,
+                 queueServiceImpl.purge());
+    assertEquals("Recent processed entries must be kept", 0, queueServiceImpl.purge());
+    assertEquals("Pending entries must be kept", 1, queueService.countAll());
+
+    queueService.deleteProcessedEntries();
+    assertEquals(1, queueService.pop(100, 0, false).size());
+    assertEquals(0, queueServiceImpl.purge());
+  }
+
+  @Test
+  public void testScheduledPurgeRunsOncePerPeriod() throws Exception {
+    IDMQueueServiceImpl queueServiceImpl = (IDMQueueServiceImpl) queueService;
+    IDMQueueDAO queueDAO = container.getComponentInstanceOfType(IDMQueueDAO.class);
+    // Set the last purge date one day ago, as if no node purged during the
+    // current period
+    long now = System.currentTimeMillis();
+    queueDAO.startPurge(now - 24 * 60 * 60 * 1000L, now + 24 * 60 * 60 * 1000L);
+
+    assertTrue("First scheduled purge of the period must run", queueServiceImpl.scheduledPurge());
+    assertFalse("Scheduled purge already run during the period must be skipped", queueServiceImpl.scheduledPurge());
+  }
+
   private LocalDateTime getLocalDateTime() {
     return ZonedDateTime.now(ZoneId.of("UTC")).toLocalDateTime();
   }
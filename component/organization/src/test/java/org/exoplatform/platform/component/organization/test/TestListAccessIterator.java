@@ -0,0 +1,87 @@
+package org.exoplatform.platform.component.organization.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import org.exoplatform.commons.utils.ListAccess;
+import org.exoplatform.platform.organization.util.ListAccessIterator;
+
+public class TestListAccessIterator {
+
+  @Test
+  public void testIterateWithoutReadAhead() throws Exception {
+    CountingListAccess listAccess = new CountingListAccess(25);
+    List<String> elements = iterate(new ListAccessIterator<String>(listAccess, 10, false));
+    assertEquals(25, elements.size());
+    assertEquals("element0", elements.get(0));
+    assertEquals("element24", elements.get(24));
+    assertEquals(1, listAccess.sizeCalls.get());
+    assertEquals(3, listAccess.loadCalls.get());
+  }
+
+  @Test
+  public void testIterateWithReadAhead() throws Exception {
+    CountingListAccess listAccess = new CountingListAccess(1001);
+    List<String> elements = iterate(new ListAccessIterator<String>(listAccess, 100, true));
+    assertEquals(1001, elements.size());
+    for (int i = 0; i < elements.size(); i++) {
+      assertEquals("element" + i, elements.get(i));
+    }
+    assertEquals(1, listAccess.sizeCalls.get());
+    assertEquals(11, listAccess.loadCalls.get());
+  }
+
+  @Test
+  public void testIterateEmptyList() throws Exception {
+    CountingListAccess listAccess = new CountingListAccess(0);
+    assertTrue(iterate(new ListAccessIterator<String>(listAccess, 100, true)).isEmpty());
+    assertEquals(0, listAccess.loadCalls.get());
+  }
+
+  private List<String> iterate(ListAccessIterator<String> iterator) {
+    List<String> elements = new ArrayList<String>();
+    try {
+      while (iterator.hasNext()) {
+        elements.add(iterator.next());
+      }
+    } finally {
+      iterator.close();
+    }
+    return elements;
+  }
+
+  private static class CountingListAccess implements ListAccess<String> {
+
+    private final int           size;
+
+    private final AtomicInteger sizeCalls = new AtomicInteger();
+
+    private final AtomicInteger loadCalls = new AtomicInteger();
+
+    private CountingListAccess(int size) {
+      this.size = size;
+    }
+
+    public String[] load(int index, int length) throws Exception {
+      loadCalls.incrementAndGet();
+      if (index + length > size) {
+        throw new IllegalArgumentException("Out of range: " + index + "+" + length + ">" + size);
+      }
+      String[] elements = new String[length];
+      for (int i = 0; i < length; i++) {
+        elements[i] = "element" + (index + i);
+      }
+      return elements;
+    }
+
+    public int getSize() throws Exception {
+      sizeCalls.incrementAndGet();
+      return size;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package org.exoplatform.platform.component.organization.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Session;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.platform.organization.integration.OrganizationSyncStatistics;
+import org.exoplatform.platform.organization.integration.PartitionedUserSync;
+import org.exoplatform.services.jcr.RepositoryService;
+import org.exoplatform.services.jcr.core.ManageableRepository;
+
+public class TestPartitionedUserSync {
+
+  @Test
+  public void testSequentialSync() throws Exception {
+    final Map<String, String> processedUsers = new ConcurrentHashMap<String, String>();
+    OrganizationSyncStatistics statistics = new OrganizationSyncStatistics();
+    statistics.start("USERS:ADDED", 1);
+    PartitionedUserSync userSync = new PartitionedUserSync(null, null, "test", 1, 10, new PartitionedUserSync.UserSyncTask() {
+      public void sync(Session session, String username) throws Exception {
+        if ("error".equals(username)) {
+          throw new IllegalStateException("Expected error");
+        }
+        processedUsers.put(username, Thread.currentThread().getName());
+      }
+    }, statistics);
+    userSync.submit("user1");
+    userSync.submit("user2");
+    userSync.submit("error");
+    userSync.close();
+    statistics.finish();
+
+    assertEquals(2, processedUsers.size());
+    assertEquals(Thread.currentThread().getName(), processedUsers.get("user1"));
+    assertEquals(2, statistics.getProcessed());
+    assertEquals(1, statistics.getErrors());
+  }
+
+  @Test
+  public void testParallelSyncKeepsUserPartition() throws Exception {
+    RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+    ManageableRepository repository = Mockito.mock(ManageableRepository.class);
+    Mockito.when(repositoryService.getCurrentRepository()).thenReturn(repository);
+    Mockito.when(repository.getSystemSession(Mockito.anyString())).thenReturn(Mockito.mock(Session.class));
+
+    final int nbPartitions = 4;
+    final Map<String, String> processedUsers = new ConcurrentHashMap<String, String>();
+    OrganizationSyncStatistics statistics = new OrganizationSyncStatistics();
+    statistics.start("USERS:UPDATED", nbPartitions);
+    PartitionedUserSync userSync = new PartitionedUserSync(PortalContainer.getInstance(),
+                                                           repositoryService,
+                                                           "test",
+                                                           nbPartitions,
+                                                           5,
+                                                           new PartitionedUserSync.UserSyncTask() {
+                                                             public void sync(Session session, String username) throws Exception {
+                                                               assertNotNull(session);
+                                                               processedUsers.put(username, Thread.currentThread().getName());
+                                                             }
+                                                           },
+                                                           statistics);
+    for (int i = 0; i < 100; i++) {
+      userSync.submit("user" + i);
+    }
+    assertTrue(userSync.awaitCompletion());
+    assertEquals(100, processedUsers.size());
+    userSync.close();
+    statistics.finish();
+
+    assertEquals(100, processedUsers.size());
+    assertEquals(100, statistics.getProcessed());
+    assertEquals(0, statistics.getErrors());
+    for (Map.Entry<String, String> processedUser : processedUsers.entrySet()) {
+      int partition = PartitionedUserSync.getPartition(processedUser.getKey(), nbPartitions);
+      assertTrue(processedUser.getValue().endsWith("-" + partition));
+    }
+  }
+
+  @Test
+  public void testCompletedCountDoesntWaitForAllPartitions() throws Exception {
+    RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+    ManageableRepository repository = Mockito.mock(ManageableRepository.class);
+    Mockito.when(repositoryService.getCurrentRepository()).thenReturn(repository);
+    Mockito.when(repository.getSystemSession(Mockito.anyString())).thenReturn(Mockito.mock(Session.class));
+
+    final String slowUser = "slowuser";
+    List<String> otherUsers = new ArrayList<String>();
+    for (int i = 0; otherUsers.size() < 5; i++) {
+      if (PartitionedUserSync.getPartition("user" + i, 2) != PartitionedUserSync.getPartition(slowUser, 2)) {
+        otherUsers.add("user" + i);
+      }
+    }
+    final CountDownLatch slowUserLatch = new CountDownLatch(1);
+    final CountDownLatch otherUsersLatch = new CountDownLatch(otherUsers.size());
+    OrganizationSyncStatistics statistics = new OrganizationSyncStatistics();
+    statistics.start("USERS:UPDATED", 2);
+    PartitionedUserSync userSync = new PartitionedUserSync(PortalContainer.getInstance(),
+                                                           repositoryService,
+                                                           "test",
+                                                           2,
+                                                           10,
+                                                           new PartitionedUserSync.UserSyncTask() {
+                                                             public void sync(Session session, String username) throws Exception {
+                                                               if (slowUser.equals(username)) {
+                                                                 slowUserLatch.await(10, TimeUnit.SECONDS);
+                                                               } else {
+                                                                 otherUsersLatch.countDown();
+                                                               }
+                                                             }
+                                                           },
+                                                           statistics);
+    try {
+      userSync.submit(slowUser);
+      for (String otherUser : otherUsers) {
+        userSync.submit(otherUser);
+      }
+      assertTrue(otherUsersLatch.await(10, TimeUnit.SECONDS));
+      assertEquals("Users submitted after a user in process mustn't be completed", 0, userSync.getCompletedCount());
+    } finally {
+      slowUserLatch.countDown();
+    }
+    assertTrue(userSync.awaitCompletion());
+    assertEquals(otherUsers.size() + 1, userSync.getCompletedCount());
+    userSync.close();
+    statistics.finish();
+  }
+}
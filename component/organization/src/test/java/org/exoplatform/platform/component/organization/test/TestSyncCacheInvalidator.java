@@ -0,0 +1,59 @@
+package org.exoplatform.platform.component.organization.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.exoplatform.platform.organization.integration.SyncCacheInvalidator;
+import org.exoplatform.services.organization.idm.PicketLinkIDMCacheService;
+
+public class TestSyncCacheInvalidator {
+
+  @Test
+  public void testBulkRunThreadInvalidationsAreSkipped() throws Exception {
+    PicketLinkIDMCacheService cacheService = Mockito.mock(PicketLinkIDMCacheService.class);
+    final SyncCacheInvalidator invalidator = new SyncCacheInvalidator(cacheService, null);
+
+    invalidator.beginBulkRun();
+    try {
+      assertEquals(1, invalidator.getInvalidations());
+      invalidator.invalidate("user john");
+      assertEquals(1, invalidator.getInvalidations());
+      assertEquals(1, invalidator.getSkippedInvalidations());
+
+      // A worker of the bulk run
+      Thread worker = new Thread(new Runnable() {
+        public void run() {
+          invalidator.joinBulkRun();
+          try {
+            invalidator.invalidate("user mary");
+          } finally {
+            invalidator.leaveBulkRun();
+          }
+        }
+      });
+      worker.start();
+      worker.join();
+      assertEquals(1, invalidator.getInvalidations());
+      assertEquals(2, invalidator.getSkippedInvalidations());
+
+      // A standalone synchronization, from REST or JMX
+      Thread standalone = new Thread(new Runnable() {
+        public void run() {
+          invalidator.invalidate("user jack");
+        }
+      });
+      standalone.start();
+      standalone.join();
+      assertEquals(2, invalidator.getInvalidations());
+      assertEquals(2, invalidator.getSkippedInvalidations());
+    } finally {
+      invalidator.endBulkRun();
+    }
+    assertFalse(invalidator.isInBulkRun());
+    invalidator.invalidate("user john");
+    assertEquals(3, invalidator.getInvalidations());
+    Mockito.verify(cacheService, Mockito.times(3)).invalidateAll();
+  }
+}
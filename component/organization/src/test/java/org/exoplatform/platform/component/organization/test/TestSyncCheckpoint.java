@@ -0,0 +1,90 @@
+package org.exoplatform.platform.component.organization.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.exoplatform.commons.api.settings.SettingService;
+import org.exoplatform.commons.api.settings.SettingValue;
+import org.exoplatform.commons.api.settings.data.Context;
+import org.exoplatform.commons.api.settings.data.Scope;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.platform.organization.integration.SyncCheckpoint;
+
+public class TestSyncCheckpoint {
+
+  @Test
+  public void testCheckpointIsFlushedByBatch() throws Exception {
+    Map<String, SettingValue<?>> settings = new HashMap<String, SettingValue<?>>();
+    ExoContainer container = mockContainer(settings);
+
+    SyncCheckpoint checkpoint = new SyncCheckpoint(container, 2);
+    checkpoint.startPhase("USERS:UPDATED", true, null, 0);
+    checkpoint.processed("user1");
+    assertFalse(settings.containsKey("CHECKPOINT-LAST-ENTITY"));
+    checkpoint.processed("user2");
+    checkpoint.processed("user3");
+
+    SyncCheckpoint persistedCheckpoint = new SyncCheckpoint(container, 2);
+    assertTrue(persistedCheckpoint.load());
+    assertEquals("USERS:UPDATED", persistedCheckpoint.getPhase());
+    assertTrue(persistedCheckpoint.isFullSync());
+    assertEquals("user2", persistedCheckpoint.getLastEntity());
+    assertEquals(2, persistedCheckpoint.getProcessed());
+
+    checkpoint.processedBatch("user10", 5);
+    persistedCheckpoint.load();
+    assertEquals("user10", persistedCheckpoint.getLastEntity());
+    assertEquals(8, persistedCheckpoint.getProcessed());
+
+    checkpoint.clear();
+    assertFalse(new SyncCheckpoint(container, 2).load());
+  }
+
+  @Test
+  public void testPhaseOrder() {
+    assertEquals(0, SyncCheckpoint.getPhaseIndex("GROUPS:UPDATED"));
+    assertTrue(SyncCheckpoint.getPhaseIndex("GROUPS:DELETED") < SyncCheckpoint.getPhaseIndex("USERS:UPDATED"));
+    assertEquals(-1, SyncCheckpoint.getPhaseIndex("USERS:UNKNOWN"));
+  }
+
+  @Test
+  public void testCheckpointWithoutSettingService() {
+    SyncCheckpoint checkpoint = new SyncCheckpoint(null, 10);
+    checkpoint.startPhase("GROUPS:ADDED", false, null, 0);
+    checkpoint.processed("/platform");
+    assertEquals("/platform", checkpoint.getLastEntity());
+    assertEquals(1, checkpoint.getProcessed());
+  }
+
+  private ExoContainer mockContainer(final Map<String, SettingValue<?>> settings) {
+    SettingService settingService = Mockito.mock(SettingService.class);
+    Mockito.doAnswer(new Answer<Void>() {
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        settings.put((String) invocation.getArguments()[2], (SettingValue<?>) invocation.getArguments()[3]);
+        return null;
+      }
+    }).when(settingService).set(Mockito.any(Context.class), Mockito.any(Scope.class), Mockito.anyString(), Mockito.any(SettingValue.class));
+    Mockito.doAnswer(new Answer<Void>() {
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        settings.remove(invocation.getArguments()[2]);
+        return null;
+      }
+    }).when(settingService).remove(Mockito.any(Context.class), Mockito.any(Scope.class), Mockito.anyString());
+    Mockito.when(settingService.get(Mockito.any(Context.class), Mockito.any(Scope.class), Mockito.anyString()))
+           .thenAnswer(new Answer<SettingValue<?>>() {
+             public SettingValue<?> answer(InvocationOnMock invocation) throws Throwable {
+               return settings.get(invocation.getArguments()[2]);
+             }
+           });
+    ExoContainer container = Mockito.mock(ExoContainer.class);
+    Mockito.when(container.getComponentInstanceOfType(SettingService.class)).thenReturn(settingService);
+    return container;
+  }
+}
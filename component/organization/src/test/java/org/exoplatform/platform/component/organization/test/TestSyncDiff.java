@@ -0,0 +1,97 @@
+package org.exoplatform.platform.component.organization.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.exoplatform.commons.utils.ListAccess;
+import org.exoplatform.platform.organization.integration.SyncDiff;
+import org.exoplatform.services.organization.Group;
+import org.exoplatform.services.organization.User;
+import org.exoplatform.services.organization.impl.GroupImpl;
+import org.exoplatform.services.organization.impl.UserImpl;
+
+public class TestSyncDiff {
+
+  @Test
+  public void testUsersDiff() throws Exception {
+    List<String> activatedUsers = Arrays.asList("kept1", "removed1", "kept2", "removed2");
+    UsersListAccess usersListAccess = new UsersListAccess("added1", "kept1", null, "kept2", "added2", "added3");
+
+    SyncDiff usersDiff = SyncDiff.computeUsersDiff(activatedUsers, usersListAccess, 2);
+
+    assertEquals("Datasource users not integrated must be added, in datasource order",
+                 Arrays.asList("added1", "added2", "added3"),
+                 usersDiff.getAdded());
+    assertEquals("Integrated users not in datasource must be deleted, in integration order",
+                 Arrays.asList("removed1", "removed2"),
+                 usersDiff.getDeleted());
+    assertEquals("Users both integrated and in datasource must be updated", 2, usersDiff.getUnchanged());
+    assertEquals("users: added=3, deleted=2, unchanged=2", usersDiff.toString());
+  }
+
+  @Test
+  public void testUsersDiffWithoutActivatedUsers() throws Exception {
+    SyncDiff usersDiff = SyncDiff.computeUsersDiff(Collections.<String> emptyList(), new UsersListAccess("user1", "user2"), 10);
+
+    assertEquals(Arrays.asList("user1", "user2"), usersDiff.getAdded());
+    assertTrue(usersDiff.getDeleted().isEmpty());
+    assertEquals(0, usersDiff.getUnchanged());
+  }
+
+  @Test
+  public void testGroupsDiff() throws Exception {
+    List<String> activatedGroups = Arrays.asList("/platform", "/removed", "/platform/users", "/removed/child");
+    List<Group> groups = Arrays.asList(createGroup("/platform"),
+                                       createGroup("/added"),
+                                       createGroup("/platform/users"),
+                                       createGroup("/added/child"));
+
+    SyncDiff groupsDiff = SyncDiff.computeGroupsDiff(activatedGroups, groups);
+
+    assertEquals(Arrays.asList("/added", "/added/child"), groupsDiff.getAdded());
+    assertEquals(Arrays.asList("/removed", "/removed/child"), groupsDiff.getDeleted());
+    assertEquals(2, groupsDiff.getUnchanged());
+  }
+
+  @Test
+  public void testGroupsDiffWithoutChanges() throws Exception {
+    SyncDiff groupsDiff = SyncDiff.computeGroupsDiff(Arrays.asList("/platform", "/spaces"),
+                                                     Arrays.asList(createGroup("/spaces"), createGroup("/platform")));
+
+    assertTrue(groupsDiff.getAdded().isEmpty());
+    assertTrue(groupsDiff.getDeleted().isEmpty());
+    assertEquals(2, groupsDiff.getUnchanged());
+  }
+
+  private Group createGroup(String groupId) {
+    GroupImpl group = new GroupImpl();
+    group.setId(groupId);
+    group.setGroupName(groupId);
+    return group;
+  }
+
+  private static class UsersListAccess implements ListAccess<User> {
+
+    private final List<User> users = new ArrayList<User>();
+
+    private UsersListAccess(String... usernames) {
+      for (String username : usernames) {
+        users.add(username == null ? null : new UserImpl(username));
+      }
+    }
+
+    public User[] load(int index, int length) throws Exception {
+      return users.subList(index, index + length).toArray(new User[length]);
+    }
+
+    public int getSize() throws Exception {
+      return users.size();
+    }
+  }
+}
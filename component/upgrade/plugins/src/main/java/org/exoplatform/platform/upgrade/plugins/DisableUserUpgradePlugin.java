@@ -16,21 +16,23 @@
  */
 package org.exoplatform.platform.upgrade.plugins;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.exoplatform.commons.upgrade.UpgradeProductPlugin;
-import org.exoplatform.commons.utils.ListAccess;
 import org.exoplatform.commons.version.util.VersionComparator;
 import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.component.RequestLifeCycle;
 import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.platform.organization.util.ListAccessIterator;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.organization.OrganizationService;
@@ -99,84 +101,59 @@ public class DisableUserUpgradePlugin extends UpgradeProductPlugin {
       }
       
       final UserHandler handler = service.getUserHandler();
-      ListAccess<User> users = null;
-      int size = 0;
-      try {
-        RequestLifeCycle.begin(impl);
-        users = handler.findAllUsers(UserStatus.ANY);
-        size = users.getSize();
-      } catch (Exception ex) {
-        LOG.error(ex);
-      } finally {
-        RequestLifeCycle.end();
-      }
-      
-      batchSize = batchSize > size ? size : batchSize;
-      int tSize = size / threadNum;
-      tSize = tSize > 0 ? tSize : size;
-      final int odd = tSize == size ? 0 : size % threadNum;
-      
-      LOG.info("start upgrading {} users by {} threads, batchSize: {}", size, threadNum, batchSize);      
-      //
-      final AtomicLong count = new AtomicLong();
-      List<Future<Boolean>> results = new LinkedList<Future<Boolean>>();      
       final ExoContainer container = ExoContainerContext.getCurrentContainer();
       final PicketLinkIDMService idmService = container.getComponentInstanceOfType(PicketLinkIDMService.class);
-      final int threadSize = tSize;
-      final ListAccess<User> usrs = users;
-      final int totalSize = size;
-      
+      final AtomicLong count = new AtomicLong();
+      // Bound the number of batches loaded in memory and waiting for a thread
+      final Semaphore pendingBatches = new Semaphore(threadNum * 2);
+      List<Future<Boolean>> results = new LinkedList<Future<Boolean>>();
       ExecutorService execService = Executors.newFixedThreadPool(threadNum);
+      ListAccessIterator<User> usersIterator = null;
+      RequestLifeCycle.begin(impl);
       try {
-        //
-        for (int i = 0; i < threadNum; i++) {
-          final int idx = i;
-          //
-          results.add(execService.submit(new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-              int start = idx * threadSize;
-              int end = start + threadSize;
-              if (idx == threadNum -1) {
-                end += odd;
-              }
-              
-              ExoContainerContext.setCurrentContainer(container);
-              
-              int startBatch = start;
-              int endBatch = startBatch + batchSize;
-              endBatch = endBatch > end ? end : endBatch;
-              while (endBatch <= totalSize && endBatch <= end && startBatch < endBatch) {
-                LOG.info("{} start: {}, end: {}", Thread.currentThread(), startBatch, endBatch);        
+        usersIterator = new ListAccessIterator<User>(handler.findAllUsers(UserStatus.ANY), batchSize, true);
+        LOG.info("start upgrading {} users by {} threads, batchSize: {}", usersIterator.getSize(), threadNum, batchSize);
+        List<User> batch = new ArrayList<User>(batchSize);
+        while (usersIterator.hasNext()) {
+          batch.add(usersIterator.next());
+          if (batch.size() == batchSize || !usersIterator.hasNext()) {
+            pendingBatches.acquire();
+            final List<User> users = batch;
+            batch = new ArrayList<User>(batchSize);
+            results.add(execService.submit(new Callable<Boolean>() {
+              @Override
+              public Boolean call() throws Exception {
+                ExoContainerContext.setCurrentContainer(container);
                 RequestLifeCycle.begin(impl);
-                IdentitySession session = idmService.getIdentitySession();
-                User[] tmp = usrs.load(startBatch, endBatch - startBatch);
                 try {
-                  for (User u : tmp) {
+                  IdentitySession session = idmService.getIdentitySession();
+                  for (User u : users) {
                     enableUser(u, session);
                   }
-                  count.addAndGet(endBatch - startBatch);
-                  startBatch = endBatch;
-                  endBatch = startBatch + batchSize;
-                  endBatch = endBatch > end ? end : endBatch;
+                  count.addAndGet(users.size());
                   LOG.info("{} finished successfully!", Thread.currentThread());
+                  return true;
                 } catch (Exception e) {
-                  LOG.error("An unexpected error occurs when migrating pages:", e);        
+                  LOG.error("An unexpected error occurs when migrating users:", e);
                   return false;
                 } finally {
                   RequestLifeCycle.end();
+                  pendingBatches.release();
                 }
               }
-              
-              return true;
-            }
-  
-          }));
+            }));
+          }
         }
+      } catch (Exception ex) {
+        LOG.error("Error while loading users to upgrade", ex);
       } finally {
+        if (usersIterator != null) {
+          usersIterator.close();
+        }
+        RequestLifeCycle.end();
         execService.shutdown();
       }
-      
+
       try {
         for (Future<Boolean> r : results) {
           if (!r.get()) {
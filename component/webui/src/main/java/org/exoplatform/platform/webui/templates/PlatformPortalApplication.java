@@ -25,13 +25,21 @@ import javax.servlet.ServletConfig;
 
 public class PlatformPortalApplication extends PortalApplication {
     public PlatformPortalApplication(ServletConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param cache cache of the resolved template resources, or null to
+     *          resolve them on each call
+     */
+    public PlatformPortalApplication(ServletConfig config, TemplateResourceCache cache) {
         super(config);
         ApplicationResourceResolver resolver = new ApplicationResourceResolver();
-        resolver.addResourceResolver(new PlatformServletResourceResolver(config.getServletContext(), "war:"));
-        resolver.addResourceResolver(new PlatformServletResourceResolver(config.getServletContext(), "app:"));
-        resolver.addResourceResolver(new PlatformServletResourceResolver(config.getServletContext(), "system:"));
+        resolver.addResourceResolver(new PlatformServletResourceResolver(config.getServletContext(), "war:", cache));
+        resolver.addResourceResolver(new PlatformServletResourceResolver(config.getServletContext(), "app:", cache));
+        resolver.addResourceResolver(new PlatformServletResourceResolver(config.getServletContext(), "system:", cache));
         resolver.addResourceResolver(new PlatformServletResourceResolver(config.getServletContext().getContext("/eXoResources"),
-                "resources:"));
+                "resources:", cache));
         setResourceResolver(resolver);
     }
 }
@@ -27,6 +27,6 @@ import javax.servlet.ServletConfig;
 public class PlatformPortalApplicationFactory implements PortalApplicationFactory {
     @Override
     public PortalApplication createApplication(ServletConfig config) {
-        return new PlatformPortalApplication(config);
+        return new PlatformPortalApplication(config, TemplateResourceCache.getInstance());
     }
 }
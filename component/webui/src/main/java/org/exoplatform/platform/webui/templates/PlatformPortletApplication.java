@@ -28,8 +28,17 @@ import javax.portlet.PortletConfig;
  */
 public class PlatformPortletApplication extends PortletApplication {
     public PlatformPortletApplication(PortletConfig config)
+    {
+        this(config, null);
+    }
+
+    /**
+     * @param cache cache of the resolved template resources, or null to
+     *          resolve them on each call
+     */
+    public PlatformPortletApplication(PortletConfig config, TemplateResourceCache cache)
     {
         super(config);
-        getResourceResolver().addResourceResolver(new PlatformPortletResourceResolver(config.getPortletContext(), "app:"));
+        getResourceResolver().addResourceResolver(new PlatformPortletResourceResolver(config.getPortletContext(), "app:", cache));
     }
 }
@@ -30,6 +30,6 @@ import javax.portlet.PortletConfig;
  */
 public class PlatformPortletApplicationFactory implements PortletApplicationFactory {
     public PortletApplication createApplication(PortletConfig portletConfig) {
-        return new PlatformPortletApplication(portletConfig);
+        return new PlatformPortletApplication(portletConfig, TemplateResourceCache.getInstance());
     }
 }
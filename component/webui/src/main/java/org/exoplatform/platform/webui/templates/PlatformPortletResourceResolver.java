@@ -18,6 +18,7 @@
  */
 package org.exoplatform.platform.webui.templates;
 
+import org.exoplatform.container.PortalContainer;
 import org.exoplatform.portal.application.PortalRequestContext;
 import org.exoplatform.portal.webui.util.Util;
 import org.exoplatform.resolver.PortletResourceResolver;
@@ -34,12 +35,46 @@ import javax.portlet.PortletContext;
  * @version $Revision$
  */
 public class PlatformPortletResourceResolver extends PortletResourceResolver {
+    private final TemplateResourceCache cache;
+
+    private final String contextName;
+
     public PlatformPortletResourceResolver(PortletContext context, String scheme)
+    {
+        this(context, scheme, null);
+    }
+
+    /**
+     * @param cache cache of the resolved resources, or null to resolve them on
+     *          each call
+     */
+    public PlatformPortletResourceResolver(PortletContext context, String scheme, TemplateResourceCache cache)
     {
         super(context, scheme);
+        this.cache = cache;
+        this.contextName = context.getPortletContextName();
     }
 
-    public URL getResource(String url) throws Exception {
+    public URL getResource(final String url) throws Exception {
+        // resources resolved out of a portal request aren't cached, they may
+        // be resolved differently during a request
+        if (cache == null || Util.getPortalRequestContext() == null)
+        {
+            return resolveResource(url);
+        }
+        return cache.getResource(getKey(url), () -> resolveResource(url));
+    }
+
+    /**
+     * The resources of a portlet are resolved by the resolvers of the current
+     * portal container, so the cache is shared by all the portal containers
+     * only if their names are in the keys.
+     */
+    private String getKey(String url) {
+        return "portlet:" + PortalContainer.getCurrentPortalContainerName() + ":" + contextName + "|" + url;
+    }
+
+    private URL resolveResource(String url) throws Exception {
         ResourceResolver resourceResolver = getPortalResourceResolver(url);
         if (resourceResolver != null)
         {
@@ -84,8 +119,12 @@ public class PlatformPortletResourceResolver extends PortletResourceResolver {
     *
     * It should be removed by using the fix from GateIn https://issues.jboss.org/browse/GTNPORTAL-2790
     */
-    public boolean isModified(String url, long lastAccess) {
+    public boolean isModified(final String url, long lastAccess) {
         try {
+            if (cache != null && Util.getPortalRequestContext() != null)
+            {
+                return cache.isModified(getKey(url), () -> resolveResource(url), lastAccess);
+            }
             URL uri = getResource(url);
             URLConnection con = uri.openConnection();
             if (log.isDebugEnabled())
@@ -26,12 +26,36 @@ import java.net.URLConnection;
 import javax.servlet.ServletContext;
 
 public class PlatformServletResourceResolver extends ServletResourceResolver {
+    private final TemplateResourceCache cache;
+
+    private final String keyPrefix;
+
     public PlatformServletResourceResolver(ServletContext context, String scheme) {
+        this(context, scheme, null);
+    }
+
+    /**
+     * @param cache cache of the resolved resources, or null to resolve them on
+     *          each call
+     */
+    public PlatformServletResourceResolver(ServletContext context, String scheme, TemplateResourceCache cache) {
         super(context, scheme);
+        this.cache = cache;
+        this.keyPrefix = (context == null ? "" : context.getContextPath()) + "|";
     }
 
-    public boolean isModified(String url, long lastAccess) {
+    public URL getResource(final String url) throws Exception {
+        if (cache == null) {
+            return super.getResource(url);
+        }
+        return cache.getResource(keyPrefix + url, () -> super.getResource(url));
+    }
+
+    public boolean isModified(final String url, long lastAccess) {
         try {
+            if (cache != null) {
+                return cache.isModified(keyPrefix + url, () -> super.getResource(url), lastAccess);
+            }
             URL uri = getResource(url);
             URLConnection con = uri.openConnection();
             if (log.isDebugEnabled())
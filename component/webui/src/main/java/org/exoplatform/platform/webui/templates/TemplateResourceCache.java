@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2019 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.platform.webui.templates;
+
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.exoplatform.commons.utils.PropertyManager;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.management.annotations.*;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Cache of the URLs and last modification times of the template resources
+ * resolved by the Platform resource resolvers, shared by all the portal and
+ * portlet applications. In developing mode, an entry is checked again once
+ * older than the 'exo.platform.templates.checkInterval' system property in
+ * milliseconds, 0 meaning on each call. Otherwise resources don't change and
+ * entries are never checked again.
+ */
+@Managed
+@ManagedDescription("Template resources cache")
+@NameTemplate({ @Property(key = "name", value = "TemplateResourceCache"), @Property(key = "service", value = "extensions"),
+    @Property(key = "type", value = "platform") })
+public class TemplateResourceCache {
+  private static final Log                          LOG                     = ExoLogger.getLogger(TemplateResourceCache.class);
+
+  public static final String                        CHECK_INTERVAL_PROPERTY = "exo.platform.templates.checkInterval";
+
+  private static final long                         DEFAULT_CHECK_INTERVAL  = 2000;
+
+  private static volatile TemplateResourceCache     instance;
+
+  private final ConcurrentMap<String, ResourceStamp> stamps                 = new ConcurrentHashMap<String, ResourceStamp>();
+
+  private final AtomicLong                          resolveHits             = new AtomicLong();
+
+  private final AtomicLong                          resolveMisses           = new AtomicLong();
+
+  private final AtomicLong                          statHits                = new AtomicLong();
+
+  private final AtomicLong                          statCalls               = new AtomicLong();
+
+  // negative when the entries are never checked again
+  private final long                                checkInterval;
+
+  TemplateResourceCache(long checkInterval) {
+    this.checkInterval = checkInterval;
+  }
+
+  /**
+   * @return the cache shared by the Platform applications, registered in JMX
+   *         when first created
+   */
+  public static TemplateResourceCache getInstance() {
+    if (instance == null) {
+      synchronized (TemplateResourceCache.class) {
+        if (instance == null) {
+          TemplateResourceCache cache = new TemplateResourceCache(readCheckInterval());
+          try {
+            ExoContainerContext.getTopContainer().getManagementContext().register(cache);
+          } catch (Exception e) {
+            LOG.warn("Unable to register the template resources cache in JMX", e);
+          }
+          instance = cache;
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Get the URL of a resource, resolving it only when not cached or when it
+   * has to be checked again.
+   *
+   * @param key key of the resource, unique among all the resolvers
+   * @param resolver resolves the URL of the resource
+   * @return URL of the resource or null if it doesn't exist
+   * @throws Exception if the resource can't be resolved
+   */
+  public URL getResource(String key, Callable<URL> resolver) throws Exception {
+    ResourceStamp stamp = stamps.get(key);
+    long now = System.currentTimeMillis();
+    if (stamp != null && isFresh(stamp.resolveTime, now)) {
+      resolveHits.incrementAndGet();
+      return stamp.url;
+    }
+    resolveMisses.incrementAndGet();
+    URL url = resolver.call();
+    if (url == null) {
+      stamps.remove(key);
+    } else if (stamp != null && stamp.url.toExternalForm().equals(url.toExternalForm())) {
+      stamp.resolveTime = now;
+    } else {
+      stamps.put(key, new ResourceStamp(url, now));
+    }
+    return url;
+  }
+
+  /**
+   * Tell whether a resource changed since a time, reading its last
+   * modification time only when not cached or when it has to be checked again.
+   *
+   * @param key key of the resource, unique among all the resolvers
+   * @param resolver resolves the URL of the resource
+   * @param lastAccess time to compare to
+   * @return true if the resource was modified after the time
+   * @throws Exception if the resource can't be resolved or read
+   */
+  public boolean isModified(String key, Callable<URL> resolver, long lastAccess) throws Exception {
+    URL url = getResource(key, resolver);
+    if (url == null) {
+      return false;
+    }
+    ResourceStamp stamp = stamps.get(key);
+    long now = System.currentTimeMillis();
+    if (stamp != null && stamp.lastModified >= 0 && isFresh(stamp.checkTime, now)) {
+      statHits.incrementAndGet();
+      return stamp.lastModified > lastAccess;
+    }
+    statCalls.incrementAndGet();
+    URLConnection con = url.openConnection();
+    long lastModified = con.getLastModified();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(key + ": " + lastModified + " " + lastAccess);
+    }
+    if (stamp != null) {
+      stamp.lastModified = lastModified;
+      stamp.checkTime = now;
+    }
+    return lastModified > lastAccess;
+  }
+
+  @Managed
+  @ManagedDescription("Number of resources URLs read from the cache")
+  @Impact(ImpactType.READ)
+  public long getResolveHits() {
+    return resolveHits.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of resources URLs resolved")
+  @Impact(ImpactType.READ)
+  public long getResolveMisses() {
+    return resolveMisses.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of modification times read from the cache")
+  @Impact(ImpactType.READ)
+  public long getStatHits() {
+    return statHits.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of modification times read from the resources")
+  @Impact(ImpactType.READ)
+  public long getStatCalls() {
+    return statCalls.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of cached resources")
+  @Impact(ImpactType.READ)
+  public int getSize() {
+    return stamps.size();
+  }
+
+  @Managed
+  @ManagedDescription("Interval in milliseconds between two checks of a resource, negative if never checked again")
+  @Impact(ImpactType.READ)
+  public long getCheckInterval() {
+    return checkInterval;
+  }
+
+  @Managed
+  @ManagedDescription("Clear the cached resources")
+  @Impact(ImpactType.WRITE)
+  public void clear() {
+    stamps.clear();
+  }
+
+  private boolean isFresh(long time, long now) {
+    return checkInterval < 0 || now - time < checkInterval;
+  }
+
+  static long readCheckInterval() {
+    if (!PropertyManager.isDevelopping()) {
+      return -1;
+    }
+    String value = PropertyManager.getProperty(CHECK_INTERVAL_PROPERTY);
+    if (value == null || value.trim().isEmpty()) {
+      return DEFAULT_CHECK_INTERVAL;
+    }
+    try {
+      return Math.max(0, Long.parseLong(value.trim()));
+    } catch (NumberFormatException e) {
+      LOG.warn("'" + CHECK_INTERVAL_PROPERTY + "' system property is not a valid number, use default value: "
+          + DEFAULT_CHECK_INTERVAL);
+      return DEFAULT_CHECK_INTERVAL;
+    }
+  }
+
+  private static class ResourceStamp {
+    private final URL     url;
+
+    private volatile long resolveTime;
+
+    // -1 until read
+    private volatile long lastModified = -1;
+
+    private volatile long checkTime;
+
+    private ResourceStamp(URL url, long resolveTime) {
+      this.url = url;
+      this.resolveTime = resolveTime;
+    }
+  }
+}
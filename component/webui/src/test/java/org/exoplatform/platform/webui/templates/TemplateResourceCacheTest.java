@@ -0,0 +1,125 @@
+package org.exoplatform.platform.webui.templates;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.commons.utils.PropertyManager;
+
+public class TemplateResourceCacheTest extends TestCase {
+
+  private File              template;
+
+  private URL               templateURL;
+
+  private final AtomicInteger resolutions = new AtomicInteger();
+
+  private Callable<URL>     resolver;
+
+  @Override
+  protected void setUp() throws Exception {
+    template = File.createTempFile("template", ".gtmpl");
+    template.setLastModified(System.currentTimeMillis() - 60000);
+    templateURL = template.toURI().toURL();
+    resolver = new Callable<URL>() {
+      public URL call() {
+        resolutions.incrementAndGet();
+        return templateURL;
+      }
+    };
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    template.delete();
+    PropertyManager.setProperty(PropertyManager.DEVELOPING, "false");
+    PropertyManager.setProperty(TemplateResourceCache.CHECK_INTERVAL_PROPERTY, "");
+  }
+
+  public void testResourceCheckedAgainAfterInterval() throws Exception {
+    TemplateResourceCache cache = new TemplateResourceCache(500);
+
+    assertEquals(templateURL, cache.getResource("portal|/template.gtmpl", resolver));
+    assertEquals(templateURL, cache.getResource("portal|/template.gtmpl", resolver));
+    assertEquals(1, resolutions.get());
+    long lastAccess = System.currentTimeMillis() - 30000;
+    assertFalse(cache.isModified("portal|/template.gtmpl", resolver, lastAccess));
+
+    template.setLastModified(System.currentTimeMillis());
+    assertFalse("Modification is read again once the check interval is over",
+                cache.isModified("portal|/template.gtmpl", resolver, lastAccess));
+
+    Thread.sleep(600);
+    assertTrue(cache.isModified("portal|/template.gtmpl", resolver, lastAccess));
+    assertEquals(2, resolutions.get());
+  }
+
+  public void testHitsAndMissesCountedOnce() throws Exception {
+    TemplateResourceCache cache = new TemplateResourceCache(-1);
+
+    cache.getResource("portal|/template.gtmpl", resolver);
+    cache.isModified("portal|/template.gtmpl", resolver, 0);
+    cache.isModified("portal|/template.gtmpl", resolver, 0);
+
+    assertEquals(2, cache.getResolveHits());
+    assertEquals(1, cache.getResolveMisses());
+    assertEquals(1, cache.getStatHits());
+    assertEquals(1, cache.getStatCalls());
+  }
+
+  public void testResourceNeverCheckedAgainInProduction() throws Exception {
+    PropertyManager.setProperty(PropertyManager.DEVELOPING, "false");
+    assertEquals(-1, TemplateResourceCache.readCheckInterval());
+
+    TemplateResourceCache cache = new TemplateResourceCache(TemplateResourceCache.readCheckInterval());
+    long lastAccess = System.currentTimeMillis() - 30000;
+    assertFalse(cache.isModified("portal|/template.gtmpl", resolver, lastAccess));
+    template.setLastModified(System.currentTimeMillis());
+    Thread.sleep(100);
+    assertFalse(cache.isModified("portal|/template.gtmpl", resolver, lastAccess));
+    assertEquals(1, resolutions.get());
+    assertEquals(1, cache.getStatCalls());
+  }
+
+  public void testCheckIntervalInDevelopingMode() throws Exception {
+    PropertyManager.setProperty(PropertyManager.DEVELOPING, "true");
+    PropertyManager.setProperty(TemplateResourceCache.CHECK_INTERVAL_PROPERTY, "");
+    assertEquals(2000, TemplateResourceCache.readCheckInterval());
+    PropertyManager.setProperty(TemplateResourceCache.CHECK_INTERVAL_PROPERTY, "0");
+    assertEquals(0, TemplateResourceCache.readCheckInterval());
+    PropertyManager.setProperty(TemplateResourceCache.CHECK_INTERVAL_PROPERTY, "wrong");
+    assertEquals("Default interval is used when the property can't be parsed", 2000, TemplateResourceCache.readCheckInterval());
+  }
+
+  public void testResourceResolvedAgainAfterClear() throws Exception {
+    TemplateResourceCache cache = new TemplateResourceCache(-1);
+
+    cache.getResource("portal|/template.gtmpl", resolver);
+    cache.getResource("portal|/template.gtmpl", resolver);
+    assertEquals(1, cache.getSize());
+
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    cache.getResource("portal|/template.gtmpl", resolver);
+    assertEquals(2, resolutions.get());
+  }
+
+  public void testMissingResourceNotCached() throws Exception {
+    TemplateResourceCache cache = new TemplateResourceCache(-1);
+    Callable<URL> missingResolver = new Callable<URL>() {
+      public URL call() {
+        resolutions.incrementAndGet();
+        return null;
+      }
+    };
+
+    assertNull(cache.getResource("portal|/missing.gtmpl", missingResolver));
+    assertNull(cache.getResource("portal|/missing.gtmpl", missingResolver));
+    assertFalse(cache.isModified("portal|/missing.gtmpl", missingResolver, 0));
+    assertEquals(3, resolutions.get());
+    assertEquals(0, cache.getSize());
+  }
+}
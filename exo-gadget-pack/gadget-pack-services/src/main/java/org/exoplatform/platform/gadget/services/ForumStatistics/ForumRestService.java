@@ -18,7 +18,6 @@ package org.exoplatform.platform.gadget.services.ForumStatistics;
 
 import org.exoplatform.common.http.HTTPStatus;
 import org.exoplatform.container.ExoContainerContext;
-import org.exoplatform.forum.service.ForumService;
 import org.exoplatform.forum.service.ForumStatistic;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
@@ -28,6 +27,7 @@ import org.exoplatform.services.security.Identity;
 import org.exoplatform.services.security.MembershipEntry;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -37,8 +37,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
 /**
  * REST service that serve Forums Data.
@@ -56,6 +60,8 @@ public class ForumRestService implements ResourceContainer {
    
    /**
     * Get Forums Global statistic as JSON format.
+    * The statistic is cached, and not sent again when it didn't change since
+    * the ETag or Last-Modified date received by the client.
     * 
     * REST service: URL is /forumsService/forums/statistic
     * 
@@ -64,31 +70,18 @@ public class ForumRestService implements ResourceContainer {
   @GET
   @Path("/forums/statistic/")
   @Produces(MediaType.APPLICATION_JSON)
-  public Response forumsStatistic() {
-     CacheControl cacheControl = new CacheControl();
-     cacheControl.setNoCache(true);
-     cacheControl.setNoStore(true);
-     ForumStatistic forumStatistic = new ForumStatistic();   
-     try
-     {
-       ForumService forumService = (ForumService)ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(ForumService.class);
-       forumStatistic= forumService.getForumStatistic();
-     }
-     catch (Exception e)
-     {
-       LOG.debug("forumStatistic not found" + e.getMessage());
-     }
-     List<Object> dataForumStatistic = new ArrayList<Object>();
-
-     dataForumStatistic.add(forumStatistic);
-     MessageBean data = new MessageBean();
-     data.setData(dataForumStatistic);
-     return Response.ok(data, MediaType.APPLICATION_JSON).cacheControl(cacheControl).build();
+  public Response forumsStatistic(@Context Request request) {
+     ForumsWeeklyStatisticService forumsWeeklyStatisticService = (ForumsWeeklyStatisticService)ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(ForumsWeeklyStatisticService.class);
+     ForumsStatisticSnapshot<ForumStatistic> snapshot = forumsWeeklyStatisticService.getForumStatisticSnapshot();
+     return buildStatisticResponse(request, snapshot);
   }
   
   /**
    * Get Forums Weekly Statistics as JSON data format.
    * 
+   * The statistics are cached, and not sent again when they didn't change since
+   * the ETag or Last-Modified date received by the client.
+   * 
    * REST service URL: /forumsService/forums/weeklystatistic
    * 
    * @return Forums weekly statistic as JSON data format.
@@ -96,26 +89,32 @@ public class ForumRestService implements ResourceContainer {
   @GET
   @Path("/forums/weeklystatistic/")
   @Produces(MediaType.APPLICATION_JSON)
-  public Response forumsWeeklyStatistic() {
-     CacheControl cacheControl = new CacheControl();
-     cacheControl.setNoCache(true);
-     cacheControl.setNoStore(true);
+  public Response forumsWeeklyStatistic(@Context Request request) {
      ForumsWeeklyStatisticService forumsWeeklyStatisticService = (ForumsWeeklyStatisticService)ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(ForumsWeeklyStatisticService.class);
-     List<ForumsWeeklyStatistic> listForumsWeeklyStatistic= new ArrayList<ForumsWeeklyStatistic>(); 
-     try
-     {
-       listForumsWeeklyStatistic= forumsWeeklyStatisticService.getAllForumsWeeklyStatistic();
-     }
-     catch (Exception e)
-     {
-       LOG.error("forumWeeklyStatistic not found", e);
-     }
-     List<Object> dataForumStatistic = new ArrayList<Object>();
+     ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> snapshot = forumsWeeklyStatisticService.getForumsWeeklyStatisticSnapshot();
+     return buildStatisticResponse(request, snapshot);
+  }
 
-     dataForumStatistic.add(listForumsWeeklyStatistic);
-     MessageBean data = new MessageBean();
-     data.setData(dataForumStatistic);
-     return Response.ok(data, MediaType.APPLICATION_JSON).cacheControl(cacheControl).build();
+  /**
+   * Build the response of a statistics snapshot, or a 304 response when the
+   * request preconditions show that the client already has it. Clients may
+   * store the response but must validate it before using it.
+   */
+  private Response buildStatisticResponse(Request request, ForumsStatisticSnapshot<?> snapshot) {
+    CacheControl cacheControl = new CacheControl();
+    cacheControl.setNoCache(true);
+    EntityTag entityTag = new EntityTag(snapshot.getVersion());
+    // HTTP dates have a precision of one second
+    Date lastModified = new Date(snapshot.getLastModified() / 1000 * 1000);
+    ResponseBuilder builder = request.evaluatePreconditions(lastModified, entityTag);
+    if (builder == null) {
+      List<Object> dataForumStatistic = new ArrayList<Object>();
+      dataForumStatistic.add(snapshot.getData());
+      MessageBean data = new MessageBean();
+      data.setData(dataForumStatistic);
+      builder = Response.ok(data, MediaType.APPLICATION_JSON);
+    }
+    return builder.cacheControl(cacheControl).tag(entityTag).lastModified(lastModified).build();
   }
   
   /**
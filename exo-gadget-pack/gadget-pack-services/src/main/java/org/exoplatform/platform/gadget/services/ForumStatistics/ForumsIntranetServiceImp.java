@@ -20,22 +20,39 @@ import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.forum.common.jcr.KSDataLocation;
 import org.exoplatform.forum.common.jcr.PropertyReader;
 import org.exoplatform.forum.common.jcr.SessionManager;
+import org.exoplatform.platform.gadget.services.util.InitParamsUtils;
 import org.exoplatform.services.jcr.ext.common.SessionProvider;
+import org.exoplatform.services.jcr.impl.core.query.QueryImpl;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.Session;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
 
 /**
+ * The top rated topics are read from an index of the 'index.size' best rated
+ * topics, rebuilt every 'index.refresh.period' milliseconds, so that a vote is
+ * taken into account after this period at most. An outdated index is rebuilt
+ * by a single request while the other ones keep using it. The index only
+ * orders the topics: the permissions of the topics, forums and categories are
+ * read from JCR on each request, once per forum. Topics are only queried from
+ * JCR when the index doesn't contain enough topics visible by the user.
+ * 
  * @author <a href="tungdt@exoplatform.com">Do Thanh Tung </a>
  * @version 1.0
  */
@@ -46,13 +63,39 @@ public class ForumsIntranetServiceImp implements ForumsIntranetService {
 
   public static final String JCR_ROOT = "/jcr:root";
 
+  private static final String INDEX_SIZE                   = "index.size";
+
+  private static final String INDEX_REFRESH_PERIOD         = "index.refresh.period";
+
+  private static final int    DEFAULT_INDEX_SIZE           = 200;
+
+  private static final long   DEFAULT_INDEX_REFRESH_PERIOD = 60000;
+
   private KSDataLocation     dataLocator;
 
   private SessionManager     sessionManager;
 
+  private int                indexSize;
+
+  private long               indexRefreshPeriod;
+
+  /** Index of the topics visible by moderators, all topics being indexed */
+  private volatile TopRatedIndex moderatorsIndex;
+
+  /** Index of the opened, approved and active topics */
+  private volatile TopRatedIndex usersIndex;
+
+  /** true while a request rebuilds {@link #moderatorsIndex} */
+  private final AtomicBoolean    moderatorsIndexBuilding = new AtomicBoolean();
+
+  /** true while a request rebuilds {@link #usersIndex} */
+  private final AtomicBoolean    usersIndexBuilding      = new AtomicBoolean();
+
   public ForumsIntranetServiceImp(InitParams params, KSDataLocation locator) throws Exception {
     this.dataLocator = locator;
     this.sessionManager = dataLocator.getSessionManager();
+    this.indexSize = (int) InitParamsUtils.getLongParam(params, INDEX_SIZE, DEFAULT_INDEX_SIZE);
+    this.indexRefreshPeriod = InitParamsUtils.getLongParam(params, INDEX_REFRESH_PERIOD, DEFAULT_INDEX_REFRESH_PERIOD);
   }
 
   /**
@@ -69,24 +112,46 @@ public class ForumsIntranetServiceImp implements ForumsIntranetService {
     try {
       long roleUser = getUserRoleOfForum(sProvider,
                                          (allInfoOfUser.size() > 0) ? allInfoOfUser.get(0) : "");
-      NodeIterator iter = getTopVoteTopicByUser(sProvider, (roleUser <= 1) ? true : false);
-      //System.out.println(String.format("\n Size: %s \n userRole: %s \nAllofUser: %s", iter.getSize(), roleUser, allInfoOfUser.toString()));
-      TopicBean bean;
-      PropertyReader reader;
+      boolean isMod = roleUser <= 1;
+      TopRatedIndex index = getTopRatedIndex(sProvider, isMod);
+      Session session = sessionManager.getSession(sProvider);
+      Map<String, TopicPermissions> forumsPermissions = new HashMap<String, TopicPermissions>();
+      Map<TopicPermissions, Boolean> permissions = new IdentityHashMap<TopicPermissions, Boolean>();
+      for (IndexedTopic topic : index.topics) {
+        TopicPermissions topicPermissions;
+        try {
+          topicPermissions = getTopicPermissions((Node) session.getItem(topic.path), forumsPermissions);
+        } catch (Exception e) {
+          // Topic removed or moved since the index was built
+          LOG.debug("Failed to read indexed top voted rating topic " + topic.path, e);
+          continue;
+        }
+        Boolean hasPermission = permissions.get(topicPermissions);
+        if (hasPermission == null) {
+          hasPermission = topicPermissions.isVisibleBy(allInfoOfUser, roleUser);
+          permissions.put(topicPermissions, hasPermission);
+        }
+        if (hasPermission) {
+          topicBeans.add(topic.bean);
+          if (topicBeans.size() == maxcount)
+            return topicBeans;
+        }
+      }
+      if (index.complete) {
+        return topicBeans;
+      }
+      // Not enough visible topics in the index, the following ones are read
+      NodeIterator iter = getTopVoteTopics(sProvider, isMod, index.readTopics, 0);
       while (iter.hasNext()) {
         Node node = iter.nextNode();
-        if (hasPermissionInForum(sProvider, node, allInfoOfUser, roleUser)) {
-          reader = new PropertyReader(node);
-          bean = new TopicBean(node.getName());
-          bean.setOwner(reader.string("exo:owner"));
-          bean.setCreateDate(reader.date("exo:createdDate"));
-          bean.setLink(reader.string("exo:link"));
-          bean.setTitle(reader.string("exo:name"));
-          bean.setVoteRating(reader.d("exo:voteRating"));
-          bean.setNumberOfUserVoteRating(reader.list("exo:userVoteRating").size());
-          topicBeans.add(bean);
-          if (topicBeans.size() == maxcount)
-            break;
+        try {
+          if (getTopicPermissions(node, forumsPermissions).isVisibleBy(allInfoOfUser, roleUser)) {
+            topicBeans.add(toTopicBean(node));
+            if (topicBeans.size() == maxcount)
+              break;
+          }
+        } catch (Exception e) {
+          LOG.debug("Failed to read top voted rating topic " + node.getName(), e);
         }
       }
     } catch (Exception e) {
@@ -97,7 +162,115 @@ public class ForumsIntranetServiceImp implements ForumsIntranetService {
     return topicBeans;
   }
 
-  private boolean isListEmpty(List<String> list) {
+  /**
+   * Returns the index of the best rated topics, rebuilding it if it is older
+   * than the refresh period. The outdated index is returned while another
+   * request rebuilds it, or if the rebuild fails.
+   */
+  private TopRatedIndex getTopRatedIndex(SessionProvider sProvider, boolean isMod) throws Exception {
+    TopRatedIndex index = isMod ? moderatorsIndex : usersIndex;
+    if (index == null) {
+      // No index to use meanwhile, concurrent requests build their own one
+      return setTopRatedIndex(buildTopRatedIndex(sProvider, isMod), isMod);
+    }
+    if (System.currentTimeMillis() - index.buildTime <= indexRefreshPeriod) {
+      return index;
+    }
+    AtomicBoolean building = isMod ? moderatorsIndexBuilding : usersIndexBuilding;
+    if (!building.compareAndSet(false, true)) {
+      return index;
+    }
+    try {
+      return setTopRatedIndex(buildTopRatedIndex(sProvider, isMod), isMod);
+    } catch (Exception e) {
+      LOG.warn("Failed to rebuild the top voted rating topics index, the outdated one is used", e);
+      return index;
+    } finally {
+      building.set(false);
+    }
+  }
+
+  private TopRatedIndex setTopRatedIndex(TopRatedIndex index, boolean isMod) {
+    if (isMod) {
+      moderatorsIndex = index;
+    } else {
+      usersIndex = index;
+    }
+    return index;
+  }
+
+  private TopRatedIndex buildTopRatedIndex(SessionProvider sProvider, boolean isMod) throws Exception {
+    long buildTime = System.currentTimeMillis();
+    List<IndexedTopic> topics = new ArrayList<IndexedTopic>();
+    NodeIterator iter = getTopVoteTopics(sProvider, isMod, 0, indexSize + 1);
+    // Topics which can't be read aren't indexed, but are counted to know where
+    // to read the topics following the index
+    int readTopics = 0;
+    while (iter.hasNext() && topics.size() < indexSize) {
+      Node node = iter.nextNode();
+      readTopics++;
+      try {
+        topics.add(new IndexedTopic(toTopicBean(node), node.getPath()));
+      } catch (Exception e) {
+        LOG.debug("Failed to index top voted rating topic " + node.getName(), e);
+      }
+    }
+    return new TopRatedIndex(buildTime, topics, readTopics, !iter.hasNext() && readTopics <= indexSize);
+  }
+
+  private TopicBean toTopicBean(Node node) throws Exception {
+    PropertyReader reader = new PropertyReader(node);
+    TopicBean bean = new TopicBean(node.getName());
+    bean.setOwner(reader.string("exo:owner"));
+    bean.setCreateDate(reader.date("exo:createdDate"));
+    bean.setLink(reader.string("exo:link"));
+    bean.setTitle(reader.string("exo:name"));
+    bean.setVoteRating(reader.d("exo:voteRating"));
+    bean.setNumberOfUserVoteRating(reader.list("exo:userVoteRating").size());
+    return bean;
+  }
+
+  /**
+   * Returns the permissions of a topic, the ones of its forum and category
+   * being read once per forum.
+   * 
+   * @param topicNode topic node
+   * @param forumsPermissions permissions of the forums already read, by forum
+   *          path
+   */
+  private TopicPermissions getTopicPermissions(Node topicNode,
+                                               Map<String, TopicPermissions> forumsPermissions) throws Exception {
+    Node forumNode = topicNode.getParent();
+    TopicPermissions forumPermissions = forumsPermissions.get(forumNode.getPath());
+    if (forumPermissions == null) {
+      PropertyReader reader = new PropertyReader(forumNode);
+      boolean closed = reader.bool("exo:isClosed");
+      List<String> moderators = reader.list("exo:moderators", new ArrayList<String>());
+      Set<String> viewers = reader.set("exo:viewer", new HashSet<String>());
+      // permission in category
+      reader = new PropertyReader(forumNode.getParent());
+      viewers.addAll(reader.set("exo:viewer", new HashSet<String>()));
+      viewers.addAll(reader.set("exo:userPrivate", new HashSet<String>()));
+      forumPermissions = new TopicPermissions(closed, moderators, viewers);
+      forumsPermissions.put(forumNode.getPath(), forumPermissions);
+    }
+    // permission in topic
+    Set<String> topicViewers = new PropertyReader(topicNode).set("exo:canView", new HashSet<String>());
+    if (isListEmpty(new ArrayList<String>(topicViewers))) {
+      return forumPermissions;
+    }
+    Set<String> viewers = new HashSet<String>(topicViewers);
+    viewers.addAll(forumPermissions.viewers);
+    String key = forumNode.getPath() + new TreeSet<String>(viewers);
+    TopicPermissions topicPermissions = forumsPermissions.get(key);
+    if (topicPermissions == null) {
+      topicPermissions = new TopicPermissions(forumPermissions.closed, forumPermissions.moderators, viewers);
+      forumsPermissions.put(key, topicPermissions);
+    }
+    return topicPermissions;
+  }
+
+  private static boolean isListEmpty(List<String> list) {
     if (list == null || list.size() == 0)
       return true;
     for (String string : list) {
@@ -120,45 +293,93 @@ public class ForumsIntranetServiceImp implements ForumsIntranetService {
     return 3;
   }
 
-  private boolean hasPermissionInForum(SessionProvider sProvider, Node topicNode, 
-                                       List<String> allInfoOfUser, long userRole) throws Exception {
+  /**
+   * Get forum home node
+   * 
+   * @param sProvider
+   * @return
+   * @throws Exception
+   */
+  private Node getForumHomeNode(SessionProvider sProvider) throws Exception {
+    String path = dataLocator.getForumHomeLocation();
+    return sessionManager.getSession(sProvider).getRootNode().getNode(path);
+  }
+
+  public NodeIterator getTopVoteTopicByUser(SessionProvider sProvider, boolean isMod) throws Exception {
     try {
+      return getTopVoteTopics(sProvider, isMod, 0, 0);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Get topics ordered by vote rating
+   * 
+   * @param sProvider
+   * @param isMod true to get closed, waiting and inactive topics too
+   * @param offset number of topics to skip
+   * @param limit maximum number of topics, 0 for all
+   * @return
+   * @throws Exception
+   */
+  private NodeIterator getTopVoteTopics(SessionProvider sProvider, boolean isMod, long offset, long limit) throws Exception {
+    Node categoryHome = getForumHomeNode(sProvider);
+    QueryManager qm = categoryHome.getSession().getWorkspace().getQueryManager();
+    StringBuffer stringBuffer = new StringBuffer();
+    stringBuffer.append(JCR_ROOT).append(categoryHome.getPath()).append("//element(*,exo:topic)");
+    if (!isMod) {
+      stringBuffer.append("[@exo:isClosed='false' and @exo:isWaiting='false' and @exo:isApproved='true' and @exo:isActive='true' and @exo:isActiveByForum='true']");
+    }
+    stringBuffer.append(" order by @exo:voteRating descending, @exo:isSticky descending ,exo:createdDate descending");
+    String pathQuery = stringBuffer.toString();
+    QueryImpl query = (QueryImpl) qm.createQuery(pathQuery, Query.XPATH);
+    query.setOffset(offset);
+    if (limit > 0) {
+      query.setLimit(limit);
+    }
+    QueryResult result = query.execute();
+    return result.getNodes();
+  }
+
+  /**
+   * Permissions of the topics of a forum: forum closure and moderators, and
+   * viewers of the topic, forum and category.
+   */
+  private static class TopicPermissions {
+    private final boolean      closed;
+
+    private final List<String> moderators;
+
+    private final Set<String>  viewers;
+
+    private final boolean      isPublic;
+
+    TopicPermissions(boolean closed, List<String> moderators, Set<String> viewers) {
+      this.closed = closed;
+      this.moderators = moderators;
+      this.viewers = viewers;
+      this.isPublic = isListEmpty(new ArrayList<String>(viewers));
+    }
+
+    boolean isVisibleBy(List<String> allInfoOfUser, long userRole) {
       // check for administrators. If is admin --> return true;
       if (userRole == 0)
         return true;
-      Node forumNode = topicNode.getParent();
-      Node categoryNode = forumNode.getParent();
-      PropertyReader reader = new PropertyReader(topicNode);
-      // permission in topic
-      Set<String> viewers = reader.set("exo:canView", new HashSet<String>());
-      // permission in forum
-      reader = new PropertyReader(forumNode);
       // forum is closed --> return false;
-      if (reader.bool("exo:isClosed"))
+      if (closed)
         return false;
       // check for moderators
-      if (userRole == 1) {
-        List<String> moderators = reader.list("exo:moderators", new ArrayList<String>());
-        if (!isListEmpty(allInfoOfUser)) {
-          for (String string : moderators) {
-            // user's moderator of the forum content the topic.
-            if (allInfoOfUser.contains(string))
-              return true;
-          }
+      if (userRole == 1 && !isListEmpty(allInfoOfUser)) {
+        for (String string : moderators) {
+          // user's moderator of the forum content the topic.
+          if (allInfoOfUser.contains(string))
+            return true;
         }
       }
-      viewers.addAll(reader.set("exo:viewer", new HashSet<String>()));
-
-      // permission in category
-      reader = new PropertyReader(categoryNode);
-      // check viewer
-      viewers.addAll(reader.set("exo:viewer", new HashSet<String>()));
-      // check user private.
-      viewers.addAll(reader.set("exo:userPrivate", new HashSet<String>()));
       // if viewer is empty then topic public.
-      if (isListEmpty(new ArrayList<String>(viewers))) {
+      if (isPublic)
         return true;
-      }
       // if user login and viewer list not empty.
       if (!isListEmpty(allInfoOfUser)) {
         for (String string : viewers) {
@@ -166,40 +387,38 @@ public class ForumsIntranetServiceImp implements ForumsIntranetService {
             return true;
         }
       }
-    } catch (Exception e) {
-      LOG.debug("Failed to checking has premission viewing topic add in forum.");
+      return false;
     }
-    return false;
   }
 
-  /**
-   * Get forum home node
-   * 
-   * @param sProvider
-   * @return
-   * @throws Exception
-   */
-  private Node getForumHomeNode(SessionProvider sProvider) throws Exception {
-    String path = dataLocator.getForumHomeLocation();
-    return sessionManager.getSession(sProvider).getRootNode().getNode(path);
+  private static class IndexedTopic {
+    private final TopicBean bean;
+
+    /** path of the topic node, to check its permissions on each request */
+    private final String    path;
+
+    IndexedTopic(TopicBean bean, String path) {
+      this.bean = bean;
+      this.path = path;
+    }
   }
 
-  public NodeIterator getTopVoteTopicByUser(SessionProvider sProvider, boolean isMod) throws Exception {
-    try {
-      Node categoryHome = getForumHomeNode(sProvider);
-      QueryManager qm = categoryHome.getSession().getWorkspace().getQueryManager();
-      StringBuffer stringBuffer = new StringBuffer();
-      stringBuffer.append(JCR_ROOT).append(categoryHome.getPath()).append("//element(*,exo:topic)");
-      if (!isMod) {
-        stringBuffer.append("[@exo:isClosed='false' and @exo:isWaiting='false' and @exo:isApproved='true' and @exo:isActive='true' and @exo:isActiveByForum='true']");
-      }
-      stringBuffer.append(" order by @exo:voteRating descending, @exo:isSticky descending ,exo:createdDate descending");
-      String pathQuery = stringBuffer.toString();
-      Query query = qm.createQuery(pathQuery, Query.XPATH);
-      QueryResult result = query.execute();
-      return result.getNodes();
-    } catch (Exception e) {
-      return null;
+  private static class TopRatedIndex {
+    private final long               buildTime;
+
+    private final List<IndexedTopic> topics;
+
+    /** number of topics read from the query, indexed or not */
+    private final int                readTopics;
+
+    /** true if all the topics were read, indexed or not */
+    private final boolean            complete;
+
+    TopRatedIndex(long buildTime, List<IndexedTopic> topics, int readTopics, boolean complete) {
+      this.buildTime = buildTime;
+      this.topics = Collections.unmodifiableList(topics);
+      this.readTopics = readTopics;
+      this.complete = complete;
     }
   }
 }
@@ -0,0 +1,68 @@
+/***************************************************************************
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ ***************************************************************************/
+package org.exoplatform.platform.gadget.services.ForumStatistics;
+
+/**
+ * Immutable snapshot of Forums statistics, with the time of its last change
+ * and a version tag which changes with its content.
+ *
+ * @param <T> type of the statistics
+ */
+public class ForumsStatisticSnapshot<T> {
+  private final T      data;
+
+  private final long   lastModified;
+
+  private final String version;
+
+  private final long   loadTime;
+
+  public ForumsStatisticSnapshot(T data, long lastModified, String version, long loadTime) {
+    this.data = data;
+    this.lastModified = lastModified;
+    this.version = version;
+    this.loadTime = loadTime;
+  }
+
+  /**
+   * @return the statistics, not to be modified
+   */
+  public T getData() {
+    return data;
+  }
+
+  /**
+   * @return time of the last change of the statistics
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return tag of the content of the statistics
+   */
+  public String getVersion() {
+    return version;
+  }
+
+  /**
+   * @return time when the statistics were read
+   */
+  public long getLoadTime() {
+    return loadTime;
+  }
+}
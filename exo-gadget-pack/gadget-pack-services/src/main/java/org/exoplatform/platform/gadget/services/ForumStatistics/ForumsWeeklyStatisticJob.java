@@ -65,6 +65,7 @@ public class ForumsWeeklyStatisticJob implements Job {
       }
 
       service.saveForumsWeeklyStatistic(weeklyStatistic);
+      service.refreshStatisticSnapshots();
 
     } catch (Exception e) {
       LOG.error("Failed to update ForumsWeeklyStatistic", e);
@@ -20,6 +20,8 @@ package org.exoplatform.platform.gadget.services.ForumStatistics;
 
 import java.util.List;
 
+import org.exoplatform.forum.service.ForumStatistic;
+
 /**
  * @author <a href="tung.do@exoplatform.com">Do Thanh Tung </a>
  * @version 1.0
@@ -41,4 +43,25 @@ public interface ForumsWeeklyStatisticService {
   public void saveForumsWeeklyStatistic(ForumsWeeklyStatistic forumsWeeklyStatistic) throws Exception;
 
   public List<ForumsWeeklyStatistic> getAllForumsWeeklyStatistic()throws Exception;
+
+  /**
+   * Get the cached Forums Weekly Statistics, read if they aren't cached, are
+   * older than the refresh period or were invalidated by a save.
+   *
+   * @return snapshot of all Forums Weekly Statistics, latest first
+   */
+  public ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> getForumsWeeklyStatisticSnapshot();
+
+  /**
+   * Get the cached Forums global statistic, read again when it is older than the
+   * refresh period.
+   *
+   * @return snapshot of the Forums global statistic
+   */
+  public ForumsStatisticSnapshot<ForumStatistic> getForumStatisticSnapshot();
+
+  /**
+   * Read again the Forums Weekly Statistics and the Forums global statistic.
+   */
+  public void refreshStatisticSnapshots();
 }
@@ -16,10 +16,15 @@
  ***************************************************************************/
 package org.exoplatform.platform.gadget.services.ForumStatistics;
 
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.forum.common.jcr.KSDataLocation;
 import org.exoplatform.forum.common.jcr.PropertyReader;
 import org.exoplatform.forum.common.jcr.SessionManager;
+import org.exoplatform.forum.service.ForumService;
+import org.exoplatform.forum.service.ForumStatistic;
+import org.exoplatform.platform.gadget.services.util.InitParamsUtils;
 import org.exoplatform.services.jcr.ext.common.SessionProvider;
 import org.exoplatform.services.jcr.ext.hierarchy.NodeHierarchyCreator;
 import org.exoplatform.services.log.ExoLogger;
@@ -27,10 +32,12 @@ import org.exoplatform.services.log.Log;
 import org.picocontainer.Startable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Objects;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -41,7 +48,13 @@ import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
 
 /**
- * Forum Weekly Statistis service
+ * Forum Weekly Statistis service.
+ * The Forums Weekly Statistics and the Forums global statistic are read again
+ * when they are older than 'statistic.refresh.period' milliseconds, so that
+ * the Forums Weekly Statistics saved on another cluster node are read after
+ * this period at most. The Forums Weekly Statistics are also read again when
+ * one of them is saved on this node, and both are read again by
+ * {@link ForumsWeeklyStatisticJob}.
  * @author <a href="tung.do@exoplatform.com">Do Thanh Tung </a>
  * @version 1.0
  */
@@ -51,6 +64,10 @@ public class ForumsWeeklyStatisticServiceImp implements ForumsWeeklyStatisticSer
 
   public static final String STATISTIC_WEEK_HOME = "statisticWeekHome"; //node node of node that contain weekly statistic
 
+  private static final String STATISTIC_REFRESH_PERIOD         = "statistic.refresh.period";
+
+  private static final long   DEFAULT_STATISTIC_REFRESH_PERIOD = 60000;
+
   private KSDataLocation     dataLocator;
 
   private SessionManager     sessionManager;
@@ -59,6 +76,18 @@ public class ForumsWeeklyStatisticServiceImp implements ForumsWeeklyStatisticSer
 
   private String             workspace;
 
+  private ExoContainer       container;
+
+  private long               statisticRefreshPeriod;
+
+  private final Object       weeklyStatisticLock = new Object();
+
+  private final Object       forumStatisticLock  = new Object();
+
+  private volatile ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> weeklyStatisticSnapshot;
+
+  private volatile ForumsStatisticSnapshot<ForumStatistic>              forumStatisticSnapshot;
+
   /**
    * Constructor.
    *
@@ -74,6 +103,8 @@ public class ForumsWeeklyStatisticServiceImp implements ForumsWeeklyStatisticSer
     this.sessionManager = dataLocator.getSessionManager();
     repository = dataLocator.getRepository();
     workspace = dataLocator.getWorkspace();
+    container = ExoContainerContext.getCurrentContainer();
+    statisticRefreshPeriod = InitParamsUtils.getLongParam(params, STATISTIC_REFRESH_PERIOD, DEFAULT_STATISTIC_REFRESH_PERIOD);
   }
 
   public String getRepository() {
@@ -174,6 +205,16 @@ public class ForumsWeeklyStatisticServiceImp implements ForumsWeeklyStatisticSer
    */
   public List<ForumsWeeklyStatistic> getAllForumsWeeklyStatistic() throws Exception {
 
+    try {
+      return readAllForumsWeeklyStatistic();
+    } catch (Exception e) {
+      LOG.error("can not get getAllForumsWeeklyStatistic", e);
+    }
+    return new ArrayList<ForumsWeeklyStatistic>();
+
+  }
+
+  private List<ForumsWeeklyStatistic> readAllForumsWeeklyStatistic() throws Exception {
     SessionProvider sProvider = SessionProvider.createSystemProvider();
     List<ForumsWeeklyStatistic> listForumsWeeklyStatistic = new ArrayList<ForumsWeeklyStatistic>();
     try {
@@ -187,13 +228,129 @@ public class ForumsWeeklyStatisticServiceImp implements ForumsWeeklyStatisticSer
       while (iter.hasNext()) {
         listForumsWeeklyStatistic.add(getForumsWeeklyStatistic(iter.nextNode()));
       }
-    } catch (Exception e) {
-      LOG.error("can not get getAllForumsWeeklyStatistic", e);
     } finally {
       sProvider.close();
     }
     return listForumsWeeklyStatistic;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> getForumsWeeklyStatisticSnapshot() {
+    ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> snapshot = weeklyStatisticSnapshot;
+    if (isExpired(snapshot)) {
+      synchronized (weeklyStatisticLock) {
+        snapshot = weeklyStatisticSnapshot;
+        if (isExpired(snapshot)) {
+          snapshot = loadWeeklyStatisticSnapshot();
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public ForumsStatisticSnapshot<ForumStatistic> getForumStatisticSnapshot() {
+    ForumsStatisticSnapshot<ForumStatistic> snapshot = forumStatisticSnapshot;
+    if (isExpired(snapshot)) {
+      synchronized (forumStatisticLock) {
+        snapshot = forumStatisticSnapshot;
+        if (isExpired(snapshot)) {
+          snapshot = loadForumStatisticSnapshot();
+        }
+      }
+    }
+    return snapshot;
+  }
 
+  private boolean isExpired(ForumsStatisticSnapshot<?> snapshot) {
+    return snapshot == null || System.currentTimeMillis() - snapshot.getLoadTime() > statisticRefreshPeriod;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void refreshStatisticSnapshots() {
+    synchronized (weeklyStatisticLock) {
+      loadWeeklyStatisticSnapshot();
+    }
+    synchronized (forumStatisticLock) {
+      loadForumStatisticSnapshot();
+    }
+  }
+
+  /**
+   * Read the Forums Weekly Statistics and cache them, unless they can't be read.
+   * Must be called holding the weekly statistic lock, so that a save can't
+   * invalidate the cache while they are read.
+   */
+  private ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> loadWeeklyStatisticSnapshot() {
+    long now = System.currentTimeMillis();
+    try {
+      List<ForumsWeeklyStatistic> statistics = readAllForumsWeeklyStatistic();
+      long lastModified = 0;
+      long hash = 1;
+      for (ForumsWeeklyStatistic statistic : statistics) {
+        if (statistic.getLastStatEntry() != null) {
+          lastModified = Math.max(lastModified, statistic.getLastStatEntry().getTime());
+        }
+        hash = 31 * hash + Objects.hash(statistic.getId(),
+                                        statistic.getStartDate(),
+                                        statistic.getStartPostsCountOfWeek(),
+                                        statistic.getPostsCountOfWeek(),
+                                        statistic.getLastStatEntry());
+      }
+      ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> snapshot =
+          new ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>>(Collections.unmodifiableList(statistics),
+                                                                   lastModified > 0 ? lastModified : now,
+                                                                   Long.toHexString(hash),
+                                                                   now);
+      weeklyStatisticSnapshot = snapshot;
+      return snapshot;
+    } catch (Exception e) {
+      LOG.error("can not get getAllForumsWeeklyStatistic", e);
+      return new ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>>(Collections.<ForumsWeeklyStatistic> emptyList(),
+                                                                       now,
+                                                                       "0",
+                                                                       now);
+    }
+  }
+
+  /**
+   * Read the Forums global statistic and cache it. Its last modification time
+   * is kept when it didn't change, and the previous statistic is kept until the
+   * next refresh period when it can't be read.
+   */
+  private ForumsStatisticSnapshot<ForumStatistic> loadForumStatisticSnapshot() {
+    long now = System.currentTimeMillis();
+    ForumsStatisticSnapshot<ForumStatistic> previous = forumStatisticSnapshot;
+    ForumsStatisticSnapshot<ForumStatistic> snapshot;
+    try {
+      ForumService forumService = container.getComponentInstanceOfType(ForumService.class);
+      ForumStatistic forumStatistic = forumService.getForumStatistic();
+      String version = Long.toHexString(Objects.hash(forumStatistic.getPostCount(),
+                                                     forumStatistic.getTopicCount(),
+                                                     forumStatistic.getMembersCount(),
+                                                     forumStatistic.getNewMembers(),
+                                                     forumStatistic.getActiveUsers(),
+                                                     forumStatistic.getMostUsersOnline()));
+      long lastModified = previous != null && previous.getVersion().equals(version) ? previous.getLastModified() : now;
+      snapshot = new ForumsStatisticSnapshot<ForumStatistic>(forumStatistic, lastModified, version, now);
+    } catch (Exception e) {
+      LOG.debug("forumStatistic not found" + e.getMessage());
+      if (previous == null) {
+        return new ForumsStatisticSnapshot<ForumStatistic>(new ForumStatistic(), now, "0", now);
+      }
+      snapshot = new ForumsStatisticSnapshot<ForumStatistic>(previous.getData(),
+                                                             previous.getLastModified(),
+                                                             previous.getVersion(),
+                                                             now);
+    }
+    forumStatisticSnapshot = snapshot;
+    return snapshot;
   }
 
   /**
@@ -237,6 +394,9 @@ public class ForumsWeeklyStatisticServiceImp implements ForumsWeeklyStatisticSer
       LOG.error("save ForumsWeeklyStatistic failure", e);
     } finally {
       sProvider.close();
+      synchronized (weeklyStatisticLock) {
+        weeklyStatisticSnapshot = null;
+      }
     }
   }
 
@@ -0,0 +1,44 @@
+/***************************************************************************
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ ***************************************************************************/
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.io.Serializable;
+
+/**
+ * Last and before last login dates of a user, as stored in the last login
+ * cache. Both dates are 0 when the user never logged in.
+ */
+public class LastLoginData implements Serializable {
+  private static final long serialVersionUID = 4785263102378457245L;
+
+  private final long        lastLogin;
+
+  private final long        beforeLastLogin;
+
+  public LastLoginData(long lastLogin, long beforeLastLogin) {
+    this.lastLogin = lastLogin;
+    this.beforeLastLogin = beforeLastLogin;
+  }
+
+  public long getLastLogin() {
+    return lastLogin;
+  }
+
+  public long getBeforeLastLogin() {
+    return beforeLastLogin;
+  }
+}
@@ -0,0 +1,48 @@
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import org.exoplatform.commons.persistence.impl.EntityManagerService;
+import org.exoplatform.commons.upgrade.UpgradeProductPlugin;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.platform.gadget.services.LoginHistory.storage.JPALoginHistoryStorageImpl;
+import org.exoplatform.platform.gadget.services.LoginHistory.storage.LoginHistoryStorage;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Computes the daily login counters from the login history entries already
+ * stored in RDBMS, the counters being then maintained when each login is
+ * added.
+ */
+public class LoginCountersUpgradePlugin extends UpgradeProductPlugin {
+  private static final Log     LOG = ExoLogger.getLogger(LoginCountersUpgradePlugin.class);
+
+  private LoginHistoryStorage  loginHistoryStorage;
+
+  private EntityManagerService entityManagerService;
+
+  public LoginCountersUpgradePlugin(InitParams initParams,
+                                    LoginHistoryStorage loginHistoryStorage,
+                                    EntityManagerService entityManagerService) {
+    super(initParams);
+    this.loginHistoryStorage = loginHistoryStorage;
+    this.entityManagerService = entityManagerService;
+  }
+
+  @Override
+  public void processUpgrade(String newVersion, String previousVersion) {
+    if (!(loginHistoryStorage instanceof JPALoginHistoryStorageImpl)) {
+      LOG.info("== Login History storage isn't RDBMS, login counters rebuild skipped");
+      return;
+    }
+    LOG.info("== Start rebuild of Login Counters");
+    long startTime = System.currentTimeMillis();
+    entityManagerService.startRequest(ExoContainerContext.getCurrentContainer());
+    try {
+      int days = ((JPALoginHistoryStorageImpl) loginHistoryStorage).rebuildLoginCounters();
+      LOG.info("== Login Counters of {} days rebuilt in {} ms", days, System.currentTimeMillis() - startTime);
+    } finally {
+      entityManagerService.endRequest(ExoContainerContext.getCurrentContainer());
+    }
+  }
+}
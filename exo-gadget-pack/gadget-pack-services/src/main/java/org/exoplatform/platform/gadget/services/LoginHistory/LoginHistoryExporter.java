@@ -0,0 +1,232 @@
+/***************************************************************************
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ ***************************************************************************/
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao.LoginHistoryDAO;
+import org.exoplatform.platform.gadget.services.util.InitParamsUtils;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.organization.OrganizationService;
+import org.exoplatform.services.organization.User;
+
+/**
+ * Export of the login history entries of a date range, written while they are
+ * read. Entries are read by pages of 'export.page.size' entries, sorted by
+ * login date then id, each page starting after the last entry of the previous
+ * one. The full names of the users are resolved once per page for the users
+ * not already known, and kept in a cache of 'fullname.cache.size' users during
+ * the export.
+ */
+public class LoginHistoryExporter {
+  private static final Log      LOG                         = ExoLogger.getLogger(LoginHistoryExporter.class);
+
+  private static final String   EXPORT_PAGE_SIZE            = "export.page.size";
+
+  private static final String   FULLNAME_CACHE_SIZE         = "fullname.cache.size";
+
+  private static final int      DEFAULT_EXPORT_PAGE_SIZE    = 1000;
+
+  private static final int      DEFAULT_FULLNAME_CACHE_SIZE = 1000;
+
+  /**
+   * Export formats.
+   */
+  public enum Format {
+    /** Comma separated values, with a header line */
+    CSV("text/csv", "csv"),
+    /** One JSON object per line */
+    NDJSON("application/x-ndjson", "ndjson");
+
+    private final String mediaType;
+
+    private final String extension;
+
+    Format(String mediaType, String extension) {
+      this.mediaType = mediaType;
+      this.extension = extension;
+    }
+
+    public String getMediaType() {
+      return mediaType;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+  }
+
+  private final LoginHistoryDAO loginHistoryDAO;
+
+  private final ExoContainer    container;
+
+  private final int             pageSize;
+
+  private final int             fullNameCacheSize;
+
+  public LoginHistoryExporter(LoginHistoryDAO loginHistoryDAO, InitParams params) {
+    this.loginHistoryDAO = loginHistoryDAO;
+    this.container = ExoContainerContext.getCurrentContainer();
+    this.pageSize = Math.max(1, InitParamsUtils.getIntParam(params, EXPORT_PAGE_SIZE, DEFAULT_EXPORT_PAGE_SIZE));
+    this.fullNameCacheSize = Math.max(1, InitParamsUtils.getIntParam(params, FULLNAME_CACHE_SIZE, DEFAULT_FULLNAME_CACHE_SIZE));
+  }
+
+  /**
+   * Write the login history entries of a user, or of all users, between two
+   * dates.
+   *
+   * @param userId user id, or {@link LoginHistoryService#ALL_USERS}
+   * @param fromTime start of the range, included
+   * @param toTime end of the range, included
+   * @param format export format
+   * @param outputStream stream to write to, not closed
+   * @return number of exported entries
+   * @throws IOException if the entries can't be written
+   */
+  public long export(String userId, long fromTime, long toTime, Format format, OutputStream outputStream) throws IOException {
+    String userIdFilter = userId == null || LoginHistoryService.ALL_USERS.equals(userId) ? null : userId;
+    Map<String, String> fullNames = new LinkedHashMap<String, String>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > fullNameCacheSize;
+      }
+    };
+    Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    if (format == Format.CSV) {
+      writer.write("userId,userName,loginTime\n");
+    }
+    long afterTime = fromTime;
+    long afterId = -1;
+    long exported = 0;
+    List<Object[]> rows;
+    do {
+      RequestLifeCycle.begin(container);
+      try {
+        rows = loginHistoryDAO.getLoginHistoryPage(userIdFilter, afterTime, afterId, toTime, pageSize);
+        resolveFullNames(rows, fullNames);
+      } finally {
+        RequestLifeCycle.end();
+      }
+      for (Object[] row : rows) {
+        String rowUserId = (String) row[1];
+        long loginTime = ((Date) row[2]).getTime();
+        writeEntry(writer, format, rowUserId, fullNames.getOrDefault(rowUserId, rowUserId), loginTime);
+        afterId = ((Number) row[0]).longValue();
+        afterTime = loginTime;
+      }
+      writer.flush();
+      exported += rows.size();
+    } while (rows.size() == pageSize);
+    return exported;
+  }
+
+  /**
+   * Resolve the full names of the users of a page which aren't cached yet, each
+   * user once.
+   */
+  private void resolveFullNames(List<Object[]> rows, Map<String, String> fullNames) {
+    Set<String> userIds = new HashSet<>();
+    for (Object[] row : rows) {
+      String userId = (String) row[1];
+      if (fullNames.get(userId) == null) {
+        userIds.add(userId);
+      }
+    }
+    if (userIds.isEmpty()) {
+      return;
+    }
+    OrganizationService organizationService = container.getComponentInstanceOfType(OrganizationService.class);
+    for (String userId : userIds) {
+      String fullName = userId;
+      try {
+        User user = organizationService == null ? null : organizationService.getUserHandler().findUserByName(userId);
+        if (user != null && user.getFullName() != null) {
+          fullName = user.getFullName();
+        }
+      } catch (Exception e) {
+        LOG.debug("Unable to get full name of user {}", userId, e);
+      }
+      fullNames.put(userId, fullName);
+    }
+  }
+
+  private void writeEntry(Writer writer, Format format, String userId, String userName, long loginTime) throws IOException {
+    if (format == Format.CSV) {
+      writer.write(toCsv(userId));
+      writer.write(',');
+      writer.write(toCsv(userName));
+      writer.write(',');
+      writer.write(String.valueOf(loginTime));
+    } else {
+      writer.write("{\"userId\":");
+      writer.write(toJson(userId));
+      writer.write(",\"userName\":");
+      writer.write(toJson(userName));
+      writer.write(",\"loginTime\":");
+      writer.write(String.valueOf(loginTime));
+      writer.write('}');
+    }
+    writer.write('\n');
+  }
+
+  private static String toCsv(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  private static String toJson(String value) {
+    StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        json.append("\\\"");
+        break;
+      case '\\':
+        json.append("\\\\");
+        break;
+      case '\n':
+        json.append("\\n");
+        break;
+      case '\r':
+        json.append("\\r");
+        break;
+      case '\t':
+        json.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          json.append(String.format("\\u%04x", (int) c));
+        } else {
+          json.append(c);
+        }
+      }
+    }
+    return json.append('"').toString();
+  }
+}
@@ -32,14 +32,23 @@ import org.exoplatform.services.security.ConversationState;
 public class LoginHistoryListener extends Listener<ConversationRegistry, ConversationState> {
   private static final Log          LOG = ExoLogger.getLogger(LoginHistoryListener.class);
 
-  private final LoginHistoryService loginHistoryService;
+  private final LoginHistoryService     loginHistoryService;
+
+  private final LoginHistoryWriteBehind loginHistoryWriteBehind;
 
   public LoginHistoryListener(LoginHistoryService loginHistoryService) throws Exception {
+    this(loginHistoryService, null);
+  }
+
+  public LoginHistoryListener(LoginHistoryService loginHistoryService, LoginHistoryWriteBehind loginHistoryWriteBehind) throws Exception {
     this.loginHistoryService = loginHistoryService;
+    this.loginHistoryWriteBehind = loginHistoryWriteBehind;
   }
 
   /**
-   * Log the time when user logging in
+   * Log the time when user logging in. When the write-behind buffer is
+   * available, the login is queued to be written by batch, else it is written
+   * immediately.
    *
    * @throws Exception
    */
@@ -48,7 +57,11 @@ public class LoginHistoryListener extends Listener<ConversationRegistry, Convers
     String userId = event.getData().getIdentity().getUserId();
     try {
       long now = System.currentTimeMillis();
-      if (now - loginHistoryService.getLastLogin(userId) > 180000) {
+      if (loginHistoryWriteBehind != null) {
+        if (loginHistoryWriteBehind.addLogin(userId, now)) {
+          LOG.info("User " + userId + " logged in.");
+        }
+      } else if (now - loginHistoryService.getLastLogin(userId) > LoginHistoryWriteBehind.DEFAULT_DEDUPE_PERIOD) {
         loginHistoryService.addLoginHistoryEntry(userId, now);
         LOG.info("User " + userId + " logged in.");
       }
@@ -0,0 +1,40 @@
+/***************************************************************************
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ ***************************************************************************/
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.services.scheduler.BaseJob;
+import org.exoplatform.services.scheduler.JobContext;
+
+/**
+ * Scheduled job that purges the login history entries older than the
+ * retention period, on a single cluster node, see
+ * {@link LoginHistoryRetention#dailyPurge()}.
+ */
+public class LoginHistoryPurgeJob extends BaseJob {
+
+  public LoginHistoryPurgeJob() {
+  }
+
+  @Override
+  public void execute(JobContext context) throws Exception {
+    LoginHistoryRetention loginHistoryRetention = CommonsUtils.getService(LoginHistoryRetention.class);
+    if (loginHistoryRetention != null) {
+      loginHistoryRetention.dailyPurge();
+    }
+  }
+}
@@ -22,13 +22,16 @@ import org.exoplatform.services.log.Log;
 import org.exoplatform.services.rest.impl.RuntimeDelegateImpl;
 import org.exoplatform.services.rest.resource.ResourceContainer;
 
+import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.ext.RuntimeDelegate;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -52,10 +55,13 @@ public class LoginHistoryRestService implements ResourceContainer {
     cacheControl.setNoStore(true);
   }
 
-  protected final LoginHistoryService loginHistoryService;
+  protected final LoginHistoryService  loginHistoryService;
 
-  public LoginHistoryRestService(LoginHistoryService loginHistoryService) {
+  protected final LoginHistoryExporter loginHistoryExporter;
+
+  public LoginHistoryRestService(LoginHistoryService loginHistoryService, LoginHistoryExporter loginHistoryExporter) {
     this.loginHistoryService = loginHistoryService;
+    this.loginHistoryExporter = loginHistoryExporter;
   }
 
   /**
@@ -87,6 +93,44 @@ public class LoginHistoryRestService implements ResourceContainer {
     }
   }
 
+  /**
+   * Export user login history <br>
+   * REST service URL: /loginhistory/export/{userId}/{fromTime}/{toTime}?format={format}
+   *
+   * @return: Login history entries from {fromTime} to {toTime} of user {userId},
+   *          or of all users if {userId} is AllUsers, written while they are read
+   *          in CSV or NDJSON (default) {format}. Only available to
+   *          administrators.
+   */
+  @GET
+  @Path("/export/{userId}/{fromTime}/{toTime}")
+  @RolesAllowed("administrators")
+  public Response export(@PathParam("userId") final String userId,
+                         @PathParam("fromTime") final Long fromTime,
+                         @PathParam("toTime") final Long toTime,
+                         @QueryParam("format") String format) throws Exception {
+    final LoginHistoryExporter.Format exportFormat;
+    try {
+      exportFormat = format == null ? LoginHistoryExporter.Format.NDJSON
+                                    : LoginHistoryExporter.Format.valueOf(format.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      return Response.status(HTTPStatus.BAD_REQUEST).cacheControl(cacheControl).build();
+    }
+    StreamingOutput output = outputStream -> {
+      try {
+        loginHistoryExporter.export(userId, fromTime, toTime, exportFormat, outputStream);
+      } catch (Exception e) {
+        LOG.warn("Error while exporting login history of " + userId + ": " + e.getMessage(), e);
+        throw e;
+      }
+    };
+    return Response.ok(output, exportFormat.getMediaType())
+                   .header("Content-Disposition",
+                           "attachment; filename=\"login-history." + exportFormat.getExtension() + "\"")
+                   .cacheControl(cacheControl)
+                   .build();
+  }
+
   /**
    * Get login count statistic in a week <br>
    * REST service URL: /loginhistory/weekstats/{userId}/{week}
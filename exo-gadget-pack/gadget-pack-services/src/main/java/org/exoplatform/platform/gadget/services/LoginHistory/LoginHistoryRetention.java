@@ -0,0 +1,245 @@
+/***************************************************************************
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ ***************************************************************************/
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.*;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao.LoginHistoryDAO;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity.LoginHistoryEntity;
+import org.exoplatform.platform.gadget.services.util.InitParamsUtils;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Retention of the login history entries. The entries older than
+ * 'retention.days' days are deleted by batches of 'purge.batch.size' entries,
+ * each batch in its own transaction. When 'archive.enabled' is true, each batch
+ * is written to a gzipped CSV file of 'archive.directory' before being deleted.
+ * The daily login counters are kept, so the login statistics of the purged
+ * days remain available. The scheduled purge runs once a day on a single
+ * cluster node, see {@link #dailyPurge()}.
+ */
+@Managed
+@ManagedDescription("Login history retention")
+@NameTemplate({ @Property(key = "name", value = "LoginHistoryRetention"), @Property(key = "service", value = "extensions"),
+    @Property(key = "type", value = "platform") })
+public class LoginHistoryRetention {
+  private static final Log      LOG                      = ExoLogger.getLogger(LoginHistoryRetention.class);
+
+  private static final String   RETENTION_DAYS           = "retention.days";
+
+  private static final String   PURGE_BATCH_SIZE         = "purge.batch.size";
+
+  private static final String   PURGE_PAUSE              = "purge.pause";
+
+  private static final String   ARCHIVE_ENABLED          = "archive.enabled";
+
+  private static final String   ARCHIVE_DIRECTORY        = "archive.directory";
+
+  private static final int      DEFAULT_PURGE_BATCH_SIZE = 500;
+
+  private static final long     DEFAULT_PURGE_PAUSE      = 100;
+
+  private static final ZoneId   ZONE_ID                  = ZoneId.systemDefault();
+
+  private final LoginHistoryDAO loginHistoryDAO;
+
+  private final ExoContainer    container;
+
+  private final long            retentionDays;
+
+  private final int             purgeBatchSize;
+
+  private final long            purgePause;
+
+  private final boolean         archiveEnabled;
+
+  private final File            archiveDirectory;
+
+  private volatile long         lastPurgeCount;
+
+  public LoginHistoryRetention(LoginHistoryDAO loginHistoryDAO, InitParams params) {
+    this.loginHistoryDAO = loginHistoryDAO;
+    this.container = ExoContainerContext.getCurrentContainer();
+    this.retentionDays = InitParamsUtils.getLongParam(params, RETENTION_DAYS, 0);
+    this.purgeBatchSize = (int) Math.max(1, InitParamsUtils.getLongParam(params, PURGE_BATCH_SIZE, DEFAULT_PURGE_BATCH_SIZE));
+    this.purgePause = InitParamsUtils.getLongParam(params, PURGE_PAUSE, DEFAULT_PURGE_PAUSE);
+    this.archiveEnabled = Boolean.parseBoolean(InitParamsUtils.getParam(params, ARCHIVE_ENABLED));
+    String directory = InitParamsUtils.getParam(params, ARCHIVE_DIRECTORY);
+    if (directory == null || directory.trim().isEmpty()) {
+      directory = System.getProperty("gatein.data.dir", System.getProperty("java.io.tmpdir")) + File.separator
+          + "loginhistory-archives";
+    }
+    this.archiveDirectory = new File(directory);
+  }
+
+  /**
+   * Delete, and archive if enabled, the login history entries older than the
+   * retention period. Entries are purged by whole days, so that the oldest
+   * remaining day is complete. Nothing is done if the retention period is 0.
+   *
+   * @return number of deleted entries
+   */
+  @Managed
+  @ManagedDescription("Purge the login history entries older than the retention period")
+  @Impact(ImpactType.WRITE)
+  public int purge() {
+    if (retentionDays <= 0) {
+      return 0;
+    }
+    long before = LocalDate.now(ZONE_ID).minusDays(retentionDays).atStartOfDay(ZONE_ID).toInstant().toEpochMilli();
+    int deleted = 0;
+    Writer archive = null;
+    try {
+      int batchCount;
+      do {
+        RequestLifeCycle.begin(container);
+        try {
+          List<LoginHistoryEntity> entries = loginHistoryDAO.getLoginHistoryBefore(before, purgeBatchSize);
+          batchCount = entries.size();
+          if (batchCount > 0) {
+            if (archiveEnabled) {
+              if (archive == null) {
+                archive = openArchive(before);
+              }
+              writeArchive(archive, entries);
+            }
+            List<Long> ids = new ArrayList<>(batchCount);
+            for (LoginHistoryEntity entry : entries) {
+              ids.add(entry.getID());
+            }
+            deleted += loginHistoryDAO.deleteLoginHistory(ids);
+          }
+        } finally {
+          RequestLifeCycle.end();
+        }
+        if (batchCount == purgeBatchSize && purgePause > 0) {
+          Thread.sleep(purgePause);
+        }
+      } while (batchCount == purgeBatchSize && !Thread.currentThread().isInterrupted());
+    } catch (IOException e) {
+      LOG.error("Error while archiving login history entries, purge aborted", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if (archive != null) {
+        try {
+          archive.close();
+        } catch (IOException e) {
+          LOG.warn("Error while closing login history archive", e);
+        }
+      }
+    }
+    lastPurgeCount = deleted;
+    if (deleted > 0) {
+      LOG.info("{} login history entries older than {} days purged", deleted, retentionDays);
+    }
+    return deleted;
+  }
+
+  /**
+   * Purge the login history entries older than the retention period, unless a
+   * purge was already started today, on this node or on another cluster node.
+   * The start of the purge is stored in database, so the nodes running the
+   * scheduled purge at the same time don't purge the same entries.
+   *
+   * @return true if the purge was run by this call
+   */
+  public boolean dailyPurge() {
+    if (retentionDays <= 0) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    long today = LocalDate.now(ZONE_ID).atStartOfDay(ZONE_ID).toInstant().toEpochMilli();
+    boolean started;
+    RequestLifeCycle.begin(container);
+    try {
+      started = loginHistoryDAO.startPurge(now, today);
+    } catch (Exception e) {
+      LOG.error("Error while starting the login history purge, purge skipped", e);
+      return false;
+    } finally {
+      RequestLifeCycle.end();
+    }
+    if (!started) {
+      LOG.debug("Login history already purged today, purge skipped");
+      return false;
+    }
+    purge();
+    return true;
+  }
+
+  @Managed
+  @ManagedDescription("Number of days during which login history entries are kept, 0 to keep them forever")
+  @Impact(ImpactType.READ)
+  public long getRetentionDays() {
+    return retentionDays;
+  }
+
+  @Managed
+  @ManagedDescription("Directory of the archives of purged login history entries, if archiving is enabled")
+  @Impact(ImpactType.READ)
+  public String getArchiveDirectory() {
+    return archiveEnabled ? archiveDirectory.getAbsolutePath() : null;
+  }
+
+  @Managed
+  @ManagedDescription("Number of login history entries deleted by the last purge")
+  @Impact(ImpactType.READ)
+  public long getLastPurgeCount() {
+    return lastPurgeCount;
+  }
+
+  private Writer openArchive(long before) throws IOException {
+    if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs()) {
+      throw new IOException("Unable to create login history archive directory " + archiveDirectory);
+    }
+    File archiveFile = new File(archiveDirectory,
+                                "login-history-before-" + Instant.ofEpochMilli(before).atZone(ZONE_ID).toLocalDate() + "-"
+                                    + System.currentTimeMillis() + ".csv.gz");
+    LOG.info("Archiving purged login history entries to {}", archiveFile);
+    Writer archive = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(archiveFile), true),
+                                                               StandardCharsets.UTF_8));
+    archive.write("ID,USER_ID,LOGIN_DATE\n");
+    return archive;
+  }
+
+  /**
+   * Write entries to the archive then flush it, so that they are stored before
+   * being deleted.
+   */
+  private void writeArchive(Writer archive, List<LoginHistoryEntity> entries) throws IOException {
+    for (LoginHistoryEntity entry : entries) {
+      archive.write(entry.getID() + "," + entry.getUserID() + "," + entry.getLoginDate().toInstant() + "\n");
+    }
+    archive.flush();
+  }
+}
@@ -16,6 +16,7 @@
  ***************************************************************************/
 package org.exoplatform.platform.gadget.services.LoginHistory;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -31,8 +32,12 @@ public interface LoginHistoryService {
 
   List<LastLoginBean> getLastLogins(int numLogins, String userIdFilter) throws Exception;
 
+  List<LastLoginBean> getLastLogins(Collection<String> userIds) throws Exception;
+
   void addLoginHistoryEntry(String userId, long loginTime) throws Exception;
 
+  void addLoginHistoryEntries(List<LoginHistoryBean> loginHistoryEntries) throws Exception;
+
   List<LoginHistoryBean> getLoginHistory(String userId, long fromTime, long toTime) throws Exception;
 
   Set<String> getLastUsersLogin(long fromTime) throws Exception;
@@ -16,28 +16,79 @@
  ***************************************************************************/
 package org.exoplatform.platform.gadget.services.LoginHistory;
 
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 import org.exoplatform.platform.gadget.services.LoginHistory.storage.LoginHistoryStorage;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
 
 /**
  * Created by The eXo Platform SARL Author : Tung Vu Minh tungvm@exoplatform.com
  * Apr 21, 2011 6:19:21 PM
+ * <p>
+ * The last and before last logins of users are cached, the cache being
+ * updated when a login history entry is added.
  */
 
 public class LoginHistoryServiceImpl implements LoginHistoryService {
-  private LoginHistoryStorage loginHistoryStorage;
+  public static final String              LAST_LOGIN_CACHE_NAME = "platform.LoginHistoryLastLogin";
 
-  public LoginHistoryServiceImpl(LoginHistoryStorage loginHistoryStorage) {
+  private LoginHistoryStorage             loginHistoryStorage;
+
+  private ExoCache<String, LastLoginData> lastLoginCache;
+
+  public LoginHistoryServiceImpl(LoginHistoryStorage loginHistoryStorage, CacheService cacheService) {
     this.loginHistoryStorage = loginHistoryStorage;
+    this.lastLoginCache = cacheService.getCacheInstance(LAST_LOGIN_CACHE_NAME);
   }
 
   /**
    * Get user's last login time
    */
   public long getLastLogin(String userId) throws Exception {
-    return loginHistoryStorage.getLastLogin(userId);
+    return getLastLoginData(userId).getLastLogin();
+  }
+
+  /**
+   * Get last and before last logins of several users at once, users who never
+   * logged in being ignored. The user names are not set.
+   *
+   * @param userIds
+   * @return List of last login entries, in the order of the given users
+   * @throws Exception
+   */
+  public List<LastLoginBean> getLastLogins(Collection<String> userIds) throws Exception {
+    Map<String, LastLoginData> lastLogins = new HashMap<>();
+    Set<String> notCachedUserIds = new HashSet<>();
+    for (String userId : userIds) {
+      LastLoginData lastLoginData = lastLoginCache.get(userId);
+      if (lastLoginData == null) {
+        notCachedUserIds.add(userId);
+      } else {
+        lastLogins.put(userId, lastLoginData);
+      }
+    }
+    if (!notCachedUserIds.isEmpty()) {
+      for (LastLoginBean lastLoginBean : loginHistoryStorage.getLastLogins(notCachedUserIds)) {
+        lastLogins.put(lastLoginBean.getUserId(),
+                       new LastLoginData(lastLoginBean.getLastLogin(), lastLoginBean.getBeforeLastLogin()));
+      }
+      for (String userId : notCachedUserIds) {
+        lastLoginCache.put(userId, lastLogins.computeIfAbsent(userId, id -> new LastLoginData(0, 0)));
+      }
+    }
+    List<LastLoginBean> lastLoginBeans = new ArrayList<>();
+    for (String userId : new LinkedHashSet<>(userIds)) {
+      LastLoginData lastLoginData = lastLogins.get(userId);
+      if (lastLoginData.getLastLogin() > 0) {
+        LastLoginBean lastLoginBean = new LastLoginBean();
+        lastLoginBean.setUserId(userId);
+        lastLoginBean.setLastLogin(lastLoginData.getLastLogin());
+        lastLoginBean.setBeforeLastLogin(lastLoginData.getBeforeLastLogin());
+        lastLoginBeans.add(lastLoginBean);
+      }
+    }
+    return lastLoginBeans;
   }
 
   /**
@@ -60,6 +111,22 @@ public class LoginHistoryServiceImpl implements LoginHistoryService {
    */
   public void addLoginHistoryEntry(String userId, long loginTime) throws Exception {
     loginHistoryStorage.addLoginHistoryEntry(userId, loginTime);
+    updateLastLoginCache(userId, loginTime);
+  }
+
+  /**
+   * Add several entries to users login history at once
+   *
+   * @param loginHistoryEntries entries with user id and login time
+   * @throws Exception
+   */
+  public void addLoginHistoryEntries(List<LoginHistoryBean> loginHistoryEntries) throws Exception {
+    loginHistoryStorage.addLoginHistoryEntries(loginHistoryEntries);
+    List<LoginHistoryBean> sortedEntries = new ArrayList<>(loginHistoryEntries);
+    sortedEntries.sort(Comparator.comparingLong(LoginHistoryBean::getLoginTime));
+    for (LoginHistoryBean loginHistoryEntry : sortedEntries) {
+      updateLastLoginCache(loginHistoryEntry.getUserId(), loginHistoryEntry.getLoginTime());
+    }
   }
 
   /**
@@ -113,6 +180,29 @@ public class LoginHistoryServiceImpl implements LoginHistoryService {
   }
 
   public long getBeforeLastLogin(String userId) throws Exception {
-    return loginHistoryStorage.getBeforeLastLogin(userId);
+    return getLastLoginData(userId).getBeforeLastLogin();
+  }
+
+  private LastLoginData getLastLoginData(String userId) throws Exception {
+    LastLoginData lastLoginData = lastLoginCache.get(userId);
+    if (lastLoginData == null) {
+      lastLoginData = new LastLoginData(loginHistoryStorage.getLastLogin(userId), loginHistoryStorage.getBeforeLastLogin(userId));
+      lastLoginCache.put(userId, lastLoginData);
+    }
+    return lastLoginData;
+  }
+
+  /**
+   * Shift the cached last login of a user to the before last one. If the user
+   * isn't cached, or if the login is older than the cached last login, the
+   * entry is removed so that it is invalidated on the other cluster nodes too.
+   */
+  private void updateLastLoginCache(String userId, long loginTime) {
+    LastLoginData lastLoginData = lastLoginCache.get(userId);
+    if (lastLoginData != null && loginTime > lastLoginData.getLastLogin()) {
+      lastLoginCache.put(userId, new LastLoginData(loginTime, lastLoginData.getLastLogin()));
+    } else {
+      lastLoginCache.remove(userId);
+    }
   }
 }
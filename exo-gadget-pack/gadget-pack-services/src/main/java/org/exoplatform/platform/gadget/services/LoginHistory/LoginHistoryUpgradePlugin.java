@@ -2,10 +2,12 @@ package org.exoplatform.platform.gadget.services.LoginHistory;
 
 import org.exoplatform.commons.persistence.impl.EntityManagerService;
 import org.exoplatform.commons.upgrade.UpgradeProductPlugin;
+import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.platform.gadget.services.LoginHistory.storage.JCRLoginHistoryStorageImpl;
 import org.exoplatform.platform.gadget.services.LoginHistory.storage.LoginHistoryStorage;
+import org.exoplatform.platform.gadget.services.util.InitParamsUtils;
 import org.exoplatform.services.jcr.RepositoryService;
 import org.exoplatform.services.jcr.core.ManageableRepository;
 import org.exoplatform.services.jcr.ext.common.SessionProvider;
@@ -15,12 +17,36 @@ import org.exoplatform.services.log.Log;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.Session;
-import java.time.Instant;
-
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Migrates the login history from JCR to RDBMS. Each user is migrated on its
+ * own, by one of 'migration.threads' parallel workers: the login history
+ * entries of the user are read by pages of 'migration.page.size' nodes, each
+ * page being inserted in a single transaction then removed from JCR in a single
+ * save. The user profile subtree, with its login counters, is then removed at
+ * once. As migrated data are removed from JCR, an interrupted or failed
+ * migration resumes where it stopped on the next start: the first page of each
+ * user is checked against the already inserted entries, so that the page
+ * inserted just before the interruption isn't inserted twice.
+ */
 public class LoginHistoryUpgradePlugin extends UpgradeProductPlugin {
   private static final Log           LOG                          = ExoLogger.getLogger(LoginHistoryUpgradePlugin.class);
 
-  private static final int           LOGIN_HISTORY_NODE_PAGE_SIZE = 50;
+  private static final String        MIGRATION_THREADS            = "migration.threads";
+
+  private static final String        MIGRATION_PAGE_SIZE          = "migration.page.size";
+
+  private static final int           DEFAULT_MIGRATION_THREADS    = 4;
+
+  private static final int           DEFAULT_MIGRATION_PAGE_SIZE  = 1000;
+
+  private static final String        LOGIN_HISTORY                = "loginHistory";
+
+  private static final String        GLOBAL_LOGIN_COUNTER_TYPE    = "exo:LoginHisSvc_globalLoginCounter";
 
   private JCRLoginHistoryStorageImpl jcrLoginHistoryStorage;
 
@@ -30,6 +56,10 @@ public class LoginHistoryUpgradePlugin extends UpgradeProductPlugin {
 
   private EntityManagerService       entityManagerService;
 
+  private int                        migrationThreads;
+
+  private int                        migrationPageSize;
+
   public LoginHistoryUpgradePlugin(InitParams initParams,
                                    JCRLoginHistoryStorageImpl jcrLoginHistoryStorage,
                                    LoginHistoryStorage jpaLoginHistoryStorage,
@@ -40,73 +70,34 @@ public class LoginHistoryUpgradePlugin extends UpgradeProductPlugin {
     this.jpaLoginHistoryStorage = jpaLoginHistoryStorage;
     this.repositoryService = repositoryService;
     this.entityManagerService = entityManagerService;
+    this.migrationThreads = Math.max(1, InitParamsUtils.getIntParam(initParams, MIGRATION_THREADS, DEFAULT_MIGRATION_THREADS));
+    this.migrationPageSize = Math.max(1, InitParamsUtils.getIntParam(initParams, MIGRATION_PAGE_SIZE, DEFAULT_MIGRATION_PAGE_SIZE));
   }
 
   @Override
   public void processUpgrade(String newVersion, String previousVersion) {
     // First check to see if the JCR still contains Login History data. If not,
     // migration is skipped
-
-    int migrationErrors, allUsersCountersDeletionErrors, countersDeletionErrors, usersProfilesDeletionErrors,
-        deleteAllLoginHistoryNodesErrors;
-
     if (!hasDataToMigrate()) {
       LOG.info("== No Login History data to migrate from JCR to RDBMS");
-    } else {
-      LOG.info("== Start migration of Login History data from JCR to RDBMS");
-
-      migrationErrors = migrateAndDeleteLoginHistory();
-
-      if (migrationErrors == 0) {
-        allUsersCountersDeletionErrors = deleteAllUsersLoginHistoryCounters();
-        if (allUsersCountersDeletionErrors == 0) {
-          LOG.info("==    Login History migration - Login History All Users Counters JCR Data deleted successfully");
-        } else {
-          LOG.warn("==    Login History migration - {} Errors during Login History All Users Counters JCR Data deletion",
-                   allUsersCountersDeletionErrors);
-        }
-
-        countersDeletionErrors = deleteLoginHistoryCounters();
-        if (countersDeletionErrors == 0) {
-          LOG.info("==    Login History migration - Login History Counters JCR Data deleted successfully");
-        } else {
-          LOG.warn("==    Login History migration - {} Errors during Login History Counters JCR Data deletion",
-                   countersDeletionErrors);
-        }
-
-        deleteAllLoginHistoryNodesErrors = deleteAllLoginHistoryNodes();
-        if (deleteAllLoginHistoryNodesErrors == 0) {
-          LOG.info("==    Login History migration - All Login History Entries JCR Data deleted successfully");
-        } else {
-          LOG.warn("==    Login History migration - {} Errors during All Login History Entries JCR Data deletion",
-                   deleteAllLoginHistoryNodesErrors);
-        }
-
-        usersProfilesDeletionErrors = deleteLoginHistoryProfiles();
-        if (usersProfilesDeletionErrors == 0) {
-          LOG.info("==    Login History migration - Login History Users Profiles deleted successfully");
-        } else {
-          LOG.warn("==    Login History migration - {} Errors during Login History Users Profiles JCR Data deletion",
-                   usersProfilesDeletionErrors);
-        }
+      return;
+    }
+    LOG.info("== Start migration of Login History data from JCR to RDBMS");
 
-        if (countersDeletionErrors > 0 || usersProfilesDeletionErrors > 0 || allUsersCountersDeletionErrors > 0
-            || deleteAllLoginHistoryNodesErrors > 0) {
-          throw new RuntimeException("== Login History migration aborted due to errors during the deletion of Login History Counters and Users Profiles");
-        }
+    int migrationErrors = migrateAndDeleteLoginHistory();
+    if (migrationErrors > 0) {
+      LOG.error("==    Login History migration aborted, {} errors encountered", migrationErrors);
+      throw new RuntimeException("== Login History migration aborted because of migration failures");
+    }
 
-        try {
-          jcrLoginHistoryStorage.removeLoginHistoryHomeNode();
-        } catch (Exception e) {
-          throw new RuntimeException("== Login History migration - Error when deleting Login History home node");
-        }
-        LOG.info("==    Login History migration - Home Node deleted successfully !");
-        LOG.info("== Login History migration done");
-      } else {
-        LOG.error("==    Login History migration aborted, {} errors encountered", migrationErrors);
-        throw new RuntimeException("== Login History migration aborted because of migration failures");
-      }
+    // Removes the All Users Login Counters with the home node
+    try {
+      jcrLoginHistoryStorage.removeLoginHistoryHomeNode();
+    } catch (Exception e) {
+      throw new RuntimeException("== Login History migration - Error when deleting Login History home node");
     }
+    LOG.info("==    Login History migration - Home Node deleted successfully !");
+    LOG.info("== Login History migration done");
   }
 
   private Session getSession(SessionProvider sessionProvider) throws Exception {
@@ -130,352 +121,184 @@ public class LoginHistoryUpgradePlugin extends UpgradeProductPlugin {
   }
 
   /**
-   * iterates on all present Login History nodes by a given page size, for each
-   * returned page of Login History nodes it iterates on each node in order to add
-   * it to the JPAStorage and then removes it and by the end returns the number of
-   * errors occurred during the process
+   * migrates the login history of all the users having a Login History Profile,
+   * using parallel workers, and returns the number of users whose migration
+   * failed
    */
   private int migrateAndDeleteLoginHistory() {
+    List<String> userIds = getUsersToMigrate();
+    long countLoginHistoryNodes;
     SessionProvider sProvider = SessionProvider.createSystemProvider();
-    entityManagerService.startRequest(ExoContainerContext.getCurrentContainer());
-
-    NodeIterator loginHistoryNodes;
-    Node loginHistoryNode;
-
-    String path;
-    long countLoginHistoryNodes, countAllUsersLoginHistoryCountersNodes, countLoginHistoryCountersNodes, countUsersProfilesNodes,
-        count, offset = 0, migrated = 0;
-    int errors = 0;
     try {
       countLoginHistoryNodes = jcrLoginHistoryStorage.countLoginHistoryNodes(sProvider);
-      countAllUsersLoginHistoryCountersNodes = jcrLoginHistoryStorage.countGlobalLoginHistoryCountersNodes(sProvider);
-      countLoginHistoryCountersNodes = jcrLoginHistoryStorage.countLoginHistoryCountersNodes(sProvider)
-          - countAllUsersLoginHistoryCountersNodes;
-      countUsersProfilesNodes = jcrLoginHistoryStorage.getAllUsersProfilesNodes(sProvider).getSize();
-
-      LOG.info("==    Login History migration - ({}) Total Login History Nodes to migrate !", countLoginHistoryNodes);
-      LOG.info("==    Login History migration - ({}) Total All Users Login History Counters Nodes to delete !",
-               countAllUsersLoginHistoryCountersNodes);
-      LOG.info("==    Login History migration - ({}) Total Login History Counters Nodes to delete !",
-               countLoginHistoryCountersNodes);
-      LOG.info("==    Login History migration - ({}) Total Login History Users Profiles to delete !", countUsersProfilesNodes);
-      do {
-        entityManagerService.endRequest(ExoContainerContext.getCurrentContainer());
-        entityManagerService.startRequest(ExoContainerContext.getCurrentContainer());
-        loginHistoryNodes = jcrLoginHistoryStorage.getLoginHistoryNodes(sProvider, offset, LOGIN_HISTORY_NODE_PAGE_SIZE);
-        count = loginHistoryNodes.getSize();
-        String userId = null;
-        long loginTime;
-        Instant instantLoginTime = null;
-        while (loginHistoryNodes.hasNext()) {
-          try {
-            loginHistoryNode = loginHistoryNodes.nextNode();
-            userId = loginHistoryNode.getProperty("exo:LoginHisSvc_loginHistoryItem_userId").getString();
-            loginTime = loginHistoryNode.getProperty("exo:LoginHisSvc_loginHistoryItem_loginTime").getLong();
-            instantLoginTime = Instant.ofEpochMilli(loginTime);
-            path = loginHistoryNode.getPath();
-            LOG.debug("==    Login History migration - Migrate Login History Entry of user {} at {}", userId, instantLoginTime);
-            jpaLoginHistoryStorage.addLoginHistoryEntry(userId, loginTime);
-            LOG.debug("Removing Login History Node : " + path);
-            jcrLoginHistoryStorage.removeLoginHistoryNode(sProvider, loginHistoryNode);
-            migrated++;
-          } catch (Exception e) {
-            LOG.error("==    Login History migration - Error while migrating Login History Entry of user {} at {} ",
-                      userId,
-                      instantLoginTime,
-                      e);
-            errors++;
-          }
-        }
-        offset += count;
-        LOG.info("==    Login History migration - Progress : {} Login History Entries migrated ({} errors)", migrated, errors);
-      } while (count == LOGIN_HISTORY_NODE_PAGE_SIZE);
     } finally {
-      entityManagerService.endRequest(ExoContainerContext.getCurrentContainer());
       sProvider.close();
     }
-    return errors;
-  }
-
-  /**
-   * iterates on Login History Counters by a given page size each time and removes
-   * them one by one and by the end deletes the All Users Profile Node and returns
-   * the number of errors occurred during the process
-   */
-  private int deleteAllUsersLoginHistoryCounters() {
-    SessionProvider sProvider = SessionProvider.createSystemProvider();
-    Session session = null;
-
-    NodeIterator loginCountersNodes;
-    Node loginCounterNode;
-
-    String path = null;
-    long count, offset = 0, removed = 0;
-    int errors = 0;
+    LOG.info("==    Login History migration - ({}) Total Login History Nodes of ({}) users to migrate with {} threads !",
+             countLoginHistoryNodes,
+             userIds.size(),
+             migrationThreads);
+
+    final ExoContainer container = ExoContainerContext.getCurrentContainer();
+    final AtomicLong migrated = new AtomicLong();
+    final AtomicInteger migratedUsers = new AtomicInteger();
+    final AtomicInteger errors = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(migrationThreads, new ThreadFactory() {
+      private final AtomicInteger threadIndex = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "LoginHistoryMigration-" + threadIndex.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
     try {
-      do {
-        try {
-          session = this.getSession(sProvider);
-        } catch (Exception e) {
-          LOG.error("==    Login History migration - Error while getting JCR Session for delete All Users Login History Counters : ",
-                    e.getMessage(),
-                    e);
-        }
-        loginCountersNodes =
-                           jcrLoginHistoryStorage.getAllUsersLoginCountersNodes(sProvider, offset, LOGIN_HISTORY_NODE_PAGE_SIZE);
-        count = loginCountersNodes.getSize();
-        while (loginCountersNodes.hasNext()) {
-          try {
-            loginCounterNode = loginCountersNodes.nextNode();
-            path = loginCounterNode.getPath();
-            loginCounterNode.remove();
-            removed++;
-            if (removed % 10 == 0) {
-              session.save();
+      List<Future<?>> futures = new ArrayList<>();
+      for (final String userId : userIds) {
+        futures.add(executor.submit(new Runnable() {
+          public void run() {
+            ExoContainerContext.setCurrentContainer(container);
+            try {
+              migrated.addAndGet(migrateUserLoginHistory(userId));
+            } catch (Exception e) {
+              LOG.error("==    Login History migration - Error while migrating Login History of user {}", userId, e);
+              errors.incrementAndGet();
+            }
+            int count = migratedUsers.incrementAndGet();
+            if (count % 100 == 0 || count == userIds.size()) {
+              LOG.info("==    Login History migration - Progress : {} Login History Entries of {} users migrated ({} errors)",
+                       migrated.get(),
+                       count,
+                       errors.get());
             }
-          } catch (Exception e) {
-            LOG.error("==    Login History migration - Error while deleting All Users Login Counter Node {} : " + path,
-                      e.getMessage(),
-                      e);
-            errors++;
           }
-        }
+        }));
+      }
+      for (Future<?> future : futures) {
         try {
-          session.save();
-        } catch (Exception e) {
-          LOG.error("==    Login History migration - Error while saving JCR Session delete All Users Login History Counters : ",
-                    e.getMessage(),
-                    e);
+          future.get();
+        } catch (ExecutionException e) {
+          LOG.error("==    Login History migration - Error while migrating Login History", e.getCause());
+          errors.incrementAndGet();
         }
-        offset += count;
-        LOG.info("==    Login History migration - Progress : {} All Users Login Counters removed ({} errors)", removed, errors);
-      } while (count == LOGIN_HISTORY_NODE_PAGE_SIZE);
-      LOG.info("==    Login History migration - Removing All Users Profile Node");
-      try {
-        jcrLoginHistoryStorage.removeAllUsersProfileNode(sProvider);
-      } catch (Exception e) {
-        LOG.error("==    Login History migration - Error while removing All Users Profile Node : ", e);
-        errors++;
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      errors.incrementAndGet();
     } finally {
-      sProvider.close();
+      executor.shutdownNow();
     }
-    return errors;
+    return errors.get();
   }
 
   /**
-   * iterates on Login History Users Profiles by a given page size each time and
-   * for each user gets all its Login Counters and removes them one by one and
-   * returns the number of errors occurred during the process
+   * returns the ids of the users having a Login History Profile
    */
-  private int deleteLoginHistoryCounters() {
+  private List<String> getUsersToMigrate() {
+    List<String> userIds = new ArrayList<>();
     SessionProvider sProvider = SessionProvider.createSystemProvider();
-    Session session = null;
-
-    NodeIterator userLoginCountersNodes, usersProfilesNodes;
-    Node userProfileNode, userLoginCounterNode;
-
-    String userId = null, day = null;
-    long count, countLoginCountersNodes, offset = 0, userLoginCountersNodesRemoved, removed = 0;
-    int errors = 0;
     try {
-      do {
-        try {
-          session = this.getSession(sProvider);
-        } catch (Exception e) {
-          LOG.error("==    Login History migration - Error while getting JCR Session for delete Login History Counters : ",
-                    e.getMessage(),
-                    e);
+      NodeIterator usersProfilesNodes = jcrLoginHistoryStorage.getAllUsersProfilesNodes(sProvider);
+      while (usersProfilesNodes != null && usersProfilesNodes.hasNext()) {
+        Node userProfileNode = usersProfilesNodes.nextNode();
+        if (!userProfileNode.isNodeType(GLOBAL_LOGIN_COUNTER_TYPE)) {
+          userIds.add(userProfileNode.getName());
         }
-        usersProfilesNodes = jcrLoginHistoryStorage.getUsersProfilesNodes(sProvider, offset, LOGIN_HISTORY_NODE_PAGE_SIZE);
-        count = usersProfilesNodes.getSize();
-        while (usersProfilesNodes.hasNext()) {
-          userProfileNode = usersProfilesNodes.nextNode();
-          userLoginCountersNodes = jcrLoginHistoryStorage.getAllUserLoginCountersNodes(userProfileNode);
-          countLoginCountersNodes = userLoginCountersNodes.getSize();
-          userLoginCountersNodesRemoved = 0;
-          try {
-            userId = userProfileNode.getProperty("exo:LoginHisSvc_userId").getString();
-          } catch (Exception e) {
-            LOG.error("==    Login History migration - Error while retrieving the UserId for : ", userProfileNode);
-          }
-
-          LOG.debug("==    Login History migration - ({}) Login Counters Nodes to delete for user : {}",
-                    countLoginCountersNodes,
-                    userId);
-          while (userLoginCountersNodes.hasNext()) {
-            try {
-              userLoginCounterNode = userLoginCountersNodes.nextNode();
-              day = userLoginCounterNode.getProperty("exo:LoginHisSvc_loginCounterItem_loginDate").getString();
-              userLoginCounterNode.remove();
-              userLoginCountersNodesRemoved++;
-              removed++;
-              if (removed % 10 == 0) {
-                session.save();
-              }
-            } catch (Exception e) {
-              LOG.error("==    Login History migration - Error while deleting Login Counter Node for {} of user {} : ",
-                        day,
-                        userId,
-                        e.getMessage(),
-                        e);
-              errors++;
-            }
-          }
-          try {
-            session.save();
-          } catch (Exception e) {
-            LOG.error("==    Login History migration - Error while saving JCR Session for delete Login History Counters : ",
-                      e.getMessage(),
-                      e);
-          }
-          if (userLoginCountersNodesRemoved != 0) {
-            LOG.debug("==    Login History migration - ({}) Total Login Counters Nodes deleted for user : {}",
-                      userLoginCountersNodesRemoved,
-                      userId);
-          }
-        }
-        offset += count;
-        LOG.info("==    Login History migration - Progress : {} Total Users Login Counters removed ({} errors)", removed, errors);
-      } while (count == LOGIN_HISTORY_NODE_PAGE_SIZE);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("== Login History migration - Error while getting the Login History Users Profiles", e);
     } finally {
       sProvider.close();
     }
-    return errors;
+    return userIds;
   }
 
   /**
-   * iterates on Login History Users Profiles by a given page size each time and
-   * for each user gets all its Login History Entries and removes them one by one
-   * and returns the number of errors occurred during the process
+   * migrates the Login History Entries of a user page by page, then removes its
+   * Login History Profile subtree once all its entries are migrated. As each
+   * page is removed once migrated, each page is read again from the first
+   * remaining entries.
+   *
+   * @return number of migrated entries
    */
-  private int deleteAllLoginHistoryNodes() {
+  private long migrateUserLoginHistory(String userId) throws Exception {
     SessionProvider sProvider = SessionProvider.createSystemProvider();
-    Session session = null;
-
-    NodeIterator usersProfilesNodes, userLoginHistoryNodes;
-    Node userProfileNode, userLoginHistoryNode;
-
-    String userId = null;
-    long count, countLoginHistoryNodes, offset = 0, userLoginHistoryNodesRemoved, removed = 0;
-    int errors = 0;
     try {
-      do {
-        try {
-          session = this.getSession(sProvider);
-        } catch (Exception e) {
-          LOG.error("==    Login History migration - Error while getting JCR Session for delete All Login History Nodes : ",
-                    e.getMessage(),
-                    e);
-        }
-        usersProfilesNodes = jcrLoginHistoryStorage.getUsersProfilesNodes(sProvider, offset, LOGIN_HISTORY_NODE_PAGE_SIZE);
-        count = usersProfilesNodes.getSize();
-        while (usersProfilesNodes.hasNext()) {
-          userProfileNode = usersProfilesNodes.nextNode();
-          userLoginHistoryNodes = jcrLoginHistoryStorage.getAllUserLoginHistoryNodes(userProfileNode);
-          countLoginHistoryNodes = userLoginHistoryNodes.getSize();
-          userLoginHistoryNodesRemoved = 0;
-          try {
-            userId = userProfileNode.getProperty("exo:LoginHisSvc_userId").getString();
-          } catch (Exception e) {
-            LOG.error("==    Login History migration - Error while retrieving the UserId for : ", userProfileNode);
-          }
-
-          LOG.debug("==    Login History migration - ({}) Login History Nodes to delete for user : {}",
-                    countLoginHistoryNodes,
-                    userId);
-          while (userLoginHistoryNodes.hasNext()) {
-            try {
-              userLoginHistoryNode = userLoginHistoryNodes.nextNode();
-              userLoginHistoryNode.remove();
-              userLoginHistoryNodesRemoved++;
-              removed++;
-              if (removed % 10 == 0) {
-                session.save();
-              }
-            } catch (Exception e) {
-              LOG.error("==    Login History migration - Error while deleting All Login History Nodes for user {} : ",
-                        userId,
-                        e.getMessage(),
-                        e);
-              errors++;
-            }
-          }
-          if (userLoginHistoryNodesRemoved != 0) {
-            LOG.debug("==    Login History migration - ({}) Total Login History Nodes deleted for user : {}",
-                      userLoginHistoryNodesRemoved,
-                      userId);
-          }
-        }
-        try {
-          session.save();
-        } catch (Exception e) {
-          LOG.error("==    Login History migration - Error while saving JCR Session for delete All Login History Nodes : ",
-                    e.getMessage(),
-                    e);
+      Session session = getSession(sProvider);
+      Node userProfileNode = session.getRootNode().getNode("exo:LoginHistoryHome/" + userId);
+      long migrated = 0;
+      if (userProfileNode.hasNode(LOGIN_HISTORY)) {
+        Node loginHistoryHomeNode = userProfileNode.getNode(LOGIN_HISTORY);
+        boolean firstPage = true;
+        List<Node> page = getFirstLoginHistoryNodes(loginHistoryHomeNode);
+        while (!page.isEmpty()) {
+          migrated += migrateLoginHistoryPage(session, userId, page, firstPage);
+          firstPage = false;
+          page = getFirstLoginHistoryNodes(loginHistoryHomeNode);
         }
-        offset += count;
-        LOG.info("==    Login History migration - Progress : {} All Login History Nodes removed ({} errors)", removed, errors);
-      } while (count == LOGIN_HISTORY_NODE_PAGE_SIZE);
+      }
+      userProfileNode.remove();
+      session.save();
+      LOG.debug("==    Login History migration - ({}) Login History Entries migrated for user : {}", migrated, userId);
+      return migrated;
     } finally {
       sProvider.close();
     }
-    return errors;
   }
 
   /**
-   * iterates on Login History Users Profiles right under the Login History Home
-   * Node by a given page size each time and removes them one by one and returns
-   * the number of errors occurred during the process
+   * returns the first 'migration.page.size' Login History Entries nodes not
+   * migrated yet
    */
-  private int deleteLoginHistoryProfiles() {
-    SessionProvider sProvider = SessionProvider.createSystemProvider();
-    Session session = null;
-
-    NodeIterator loginHistoryProfilesNodes;
-    Node loginHistoryProfileNode;
+  private List<Node> getFirstLoginHistoryNodes(Node loginHistoryHomeNode) throws Exception {
+    List<Node> page = new ArrayList<>(migrationPageSize);
+    NodeIterator loginHistoryNodes = loginHistoryHomeNode.getNodes();
+    while (loginHistoryNodes.hasNext() && page.size() < migrationPageSize) {
+      page.add(loginHistoryNodes.nextNode());
+    }
+    return page;
+  }
 
-    String userId = null;
-    long removed = 0;
-    int errors = 0;
+  /**
+   * inserts a page of Login History Entries of a user in a single transaction,
+   * then removes their nodes. The entries of the first page of a user which are
+   * already stored, by a previous interrupted migration, are ignored.
+   *
+   * @return number of inserted entries
+   */
+  private int migrateLoginHistoryPage(Session session, String userId, List<Node> page, boolean firstPage) throws Exception {
+    List<LoginHistoryBean> loginHistoryEntries = new ArrayList<>(page.size());
+    long fromTime = Long.MAX_VALUE;
+    long toTime = Long.MIN_VALUE;
+    for (Node loginHistoryNode : page) {
+      LoginHistoryBean loginHistoryEntry = new LoginHistoryBean();
+      loginHistoryEntry.setUserId(userId);
+      loginHistoryEntry.setLoginTime(loginHistoryNode.getProperty("exo:LoginHisSvc_loginHistoryItem_loginTime").getLong());
+      loginHistoryEntries.add(loginHistoryEntry);
+      fromTime = Math.min(fromTime, loginHistoryEntry.getLoginTime());
+      toTime = Math.max(toTime, loginHistoryEntry.getLoginTime());
+    }
+    ExoContainer container = ExoContainerContext.getCurrentContainer();
+    entityManagerService.startRequest(container);
     try {
-      try {
-        session = this.getSession(sProvider);
-      } catch (Exception e) {
-        LOG.error("==    Login History migration - Error while getting JCR Session for delete Login History Profiles : ",
-                  e.getMessage(),
-                  e);
-      }
-      loginHistoryProfilesNodes = jcrLoginHistoryStorage.getAllUsersProfilesNodes(sProvider);
-      while (loginHistoryProfilesNodes.hasNext()) {
-        try {
-          loginHistoryProfileNode = loginHistoryProfilesNodes.nextNode();
-          userId = loginHistoryProfileNode.getProperty("exo:LoginHisSvc_userId").getString();
-          jcrLoginHistoryStorage.removeLoginHistoryUserProfileChildNodes(session, userId);
-          LOG.debug("==    Login History migration - User Profile child Nodes for User {} removed successfully !", userId);
-          loginHistoryProfileNode.remove();
-          LOG.debug("==    Login History migration - User Profile for user {} removed successfully !", userId);
-          removed++;
-          if (removed % 10 == 0) {
-            session.save();
+      if (firstPage) {
+        List<LoginHistoryBean> storedEntries = jpaLoginHistoryStorage.getLoginHistory(userId, fromTime, toTime);
+        if (storedEntries != null && !storedEntries.isEmpty()) {
+          Set<Long> storedLoginTimes = new HashSet<>();
+          for (LoginHistoryBean storedEntry : storedEntries) {
+            storedLoginTimes.add(storedEntry.getLoginTime());
           }
-        } catch (Exception e) {
-          LOG.error("==    Login History migration - Error while removing Login History User Profile for user {} : ", userId, e);
-          errors++;
+          loginHistoryEntries.removeIf(loginHistoryEntry -> storedLoginTimes.contains(loginHistoryEntry.getLoginTime()));
         }
       }
-      try {
-        session.save();
-      } catch (Exception e) {
-        LOG.error("==    Login History migration - Error while saving JCR Session for delete Login History Profiles : ",
-                  e.getMessage(),
-                  e);
-      }
-      LOG.info("==    Login History migration - Progress : {} Login History Profiles removed ({} errors)", removed, errors);
+      jpaLoginHistoryStorage.addLoginHistoryEntries(loginHistoryEntries);
     } finally {
-      sProvider.close();
+      entityManagerService.endRequest(container);
     }
-    return errors;
+    for (Node loginHistoryNode : page) {
+      loginHistoryNode.remove();
+    }
+    session.save();
+    return loginHistoryEntries.size();
   }
-
 }
@@ -0,0 +1,369 @@
+/***************************************************************************
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ ***************************************************************************/
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picocontainer.Startable;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.*;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.platform.gadget.services.util.InitParamsUtils;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Write-behind buffer of users logins. A login of a user is ignored when the
+ * same user already logged in during the last 'dedupe.period' milliseconds,
+ * using an in-memory cache of last logins instead of querying the login
+ * history. Other logins are queued then written by batches of 'batch.size'
+ * entries, every 'flush.period' milliseconds or as soon as a batch is full.
+ * When the queue is full, the thread adding a login writes a batch itself.
+ * A batch which can't be written is kept and written again by the next
+ * flushes, before the queued logins, up to 'write.attempts' times. Pending
+ * logins are written when the container stops.
+ */
+@Managed
+@ManagedDescription("Login history write-behind buffer")
+@NameTemplate({ @Property(key = "name", value = "LoginHistoryWriteBehind"), @Property(key = "service", value = "extensions"),
+    @Property(key = "type", value = "platform") })
+public class LoginHistoryWriteBehind implements Startable {
+  private static final Log                      LOG                   = ExoLogger.getLogger(LoginHistoryWriteBehind.class);
+
+  private static final String                   QUEUE_CAPACITY        = "queue.capacity";
+
+  private static final String                   BATCH_SIZE            = "batch.size";
+
+  private static final String                   FLUSH_PERIOD          = "flush.period";
+
+  private static final String                   DEDUPE_PERIOD         = "dedupe.period";
+
+  private static final String                   WRITE_ATTEMPTS        = "write.attempts";
+
+  private static final int                      DEFAULT_QUEUE_CAPACITY = 10000;
+
+  private static final int                      DEFAULT_BATCH_SIZE    = 200;
+
+  private static final long                     DEFAULT_FLUSH_PERIOD  = 2000;
+
+  public static final long                      DEFAULT_DEDUPE_PERIOD = 180000;
+
+  private static final int                      DEFAULT_WRITE_ATTEMPTS = 5;
+
+  private final LoginHistoryService             loginHistoryService;
+
+  private final ExoContainer                    container;
+
+  private final BlockingQueue<LoginHistoryBean> queue;
+
+  private final int                             batchSize;
+
+  private final long                            flushPeriod;
+
+  private final long                            dedupePeriod;
+
+  private final int                             writeAttempts;
+
+  /** Last login time by user, only for logins of the last dedupe period */
+  private final Map<String, Long>               lastLogins            = new ConcurrentHashMap<>();
+
+  private final AtomicBoolean                   flushScheduled        = new AtomicBoolean();
+
+  private final Object                          flushLock             = new Object();
+
+  /** Batch which failed to be written, guarded by {@link #flushLock} */
+  private List<LoginHistoryBean>                failedBatch;
+
+  /** Number of failed writes of {@link #failedBatch} */
+  private int                                   failedBatchAttempts;
+
+  private final AtomicLong                      ignoredLogins         = new AtomicLong();
+
+  private final AtomicLong                      writtenLogins         = new AtomicLong();
+
+  private final AtomicLong                      failedLogins          = new AtomicLong();
+
+  private final AtomicLong                      flushes               = new AtomicLong();
+
+  private final AtomicLong                      flushesDuration       = new AtomicLong();
+
+  private volatile long                         lastFlushDuration;
+
+  private volatile long                         maxFlushDuration;
+
+  private ScheduledExecutorService              executor;
+
+  public LoginHistoryWriteBehind(LoginHistoryService loginHistoryService, InitParams params) {
+    this.loginHistoryService = loginHistoryService;
+    this.container = ExoContainerContext.getCurrentContainer();
+    this.queue = new ArrayBlockingQueue<>((int) InitParamsUtils.getLongParam(params, QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY));
+    this.batchSize = (int) Math.max(1, InitParamsUtils.getLongParam(params, BATCH_SIZE, DEFAULT_BATCH_SIZE));
+    this.flushPeriod = InitParamsUtils.getLongParam(params, FLUSH_PERIOD, DEFAULT_FLUSH_PERIOD);
+    this.dedupePeriod = InitParamsUtils.getLongParam(params, DEDUPE_PERIOD, DEFAULT_DEDUPE_PERIOD);
+    this.writeAttempts = Math.max(1, InitParamsUtils.getIntParam(params, WRITE_ATTEMPTS, DEFAULT_WRITE_ATTEMPTS));
+  }
+
+  @Override
+  public void start() {
+    // Users who logged in just before the restart are considered as logged in
+    // now, so their logins of the next dedupe period are ignored without
+    // querying their last login
+    long now = System.currentTimeMillis();
+    RequestLifeCycle.begin(container);
+    try {
+      for (String userId : loginHistoryService.getLastUsersLogin(now - dedupePeriod)) {
+        lastLogins.put(userId, now);
+      }
+    } catch (Exception e) {
+      LOG.warn("Error while loading the users who logged in during the last {} ms", dedupePeriod, e);
+    } finally {
+      RequestLifeCycle.end();
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "LoginHistoryWriteBehind");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::scheduledFlush, flushPeriod, flushPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(flushPeriod, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+  }
+
+  /**
+   * Add a login of a user, unless the user already logged in during the last
+   * dedupe period.
+   *
+   * @param userId user id
+   * @param loginTime login time
+   * @return true if the login is queued to be written, false if it is ignored
+   */
+  public boolean addLogin(String userId, long loginTime) {
+    boolean[] accepted = new boolean[1];
+    lastLogins.compute(userId, (user, lastLogin) -> {
+      if (lastLogin != null && loginTime - lastLogin <= dedupePeriod) {
+        return lastLogin;
+      }
+      accepted[0] = true;
+      return loginTime;
+    });
+    if (!accepted[0]) {
+      ignoredLogins.incrementAndGet();
+      return false;
+    }
+    LoginHistoryBean loginHistoryEntry = new LoginHistoryBean();
+    loginHistoryEntry.setUserId(userId);
+    loginHistoryEntry.setLoginTime(loginTime);
+    while (!queue.offer(loginHistoryEntry)) {
+      // Back-pressure: the queue is full, write a batch in the caller thread
+      flushBatch();
+    }
+    if (queue.size() >= batchSize && executor != null && flushScheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(this::scheduledFlush);
+      } catch (RejectedExecutionException e) {
+        flushScheduled.set(false);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Write all the queued logins, stopping at the first batch which can't be
+   * written.
+   */
+  @Managed
+  @ManagedDescription("Write all the queued logins")
+  @Impact(ImpactType.WRITE)
+  public void flush() {
+    while (flushBatch() > 0) {
+      // Write until the queue is empty
+    }
+  }
+
+  @Managed
+  @ManagedDescription("Number of logins waiting to be written")
+  @Impact(ImpactType.READ)
+  public int getQueueSize() {
+    synchronized (flushLock) {
+      return queue.size() + (failedBatch == null ? 0 : failedBatch.size());
+    }
+  }
+
+  @Managed
+  @ManagedDescription("Number of written logins")
+  @Impact(ImpactType.READ)
+  public long getWrittenLoginsCount() {
+    return writtenLogins.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of logins lost because they couldn't be written after all the attempts")
+  @Impact(ImpactType.READ)
+  public long getFailedLoginsCount() {
+    return failedLogins.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of logins ignored because the user already logged in recently")
+  @Impact(ImpactType.READ)
+  public long getIgnoredLoginsCount() {
+    return ignoredLogins.get();
+  }
+
+  @Managed
+  @ManagedDescription("Number of written batches")
+  @Impact(ImpactType.READ)
+  public long getFlushesCount() {
+    return flushes.get();
+  }
+
+  @Managed
+  @ManagedDescription("Duration in milliseconds of the last batch write")
+  @Impact(ImpactType.READ)
+  public long getLastFlushDuration() {
+    return lastFlushDuration;
+  }
+
+  @Managed
+  @ManagedDescription("Maximum duration in milliseconds of a batch write")
+  @Impact(ImpactType.READ)
+  public long getMaxFlushDuration() {
+    return maxFlushDuration;
+  }
+
+  @Managed
+  @ManagedDescription("Average duration in milliseconds of a batch write")
+  @Impact(ImpactType.READ)
+  public long getAverageFlushDuration() {
+    long count = flushes.get();
+    return count == 0 ? 0 : flushesDuration.get() / count;
+  }
+
+  private void scheduledFlush() {
+    flushScheduled.set(false);
+    try {
+      flush();
+      evictLastLogins();
+    } catch (Exception e) {
+      LOG.error("Error while writing login history entries", e);
+    }
+  }
+
+  /**
+   * Write the failed batch, if any, or a batch of queued logins.
+   *
+   * @return number of written logins, 0 if there is nothing to write or if the
+   *         batch can't be written
+   */
+  private int flushBatch() {
+    synchronized (flushLock) {
+      List<LoginHistoryBean> loginHistoryEntries = failedBatch;
+      if (loginHistoryEntries == null) {
+        loginHistoryEntries = new ArrayList<>(batchSize);
+        queue.drainTo(loginHistoryEntries, batchSize);
+        if (loginHistoryEntries.isEmpty()) {
+          return 0;
+        }
+      }
+      boolean written = false;
+      long startTime = System.currentTimeMillis();
+      ExoContainer currentContainer = ExoContainerContext.getCurrentContainerIfPresent();
+      ExoContainerContext.setCurrentContainer(container);
+      RequestLifeCycle.begin(container);
+      try {
+        loginHistoryService.addLoginHistoryEntries(loginHistoryEntries);
+        writtenLogins.addAndGet(loginHistoryEntries.size());
+        written = true;
+      } catch (Exception e) {
+        batchFailed(loginHistoryEntries, e);
+      } finally {
+        RequestLifeCycle.end();
+        ExoContainerContext.setCurrentContainer(currentContainer);
+      }
+      long duration = System.currentTimeMillis() - startTime;
+      lastFlushDuration = duration;
+      maxFlushDuration = Math.max(maxFlushDuration, duration);
+      flushesDuration.addAndGet(duration);
+      flushes.incrementAndGet();
+      if (!written) {
+        return 0;
+      }
+      failedBatch = null;
+      failedBatchAttempts = 0;
+      return loginHistoryEntries.size();
+    }
+  }
+
+  /**
+   * Keep a batch which can't be written for the next flush, or drop it once
+   * all the attempts failed. The users of a dropped batch are removed from the
+   * last logins, so that their next logins aren't ignored.
+   */
+  private void batchFailed(List<LoginHistoryBean> loginHistoryEntries, Exception e) {
+    int attempts = loginHistoryEntries == failedBatch ? failedBatchAttempts + 1 : 1;
+    if (attempts < writeAttempts) {
+      LOG.warn("Error while writing {} login history entries, attempt {}/{}, they will be written again",
+               loginHistoryEntries.size(),
+               attempts,
+               writeAttempts,
+               e);
+      failedBatch = loginHistoryEntries;
+      failedBatchAttempts = attempts;
+      return;
+    }
+    LOG.error("Error while writing {} login history entries after {} attempts, they are lost",
+              loginHistoryEntries.size(),
+              attempts,
+              e);
+    failedLogins.addAndGet(loginHistoryEntries.size());
+    for (LoginHistoryBean loginHistoryEntry : loginHistoryEntries) {
+      lastLogins.remove(loginHistoryEntry.getUserId(), loginHistoryEntry.getLoginTime());
+    }
+    failedBatch = null;
+    failedBatchAttempts = 0;
+  }
+
+  private void evictLastLogins() {
+    long expired = System.currentTimeMillis() - dedupePeriod;
+    lastLogins.forEach((userId, lastLogin) -> {
+      if (lastLogin < expired) {
+        lastLogins.remove(userId, lastLogin);
+      }
+    });
+  }
+}
@@ -0,0 +1,153 @@
+package org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao;
+
+import org.exoplatform.commons.api.persistence.ExoTransactional;
+import org.exoplatform.commons.persistence.impl.GenericDAOJPAImpl;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity.GlobalLoginCounterEntity;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity.LoginCounterEntity;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Daily login counters of each user and of all users, maintained when a login
+ * is added so that login statistics don't need to count the login history
+ * entries.
+ */
+public class LoginCounterDAO extends GenericDAOJPAImpl<LoginCounterEntity, Long> {
+
+  /**
+   * adds a given count to the login counters of a user and of all users for a
+   * given day.
+   *
+   * @param userId {@link String}
+   * @param loginDay {@link LocalDate}
+   * @param count long
+   */
+  @ExoTransactional
+  public void incrementLoginCount(String userId, LocalDate loginDay, long count) {
+    Date day = Date.valueOf(loginDay);
+    incrementUserLoginCount(userId, day, count);
+    incrementGlobalLoginCount(day, count);
+  }
+
+  /**
+   * adds the given counts to the login counters of users and of all users, in
+   * a single transaction.
+   *
+   * @param userLoginCounts login counts by user and by day
+   */
+  @ExoTransactional
+  public void incrementLoginCounts(Map<String, Map<LocalDate, Long>> userLoginCounts) {
+    Map<LocalDate, Long> globalLoginCounts = new TreeMap<>();
+    for (Map.Entry<String, Map<LocalDate, Long>> userLoginCount : userLoginCounts.entrySet()) {
+      for (Map.Entry<LocalDate, Long> dayLoginCount : userLoginCount.getValue().entrySet()) {
+        incrementUserLoginCount(userLoginCount.getKey(), Date.valueOf(dayLoginCount.getKey()), dayLoginCount.getValue());
+        globalLoginCounts.merge(dayLoginCount.getKey(), dayLoginCount.getValue(), Long::sum);
+      }
+    }
+    for (Map.Entry<LocalDate, Long> dayLoginCount : globalLoginCounts.entrySet()) {
+      incrementGlobalLoginCount(Date.valueOf(dayLoginCount.getKey()), dayLoginCount.getValue());
+    }
+  }
+
+  /**
+   * returns the count of logins per day between two days, for a given user or
+   * for all users. Days without login are not returned.
+   *
+   * @param userId {@link String} the user id, null to count the logins of all
+   *          users
+   * @param fromDay {@link LocalDate}
+   * @param toDay {@link LocalDate}
+   * @return a map of login counts by day start date, sorted by date
+   */
+  public SortedMap<Long, Long> getLoginCountPerDays(String userId, LocalDate fromDay, LocalDate toDay) {
+    Query query;
+    if (userId == null) {
+      query = getEntityManager().createNamedQuery("loginGlobalCounter.getLoginCountsInDayRange");
+    } else {
+      query = getEntityManager().createNamedQuery("loginCounter.getLoginCountsOfUserInDayRange").setParameter("userId", userId);
+    }
+    List<Object[]> dayCounts = query.setParameter("from", Date.valueOf(fromDay))
+                                    .setParameter("to", Date.valueOf(toDay))
+                                    .getResultList();
+    SortedMap<Long, Long> loginCounts = new TreeMap<>();
+    for (Object[] dayCount : dayCounts) {
+      loginCounts.put(((java.util.Date) dayCount[0]).getTime(), ((Number) dayCount[1]).longValue());
+    }
+    return loginCounts;
+  }
+
+  /**
+   * replaces the login counters of all users between two days by the given
+   * ones, and computes the counters of all users from them.
+   *
+   * @param fromDay {@link LocalDate}
+   * @param toDay {@link LocalDate}
+   * @param userLoginCounts login counts by user and by day
+   */
+  @ExoTransactional
+  public void replaceLoginCounts(LocalDate fromDay, LocalDate toDay, Map<String, Map<LocalDate, Long>> userLoginCounts) {
+    EntityManager entityManager = getEntityManager();
+    Date from = Date.valueOf(fromDay);
+    Date to = Date.valueOf(toDay);
+    entityManager.createNamedQuery("loginCounter.deleteLoginCountsInDayRange")
+                 .setParameter("from", from)
+                 .setParameter("to", to)
+                 .executeUpdate();
+    entityManager.createNamedQuery("loginGlobalCounter.deleteLoginCountsInDayRange")
+                 .setParameter("from", from)
+                 .setParameter("to", to)
+                 .executeUpdate();
+
+    Map<LocalDate, Long> globalLoginCounts = new TreeMap<>();
+    for (Map.Entry<String, Map<LocalDate, Long>> userLoginCount : userLoginCounts.entrySet()) {
+      for (Map.Entry<LocalDate, Long> dayLoginCount : userLoginCount.getValue().entrySet()) {
+        entityManager.persist(new LoginCounterEntity(userLoginCount.getKey(),
+                                                     Date.valueOf(dayLoginCount.getKey()),
+                                                     dayLoginCount.getValue()));
+        globalLoginCounts.merge(dayLoginCount.getKey(), dayLoginCount.getValue(), Long::sum);
+      }
+    }
+    for (Map.Entry<LocalDate, Long> dayLoginCount : globalLoginCounts.entrySet()) {
+      entityManager.persist(new GlobalLoginCounterEntity(Date.valueOf(dayLoginCount.getKey()), dayLoginCount.getValue()));
+    }
+  }
+
+  /**
+   * updates the counter of a user and a day, or inserts it if it doesn't exist
+   * yet. If a concurrent transaction inserts the same counter first, the
+   * unique constraint on the user and the day makes this transaction fail, so
+   * that it can be retried, the counter being then updated.
+   */
+  private void incrementUserLoginCount(String userId, Date day, long count) {
+    EntityManager entityManager = getEntityManager();
+    int updated = entityManager.createNamedQuery("loginCounter.incrementLoginCountOfUserInDay")
+                               .setParameter("userId", userId)
+                               .setParameter("loginDay", day)
+                               .setParameter("count", count)
+                               .executeUpdate();
+    if (updated == 0) {
+      entityManager.persist(new LoginCounterEntity(userId, day, count));
+      entityManager.flush();
+    }
+  }
+
+  /**
+   * updates the counter of all users for a day, or inserts it, like
+   * {@link #incrementUserLoginCount(String, Date, long)}.
+   */
+  private void incrementGlobalLoginCount(Date day, long count) {
+    EntityManager entityManager = getEntityManager();
+    int updated = entityManager.createNamedQuery("loginGlobalCounter.incrementLoginCountInDay")
+                               .setParameter("loginDay", day)
+                               .setParameter("count", count)
+                               .executeUpdate();
+    if (updated == 0) {
+      entityManager.persist(new GlobalLoginCounterEntity(day, count));
+      entityManager.flush();
+    }
+  }
+}
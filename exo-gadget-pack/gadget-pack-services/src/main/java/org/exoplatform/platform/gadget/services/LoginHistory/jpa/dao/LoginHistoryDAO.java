@@ -1,17 +1,32 @@
 package org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao;
 
+import org.exoplatform.commons.api.persistence.ExoTransactional;
 import org.exoplatform.commons.persistence.impl.GenericDAOJPAImpl;
 import org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity.LoginHistoryEntity;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
 import javax.persistence.NoResultException;
+import javax.persistence.Query;
 import java.sql.Timestamp;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class LoginHistoryDAO extends GenericDAOJPAImpl<LoginHistoryEntity, Long> {
-  private static final Log LOG = ExoLogger.getLogger(LoginHistoryDAO.class);
+  private static final Log    LOG             = ExoLogger.getLogger(LoginHistoryDAO.class);
+
+  /**
+   * Maximum number of user ids given to a single IN clause.
+   */
+  private static final int    IN_CLAUSE_SIZE  = 500;
+
+  /**
+   * Id of the single row storing the start date of the last purge, inserted
+   * with the LOGIN_HISTORY_PURGE table.
+   */
+  private static final long   PURGE_ID        = 1;
 
   /**
    * returns the count of logins per day for a given user.
@@ -60,6 +75,143 @@ public class LoginHistoryDAO extends GenericDAOJPAImpl<LoginHistoryEntity, Long>
     return count;
   }
 
+  /**
+   * returns the count of logins of each user per day between two dates, days
+   * being computed in the zone in which the login dates are stored.
+   *
+   * @param fromTime long
+   * @param toTime long
+   * @return a map of login counts by user id and by day
+   */
+  public Map<String, Map<LocalDate, Long>> getLoginCountPerUsersAndDays(long fromTime, long toTime) {
+    List<Object[]> userDayCounts = getEntityManager().createNamedQuery("loginHistory.getLoginsCountPerUserAndDayInDateRange")
+                                                     .setParameter("from", new Timestamp(fromTime))
+                                                     .setParameter("to", new Timestamp(toTime))
+                                                     .getResultList();
+    Map<String, Map<LocalDate, Long>> loginCounts = new HashMap<>();
+    for (Object[] userDayCount : userDayCounts) {
+      LocalDate day = LocalDate.of(((Number) userDayCount[1]).intValue(),
+                                   ((Number) userDayCount[2]).intValue(),
+                                   ((Number) userDayCount[3]).intValue());
+      loginCounts.computeIfAbsent((String) userDayCount[0], userId -> new TreeMap<>())
+                 .merge(day, ((Number) userDayCount[4]).longValue(), Long::sum);
+    }
+    return loginCounts;
+  }
+
+  /**
+   * returns the date of the oldest login history entry.
+   *
+   * @return Long, null if there is no login history entry
+   */
+  public Long getFirstLoginDate() {
+    Date firstLoginDate = (Date) getEntityManager().createNamedQuery("loginHistory.getFirstLoginDate").getSingleResult();
+    return firstLoginDate == null ? null : firstLoginDate.getTime();
+  }
+
+  /**
+   * returns the oldest login history entries before a given date.
+   *
+   * @param beforeTime long
+   * @param limit maximum number of entries
+   * @return LoginHistoryEntity list, sorted by login date
+   */
+  public List<LoginHistoryEntity> getLoginHistoryBefore(long beforeTime, int limit) {
+    return getEntityManager().createNamedQuery("loginHistory.getLoginHistoryBeforeDate", LoginHistoryEntity.class)
+                             .setParameter("before", new Timestamp(beforeTime))
+                             .setMaxResults(limit)
+                             .getResultList();
+  }
+
+  /**
+   * returns a page of login history entries, sorted by login date then id,
+   * following a given entry and until a given date. Entries are returned as
+   * {id, userId, loginDate} rows, which aren't attached to the persistence
+   * context, so that reading many pages in the same request doesn't fill it.
+   *
+   * @param userId {@link String} user id, or null for all users
+   * @param afterTime long login date of the entry preceding the page
+   * @param afterId long id of the entry preceding the page, -1 to include the
+   *          entries logged at afterTime
+   * @param toTime long
+   * @param limit maximum number of entries
+   * @return list of {id, userId, loginDate} rows
+   */
+  public List<Object[]> getLoginHistoryPage(String userId, long afterTime, long afterId, long toTime, int limit) {
+    Query query;
+    if (userId == null) {
+      query = getEntityManager().createNamedQuery("loginHistory.getLoginHistoryPage");
+    } else {
+      query = getEntityManager().createNamedQuery("loginHistory.getLoginHistoryPageOfUser").setParameter("userId", userId);
+    }
+    @SuppressWarnings("unchecked")
+    List<Object[]> rows = query.setParameter("afterDate", new Timestamp(afterTime))
+                               .setParameter("afterId", afterId)
+                               .setParameter("to", new Timestamp(toTime))
+                               .setMaxResults(limit)
+                               .getResultList();
+    return rows;
+  }
+
+  /**
+   * deletes login history entries by their ids, in a single statement.
+   *
+   * @param ids list of entries ids
+   * @return number of deleted entries
+   */
+  @ExoTransactional
+  public int deleteLoginHistory(List<Long> ids) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    return getEntityManager().createNamedQuery("loginHistory.deleteLoginHistoryByIds").setParameter("ids", ids).executeUpdate();
+  }
+
+  /**
+   * marks the purge of the login history as started, unless a purge already
+   * started since a given date, on this node or on another cluster node. The
+   * check and the update are done by a single statement, so that only one of
+   * the nodes starting a purge concurrently succeeds.
+   *
+   * @param now long start date of the purge
+   * @param since long date since which a started purge prevents this one
+   * @return true if the purge has been marked as started
+   */
+  @ExoTransactional
+  public boolean startPurge(long now, long since) {
+    return getEntityManager().createNamedQuery("loginHistoryPurge.startPurge")
+                             .setParameter("id", PURGE_ID)
+                             .setParameter("now", new Timestamp(now))
+                             .setParameter("since", new Timestamp(since))
+                             .executeUpdate() > 0;
+  }
+
+  /**
+   * returns the start date of the day, week (starting on Monday) or month
+   * containing a given date.
+   *
+   * @param time long
+   * @param bucketUnit {@link ChronoUnit} DAYS, WEEKS or MONTHS
+   * @param zoneId {@link ZoneId}
+   * @return long
+   */
+  public static long getBucketStart(long time, ChronoUnit bucketUnit, ZoneId zoneId) {
+    ZonedDateTime bucketStart = Instant.ofEpochMilli(time).atZone(zoneId).truncatedTo(ChronoUnit.DAYS);
+    switch (bucketUnit) {
+    case DAYS:
+      break;
+    case WEEKS:
+      bucketStart = bucketStart.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+      break;
+    case MONTHS:
+      bucketStart = bucketStart.withDayOfMonth(1);
+      break;
+    default:
+      throw new IllegalArgumentException("Unsupported bucket unit " + bucketUnit);
+    }
+    return bucketStart.toInstant().toEpochMilli();
+  }
+
   /**
    * returns the last login entry date of a given user.
    *
@@ -111,14 +263,27 @@ public class LoginHistoryDAO extends GenericDAOJPAImpl<LoginHistoryEntity, Long>
    * @return list of String
    */
   public List<String> getLastLoggedUsers(int numLogins) {
-    List<String> lastLoggedUsers;
+    Map<String, Long> lastLoggedUsers = getLastLoggedUsersLogins(numLogins);
+    return lastLoggedUsers == null ? null : new ArrayList<>(lastLoggedUsers.keySet());
+  }
+
+  /**
+   * returns the last login date of the last n logged users, computed by the
+   * database in a single query grouping the logins by user.
+   *
+   * @param numUsers int
+   * @return a map of last login dates by user id, ordered from the most recent
+   *         login
+   */
+  public Map<String, Long> getLastLoggedUsersLogins(int numUsers) {
+    Map<String, Long> lastLoggedUsers;
     try {
-      List<String> resultList = getEntityManager().createNamedQuery("loginHistory.getAllLoggedUsers").getResultList();
-      if (resultList == null) {
-        lastLoggedUsers = null;
-      } else {
-        List<String> users = resultList.stream().distinct().collect(Collectors.toList());
-        lastLoggedUsers = users.stream().limit(numLogins).collect(Collectors.toList());
+      List<Object[]> userLastLogins = getEntityManager().createNamedQuery("loginHistory.getLastLoggedUsers")
+                                                        .setMaxResults(numUsers)
+                                                        .getResultList();
+      lastLoggedUsers = new LinkedHashMap<>();
+      for (Object[] userLastLogin : userLastLogins) {
+        lastLoggedUsers.put((String) userLastLogin[0], ((Date) userLastLogin[1]).getTime());
       }
     } catch (Exception e) {
       LOG.error("No logged Users found: " + e.getMessage(), e);
@@ -127,6 +292,46 @@ public class LoginHistoryDAO extends GenericDAOJPAImpl<LoginHistoryEntity, Long>
     return lastLoggedUsers;
   }
 
+  /**
+   * returns the just before last login entry date of given users, using one
+   * query per {@value #IN_CLAUSE_SIZE} users. Users who logged in only once
+   * are not returned.
+   *
+   * @param userIds {@link Collection} of user ids
+   * @return a map of before last login dates by user id
+   */
+  public Map<String, Long> getBeforeLastLogins(Collection<String> userIds) {
+    return getLoginDatesOfUsers("loginHistory.getBeforeLastLoginsOfUsers", userIds);
+  }
+
+  /**
+   * returns the last login entry date of given users, using one query per
+   * {@value #IN_CLAUSE_SIZE} users. Users who never logged in are not returned.
+   *
+   * @param userIds {@link Collection} of user ids
+   * @return a map of last login dates by user id
+   */
+  public Map<String, Long> getLastLogins(Collection<String> userIds) {
+    return getLoginDatesOfUsers("loginHistory.getLastLoginsOfUsers", userIds);
+  }
+
+  private Map<String, Long> getLoginDatesOfUsers(String queryName, Collection<String> userIds) {
+    Map<String, Long> loginDates = new HashMap<>();
+    List<String> userIdList = new ArrayList<>(userIds);
+    for (int i = 0; i < userIdList.size(); i += IN_CLAUSE_SIZE) {
+      List<Object[]> userLoginDates = getEntityManager().createNamedQuery(queryName)
+                                                        .setParameter("userIds",
+                                                                      userIdList.subList(i,
+                                                                                         Math.min(i + IN_CLAUSE_SIZE,
+                                                                                                  userIdList.size())))
+                                                        .getResultList();
+      for (Object[] userLoginDate : userLoginDates) {
+        loginDates.put((String) userLoginDate[0], ((Date) userLoginDate[1]).getTime());
+      }
+    }
+    return loginDates;
+  }
+
   /**
    * returns the last history login entry of a given user.
    *
@@ -247,22 +452,7 @@ public class LoginHistoryDAO extends GenericDAOJPAImpl<LoginHistoryEntity, Long>
   public long getBeforeLastLogin(String userId) {
     long beforeLastLogin;
     try {
-      LoginHistoryEntity lastLogin = getLastLoginOfUser(userId);
-      if (lastLogin == null) {
-        beforeLastLogin = 0;
-      } else {
-        Date lastLoginDate = lastLogin.getLoginDate();
-        Long beforeLastLoginId = (Long) getEntityManager().createNamedQuery("loginHistory.getBeforeLastLoginID")
-                                                          .setParameter("userId", userId)
-                                                          .setParameter("lastLoginDate", lastLoginDate)
-                                                          .getSingleResult();
-        if (beforeLastLoginId == null) {
-          beforeLastLogin = 0;
-        } else {
-          LoginHistoryEntity loginHistoryEntity = find(beforeLastLoginId);
-          beforeLastLogin = loginHistoryEntity.getLoginDate().getTime();
-        }
-      }
+      beforeLastLogin = getBeforeLastLogins(Collections.singleton(userId)).getOrDefault(userId, 0L);
     } catch (Exception e) {
       LOG.error("Error while retrieving " + userId + "'s before last login: " + e.getMessage(), e);
       beforeLastLogin = 0;
@@ -0,0 +1,55 @@
+package org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity;
+
+import org.exoplatform.commons.api.persistence.ExoEntity;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Count of logins of all users in a day. A single counter exists per day,
+ * enforced by a unique constraint.
+ */
+@Entity
+@ExoEntity
+@Table(name = "LOGIN_GLOBAL_COUNTERS", uniqueConstraints = @UniqueConstraint(columnNames = "LOGIN_DAY"))
+@NamedQueries({
+    @NamedQuery(name = "loginGlobalCounter.incrementLoginCountInDay", query = "UPDATE GlobalLoginCounterEntity c SET c.loginCount = c.loginCount + :count WHERE c.loginDay = :loginDay"),
+    @NamedQuery(name = "loginGlobalCounter.getLoginCountsInDayRange", query = "SELECT c.loginDay, c.loginCount FROM GlobalLoginCounterEntity c WHERE c.loginDay BETWEEN :from AND :to"),
+    @NamedQuery(name = "loginGlobalCounter.deleteLoginCountsInDayRange", query = "DELETE FROM GlobalLoginCounterEntity c WHERE c.loginDay BETWEEN :from AND :to") })
+public class GlobalLoginCounterEntity {
+  @Id
+  @GeneratedValue
+  @Column(name = "ID")
+  private long id;
+
+  @Temporal(TemporalType.DATE)
+  @Column(name = "LOGIN_DAY")
+  private Date loginDay;
+
+  @Column(name = "LOGIN_COUNT")
+  private long loginCount;
+
+  public GlobalLoginCounterEntity() {
+  }
+
+  public GlobalLoginCounterEntity(Date loginDay, long loginCount) {
+    this.loginDay = loginDay;
+    this.loginCount = loginCount;
+  }
+
+  public long getID() {
+    return id;
+  }
+
+  public Date getLoginDay() {
+    return loginDay;
+  }
+
+  public long getLoginCount() {
+    return loginCount;
+  }
+
+  public void setLoginCount(long loginCount) {
+    this.loginCount = loginCount;
+  }
+}
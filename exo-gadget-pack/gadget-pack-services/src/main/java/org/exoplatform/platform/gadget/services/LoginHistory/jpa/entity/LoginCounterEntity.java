@@ -0,0 +1,63 @@
+package org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity;
+
+import org.exoplatform.commons.api.persistence.ExoEntity;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Count of logins of a user in a day. A single counter exists per user and
+ * day, enforced by a unique constraint.
+ */
+@Entity
+@ExoEntity
+@Table(name = "LOGIN_COUNTERS", uniqueConstraints = @UniqueConstraint(columnNames = { "USER_ID", "LOGIN_DAY" }))
+@NamedQueries({
+    @NamedQuery(name = "loginCounter.incrementLoginCountOfUserInDay", query = "UPDATE LoginCounterEntity c SET c.loginCount = c.loginCount + :count WHERE c.userId = :userId AND c.loginDay = :loginDay"),
+    @NamedQuery(name = "loginCounter.getLoginCountsOfUserInDayRange", query = "SELECT c.loginDay, c.loginCount FROM LoginCounterEntity c WHERE c.userId = :userId AND c.loginDay BETWEEN :from AND :to"),
+    @NamedQuery(name = "loginCounter.deleteLoginCountsInDayRange", query = "DELETE FROM LoginCounterEntity c WHERE c.loginDay BETWEEN :from AND :to") })
+public class LoginCounterEntity {
+  @Id
+  @GeneratedValue
+  @Column(name = "ID")
+  private long   id;
+
+  @Column(name = "USER_ID")
+  private String userId;
+
+  @Temporal(TemporalType.DATE)
+  @Column(name = "LOGIN_DAY")
+  private Date   loginDay;
+
+  @Column(name = "LOGIN_COUNT")
+  private long   loginCount;
+
+  public LoginCounterEntity() {
+  }
+
+  public LoginCounterEntity(String userId, Date loginDay, long loginCount) {
+    this.userId = userId;
+    this.loginDay = loginDay;
+    this.loginCount = loginCount;
+  }
+
+  public long getID() {
+    return id;
+  }
+
+  public String getUserID() {
+    return userId;
+  }
+
+  public Date getLoginDay() {
+    return loginDay;
+  }
+
+  public long getLoginCount() {
+    return loginCount;
+  }
+
+  public void setLoginCount(long loginCount) {
+    this.loginCount = loginCount;
+  }
+}
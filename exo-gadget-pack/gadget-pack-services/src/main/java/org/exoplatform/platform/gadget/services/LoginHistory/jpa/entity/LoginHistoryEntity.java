@@ -10,13 +10,20 @@ import java.util.Date;
 @Table(name = "LOGIN_HISTORY")
 @NamedQueries({
     @NamedQuery(name = "loginHistory.getLastLoginHistory", query = "SELECT l FROM LoginHistoryEntity l ORDER BY l.loginDate DESC"),
-    @NamedQuery(name = "loginHistory.getAllLoggedUsers", query = "SELECT l.userId FROM LoginHistoryEntity l ORDER BY l.loginDate DESC"),
+    @NamedQuery(name = "loginHistory.getLastLoggedUsers", query = "SELECT l.userId, MAX(l.loginDate) FROM LoginHistoryEntity l GROUP BY l.userId ORDER BY MAX(l.loginDate) DESC"),
+    @NamedQuery(name = "loginHistory.getLastLoginsOfUsers", query = "SELECT l.userId, MAX(l.loginDate) FROM LoginHistoryEntity l WHERE l.userId IN (:userIds) GROUP BY l.userId"),
+    @NamedQuery(name = "loginHistory.getBeforeLastLoginsOfUsers", query = "SELECT l.userId, MAX(l.loginDate) FROM LoginHistoryEntity l WHERE l.userId IN (:userIds) AND l.loginDate < (SELECT MAX(m.loginDate) FROM LoginHistoryEntity m WHERE m.userId = l.userId) GROUP BY l.userId"),
     @NamedQuery(name = "loginHistory.getLastLoginsOfUser", query = "SELECT l FROM LoginHistoryEntity l WHERE l.userId = :userId ORDER BY l.loginDate DESC"),
-    @NamedQuery(name = "loginHistory.getBeforeLastLoginID", query = "SELECT MAX(l.id) FROM LoginHistoryEntity l WHERE l.userId = :userId AND l.loginDate < :lastLoginDate"),
     @NamedQuery(name = "loginHistory.getLastLoginsInDateRange", query = "SELECT l FROM LoginHistoryEntity l WHERE l.loginDate BETWEEN :from AND :to"),
     @NamedQuery(name = "loginHistory.getLastLoginsOfUserInDateRange", query = "SELECT l FROM LoginHistoryEntity l WHERE l.userId = :userId AND l.loginDate BETWEEN :from AND :to"),
     @NamedQuery(name = "loginHistory.getLoginsCountInDateRange", query = "SELECT COUNT (l) FROM LoginHistoryEntity l WHERE l.loginDate BETWEEN :from AND :to"),
     @NamedQuery(name = "loginHistory.getLoginsCountOfUserInDateRange", query = "SELECT COUNT (l) FROM LoginHistoryEntity l WHERE l.userId = :userId AND l.loginDate BETWEEN :from AND :to"),
+    @NamedQuery(name = "loginHistory.getLoginsCountPerUserAndDayInDateRange", query = "SELECT l.userId, year(l.loginDate), month(l.loginDate), day(l.loginDate), COUNT(l) FROM LoginHistoryEntity l WHERE l.loginDate BETWEEN :from AND :to GROUP BY l.userId, year(l.loginDate), month(l.loginDate), day(l.loginDate)"),
+    @NamedQuery(name = "loginHistory.getLoginHistoryBeforeDate", query = "SELECT l FROM LoginHistoryEntity l WHERE l.loginDate < :before ORDER BY l.loginDate, l.id"),
+    @NamedQuery(name = "loginHistory.getLoginHistoryPage", query = "SELECT l.id, l.userId, l.loginDate FROM LoginHistoryEntity l WHERE l.loginDate <= :to AND (l.loginDate > :afterDate OR (l.loginDate = :afterDate AND l.id > :afterId)) ORDER BY l.loginDate, l.id"),
+    @NamedQuery(name = "loginHistory.getLoginHistoryPageOfUser", query = "SELECT l.id, l.userId, l.loginDate FROM LoginHistoryEntity l WHERE l.userId = :userId AND l.loginDate <= :to AND (l.loginDate > :afterDate OR (l.loginDate = :afterDate AND l.id > :afterId)) ORDER BY l.loginDate, l.id"),
+    @NamedQuery(name = "loginHistory.deleteLoginHistoryByIds", query = "DELETE FROM LoginHistoryEntity l WHERE l.id IN (:ids)"),
+    @NamedQuery(name = "loginHistory.getFirstLoginDate", query = "SELECT MIN(l.loginDate) FROM LoginHistoryEntity l"),
     @NamedQuery(name = "loginHistory.getLastLoginsAfterDate", query = "SELECT l.userId FROM LoginHistoryEntity l WHERE l.loginDate >= :from ORDER BY l.loginDate DESC"),
     @NamedQuery(name = "loginHistory.getActiveUsersId", query = "SELECT DISTINCT l.userId FROM LoginHistoryEntity l WHERE l.loginDate >= :from") })
 public class LoginHistoryEntity {
@@ -0,0 +1,41 @@
+package org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity;
+
+import org.exoplatform.commons.api.persistence.ExoEntity;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Start date of the last login history purge, shared by the cluster nodes so
+ * that the scheduled purge runs on a single node.
+ */
+@Entity
+@ExoEntity
+@Table(name = "LOGIN_HISTORY_PURGE")
+@NamedQueries({
+    @NamedQuery(name = "loginHistoryPurge.startPurge", query = "UPDATE LoginHistoryPurgeEntity p SET p.lastPurgeDate = :now WHERE p.id = :id AND p.lastPurgeDate < :since") })
+public class LoginHistoryPurgeEntity {
+  @Id
+  @Column(name = "ID")
+  private long id;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "LAST_PURGE_DATE")
+  private Date lastPurgeDate;
+
+  public LoginHistoryPurgeEntity() {
+  }
+
+  public LoginHistoryPurgeEntity(long id, Date lastPurgeDate) {
+    this.id = id;
+    this.lastPurgeDate = lastPurgeDate;
+  }
+
+  public long getID() {
+    return id;
+  }
+
+  public Date getLastPurgeDate() {
+    return lastPurgeDate;
+  }
+}
@@ -222,6 +222,39 @@ public class JCRLoginHistoryStorageImpl implements LoginHistoryStorage {
     }
   }
 
+  @Override
+  public List<LastLoginBean> getLastLogins(Collection<String> userIds) throws Exception {
+    SessionProvider sProvider = SessionProvider.createSystemProvider();
+    try {
+      Session session = this.getSession(sProvider);
+      Node homeNode = session.getRootNode().getNode(HOME);
+      List<LastLoginBean> lastLogins = new ArrayList<LastLoginBean>();
+      for (String userId : userIds) {
+        if (homeNode.hasNode(userId)) {
+          Node userNode = homeNode.getNode(userId);
+          LastLoginBean lastLoginBean = new LastLoginBean();
+          lastLoginBean.setUserId(userId);
+          lastLoginBean.setLastLogin(userNode.getProperty("exo:LoginHisSvc_lastLogin").getLong());
+          lastLoginBean.setBeforeLastLogin(userNode.getProperty("exo:LoginHisSvc_beforeLastLogin").getLong());
+          lastLogins.add(lastLoginBean);
+        }
+      }
+      return lastLogins;
+    } catch (Exception e) {
+      LOG.debug("Error while retrieving last logins of " + userIds.size() + " users: " + e.getMessage(), e);
+      throw e;
+    } finally {
+      sProvider.close();
+    }
+  }
+
+  @Override
+  public void addLoginHistoryEntries(List<LoginHistoryBean> loginHistoryEntries) throws Exception {
+    for (LoginHistoryBean loginHistoryEntry : loginHistoryEntries) {
+      addLoginHistoryEntry(loginHistoryEntry.getUserId(), loginHistoryEntry.getLoginTime());
+    }
+  }
+
   @Override
   public void addLoginHistoryEntry(String userId, long loginTime) throws Exception {
     SessionProvider sProvider = SessionProvider.createSystemProvider();
@@ -1,10 +1,10 @@
 package org.exoplatform.platform.gadget.services.LoginHistory.storage;
 
-import org.exoplatform.commons.api.persistence.ExoTransactional;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.platform.gadget.services.LoginHistory.LastLoginBean;
 import org.exoplatform.platform.gadget.services.LoginHistory.LoginCounterBean;
 import org.exoplatform.platform.gadget.services.LoginHistory.LoginHistoryBean;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao.LoginCounterDAO;
 import org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao.LoginHistoryDAO;
 import org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity.LoginHistoryEntity;
 import org.exoplatform.services.log.ExoLogger;
@@ -12,21 +12,37 @@ import org.exoplatform.services.log.Log;
 import org.exoplatform.services.organization.OrganizationService;
 import org.joda.time.DateTimeConstants;
 
+import javax.persistence.EntityExistsException;
+import java.sql.SQLException;
 import java.time.*;
+import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalAdjusters;
 import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
   private static final Log LOG       = ExoLogger.getLogger(JPALoginHistoryStorageImpl.class);
 
+  // attempts of a login counters write failing on their unique constraints
+  private static final int COUNTERS_WRITE_ATTEMPTS = 3;
+
   private String           ALL_USERS = "AllUsers";
 
   private LoginHistoryDAO  loginHistoryDAO;
 
+  private LoginCounterDAO  loginCounterDAO;
+
   private ZoneId           ZONE_ID   = ZoneId.systemDefault();
 
-  public JPALoginHistoryStorageImpl(LoginHistoryDAO loginHistoryDAO) {
+  // held for reading while adding entries and incrementing their counters, and
+  // for writing while rebuilding the counters of a month, so that an increment
+  // is neither lost nor counted twice by a rebuild running meanwhile
+  private ReadWriteLock    countersLock = new ReentrantReadWriteLock();
+
+  public JPALoginHistoryStorageImpl(LoginHistoryDAO loginHistoryDAO, LoginCounterDAO loginCounterDAO) {
     this.loginHistoryDAO = loginHistoryDAO;
+    this.loginCounterDAO = loginCounterDAO;
   }
 
   /**
@@ -45,6 +61,39 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
     }
   }
 
+  /**
+   * runs a write of the login counters, in its own transaction, again when it
+   * failed on their unique constraints: a counter was inserted meanwhile by
+   * another transaction, so the next attempt updates it.
+   */
+  private void writeLoginCounters(Runnable write) {
+    for (int attempt = 1;; attempt++) {
+      try {
+        write.run();
+        return;
+      } catch (RuntimeException e) {
+        if (attempt >= COUNTERS_WRITE_ATTEMPTS || !isConstraintViolation(e)) {
+          throw e;
+        }
+        LOG.debug("Login counters inserted concurrently, attempt {} is retried", attempt, e);
+      }
+    }
+  }
+
+  private static boolean isConstraintViolation(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      // SQL state class 23: integrity constraint violation
+      if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+          && ((SQLException) cause).getSQLState().startsWith("23")) {
+        return true;
+      }
+      if (cause instanceof EntityExistsException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private static long nextMonday(long date) {
     Instant instant = Instant.ofEpochMilli(date);
     ZoneId zoneId = ZoneId.systemDefault();
@@ -78,37 +127,20 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
 
       // instantiate first day, next day and lastDay variables
       long firstDay = from.toInstant().toEpochMilli();
-      Long nextDay;
-      Long lastDay = to.toInstant().toEpochMilli();
+      long lastDay = to.toInstant().toEpochMilli();
 
-      // returns the user's login count for each day and add it to a list:
-      // loginCount/day
+      // read the user's daily login counters of all the days at once, then add
+      // each day count to the list: loginCount/day
+      Map<Long, Long> loginCounts = getLoginCountPerBuckets(userId, firstDay, lastDay, ChronoUnit.DAYS);
+      ZonedDateTime day = from;
       while (firstDay <= lastDay) {
         LoginCounterBean loginCountPerDay = new LoginCounterBean();
-
-        // set next day
-        Instant instant3 = Instant.ofEpochMilli(firstDay);
-        ZonedDateTime zonedDateTime3 = ZonedDateTime.ofInstant(instant3, ZONE_ID);
-        ZonedDateTime next = zonedDateTime3.plusDays(1);
-        nextDay = next.toInstant().toEpochMilli();
-
-        // set end of day
-        Instant instant4 = Instant.ofEpochMilli(firstDay);
-        ZonedDateTime zonedDateTime4 = ZonedDateTime.ofInstant(instant4, ZONE_ID);
-        ZonedDateTime end = zonedDateTime4.with(LocalTime.MAX);
-        Long endOfDay = end.toInstant().toEpochMilli();
-
-        Long count;
-        if (userId.equals(ALL_USERS) || userId == null) {
-          count = loginHistoryDAO.getLoginsCountInDateRange(firstDay, endOfDay);
-        } else {
-          count = loginHistoryDAO.getLoginCountPerDay(userId, firstDay, endOfDay);
-        }
-        loginCountPerDay.setLoginCount(count);
+        loginCountPerDay.setLoginCount(loginCounts.getOrDefault(firstDay, 0L));
         loginCountPerDay.setLoginDate(firstDay);
         counterBeanList.add(loginCountPerDay);
 
-        firstDay = nextDay;
+        day = day.plusDays(1);
+        firstDay = day.toInstant().toEpochMilli();
       }
     } catch (Exception e) {
       LOG.error("Error while returning the Login Count Per Days In Range of {} : ",userId ,e.getMessage(), e);
@@ -117,10 +149,74 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
     return counterBeanList;
   }
 
-  private int getLoginCountInDateRange(String userId, long fromDate, long toDate) {
-    List<LoginCounterBean> loginCounts = getLoginCountPerDaysInRange(userId, fromDate, toDate);
-    int sum = (int) loginCounts.stream().mapToLong(LoginCounterBean::getLoginCount).sum();
-    return sum;
+  private String getUserIdFilter(String userId) {
+    return userId == null || userId.equals(ALL_USERS) ? null : userId;
+  }
+
+  /**
+   * returns the count of logins per day, week or month between two dates, read
+   * from the daily login counters.
+   */
+  private Map<Long, Long> getLoginCountPerBuckets(String userId, long fromTime, long toTime, ChronoUnit bucketUnit) {
+    SortedMap<Long, Long> loginCountPerDays = loginCounterDAO.getLoginCountPerDays(getUserIdFilter(userId),
+                                                                                   toLocalDate(fromTime),
+                                                                                   toLocalDate(toTime));
+    if (bucketUnit == ChronoUnit.DAYS) {
+      return loginCountPerDays;
+    }
+    Map<Long, Long> loginCounts = new HashMap<>();
+    for (Map.Entry<Long, Long> loginCountPerDay : loginCountPerDays.entrySet()) {
+      loginCounts.merge(LoginHistoryDAO.getBucketStart(loginCountPerDay.getKey(), bucketUnit, ZONE_ID),
+                        loginCountPerDay.getValue(),
+                        Long::sum);
+    }
+    return loginCounts;
+  }
+
+  private LocalDate toLocalDate(long time) {
+    return Instant.ofEpochMilli(time).atZone(ZONE_ID).toLocalDate();
+  }
+
+  /**
+   * recomputes the daily login counters from the login history entries, month
+   * by month, from the oldest login history entry until yesterday. The counters
+   * of the current day are left to the logins being added, and each month is
+   * rebuilt while no login history entries are added on this node.
+   *
+   * @return the number of days having logins
+   */
+  public int rebuildLoginCounters() {
+    Long firstLoginDate = loginHistoryDAO.getFirstLoginDate();
+    if (firstLoginDate == null) {
+      return 0;
+    }
+    LocalDate lastDay = LocalDate.now(ZONE_ID).minusDays(1);
+    // Start from the first login day, not from its month start, so that the
+    // counters of the days purged from the login history are kept
+    LocalDate fromDay = toLocalDate(firstLoginDate);
+    int days = 0;
+    while (!fromDay.isAfter(lastDay)) {
+      LocalDate toDay = fromDay.withDayOfMonth(fromDay.lengthOfMonth());
+      if (toDay.isAfter(lastDay)) {
+        toDay = lastDay;
+      }
+      long fromTime = fromDay.atStartOfDay(ZONE_ID).toInstant().toEpochMilli();
+      long toTime = toDay.plusDays(1).atStartOfDay(ZONE_ID).toInstant().toEpochMilli() - 1;
+      Map<String, Map<LocalDate, Long>> userLoginCounts;
+      countersLock.writeLock().lock();
+      try {
+        userLoginCounts = loginHistoryDAO.getLoginCountPerUsersAndDays(fromTime, toTime);
+        LocalDate from = fromDay;
+        LocalDate to = toDay;
+        writeLoginCounters(() -> loginCounterDAO.replaceLoginCounts(from, to, userLoginCounts));
+      } finally {
+        countersLock.writeLock().unlock();
+      }
+      days += userLoginCounts.values().stream().flatMap(dayCounts -> dayCounts.keySet().stream()).distinct().count();
+      LOG.info("Login counters of {} rebuilt", fromDay.getMonth() + " " + fromDay.getYear());
+      fromDay = toDay.plusDays(1);
+    }
+    return days;
   }
 
   @Override
@@ -151,22 +247,26 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
     List<LastLoginBean> lastLoginBeanList;
     try {
       if (numLogins != 0 && (userId == null || userId.equals("%"))) {
-        List<String> users = loginHistoryDAO.getLastLoggedUsers(numLogins);
-        for (String user : users) {
-          LoginHistoryEntity loginHistoryEntity = loginHistoryDAO.getLastLoginOfUser(user);
-          loginHistoryEntityList.add(loginHistoryEntity);
+        Map<String, Long> lastLogins = loginHistoryDAO.getLastLoggedUsersLogins(numLogins);
+        Map<String, Long> beforeLastLogins = loginHistoryDAO.getBeforeLastLogins(lastLogins.keySet());
+        lastLoginBeanList = new ArrayList<>();
+        for (Map.Entry<String, Long> lastLogin : lastLogins.entrySet()) {
+          lastLoginBeanList.add(convertToLastLoginBean(lastLogin.getKey(),
+                                                       lastLogin.getValue(),
+                                                       beforeLastLogins.getOrDefault(lastLogin.getKey(), 0L)));
         }
-      } else if (userId != null && !userId.equals("%")) {
-        if (numLogins == 0) {
-          loginHistoryEntityList = loginHistoryDAO.getLastLoginsOfUser(1, userId);
+      } else {
+        if (userId != null && !userId.equals("%")) {
+          if (numLogins == 0) {
+            loginHistoryEntityList = loginHistoryDAO.getLastLoginsOfUser(1, userId);
+          } else {
+            loginHistoryEntityList = loginHistoryDAO.getLastLoginsOfUser(numLogins, userId);
+          }
         } else {
-          loginHistoryEntityList = loginHistoryDAO.getLastLoginsOfUser(numLogins, userId);
+          loginHistoryEntityList.add(loginHistoryDAO.getLastLoginHistory());
         }
-      } else {
-        loginHistoryEntityList.add(loginHistoryDAO.getLastLoginHistory());
+        lastLoginBeanList = convertToLastLoginBeanList(loginHistoryEntityList);
       }
-
-      lastLoginBeanList = convertToLastLoginBeanList(loginHistoryEntityList);
     } catch (Exception e) {
       LOG.error("Error while retrieving last {} logins for {} : ", numLogins, userId, e.getMessage(), e);
       lastLoginBeanList = null;
@@ -174,14 +274,81 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
     return lastLoginBeanList;
   }
 
-  @ExoTransactional
+  /**
+   * returns the last and before last logins of given users, using two queries
+   * per batch of users whatever their number of logins.
+   *
+   * @param userIds {@link Collection} of user ids
+   * @return LastLoginBean list
+   */
+  @Override
+  public List<LastLoginBean> getLastLogins(Collection<String> userIds) {
+    Map<String, Long> lastLogins = loginHistoryDAO.getLastLogins(userIds);
+    Map<String, Long> beforeLastLogins = loginHistoryDAO.getBeforeLastLogins(lastLogins.keySet());
+    List<LastLoginBean> lastLoginBeanList = new ArrayList<>();
+    for (Map.Entry<String, Long> lastLogin : lastLogins.entrySet()) {
+      LastLoginBean lastLoginBean = new LastLoginBean();
+      lastLoginBean.setUserId(lastLogin.getKey());
+      lastLoginBean.setLastLogin(lastLogin.getValue());
+      lastLoginBean.setBeforeLastLogin(beforeLastLogins.getOrDefault(lastLogin.getKey(), 0L));
+      lastLoginBeanList.add(lastLoginBean);
+    }
+    return lastLoginBeanList;
+  }
+
+  /**
+   * adds a login history entry then increments the daily login counters, in a
+   * separate transaction so that a counter update failure doesn't lose the
+   * entry: the counters can be fixed later by {@link #rebuildLoginCounters()}.
+   */
   public void addLoginHistoryEntry(String userId, long loginTime) {
+    countersLock.readLock().lock();
     try {
-      Date loginDate = new Date(loginTime);
-      LoginHistoryEntity loginHistoryEntity = new LoginHistoryEntity(userId, loginDate);
-      loginHistoryDAO.create(loginHistoryEntity); // the create method will return the entity which we'll ignore.
-    } catch (Exception e) {
-      LOG.error("Error while adding login history for user {} : ", userId, e.getMessage(), e);
+      try {
+        Date loginDate = new Date(loginTime);
+        LoginHistoryEntity loginHistoryEntity = new LoginHistoryEntity(userId, loginDate);
+        loginHistoryDAO.create(loginHistoryEntity); // the create method will return the entity which we'll ignore.
+      } catch (Exception e) {
+        LOG.error("Error while adding login history for user {} : ", userId, e.getMessage(), e);
+        return;
+      }
+      try {
+        writeLoginCounters(() -> loginCounterDAO.incrementLoginCount(userId, toLocalDate(loginTime), 1));
+      } catch (Exception e) {
+        LOG.error("Error while updating login counters of user {} : ", userId, e.getMessage(), e);
+      }
+    } finally {
+      countersLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * adds several login history entries in a single transaction, then increments
+   * the daily login counters once per user and day in a second one. An error
+   * while adding the entries is thrown, so that callers can keep them.
+   */
+  @Override
+  public void addLoginHistoryEntries(List<LoginHistoryBean> loginHistoryEntries) {
+    if (loginHistoryEntries == null || loginHistoryEntries.isEmpty()) {
+      return;
+    }
+    List<LoginHistoryEntity> loginHistoryEntities = new ArrayList<>();
+    Map<String, Map<LocalDate, Long>> userLoginCounts = new HashMap<>();
+    for (LoginHistoryBean loginHistoryEntry : loginHistoryEntries) {
+      loginHistoryEntities.add(new LoginHistoryEntity(loginHistoryEntry.getUserId(), new Date(loginHistoryEntry.getLoginTime())));
+      userLoginCounts.computeIfAbsent(loginHistoryEntry.getUserId(), userId -> new HashMap<>())
+                     .merge(toLocalDate(loginHistoryEntry.getLoginTime()), 1L, Long::sum);
+    }
+    countersLock.readLock().lock();
+    try {
+      loginHistoryDAO.createAll(loginHistoryEntities);
+      try {
+        writeLoginCounters(() -> loginCounterDAO.incrementLoginCounts(userLoginCounts));
+      } catch (Exception e) {
+        LOG.error("Error while updating login counters of {} users", userLoginCounts.size(), e);
+      }
+    } finally {
+      countersLock.readLock().unlock();
     }
   }
 
@@ -264,16 +431,13 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
 
   @Override
   public List<LoginCounterBean> getLoginCountPerWeeksInMonths(String userId, long fromMonth, int numOfMonths) {
-    Instant instant = Instant.now();
-    ZonedDateTime zonedDateTime = ZonedDateTime.ofInstant(instant, ZONE_ID);
-
-    long now = zonedDateTime.toInstant().toEpochMilli();
+    long now = System.currentTimeMillis();
 
     Instant instant1 = Instant.ofEpochMilli(fromMonth);
     ZonedDateTime zonedDateTime1 = ZonedDateTime.ofInstant(instant1, ZONE_ID);
+    long toMonth = zonedDateTime1.plusMonths(numOfMonths).toInstant().toEpochMilli();
 
-    ZonedDateTime zonedDateTime2 = zonedDateTime1.withMonth(numOfMonths);
-    long toMonth = zonedDateTime2.toInstant().toEpochMilli();
+    Map<Long, Long> loginCounts = getLoginCountPerBuckets(userId, fromMonth, toMonth - 1, ChronoUnit.WEEKS);
 
     long fromDate, toDate = fromMonth;
     List<LoginCounterBean> list = new ArrayList<>();
@@ -287,9 +451,10 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
       LoginCounterBean loginCountPerWeek = new LoginCounterBean();
       loginCountPerWeek.setLoginDate(fromDate);
       loginCountPerWeek.setLoginCount(fromDate > now ? -1
-                                                     : getLoginCountInDateRange(userId,
-                                                                                fromDate,
-                                                                                toDate - DateTimeConstants.MILLIS_PER_DAY));
+                                                     : loginCounts.getOrDefault(LoginHistoryDAO.getBucketStart(fromDate,
+                                                                                                               ChronoUnit.WEEKS,
+                                                                                                               ZONE_ID),
+                                                                                0L));
 
       list.add(loginCountPerWeek);
     } while (toDate < toMonth);
@@ -299,14 +464,13 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
 
   @Override
   public List<LoginCounterBean> getLoginCountPerMonthsInYear(String userId, long year) {
-    Instant instant = Instant.now();
-    ZonedDateTime zonedDateTime = ZonedDateTime.ofInstant(instant, ZONE_ID);
-    long now = zonedDateTime.toInstant().toEpochMilli();
+    long now = System.currentTimeMillis();
 
     Instant instant1 = Instant.ofEpochMilli(year);
     ZonedDateTime zonedDateTime1 = ZonedDateTime.ofInstant(instant1, ZONE_ID);
-    ZonedDateTime zonedDateTime2 = zonedDateTime1.withYear(1);
-    long nextYear = zonedDateTime2.toInstant().toEpochMilli();
+    long nextYear = zonedDateTime1.plusYears(1).toInstant().toEpochMilli();
+
+    Map<Long, Long> loginCounts = getLoginCountPerBuckets(userId, year, nextYear - 1, ChronoUnit.MONTHS);
 
     long fromDate, toDate = year;
     List<LoginCounterBean> list = new ArrayList<>();
@@ -314,21 +478,21 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
     do {
       fromDate = toDate;
       Instant instant2 = Instant.ofEpochMilli(toDate);
-      ZonedDateTime zonedDateTime3 = ZonedDateTime.ofInstant(instant2, ZONE_ID);
-      ZonedDateTime zonedDateTime4 = zonedDateTime3.withMonth(1);
+      ZonedDateTime zonedDateTime2 = ZonedDateTime.ofInstant(instant2, ZONE_ID);
 
-      toDate = zonedDateTime4.toInstant().toEpochMilli();
+      toDate = zonedDateTime2.plusMonths(1).toInstant().toEpochMilli();
       if (toDate > nextYear)
         toDate = nextYear;
 
-      LoginCounterBean loginCountPerWeek = new LoginCounterBean();
-      loginCountPerWeek.setLoginDate(fromDate);
-      loginCountPerWeek.setLoginCount(fromDate > now ? -1
-                                                     : getLoginCountInDateRange(userId,
-                                                                                fromDate,
-                                                                                toDate - DateTimeConstants.MILLIS_PER_DAY));
+      LoginCounterBean loginCountPerMonth = new LoginCounterBean();
+      loginCountPerMonth.setLoginDate(fromDate);
+      loginCountPerMonth.setLoginCount(fromDate > now ? -1
+                                                      : loginCounts.getOrDefault(LoginHistoryDAO.getBucketStart(fromDate,
+                                                                                                                ChronoUnit.MONTHS,
+                                                                                                                ZONE_ID),
+                                                                                 0L));
 
-      list.add(loginCountPerWeek);
+      list.add(loginCountPerMonth);
     } while (toDate < nextYear);
 
     return list;
@@ -343,12 +507,12 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
    * returns a converted LoginHistoryBean from a given LoginHistoryEntity.
    *
    * @param loginHistoryEntity {@link LoginHistoryEntity}
+   * @param userName {@link String} full name of the user
    * @return Login History Bean
    */
-  private LoginHistoryBean convertToLoginHistoryBean(LoginHistoryEntity loginHistoryEntity) {
+  private LoginHistoryBean convertToLoginHistoryBean(LoginHistoryEntity loginHistoryEntity, String userName) {
     LoginHistoryBean loginHistoryBean = new LoginHistoryBean();
     String userID = loginHistoryEntity.getUserID();
-    String userName = getUserFullName(loginHistoryEntity.getUserID());
     long LoginTime = loginHistoryEntity.getLoginDate().getTime();
 
     loginHistoryBean.setUserId(userID);
@@ -358,18 +522,16 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
   }
 
   /**
-   * returns a converted LastLoginBean from a given LoginHistoryEntity.
+   * returns a LastLoginBean of a given user.
    * 
-   * @param loginHistoryEntity {@link LoginHistoryEntity}
+   * @param userID {@link String}
+   * @param lastLogin long
+   * @param beforeLastLogin long
    * @return Last Login Bean
-   * @throws Exception
    */
-  private LastLoginBean convertToLastLoginBean(LoginHistoryEntity loginHistoryEntity) throws Exception {
+  private LastLoginBean convertToLastLoginBean(String userID, long lastLogin, long beforeLastLogin) {
     LastLoginBean lastLoginBean = new LastLoginBean();
-    String userID = loginHistoryEntity.getUserID();
-    String userName = getUserFullName(loginHistoryEntity.getUserID());
-    long lastLogin = loginHistoryEntity.getLoginDate().getTime();
-    long beforeLastLogin = getBeforeLastLogin(loginHistoryEntity.getUserID());
+    String userName = getUserFullName(userID);
 
     lastLoginBean.setUserId(userID);
     lastLoginBean.setUserName(userName);
@@ -380,17 +542,19 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
 
   /**
    * returns a converted list of LoginHistoryBeans from a given list of
-   * LoginHistoryEntities.
+   * LoginHistoryEntities, the full name of each user being retrieved once.
    *
    * @param loginHistoryEntityList List<{@link LoginHistoryEntity}>
    * @return LoginHistoryBean list
    */
   private List<LoginHistoryBean> convertToLoginHistoryBeanList(List<LoginHistoryEntity> loginHistoryEntityList) {
     List<LoginHistoryBean> loginHistoryBeanList = new ArrayList<>();
+    Map<String, String> userFullNames = new HashMap<>();
     LoginHistoryBean loginHistoryBean;
 
     for (LoginHistoryEntity loginHistoryEntity : loginHistoryEntityList) {
-      loginHistoryBean = convertToLoginHistoryBean(loginHistoryEntity);
+      String userName = userFullNames.computeIfAbsent(loginHistoryEntity.getUserID(), this::getUserFullName);
+      loginHistoryBean = convertToLoginHistoryBean(loginHistoryEntity, userName);
       loginHistoryBeanList.add(loginHistoryBean);
     }
     return loginHistoryBeanList;
@@ -398,18 +562,25 @@ public class JPALoginHistoryStorageImpl implements LoginHistoryStorage {
 
   /**
    * returns a converted list of LastLoginBeans from a given list of
-   * LoginHistoryEntities.
+   * LoginHistoryEntities, the before last logins of their users being
+   * retrieved at once.
    * 
    * @param loginHistoryEntityList List<{@link LoginHistoryEntity}>>
    * @return LastLoginBean list
-   * @throws Exception
    */
-  private List<LastLoginBean> convertToLastLoginBeanList(List<LoginHistoryEntity> loginHistoryEntityList) throws Exception {
+  private List<LastLoginBean> convertToLastLoginBeanList(List<LoginHistoryEntity> loginHistoryEntityList) {
     List<LastLoginBean> lastLoginBeanList = new ArrayList<>();
+    Set<String> userIds = new HashSet<>();
+    for (LoginHistoryEntity loginHistoryEntity : loginHistoryEntityList) {
+      userIds.add(loginHistoryEntity.getUserID());
+    }
+    Map<String, Long> beforeLastLogins = loginHistoryDAO.getBeforeLastLogins(userIds);
     LastLoginBean lastLoginBean;
 
     for (LoginHistoryEntity loginHistoryEntity : loginHistoryEntityList) {
-      lastLoginBean = convertToLastLoginBean(loginHistoryEntity);
+      lastLoginBean = convertToLastLoginBean(loginHistoryEntity.getUserID(),
+                                             loginHistoryEntity.getLoginDate().getTime(),
+                                             beforeLastLogins.getOrDefault(loginHistoryEntity.getUserID(), 0L));
       lastLoginBeanList.add(lastLoginBean);
     }
     return lastLoginBeanList;
@@ -20,6 +20,7 @@ import org.exoplatform.platform.gadget.services.LoginHistory.LastLoginBean;
 import org.exoplatform.platform.gadget.services.LoginHistory.LoginCounterBean;
 import org.exoplatform.platform.gadget.services.LoginHistory.LoginHistoryBean;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -30,8 +31,20 @@ public interface LoginHistoryStorage {
 
   List<LastLoginBean> getLastLogins(int numLogins, String userIdFilter) throws Exception;
 
+  /**
+   * returns the last and before last logins of given users, the users who
+   * never logged in being ignored. The user names are not set.
+   *
+   * @param userIds {@link Collection} of user ids
+   * @return LastLoginBean list
+   * @throws Exception
+   */
+  List<LastLoginBean> getLastLogins(Collection<String> userIds) throws Exception;
+
   void addLoginHistoryEntry(String userId, long loginTime) throws Exception;
 
+  void addLoginHistoryEntries(List<LoginHistoryBean> loginHistoryEntries) throws Exception;
+
   List<LoginHistoryBean> getLoginHistory(String userId, long fromTime, long toTime) throws Exception;
 
   Set<String> getLastUsersLogin(long fromTime) throws Exception;
@@ -0,0 +1,78 @@
+/***************************************************************************
+ * Copyright (C) 2003-2019 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ ***************************************************************************/
+package org.exoplatform.platform.gadget.services.util;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Reads the value params of the gadget pack services configuration.
+ */
+public class InitParamsUtils {
+
+  private static final Log LOG = ExoLogger.getLogger(InitParamsUtils.class);
+
+  private InitParamsUtils() {
+  }
+
+  /**
+   * @return the trimmed value of a value param, null if it isn't set or empty
+   */
+  public static String getParam(InitParams params, String name) {
+    ValueParam param = params == null ? null : params.getValueParam(name);
+    if (param == null || param.getValue() == null || param.getValue().trim().isEmpty()) {
+      return null;
+    }
+    return param.getValue().trim();
+  }
+
+  /**
+   * @return the value of a value param, or the default value if it isn't set
+   *         or isn't a number
+   */
+  public static long getLongParam(InitParams params, String name, long defaultValue) {
+    String value = getParam(params, name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      LOG.warn("Unable to parse {} value {}, default value {} will be used", name, value, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @return the value of a value param, or the default value if it isn't set
+   *         or isn't a number
+   */
+  public static int getIntParam(InitParams params, String name, int defaultValue) {
+    String value = getParam(params, name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      LOG.warn("Unable to parse {} value {}, default value {} will be used", name, value, defaultValue);
+      return defaultValue;
+    }
+  }
+}
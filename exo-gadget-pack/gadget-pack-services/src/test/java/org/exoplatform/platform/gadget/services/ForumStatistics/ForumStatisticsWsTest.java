@@ -1,7 +1,10 @@
 package org.exoplatform.platform.gadget.services.ForumStatistics;
 
+import java.util.Date;
+
 import org.exoplatform.platform.gadget.services.test.GadgetServiceTestcase;
 import org.exoplatform.services.rest.impl.ContainerResponse;
+import org.exoplatform.services.rest.impl.MultivaluedMapImpl;
 
 public class ForumStatisticsWsTest extends GadgetServiceTestcase {
 	public void testForumStatistics() {
@@ -26,6 +29,36 @@ public class ForumStatisticsWsTest extends GadgetServiceTestcase {
 		}
 	}
 
+	public void testForumWeeklyStatisticsNotModified() {
+		try{
+			ContainerResponse cres = launcher.service("GET", "/forumsService/forums/weeklystatistic/", "", null, null, null);
+			assertEquals(200, cres.getStatus());
+			Object entityTag = cres.getHttpHeaders().getFirst("ETag");
+			assertNotNull(entityTag);
+			assertNotNull(cres.getHttpHeaders().getFirst("Last-Modified"));
+
+			MultivaluedMapImpl headers = new MultivaluedMapImpl();
+			headers.putSingle("If-None-Match", entityTag.toString());
+			cres = launcher.service("GET", "/forumsService/forums/weeklystatistic/", "", headers, null, null);
+			assertEquals(304, cres.getStatus());
+			assertNull(cres.getEntity());
+
+			// A saved week invalidates the cached statistics
+			ForumsWeeklyStatisticService service = getService(ForumsWeeklyStatisticService.class);
+			ForumsWeeklyStatistic weeklyStatistic = new ForumsWeeklyStatistic();
+			weeklyStatistic.setStartDate(new Date());
+			weeklyStatistic.setLastStatEntry(new Date());
+			weeklyStatistic.setStartPostsCountOfWeek(0L);
+			weeklyStatistic.setPostsCountOfWeek(0L);
+			service.saveForumsWeeklyStatistic(weeklyStatistic);
+			cres = launcher.service("GET", "/forumsService/forums/weeklystatistic/", "", headers, null, null);
+			assertEquals(200, cres.getStatus());
+			assertNotNull(cres.getEntity());
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+
 	public void testForumToprate() {
 		try {
 			ContainerResponse cres = launcher.service("GET", "/forumsService/forums/toprate/5", "", null, null, null);
@@ -0,0 +1,159 @@
+package org.exoplatform.platform.gadget.services.ForumStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.forum.common.jcr.KSDataLocation;
+import org.exoplatform.platform.gadget.services.test.GadgetServiceTestcase;
+import org.exoplatform.services.jcr.ext.common.SessionProvider;
+
+public class ForumsIntranetServiceTest extends GadgetServiceTestcase {
+
+  private KSDataLocation  dataLocation;
+
+  private SessionProvider sProvider;
+
+  private Node            category;
+
+  public void setUp() {
+    super.setUp();
+    dataLocation = getService(KSDataLocation.class);
+    sProvider = SessionProvider.createSystemProvider();
+    try {
+      Session session = dataLocation.getSessionManager().getSession(sProvider);
+      Node forumData = getOrAddNode(session.getRootNode().getNode("exo:applications/ForumService"), "ForumData", "exo:forumData");
+      Node categoryHome = getOrAddNode(forumData, "CategoryHome", "exo:categoryHome");
+      assertEquals(dataLocation.getForumHomeLocation(), categoryHome.getPath().substring(1));
+      category = categoryHome.addNode("topRatedCategory", "exo:forumCategory");
+      Node privateForum = addForum("privateForum", "privateGroup");
+      Node publicForum = addForum("publicForum");
+      addTopic(privateForum, "privateTopic1", 4.9);
+      addTopic(privateForum, "privateTopic2", 4.8);
+      addTopic(publicForum, "restrictedTopic", 4.5).setProperty("exo:canView", new String[] { "privateGroup" });
+      addTopic(publicForum, "publicTopic1", 4.0);
+      addTopic(publicForum, "publicTopic2", 3.0);
+      session.save();
+    } catch (Exception e) {
+      fail("Failed to create forum topics: " + e.getMessage());
+    }
+  }
+
+  public void tearDown() throws Exception {
+    try {
+      Session session = category.getSession();
+      category.remove();
+      session.save();
+    } finally {
+      sProvider.close();
+    }
+  }
+
+  public void testTopRatedTopicsVisibleByUser() throws Exception {
+    ForumsIntranetServiceImp service = createService(2, 3600000);
+
+    assertEquals(Arrays.asList("privateTopic1", "privateTopic2"),
+                 getTopicIds(service.getTopRateTopicByUser(Arrays.asList("mary", "privateGroup"), 2)));
+    assertEquals(Arrays.asList("privateTopic1", "privateTopic2", "restrictedTopic", "publicTopic1"),
+                 getTopicIds(service.getTopRateTopicByUser(Arrays.asList("mary", "privateGroup"), 4)));
+    // The indexed topics aren't visible, the following ones are read
+    assertEquals(Arrays.asList("publicTopic1", "publicTopic2"),
+                 getTopicIds(service.getTopRateTopicByUser(Arrays.asList("john"), 5)));
+  }
+
+  public void testTopRatedTopicsFollowingUnreadableTopic() throws Exception {
+    // Topic without its voters property can't be read, so isn't indexed
+    Node unreadableTopic = addTopic(category.getNode("privateForum"), "unreadableTopic", 5.0);
+    unreadableTopic.getProperty("exo:userVoteRating").remove();
+    category.getSession().save();
+    ForumsIntranetServiceImp service = createService(2, 3600000);
+
+    assertEquals(Arrays.asList("privateTopic1", "privateTopic2", "restrictedTopic"),
+                 getTopicIds(service.getTopRateTopicByUser(Arrays.asList("mary", "privateGroup"), 3)));
+    assertEquals(Arrays.asList("publicTopic1", "publicTopic2"),
+                 getTopicIds(service.getTopRateTopicByUser(Arrays.asList("john"), 5)));
+  }
+
+  public void testTopRatedIndexRefresh() throws Exception {
+    ForumsIntranetServiceImp service = createService(10, 500);
+    assertEquals(Arrays.asList("publicTopic1"), getTopicIds(service.getTopRateTopicByUser(Arrays.asList("john"), 1)));
+
+    Node topic = category.getNode("publicForum/publicTopic2");
+    topic.setProperty("exo:voteRating", 4.2);
+    topic.getSession().save();
+    assertEquals("Votes are taken into account once the index is refreshed",
+                 Arrays.asList("publicTopic1"),
+                 getTopicIds(service.getTopRateTopicByUser(Arrays.asList("john"), 1)));
+
+    Thread.sleep(600);
+    assertEquals(Arrays.asList("publicTopic2"), getTopicIds(service.getTopRateTopicByUser(Arrays.asList("john"), 1)));
+  }
+
+  public void testTopRatedIndexPermissionsChange() throws Exception {
+    ForumsIntranetServiceImp service = createService(10, 3600000);
+    assertEquals(Arrays.asList("publicTopic1"), getTopicIds(service.getTopRateTopicByUser(Arrays.asList("john"), 1)));
+
+    Node forum = category.getNode("publicForum");
+    forum.setProperty("exo:viewer", new String[] { "privateGroup" });
+    forum.getSession().save();
+    assertEquals("Permissions changes are taken into account before the index is refreshed",
+                 new ArrayList<String>(),
+                 getTopicIds(service.getTopRateTopicByUser(Arrays.asList("john"), 1)));
+  }
+
+  private ForumsIntranetServiceImp createService(int indexSize, long refreshPeriod) throws Exception {
+    InitParams params = new InitParams();
+    params.addParameter(createValueParam("index.size", String.valueOf(indexSize)));
+    params.addParameter(createValueParam("index.refresh.period", String.valueOf(refreshPeriod)));
+    return new ForumsIntranetServiceImp(params, dataLocation);
+  }
+
+  private Node addForum(String name, String... viewers) throws Exception {
+    Node forum = category.addNode(name, "exo:forum");
+    forum.setProperty("exo:isClosed", false);
+    forum.setProperty("exo:moderators", new String[0]);
+    forum.setProperty("exo:viewer", viewers);
+    return forum;
+  }
+
+  private Node addTopic(Node forum, String name, double voteRating) throws Exception {
+    Node topic = forum.addNode(name, "exo:topic");
+    topic.setProperty("exo:name", name);
+    topic.setProperty("exo:owner", "root");
+    topic.setProperty("exo:link", "/" + name);
+    topic.setProperty("exo:createdDate", Calendar.getInstance());
+    topic.setProperty("exo:voteRating", voteRating);
+    topic.setProperty("exo:userVoteRating", new String[] { "root" });
+    topic.setProperty("exo:isClosed", false);
+    topic.setProperty("exo:isWaiting", false);
+    topic.setProperty("exo:isApproved", true);
+    topic.setProperty("exo:isActive", true);
+    topic.setProperty("exo:isActiveByForum", true);
+    return topic;
+  }
+
+  private Node getOrAddNode(Node parent, String name, String nodeType) throws Exception {
+    return parent.hasNode(name) ? parent.getNode(name) : parent.addNode(name, nodeType);
+  }
+
+  private List<String> getTopicIds(List<TopicBean> topics) {
+    List<String> topicIds = new ArrayList<String>();
+    for (TopicBean topic : topics) {
+      topicIds.add(topic.getId());
+    }
+    return topicIds;
+  }
+
+  private ValueParam createValueParam(String name, String value) {
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName(name);
+    valueParam.setValue(value);
+    return valueParam;
+  }
+}
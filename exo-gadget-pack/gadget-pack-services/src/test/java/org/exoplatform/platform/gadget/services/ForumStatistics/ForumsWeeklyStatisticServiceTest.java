@@ -0,0 +1,38 @@
+package org.exoplatform.platform.gadget.services.ForumStatistics;
+
+import java.util.Date;
+import java.util.List;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.forum.common.jcr.KSDataLocation;
+import org.exoplatform.platform.gadget.services.test.GadgetServiceTestcase;
+
+public class ForumsWeeklyStatisticServiceTest extends GadgetServiceTestcase {
+
+  public void testWeeklyStatisticSavedOnAnotherNode() throws Exception {
+    InitParams params = new InitParams();
+    ValueParam refreshPeriod = new ValueParam();
+    refreshPeriod.setName("statistic.refresh.period");
+    refreshPeriod.setValue("500");
+    params.addParameter(refreshPeriod);
+    KSDataLocation dataLocation = getService(KSDataLocation.class);
+    // Services of two cluster nodes
+    ForumsWeeklyStatisticServiceImp service = new ForumsWeeklyStatisticServiceImp(params, dataLocation, null);
+    ForumsWeeklyStatisticServiceImp otherNodeService = new ForumsWeeklyStatisticServiceImp(params, dataLocation, null);
+
+    ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> snapshot = service.getForumsWeeklyStatisticSnapshot();
+    ForumsWeeklyStatistic weeklyStatistic = new ForumsWeeklyStatistic();
+    weeklyStatistic.setStartDate(new Date());
+    weeklyStatistic.setLastStatEntry(new Date());
+    weeklyStatistic.setStartPostsCountOfWeek(0L);
+    weeklyStatistic.setPostsCountOfWeek(0L);
+    otherNodeService.saveForumsWeeklyStatistic(weeklyStatistic);
+    assertSame("Statistics are cached during the refresh period", snapshot, service.getForumsWeeklyStatisticSnapshot());
+
+    Thread.sleep(600);
+    ForumsStatisticSnapshot<List<ForumsWeeklyStatistic>> refreshedSnapshot = service.getForumsWeeklyStatisticSnapshot();
+    assertEquals(snapshot.getData().size() + 1, refreshedSnapshot.getData().size());
+    assertFalse(snapshot.getVersion().equals(refreshedSnapshot.getVersion()));
+  }
+}
@@ -0,0 +1,117 @@
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.exoplatform.commons.persistence.impl.EntityManagerService;
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao.LoginHistoryDAO;
+
+import junit.framework.TestCase;
+
+public class LoginHistoryExporterTest extends TestCase {
+
+  private EntityManagerService entityManagerService;
+
+  private LoginHistoryService  loginHistoryService;
+
+  private LoginHistoryExporter loginHistoryExporter;
+
+  private long                 fromTime;
+
+  private long                 toTime;
+
+  public void setUp() throws Exception {
+    PortalContainer container = PortalContainer.getInstance();
+    entityManagerService = container.getComponentInstanceOfType(EntityManagerService.class);
+    loginHistoryService = container.getComponentInstanceOfType(LoginHistoryService.class);
+    InitParams params = new InitParams();
+    addValueParam(params, "export.page.size", "2");
+    addValueParam(params, "fullname.cache.size", "1");
+    loginHistoryExporter = new LoginHistoryExporter(container.getComponentInstanceOfType(LoginHistoryDAO.class), params);
+
+    fromTime = getTime(LocalDateTime.of(2005, 3, 1, 0, 0));
+    toTime = getTime(LocalDateTime.of(2005, 3, 31, 0, 0));
+    entityManagerService.startRequest(container);
+    try {
+      if (!loginHistoryService.getLoginHistory("exportUser1", fromTime, toTime).isEmpty()) {
+        return;
+      }
+    } finally {
+      entityManagerService.endRequest(container);
+    }
+    // Logins at the same time are exported once each, across pages
+    List<LoginHistoryBean> loginHistoryEntries = new ArrayList<>();
+    loginHistoryEntries.add(createEntry("exportUser1", getTime(LocalDateTime.of(2005, 3, 2, 9, 0))));
+    loginHistoryEntries.add(createEntry("exportUser2", getTime(LocalDateTime.of(2005, 3, 3, 9, 0))));
+    loginHistoryEntries.add(createEntry("exportUser1", getTime(LocalDateTime.of(2005, 3, 3, 9, 0))));
+    loginHistoryEntries.add(createEntry("exportUser2", getTime(LocalDateTime.of(2005, 3, 3, 9, 0))));
+    loginHistoryEntries.add(createEntry("exportUser1", getTime(LocalDateTime.of(2005, 3, 31, 0, 0))));
+    loginHistoryEntries.add(createEntry("exportUser1", getTime(LocalDateTime.of(2005, 4, 1, 9, 0))));
+    entityManagerService.startRequest(container);
+    try {
+      loginHistoryService.addLoginHistoryEntries(loginHistoryEntries);
+    } finally {
+      entityManagerService.endRequest(container);
+    }
+  }
+
+  public void testExportAllUsersAsNdjson() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    long exported = loginHistoryExporter.export(LoginHistoryService.ALL_USERS,
+                                                fromTime,
+                                                toTime,
+                                                LoginHistoryExporter.Format.NDJSON,
+                                                outputStream);
+
+    String[] lines = new String(outputStream.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(5, exported);
+    assertEquals(5, lines.length);
+    assertEquals("{\"userId\":\"exportUser1\",\"userName\":\"exportUser1\",\"loginTime\":"
+        + getTime(LocalDateTime.of(2005, 3, 2, 9, 0)) + "}", lines[0]);
+    int sameTimeLogins = 0;
+    for (int i = 1; i < 4; i++) {
+      if (lines[i].endsWith("\"loginTime\":" + getTime(LocalDateTime.of(2005, 3, 3, 9, 0)) + "}")) {
+        sameTimeLogins++;
+      }
+    }
+    assertEquals(3, sameTimeLogins);
+    assertTrue(lines[4].endsWith("\"loginTime\":" + toTime + "}"));
+  }
+
+  public void testExportUserAsCsv() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    long exported = loginHistoryExporter.export("exportUser2", fromTime, toTime, LoginHistoryExporter.Format.CSV, outputStream);
+
+    String[] lines = new String(outputStream.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(2, exported);
+    assertEquals(3, lines.length);
+    assertEquals("userId,userName,loginTime", lines[0]);
+    assertEquals("exportUser2,exportUser2," + getTime(LocalDateTime.of(2005, 3, 3, 9, 0)), lines[1]);
+    assertEquals("exportUser2,exportUser2," + getTime(LocalDateTime.of(2005, 3, 3, 9, 0)), lines[2]);
+  }
+
+  private LoginHistoryBean createEntry(String userId, long loginTime) {
+    LoginHistoryBean loginHistoryEntry = new LoginHistoryBean();
+    loginHistoryEntry.setUserId(userId);
+    loginHistoryEntry.setLoginTime(loginTime);
+    return loginHistoryEntry;
+  }
+
+  private void addValueParam(InitParams params, String name, String value) {
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName(name);
+    valueParam.setValue(value);
+    params.addParameter(valueParam);
+  }
+
+  private long getTime(LocalDateTime dateTime) {
+    return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+}
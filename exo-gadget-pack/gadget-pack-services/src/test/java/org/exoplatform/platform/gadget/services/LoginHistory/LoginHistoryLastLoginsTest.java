@@ -0,0 +1,92 @@
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.exoplatform.commons.persistence.impl.EntityManagerService;
+import org.exoplatform.container.PortalContainer;
+
+import junit.framework.TestCase;
+
+public class LoginHistoryLastLoginsTest extends TestCase {
+
+  private EntityManagerService entityManagerService;
+
+  private LoginHistoryService  loginHistoryService;
+
+  public void setUp() {
+    PortalContainer container = PortalContainer.getInstance();
+    entityManagerService = container.getComponentInstanceOfType(EntityManagerService.class);
+    loginHistoryService = container.getComponentInstanceOfType(LoginHistoryService.class);
+    entityManagerService.startRequest(container);
+  }
+
+  public void tearDown() {
+    entityManagerService.endRequest(PortalContainer.getInstance());
+  }
+
+  public void testLastLoggedUsers() throws Exception {
+    long user1FirstLogin = getTime(LocalDateTime.of(2010, 1, 1, 10, 0));
+    long user2Login = getTime(LocalDateTime.of(2010, 1, 1, 11, 0));
+    long user1BeforeLastLogin = getTime(LocalDateTime.of(2010, 1, 1, 12, 0));
+    long user1LastLogin = getTime(LocalDateTime.of(2010, 1, 1, 13, 0));
+    loginHistoryService.addLoginHistoryEntry("lastLoginsUser1", user1FirstLogin);
+    loginHistoryService.addLoginHistoryEntry("lastLoginsUser2", user2Login);
+    loginHistoryService.addLoginHistoryEntry("lastLoginsUser1", user1BeforeLastLogin);
+    loginHistoryService.addLoginHistoryEntry("lastLoginsUser1", user1LastLogin);
+
+    // Other tests add logins too, only the users of this test are checked
+    List<LastLoginBean> lastLogins = loginHistoryService.getLastLogins(1000, "%")
+                                                        .stream()
+                                                        .filter(lastLogin -> lastLogin.getUserId().startsWith("lastLoginsUser"))
+                                                        .collect(Collectors.toList());
+    assertEquals(2, lastLogins.size());
+    assertEquals("lastLoginsUser1", lastLogins.get(0).getUserId());
+    assertEquals(user1LastLogin, lastLogins.get(0).getLastLogin().longValue());
+    assertEquals(user1BeforeLastLogin, lastLogins.get(0).getBeforeLastLogin().longValue());
+    assertEquals("lastLoginsUser2", lastLogins.get(1).getUserId());
+    assertEquals(user2Login, lastLogins.get(1).getLastLogin().longValue());
+    assertEquals("A user who logged in once has no before last login", 0, lastLogins.get(1).getBeforeLastLogin().longValue());
+
+    assertEquals(1, loginHistoryService.getLastLogins(1, "%").size());
+
+    assertEquals(user1BeforeLastLogin, loginHistoryService.getBeforeLastLogin("lastLoginsUser1"));
+    assertEquals(0, loginHistoryService.getBeforeLastLogin("lastLoginsUser2"));
+  }
+
+  public void testLastLoginsOfUsers() throws Exception {
+    long firstLogin = getTime(LocalDateTime.of(2010, 2, 1, 10, 0));
+    long secondLogin = getTime(LocalDateTime.of(2010, 2, 1, 11, 0));
+    loginHistoryService.addLoginHistoryEntry("bulkLastLoginsUser1", firstLogin);
+    assertEquals(firstLogin, loginHistoryService.getLastLogin("bulkLastLoginsUser1"));
+    assertEquals(0, loginHistoryService.getBeforeLastLogin("bulkLastLoginsUser1"));
+
+    // The cached last login becomes the before last login
+    loginHistoryService.addLoginHistoryEntry("bulkLastLoginsUser1", secondLogin);
+    assertEquals(secondLogin, loginHistoryService.getLastLogin("bulkLastLoginsUser1"));
+    assertEquals(firstLogin, loginHistoryService.getBeforeLastLogin("bulkLastLoginsUser1"));
+
+    loginHistoryService.addLoginHistoryEntry("bulkLastLoginsUser2", secondLogin);
+    List<LastLoginBean> lastLogins = loginHistoryService.getLastLogins(Arrays.asList("bulkLastLoginsUser2",
+                                                                                     "bulkLastLoginsUser3",
+                                                                                     "bulkLastLoginsUser1"));
+    assertEquals("Users who never logged in must be ignored", 2, lastLogins.size());
+    assertEquals("bulkLastLoginsUser2", lastLogins.get(0).getUserId());
+    assertEquals(secondLogin, lastLogins.get(0).getLastLogin().longValue());
+    assertEquals(0, lastLogins.get(0).getBeforeLastLogin().longValue());
+    assertEquals("bulkLastLoginsUser1", lastLogins.get(1).getUserId());
+    assertEquals(secondLogin, lastLogins.get(1).getLastLogin().longValue());
+    assertEquals(firstLogin, lastLogins.get(1).getBeforeLastLogin().longValue());
+
+    // A user who never logged in is cached too, until the user logs in
+    loginHistoryService.addLoginHistoryEntry("bulkLastLoginsUser3", firstLogin);
+    assertEquals(firstLogin, loginHistoryService.getLastLogin("bulkLastLoginsUser3"));
+  }
+
+  private long getTime(LocalDateTime dateTime) {
+    return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+}
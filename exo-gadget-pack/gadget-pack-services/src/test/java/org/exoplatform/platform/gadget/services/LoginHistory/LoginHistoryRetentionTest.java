@@ -0,0 +1,117 @@
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.exoplatform.commons.persistence.impl.EntityManagerService;
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao.LoginHistoryDAO;
+
+import junit.framework.TestCase;
+
+public class LoginHistoryRetentionTest extends TestCase {
+
+  private EntityManagerService entityManagerService;
+
+  private LoginHistoryService  loginHistoryService;
+
+  private LoginHistoryDAO      loginHistoryDAO;
+
+  public void setUp() {
+    PortalContainer container = PortalContainer.getInstance();
+    entityManagerService = container.getComponentInstanceOfType(EntityManagerService.class);
+    loginHistoryService = container.getComponentInstanceOfType(LoginHistoryService.class);
+    loginHistoryDAO = container.getComponentInstanceOfType(LoginHistoryDAO.class);
+  }
+
+  public void testPurgeAndArchiveOldLogins() throws Exception {
+    File archiveDirectory = Files.createTempDirectory("loginhistory-archives").toFile();
+    // Only the logins before 2000 are purged, the other tests logins are kept
+    long retentionDays = ChronoUnit.DAYS.between(LocalDate.of(2000, 1, 1), LocalDate.now());
+    InitParams params = new InitParams();
+    addValueParam(params, "retention.days", String.valueOf(retentionDays));
+    addValueParam(params, "purge.batch.size", "2");
+    addValueParam(params, "purge.pause", "0");
+    addValueParam(params, "archive.enabled", "true");
+    addValueParam(params, "archive.directory", archiveDirectory.getAbsolutePath());
+    LoginHistoryRetention loginHistoryRetention = new LoginHistoryRetention(loginHistoryDAO, params);
+
+    long firstOfYear = getTime(LocalDateTime.of(1999, 1, 1, 0, 0));
+    entityManagerService.startRequest(PortalContainer.getInstance());
+    try {
+      loginHistoryService.addLoginHistoryEntry("retentionUser", getTime(LocalDateTime.of(1999, 1, 5, 10, 0)));
+      loginHistoryService.addLoginHistoryEntry("retentionUser", getTime(LocalDateTime.of(1999, 1, 6, 10, 0)));
+      loginHistoryService.addLoginHistoryEntry("retentionUser", getTime(LocalDateTime.of(1999, 2, 1, 10, 0)));
+      loginHistoryService.addLoginHistoryEntry("retentionUser", getTime(LocalDateTime.of(2000, 1, 1, 10, 0)));
+    } finally {
+      entityManagerService.endRequest(PortalContainer.getInstance());
+    }
+
+    assertEquals(3, loginHistoryRetention.purge());
+    assertEquals(3, loginHistoryRetention.getLastPurgeCount());
+
+    entityManagerService.startRequest(PortalContainer.getInstance());
+    try {
+      List<LoginHistoryBean> loginHistory = loginHistoryService.getLoginHistory("retentionUser",
+                                                                                firstOfYear,
+                                                                                getTime(LocalDateTime.of(2000, 12, 31, 0, 0)));
+      assertEquals(1, loginHistory.size());
+
+      // Statistics of the purged days are still available
+      List<LoginCounterBean> loginCounts = loginHistoryService.getLoginCountPerMonthsInYear("retentionUser", firstOfYear);
+      assertEquals(2, loginCounts.get(0).getLoginCount());
+      assertEquals(1, loginCounts.get(1).getLoginCount());
+    } finally {
+      entityManagerService.endRequest(PortalContainer.getInstance());
+    }
+
+    File[] archives = archiveDirectory.listFiles();
+    assertEquals(1, archives.length);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(archives[0])),
+                                                                          StandardCharsets.UTF_8))) {
+      assertEquals("ID,USER_ID,LOGIN_DATE", reader.readLine());
+      for (int i = 0; i < 3; i++) {
+        assertTrue(reader.readLine().contains(",retentionUser,1999-"));
+      }
+      assertNull(reader.readLine());
+    }
+
+    assertEquals("Nothing left to purge", 0, loginHistoryRetention.purge());
+  }
+
+  public void testDailyPurgeRunsOnSingleNode() throws Exception {
+    long retentionDays = ChronoUnit.DAYS.between(LocalDate.of(2000, 1, 1), LocalDate.now());
+    InitParams params = new InitParams();
+    addValueParam(params, "retention.days", String.valueOf(retentionDays));
+    addValueParam(params, "purge.pause", "0");
+    // Retention services of two cluster nodes
+    LoginHistoryRetention loginHistoryRetention = new LoginHistoryRetention(loginHistoryDAO, params);
+    LoginHistoryRetention otherNodeLoginHistoryRetention = new LoginHistoryRetention(loginHistoryDAO, params);
+
+    assertTrue(loginHistoryRetention.dailyPurge());
+    assertFalse("Purge already run today by another node", otherNodeLoginHistoryRetention.dailyPurge());
+    assertFalse("Purge already run today", loginHistoryRetention.dailyPurge());
+
+    assertFalse("No purge without retention period", new LoginHistoryRetention(loginHistoryDAO, new InitParams()).dailyPurge());
+  }
+
+  private void addValueParam(InitParams params, String name, String value) {
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName(name);
+    valueParam.setValue(value);
+    params.addParameter(valueParam);
+  }
+
+  private long getTime(LocalDateTime dateTime) {
+    return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+}
@@ -0,0 +1,134 @@
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+import org.exoplatform.commons.persistence.impl.EntityManagerService;
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.dao.LoginHistoryDAO;
+import org.exoplatform.platform.gadget.services.LoginHistory.jpa.entity.LoginHistoryEntity;
+import org.exoplatform.platform.gadget.services.LoginHistory.storage.JPALoginHistoryStorageImpl;
+import org.exoplatform.platform.gadget.services.LoginHistory.storage.LoginHistoryStorage;
+
+import junit.framework.TestCase;
+
+public class LoginHistoryStatisticsTest extends TestCase {
+
+  private EntityManagerService entityManagerService;
+
+  private LoginHistoryService  loginHistoryService;
+
+  private LoginHistoryDAO      loginHistoryDAO;
+
+  private LoginHistoryStorage  loginHistoryStorage;
+
+  public void setUp() {
+    PortalContainer container = PortalContainer.getInstance();
+    loginHistoryDAO = container.getComponentInstanceOfType(LoginHistoryDAO.class);
+    loginHistoryStorage = container.getComponentInstanceOfType(LoginHistoryStorage.class);
+    entityManagerService = container.getComponentInstanceOfType(EntityManagerService.class);
+    loginHistoryService = container.getComponentInstanceOfType(LoginHistoryService.class);
+    entityManagerService.startRequest(container);
+  }
+
+  public void tearDown() {
+    entityManagerService.endRequest(PortalContainer.getInstance());
+  }
+
+  public void testLoginCountPerMonthsInYear() throws Exception {
+    loginHistoryService.addLoginHistoryEntry("statsUser1", getTime(LocalDateTime.of(2012, 1, 1, 0, 10)));
+    loginHistoryService.addLoginHistoryEntry("statsUser1", getTime(LocalDateTime.of(2012, 1, 20, 23, 30)));
+    loginHistoryService.addLoginHistoryEntry("statsUser1", getTime(LocalDateTime.of(2012, 3, 1, 0, 30)));
+    loginHistoryService.addLoginHistoryEntry("statsUser1", getTime(LocalDateTime.of(2012, 12, 31, 23, 59)));
+    loginHistoryService.addLoginHistoryEntry("statsUser1", getTime(LocalDateTime.of(2013, 1, 1, 0, 0)));
+
+    List<LoginCounterBean> loginCounts = loginHistoryService.getLoginCountPerMonthsInYear("statsUser1",
+                                                                                          getTime(LocalDate.of(2012, 1, 1)
+                                                                                                           .atStartOfDay()));
+    assertEquals(12, loginCounts.size());
+    assertEquals(getTime(LocalDate.of(2012, 1, 1).atStartOfDay()), loginCounts.get(0).getLoginDate());
+    assertEquals(2, loginCounts.get(0).getLoginCount());
+    assertEquals(0, loginCounts.get(1).getLoginCount());
+    assertEquals(getTime(LocalDate.of(2012, 3, 1).atStartOfDay()), loginCounts.get(2).getLoginDate());
+    assertEquals(1, loginCounts.get(2).getLoginCount());
+    assertEquals(1, loginCounts.get(11).getLoginCount());
+  }
+
+  public void testLoginCountPerWeeksInMonths() throws Exception {
+    // 2012-05-01 is a Tuesday
+    loginHistoryService.addLoginHistoryEntry("statsUser2", getTime(LocalDateTime.of(2012, 4, 30, 12, 0)));
+    loginHistoryService.addLoginHistoryEntry("statsUser2", getTime(LocalDateTime.of(2012, 5, 1, 8, 0)));
+    loginHistoryService.addLoginHistoryEntry("statsUser2", getTime(LocalDateTime.of(2012, 5, 6, 22, 0)));
+    loginHistoryService.addLoginHistoryEntry("statsUser2", getTime(LocalDateTime.of(2012, 5, 7, 9, 0)));
+
+    List<LoginCounterBean> loginCounts = loginHistoryService.getLoginCountPerWeeksInMonths("statsUser2",
+                                                                                           getTime(LocalDate.of(2012, 5, 1)
+                                                                                                            .atStartOfDay()),
+                                                                                           1);
+    assertEquals(5, loginCounts.size());
+    assertEquals(getTime(LocalDate.of(2012, 5, 1).atStartOfDay()), loginCounts.get(0).getLoginDate());
+    assertEquals("Logins before the first month must be ignored", 2, loginCounts.get(0).getLoginCount());
+    assertEquals(getTime(LocalDate.of(2012, 5, 7).atStartOfDay()), loginCounts.get(1).getLoginDate());
+    assertEquals(1, loginCounts.get(1).getLoginCount());
+    assertEquals(0, loginCounts.get(4).getLoginCount());
+  }
+
+  public void testLoginCountPerDaysInWeek() throws Exception {
+    loginHistoryService.addLoginHistoryEntry("statsUser3", getTime(LocalDateTime.of(2012, 6, 4, 0, 0)));
+    loginHistoryService.addLoginHistoryEntry("statsUser3", getTime(LocalDateTime.of(2012, 6, 4, 23, 59)));
+    loginHistoryService.addLoginHistoryEntry("statsUser3", getTime(LocalDateTime.of(2012, 6, 10, 18, 0)));
+
+    List<LoginCounterBean> loginCounts = loginHistoryService.getLoginCountPerDaysInWeek("statsUser3",
+                                                                                        getTime(LocalDate.of(2012, 6, 4)
+                                                                                                         .atStartOfDay()));
+    assertEquals(7, loginCounts.size());
+    assertEquals(2, loginCounts.get(0).getLoginCount());
+    assertEquals(0, loginCounts.get(1).getLoginCount());
+    assertEquals(1, loginCounts.get(6).getLoginCount());
+  }
+
+  public void testRebuildLoginCounters() throws Exception {
+    // Login history entries stored without updating the login counters
+    loginHistoryDAO.create(new LoginHistoryEntity("statsUser4", new Date(getTime(LocalDateTime.of(2012, 7, 2, 10, 0)))));
+    loginHistoryDAO.create(new LoginHistoryEntity("statsUser4", new Date(getTime(LocalDateTime.of(2012, 7, 2, 11, 0)))));
+    loginHistoryDAO.create(new LoginHistoryEntity("statsUser4", new Date(getTime(LocalDateTime.of(2012, 8, 31, 23, 0)))));
+
+    long july = getTime(LocalDate.of(2012, 7, 1).atStartOfDay());
+    List<LoginCounterBean> loginCounts = loginHistoryService.getLoginCountPerMonthsInYear("statsUser4", july);
+    assertEquals(0, loginCounts.get(0).getLoginCount());
+
+    assertTrue(((JPALoginHistoryStorageImpl) loginHistoryStorage).rebuildLoginCounters() > 0);
+
+    loginCounts = loginHistoryService.getLoginCountPerMonthsInYear("statsUser4", july);
+    assertEquals(2, loginCounts.get(0).getLoginCount());
+    assertEquals(1, loginCounts.get(1).getLoginCount());
+    assertEquals(0, loginCounts.get(2).getLoginCount());
+
+    // Rebuilding again doesn't count the logins twice
+    ((JPALoginHistoryStorageImpl) loginHistoryStorage).rebuildLoginCounters();
+    loginCounts = loginHistoryService.getLoginCountPerMonthsInYear("statsUser4", july);
+    assertEquals(2, loginCounts.get(0).getLoginCount());
+  }
+
+  public void testRebuildLoginCountersKeepsCurrentDay() throws Exception {
+    long today = getTime(LocalDate.now().atStartOfDay());
+    loginHistoryService.addLoginHistoryEntry("statsUser5", getTime(LocalDate.now().minusDays(1).atTime(12, 0)));
+    loginHistoryService.addLoginHistoryEntry("statsUser5", today);
+    // Login history entry stored without updating the login counters
+    loginHistoryDAO.create(new LoginHistoryEntity("statsUser5", new Date(today)));
+
+    ((JPALoginHistoryStorageImpl) loginHistoryStorage).rebuildLoginCounters();
+
+    List<LoginCounterBean> loginCounts = loginHistoryService.getLoginCountPerDaysInWeek("statsUser5", today);
+    assertEquals("The counters of the current day must be left to the logins being added", 1, loginCounts.get(0).getLoginCount());
+    loginCounts = loginHistoryService.getLoginCountPerDaysInWeek("statsUser5", getTime(LocalDate.now().minusDays(1).atStartOfDay()));
+    assertEquals(1, loginCounts.get(0).getLoginCount());
+  }
+
+  private long getTime(LocalDateTime dateTime) {
+    return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+}
@@ -6,10 +6,13 @@ import java.util.List;
 import org.exoplatform.commons.persistence.impl.EntityManagerService;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.platform.gadget.services.LoginHistory.storage.JCRLoginHistoryStorageImpl;
 import org.exoplatform.platform.gadget.services.LoginHistory.storage.LoginHistoryStorage;
 import org.exoplatform.platform.gadget.services.test.GadgetServiceTestcase;
 import org.exoplatform.services.jcr.RepositoryService;
+import org.exoplatform.services.jcr.core.ManageableRepository;
+import org.exoplatform.services.jcr.ext.common.SessionProvider;
 
 public class LoginHistoryUpgradePluginTest extends GadgetServiceTestcase {
 
@@ -62,4 +65,62 @@ public class LoginHistoryUpgradePluginTest extends GadgetServiceTestcase {
       entityManagerService.endRequest(PortalContainer.getInstance());
     }
   }
+
+  public void testShouldResumeInterruptedMigration() throws Exception {
+    // Given
+    InitParams initParams = new InitParams();
+    initParams.addParameter(createValueParam("migration.threads", "2"));
+    initParams.addParameter(createValueParam("migration.page.size", "2"));
+    LoginHistoryUpgradePlugin loginHistoryUpgradePlugin = new LoginHistoryUpgradePlugin(initParams,
+        jcrLoginHistoryStorage, jpaLoginHistoryStorage, repositoryService, entityManagerService);
+
+    jcrLoginHistoryStorage.addLoginHistoryEntry("upgradeUser3", new Date("Sep 02 2011 08:12:05").getTime());
+    jcrLoginHistoryStorage.addLoginHistoryEntry("upgradeUser3", new Date("Sep 05 2011 09:30:41").getTime());
+    jcrLoginHistoryStorage.addLoginHistoryEntry("upgradeUser3", new Date("Sep 06 2011 10:02:17").getTime());
+    jcrLoginHistoryStorage.addLoginHistoryEntry("upgradeUser3", new Date("Sep 08 2011 14:45:52").getTime());
+    jcrLoginHistoryStorage.addLoginHistoryEntry("upgradeUser3", new Date("Sep 09 2011 16:21:33").getTime());
+    jcrLoginHistoryStorage.addLoginHistoryEntry("upgradeUser4", new Date("Sep 03 2011 11:11:11").getTime());
+    jcrLoginHistoryStorage.addLoginHistoryEntry("upgradeUser4", new Date("Sep 07 2011 12:34:56").getTime());
+    jcrLoginHistoryStorage.addLoginHistoryEntry("upgradeUser4", new Date("Sep 10 2011 17:08:24").getTime());
+
+    // First page of upgradeUser3 inserted by an interrupted migration, without
+    // having been removed from JCR
+    entityManagerService.startRequest(PortalContainer.getInstance());
+    try {
+      jpaLoginHistoryStorage.addLoginHistoryEntry("upgradeUser3", new Date("Sep 02 2011 08:12:05").getTime());
+      jpaLoginHistoryStorage.addLoginHistoryEntry("upgradeUser3", new Date("Sep 05 2011 09:30:41").getTime());
+    } finally {
+      entityManagerService.endRequest(PortalContainer.getInstance());
+    }
+
+    // When
+    loginHistoryUpgradePlugin.processUpgrade("5.2.0", "5.1.0");
+
+    // Then
+    long from = new Date("Sep 01 2011 00:00:00").getTime();
+    long to = new Date("Sep 30 2011 00:00:00").getTime();
+    entityManagerService.startRequest(PortalContainer.getInstance());
+    try {
+      assertEquals(5, jpaLoginHistoryStorage.getLoginHistory("upgradeUser3", from, to).size());
+      assertEquals(3, jpaLoginHistoryStorage.getLoginHistory("upgradeUser4", from, to).size());
+    } finally {
+      entityManagerService.endRequest(PortalContainer.getInstance());
+    }
+    SessionProvider sProvider = SessionProvider.createSystemProvider();
+    try {
+      ManageableRepository repository = repositoryService.getCurrentRepository();
+      assertFalse(sProvider.getSession(repository.getConfiguration().getDefaultWorkspaceName(), repository)
+                           .getRootNode()
+                           .hasNode("exo:LoginHistoryHome"));
+    } finally {
+      sProvider.close();
+    }
+  }
+
+  private ValueParam createValueParam(String name, String value) {
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName(name);
+    valueParam.setValue(value);
+    return valueParam;
+  }
 }
@@ -0,0 +1,108 @@
+package org.exoplatform.platform.gadget.services.LoginHistory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.exoplatform.commons.persistence.impl.EntityManagerService;
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.services.listener.Event;
+import org.exoplatform.services.security.ConversationRegistry;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.services.security.Identity;
+
+import junit.framework.TestCase;
+
+public class LoginHistoryWriteBehindTest extends TestCase {
+
+  private EntityManagerService    entityManagerService;
+
+  private LoginHistoryService     loginHistoryService;
+
+  private LoginHistoryWriteBehind loginHistoryWriteBehind;
+
+  public void setUp() {
+    PortalContainer container = PortalContainer.getInstance();
+    entityManagerService = container.getComponentInstanceOfType(EntityManagerService.class);
+    loginHistoryService = container.getComponentInstanceOfType(LoginHistoryService.class);
+    loginHistoryWriteBehind = container.getComponentInstanceOfType(LoginHistoryWriteBehind.class);
+  }
+
+  public void testShouldIgnoreLoginsOfTheDedupePeriod() throws Exception {
+    long loginTime = System.currentTimeMillis();
+    long writtenLogins = loginHistoryWriteBehind.getWrittenLoginsCount();
+
+    assertTrue(loginHistoryWriteBehind.addLogin("writeBehindUser1", loginTime));
+    assertFalse(loginHistoryWriteBehind.addLogin("writeBehindUser1", loginTime + 1000));
+    assertTrue(loginHistoryWriteBehind.addLogin("writeBehindUser2", loginTime + 1000));
+    assertTrue(loginHistoryWriteBehind.addLogin("writeBehindUser1", loginTime + LoginHistoryWriteBehind.DEFAULT_DEDUPE_PERIOD + 1));
+
+    loginHistoryWriteBehind.flush();
+    assertEquals(0, loginHistoryWriteBehind.getQueueSize());
+    assertEquals(3, loginHistoryWriteBehind.getWrittenLoginsCount() - writtenLogins);
+
+    entityManagerService.startRequest(PortalContainer.getInstance());
+    try {
+      assertEquals(loginTime + LoginHistoryWriteBehind.DEFAULT_DEDUPE_PERIOD + 1, loginHistoryService.getLastLogin("writeBehindUser1"));
+      assertEquals(loginTime + 1000, loginHistoryService.getLastLogin("writeBehindUser2"));
+    } finally {
+      entityManagerService.endRequest(PortalContainer.getInstance());
+    }
+  }
+
+  public void testShouldWriteFailedBatchOnNextFlush() throws Exception {
+    AtomicBoolean failure = new AtomicBoolean(true);
+    // Storage failing to add the first batch only
+    LoginHistoryService failingLoginHistoryService =
+        (LoginHistoryService) Proxy.newProxyInstance(LoginHistoryService.class.getClassLoader(),
+                                                      new Class<?>[] { LoginHistoryService.class },
+                                                      (proxy, method, args) -> {
+                                                        if (method.getName().equals("addLoginHistoryEntries")
+                                                            && failure.getAndSet(false)) {
+                                                          throw new IllegalStateException("Database unavailable");
+                                                        }
+                                                        try {
+                                                          return method.invoke(loginHistoryService, args);
+                                                        } catch (InvocationTargetException e) {
+                                                          throw e.getCause();
+                                                        }
+                                                      });
+    LoginHistoryWriteBehind writeBehind = new LoginHistoryWriteBehind(failingLoginHistoryService, null);
+    long loginTime = System.currentTimeMillis();
+
+    assertTrue(writeBehind.addLogin("writeBehindUser4", loginTime));
+    writeBehind.flush();
+    assertEquals("Failed batch must be kept", 1, writeBehind.getQueueSize());
+    assertEquals(0, writeBehind.getWrittenLoginsCount());
+    assertEquals(0, writeBehind.getFailedLoginsCount());
+
+    writeBehind.flush();
+    assertEquals(0, writeBehind.getQueueSize());
+    assertEquals(1, writeBehind.getWrittenLoginsCount());
+    assertEquals(0, writeBehind.getFailedLoginsCount());
+
+    entityManagerService.startRequest(PortalContainer.getInstance());
+    try {
+      assertEquals(loginTime, loginHistoryService.getLastLogin("writeBehindUser4"));
+    } finally {
+      entityManagerService.endRequest(PortalContainer.getInstance());
+    }
+  }
+
+  public void testShouldWriteWhenListenerIsCalled() throws Exception {
+    LoginHistoryListener loginHistoryListener = new LoginHistoryListener(loginHistoryService, loginHistoryWriteBehind);
+    long beforeLoginTime = System.currentTimeMillis();
+    ConversationState conversationState = new ConversationState(new Identity("writeBehindUser3"));
+    Event<ConversationRegistry, ConversationState> event = new Event("login", new Object(), conversationState);
+    loginHistoryListener.onEvent(event);
+
+    loginHistoryWriteBehind.flush();
+
+    entityManagerService.startRequest(PortalContainer.getInstance());
+    try {
+      assertTrue(loginHistoryService.getLastLogin("writeBehindUser3") >= beforeLoginTime);
+    } finally {
+      entityManagerService.endRequest(PortalContainer.getInstance());
+    }
+  }
+}
@@ -3,6 +3,8 @@ package org.exoplatform.platform.gadget.services.LoginHistory;
 import java.util.Date;
 import java.util.Random;
 
+import javax.ws.rs.core.StreamingOutput;
+
 import org.exoplatform.platform.gadget.services.LoginHistory.LoginHistoryService;
 import org.exoplatform.platform.gadget.services.test.GadgetServiceTestcase;
 import org.exoplatform.services.rest.impl.ContainerResponse;
@@ -55,6 +57,21 @@ public class LoginHistoryWsTest extends GadgetServiceTestcase{
         }
     }
 
+    public void testExport(){
+        ContainerResponse cres;
+        try {
+            String path = "/loginhistory/export/john/" + new Date("Aug 15 2011").getTime() + "/" + new Date("Aug 20 2011").getTime();
+            cres = launcher.service("GET", path + "?format=csv", "", null, null, null);
+            assertEquals(200, cres.getStatus());
+            assertTrue(cres.getEntity() instanceof StreamingOutput);
+
+            cres = launcher.service("GET", path + "?format=xml", "", null, null, null);
+            assertEquals(400, cres.getStatus());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
     public void testWeekStats(){
         ContainerResponse cres;
         try {
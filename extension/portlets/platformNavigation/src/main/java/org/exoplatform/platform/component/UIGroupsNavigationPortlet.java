@@ -19,16 +19,17 @@
 
 package org.exoplatform.platform.component;
 
-import org.exoplatform.platform.common.service.MenuConfiguratorService;
+import org.exoplatform.platform.common.navigation.GroupNavigationService;
+import org.exoplatform.platform.common.navigation.GroupNavigationTree;
 import org.exoplatform.portal.config.UserPortalConfig;
-import org.exoplatform.portal.mop.SiteType;
-import org.exoplatform.portal.mop.navigation.Scope;
+import org.exoplatform.portal.mop.SiteKey;
 import org.exoplatform.portal.mop.user.UserNavigation;
 import org.exoplatform.portal.mop.user.UserNode;
-import org.exoplatform.portal.mop.user.UserNodeFilterConfig;
 import org.exoplatform.portal.mop.user.UserPortal;
 import org.exoplatform.portal.webui.portal.UIPortal;
 import org.exoplatform.portal.webui.util.Util;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.services.security.Identity;
 import org.exoplatform.webui.application.WebuiApplication;
 import org.exoplatform.webui.application.WebuiRequestContext;
 import org.exoplatform.webui.config.annotation.ComponentConfig;
@@ -50,10 +51,10 @@ import java.util.*;
 
 public class UIGroupsNavigationPortlet extends UIPortletApplication {
 
-    private static final String SPACE_GROUP_PATTERN = "spaces";
-    private MenuConfiguratorService menuConfiguratorService;
-    private  UserNodeFilterConfig myGroupsFilterConfig;
-    private  List<String> setupMenuPageReferences = null;
+    private GroupNavigationService groupNavigationService;
+    // version of the group navigation tree and locale of the displayed nodes
+    private long treeVersion;
+    private Locale treeLocale;
     private   List<UserNavigation> navigationsToDisplay = new ArrayList<UserNavigation>();
     // first level of valid user nodes <SiteName, list of valid nodes>
     private  Map<String, Collection<UserNode>> nodesToDisplay = new HashMap<String, Collection<UserNode>>();
@@ -63,9 +64,7 @@ public class UIGroupsNavigationPortlet extends UIPortletApplication {
     public static boolean collapse=true;
 
     public UIGroupsNavigationPortlet() throws Exception {
-        menuConfiguratorService = getApplicationComponent(MenuConfiguratorService.class);
-        setupMenuPageReferences = menuConfiguratorService.getSetupMenuPageReferences();
-        myGroupsFilterConfig = menuConfiguratorService.getMyGroupsFilterConfig();
+        groupNavigationService = getApplicationComponent(GroupNavigationService.class);
     }
 
     @Override
@@ -79,25 +78,62 @@ public class UIGroupsNavigationPortlet extends UIPortletApplication {
         super.processRender(app, context);
     }
 
+    /**
+     * Load the nodes to display from the group navigation tree shared by the users having the same memberships.
+     * The nodes are kept until the tree changes or the user changes the language.
+     */
     private  void readNavigationsAndCache() {
         UserPortal userPortal = getUserPortal();
-        List<UserNavigation> allNavigations = userPortal.getNavigations();
-        // Compute the list of UserNavigations that have navigation nodes not set in 'SetupMenu'
+        ConversationState conversationState = ConversationState.getCurrent();
+        Identity identity = conversationState == null ? null : conversationState.getIdentity();
+        GroupNavigationTree tree = groupNavigationService.getGroupNavigationTree(userPortal, identity);
+        Locale locale = Util.getPortalRequestContext().getLocale();
+        if (tree.getVersion() == treeVersion && locale.equals(treeLocale)) {
+            return;
+        }
         navigationsToDisplay.clear();
         nodesToDisplay.clear();
         cachedValidChildrenNodesToDisplay.clear();
 
-        for (UserNavigation navigation : allNavigations) {
-            if ((navigation.getKey().getTypeName().equals(SiteType.GROUP.getName())) && (navigation.getKey().getName().indexOf(SPACE_GROUP_PATTERN) < 0)) {
-                UserNode rootNode = userPortal.getNode(navigation, Scope.ALL, myGroupsFilterConfig, null);
-                Collection<UserNode> children = loadNodesNotInSetupMenu(rootNode.getChildren(), 0);
-                if (children == null || children.isEmpty()) {
-                    continue;
+        for (String navigationName : tree.getNavigationNames()) {
+            UserNavigation navigation = userPortal.getNavigation(SiteKey.group(navigationName));
+            if (navigation == null) {
+                continue;
+            }
+            UserNode rootNode = groupNavigationService.loadGroupNavigation(userPortal, navigation);
+            Map<String, UserNode> nodesById = new HashMap<String, UserNode>();
+            for (UserNode node : rootNode.getChildren()) {
+                nodesById.put(node.getId(), node);
+                for (UserNode child : node.getChildren()) {
+                    nodesById.put(child.getId(), child);
                 }
-                navigationsToDisplay.add(navigation);
-                nodesToDisplay.put(navigation.getKey().getName(), children);
             }
+            Collection<UserNode> children = getNodes(tree.getValidNodeIds(navigationName), nodesById);
+            if (children == null || children.isEmpty()) {
+                continue;
+            }
+            for (UserNode node : children) {
+                cachedValidChildrenNodesToDisplay.put(node.getId(), getNodes(tree.getValidChildrenIds(node.getId()), nodesById));
+            }
+            navigationsToDisplay.add(navigation);
+            nodesToDisplay.put(navigationName, children);
         }
+        treeVersion = tree.getVersion();
+        treeLocale = locale;
+    }
+
+    private Collection<UserNode> getNodes(List<String> nodeIds, Map<String, UserNode> nodesById) {
+        if (nodeIds == null) {
+            return null;
+        }
+        Collection<UserNode> nodes = new ArrayList<UserNode>(nodeIds.size());
+        for (String nodeId : nodeIds) {
+            UserNode node = nodesById.get(nodeId);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
     }
 
     /**
@@ -117,36 +153,8 @@ public class UIGroupsNavigationPortlet extends UIPortletApplication {
         return cachedValidChildrenNodesToDisplay.get(node.getId());
     }
 
-    private  Collection<UserNode> loadNodesNotInSetupMenu(Collection<UserNode> userNodes, int childLevel) {
-        childLevel++;
-        if (userNodes == null || userNodes.isEmpty() || childLevel > 2) {
-            return null;
-        }
-        Collection<UserNode> validNodes = new ArrayList<UserNode>();
-        for (UserNode userNode : userNodes) {
-            // Compute valid child nodes
-            // Attention: this instruction have to be here in order to compute the valid child nodes of all user nodes recursively and cache the result
-            Collection<UserNode> validChidNodes = loadNodesNotInSetupMenu(userNode.getChildren(), childLevel);
-            cachedValidChildrenNodesToDisplay.put(userNode.getId(), validChidNodes);
-            // Test if this node have a "page reference" not set in 'Setup Menu'
-            if (userNode.getPageRef() != null && !isUserNodeInSetupMenu(userNode)) {
-                validNodes.add(userNode);
-                continue;
-            }
-            // Test if one node's child have a "page reference" not set in 'Setup Menu'
-            if (validChidNodes != null && !validChidNodes.isEmpty()) {
-                validNodes.add(userNode);
-            }
-        }
-        return validNodes;
-    }
-
     public  boolean isUserNodeInSetupMenu(UserNode userNode) {
-        String pageReference = userNode.getPageRef().format();
-        if (pageReference != null && !pageReference.isEmpty()) {
-            return setupMenuPageReferences.contains(pageReference);
-        }
-        return false;
+        return groupNavigationService.isUserNodeInSetupMenu(userNode);
     }
 
     public static UserPortal getUserPortal() {